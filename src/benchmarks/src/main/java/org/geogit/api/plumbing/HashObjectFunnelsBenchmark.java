@@ -0,0 +1,94 @@
+/* Copyright (c) 2013 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+package org.geogit.api.plumbing;
+
+import java.util.concurrent.TimeUnit;
+
+import org.geogit.api.ObjectId;
+import org.geogit.api.RevObject;
+import org.geogit.api.RevObject.TYPE;
+import org.geogit.benchmarks.Datasets;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.common.hash.Funnel;
+import com.google.common.hash.Hasher;
+
+/**
+ * Measures computing the {@link ObjectId} of one object of each {@link TYPE type} through its
+ * {@link HashObjectFunnels funnel}, both directly and through the {@link HashObject} command.
+ * <p>
+ * Lives in the same package as {@link HashObjectFunnels} since it is package private.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class HashObjectFunnelsBenchmark {
+
+    @Param({ "COMMIT", "TREE", "FEATURE", "FEATURETYPE", "TAG" })
+    public TYPE type;
+
+    @Param({ "512" })
+    public int treeSize;
+
+    private RevObject object;
+
+    private Funnel<RevObject> funnel;
+
+    @SuppressWarnings("unchecked")
+    @Setup
+    public void setUp() {
+        Funnel<? extends RevObject> typeFunnel;
+        switch (type) {
+        case COMMIT:
+            object = Datasets.commit(1);
+            typeFunnel = HashObjectFunnels.commitFunnel();
+            break;
+        case TREE:
+            object = Datasets.leafTree(1, treeSize);
+            typeFunnel = HashObjectFunnels.treeFunnel();
+            break;
+        case FEATURE:
+            object = Datasets.feature(1);
+            typeFunnel = HashObjectFunnels.featureFunnel();
+            break;
+        case FEATURETYPE:
+            object = Datasets.featureType();
+            typeFunnel = HashObjectFunnels.featureTypeFunnel();
+            break;
+        case TAG:
+            object = Datasets.tag(1);
+            typeFunnel = HashObjectFunnels.tagFunnel();
+            break;
+        default:
+            throw new IllegalArgumentException(type.toString());
+        }
+        funnel = (Funnel<RevObject>) typeFunnel;
+    }
+
+    @Benchmark
+    public ObjectId funnel() {
+        Hasher hasher = ObjectId.HASH_FUNCTION.newHasher();
+        funnel.funnel(object, hasher);
+        return new ObjectId(hasher.hash().asBytes());
+    }
+
+    @Benchmark
+    public ObjectId hashObject() {
+        return new HashObject().setObject(object).call();
+    }
+}
@@ -0,0 +1,94 @@
+/* Copyright (c) 2013 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+package org.geogit.api.plumbing.diff;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.geogit.api.Node;
+import org.geogit.api.NodeRef;
+import org.geogit.api.ObjectId;
+import org.geogit.api.RevObject.TYPE;
+import org.geogit.api.RevTree;
+import org.geogit.benchmarks.Datasets;
+import org.geogit.storage.ObjectDatabase;
+import org.geogit.storage.memory.HeapObjectDatabse;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.common.collect.Iterators;
+
+/**
+ * Measures a full, recursive {@link TreeDiffEntryIterator} traversal between two trees of
+ * {@code size} features where {@code changedPercent} percent of the features differ.
+ * <p>
+ * Lives in the same package as {@link TreeDiffEntryIterator} since it is package private.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class TreeDiffBenchmark {
+
+    @Param({ "1000", "100000" })
+    public int size;
+
+    @Param({ "1", "50" })
+    public int changedPercent;
+
+    private ObjectDatabase db;
+
+    private RevTree left;
+
+    private RevTree right;
+
+    private NodeRef leftRef;
+
+    private NodeRef rightRef;
+
+    @Setup
+    public void createTrees() {
+        db = new HeapObjectDatabse();
+        db.open();
+        List<Node> leftNodes = Datasets.featureNodes(size, 0);
+        List<Node> rightNodes = Datasets.featureNodes(size, 0);
+        final int step = 100 / changedPercent;
+        for (int i = 0; i < size; i += step) {
+            rightNodes.set(i, Datasets.featureNode(i, 1));
+        }
+        left = Datasets.tree(db, leftNodes);
+        right = Datasets.tree(db, rightNodes);
+        leftRef = rootRef(left);
+        rightRef = rootRef(right);
+    }
+
+    private static NodeRef rootRef(RevTree tree) {
+        return new NodeRef(Node.create("", tree.getId(), ObjectId.NULL, TYPE.TREE, null), "",
+                ObjectId.NULL);
+    }
+
+    @TearDown
+    public void closeDatabase() {
+        db.close();
+    }
+
+    @Benchmark
+    public int diff() {
+        return Iterators.size(new TreeDiffEntryIterator(leftRef, rightRef, left, right, false,
+                true, db));
+    }
+}
@@ -0,0 +1,215 @@
+/* Copyright (c) 2013 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+package org.geogit.benchmarks;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.Reader;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Joiner;
+import com.google.common.base.Strings;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.io.Closeables;
+import com.google.common.io.Files;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+/**
+ * Compares two JMH result files in JSON format, as written by
+ * {@code java -jar benchmarks.jar -rf json -rff <file>}, and reports the benchmarks that
+ * regressed.
+ * <p>
+ * Usage:
+ *
+ * <pre>
+ * <code>
+ * java -cp benchmarks.jar org.geogit.benchmarks.BaselineComparison baseline.json current.json [thresholdPercent]
+ * </code>
+ * </pre>
+ *
+ * A benchmark regressed when its score got worse (lower throughput or higher time, depending on
+ * the benchmark mode) by more than {@code thresholdPercent} percent, 10 by default, and by more
+ * than the sum of both score errors, so that noisy results aren't reported. The process exits with
+ * status 1 if any benchmark regressed.
+ */
+public class BaselineComparison {
+
+    public static final double DEFAULT_THRESHOLD = 10;
+
+    /**
+     * The primary score of a single benchmark and parameters combination
+     */
+    static class Result {
+
+        final String key;
+
+        final String mode;
+
+        final double score;
+
+        final double error;
+
+        final String unit;
+
+        Result(String key, String mode, double score, double error, String unit) {
+            this.key = key;
+            this.mode = mode;
+            this.score = score;
+            this.error = error;
+            this.unit = unit;
+        }
+
+        /**
+         * @return whether a higher score is better for this result's benchmark mode
+         */
+        boolean higherIsBetter() {
+            return "thrpt".equals(mode);
+        }
+    }
+
+    static class Comparison {
+
+        final Result baseline;
+
+        final Result current;
+
+        final double changePercent;
+
+        final boolean regression;
+
+        Comparison(Result baseline, Result current, double thresholdPercent) {
+            this.baseline = baseline;
+            this.current = current;
+            double delta = current.score - baseline.score;
+            // positive means worse
+            double worse = baseline.higherIsBetter() ? -delta : delta;
+            this.changePercent = baseline.score == 0 ? 0 : 100 * worse / baseline.score;
+            this.regression = changePercent > thresholdPercent
+                    && Math.abs(delta) > baseline.error + current.error;
+        }
+    }
+
+    private final double thresholdPercent;
+
+    public BaselineComparison(final double thresholdPercent) {
+        checkArgument(thresholdPercent >= 0, "threshold must be >= 0");
+        this.thresholdPercent = thresholdPercent;
+    }
+
+    /**
+     * Parses a JMH JSON result file, keyed by benchmark name and parameters
+     */
+    static SortedMap<String, Result> parse(final Reader json) {
+        SortedMap<String, Result> results = Maps.newTreeMap();
+        JsonArray runs = new JsonParser().parse(json).getAsJsonArray();
+        for (JsonElement element : runs) {
+            JsonObject run = element.getAsJsonObject();
+            SortedMap<String, String> params = Maps.newTreeMap();
+            if (run.has("params")) {
+                for (Map.Entry<String, JsonElement> param : run.getAsJsonObject("params")
+                        .entrySet()) {
+                    params.put(param.getKey(), param.getValue().getAsString());
+                }
+            }
+            String key = run.get("benchmark").getAsString();
+            if (!params.isEmpty()) {
+                key += ":" + Joiner.on(',').withKeyValueSeparator("=").join(params);
+            }
+            JsonObject metric = run.getAsJsonObject("primaryMetric");
+            double error = metric.get("scoreError").isJsonPrimitive()
+                    && metric.get("scoreError").getAsJsonPrimitive().isNumber() ? metric.get(
+                    "scoreError").getAsDouble() : 0;
+            Result result = new Result(key, run.get("mode").getAsString(), metric.get("score")
+                    .getAsDouble(), error, metric.get("scoreUnit").getAsString());
+            results.put(key, result);
+        }
+        return results;
+    }
+
+    /**
+     * @return the comparison of every benchmark present in both result sets, in benchmark name
+     *         order
+     */
+    List<Comparison> compare(final SortedMap<String, Result> baseline,
+            final SortedMap<String, Result> current) {
+        List<Comparison> comparisons = Lists.newArrayList();
+        for (Result result : current.values()) {
+            Result base = baseline.get(result.key);
+            if (base != null && base.mode.equals(result.mode) && base.unit.equals(result.unit)) {
+                comparisons.add(new Comparison(base, result, thresholdPercent));
+            }
+        }
+        return comparisons;
+    }
+
+    /**
+     * Prints a table with the baseline and current scores of each benchmark, followed by the list
+     * of regressions, if any.
+     *
+     * @return the number of regressions
+     */
+    int report(final List<Comparison> comparisons, final PrintStream out) {
+        int width = 10;
+        for (Comparison c : comparisons) {
+            width = Math.max(width, c.current.key.length());
+        }
+        out.printf("%s %14s %14s %9s%n", Strings.padEnd("Benchmark", width, ' '), "Baseline",
+                "Current", "Change");
+        List<Comparison> regressions = Lists.newArrayList();
+        for (Comparison c : comparisons) {
+            out.printf("%s %14.3f %14.3f %+8.1f%% %s%s%n", Strings.padEnd(c.current.key, width, ' '),
+                    c.baseline.score, c.current.score, c.changePercent, c.current.unit,
+                    c.regression ? " REGRESSION" : "");
+            if (c.regression) {
+                regressions.add(c);
+            }
+        }
+        out.println();
+        if (regressions.isEmpty()) {
+            out.printf("No regressions above %.1f%%%n", thresholdPercent);
+        } else {
+            out.printf("%d benchmarks regressed more than %.1f%%:%n", regressions.size(),
+                    thresholdPercent);
+            for (Comparison c : regressions) {
+                out.printf("  %s: %.1f%% worse%n", c.current.key, c.changePercent);
+            }
+        }
+        return regressions.size();
+    }
+
+    private static SortedMap<String, Result> parse(final File file) throws IOException {
+        Reader reader = Files.newReader(file, Charsets.UTF_8);
+        try {
+            return parse(reader);
+        } finally {
+            Closeables.closeQuietly(reader);
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2 || args.length > 3) {
+            System.err.println("Usage: BaselineComparison <baseline.json> <current.json> "
+                    + "[thresholdPercent]");
+            System.exit(2);
+        }
+        double threshold = args.length == 3 ? Double.parseDouble(args[2]) : DEFAULT_THRESHOLD;
+        BaselineComparison comparison = new BaselineComparison(threshold);
+
+        SortedMap<String, Result> baseline = parse(new File(args[0]));
+        SortedMap<String, Result> current = parse(new File(args[1]));
+        int regressions = comparison.report(comparison.compare(baseline, current), System.out);
+        System.exit(regressions == 0 ? 0 : 1);
+    }
+}
@@ -0,0 +1,175 @@
+/* Copyright (c) 2013 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+package org.geogit.benchmarks;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.List;
+
+import org.geogit.api.CommitBuilder;
+import org.geogit.api.Node;
+import org.geogit.api.ObjectId;
+import org.geogit.api.RevCommit;
+import org.geogit.api.RevFeature;
+import org.geogit.api.RevFeatureType;
+import org.geogit.api.RevObject;
+import org.geogit.api.RevObject.TYPE;
+import org.geogit.api.RevPerson;
+import org.geogit.api.RevTag;
+import org.geogit.api.RevTree;
+import org.geogit.api.RevTreeBuilder;
+import org.geogit.api.RevTreeImpl;
+import org.geogit.api.plumbing.HashObject;
+import org.geogit.storage.NodeStorageOrder;
+import org.geogit.storage.ObjectDatabase;
+import org.geotools.data.DataUtilities;
+import org.geotools.feature.SchemaException;
+
+import com.google.common.base.Optional;
+import com.google.common.base.Throwables;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.Point;
+
+/**
+ * Deterministic datasets shared by the benchmarks, so that results are comparable across runs.
+ * <p>
+ * All generators are seeded by their arguments: calling them twice with the same arguments
+ * produces objects with the same ids.
+ */
+public final class Datasets {
+
+    private static final GeometryFactory GEOMETRY_FACTORY = new GeometryFactory();
+
+    private static final String FEATURE_TYPE_SPEC = "sp:String,ip:Integer,pp:Point:srid=4326";
+
+    private Datasets() {
+        //
+    }
+
+    /**
+     * @return a point feature with a string, an integer and a geometry attribute
+     */
+    public static RevFeature feature(final int i) {
+        Point point = GEOMETRY_FACTORY.createPoint(new Coordinate(i % 360 - 180, i % 180 - 90));
+        ImmutableList<Optional<Object>> values = ImmutableList.of(
+                Optional.<Object> of("StringProp1_" + i), Optional.<Object> of(Integer.valueOf(i)),
+                Optional.<Object> of(point));
+        return RevFeature.build(values);
+    }
+
+    /**
+     * @return feature nodes named {@code Points.<n>} in insertion (not storage) order, pointing to
+     *         fake object ids derived from {@code version}, so that two lists created with
+     *         different versions differ on every node
+     */
+    public static List<Node> featureNodes(final int count, final int version) {
+        List<Node> nodes = Lists.newArrayListWithCapacity(count);
+        for (int i = 0; i < count; i++) {
+            nodes.add(featureNode(i, version));
+        }
+        return nodes;
+    }
+
+    public static Node featureNode(final int i, final int version) {
+        String name = "Points." + i;
+        ObjectId id = ObjectId.forString(name + "@" + version);
+        Envelope bounds = new Envelope(i % 360 - 180, i % 360 - 180, i % 180 - 90, i % 180 - 90);
+        return Node.create(name, id, ObjectId.NULL, TYPE.FEATURE, bounds);
+    }
+
+    /**
+     * Builds a tree with the given nodes, saving it and its bucket trees to {@code db}
+     */
+    public static RevTree tree(final ObjectDatabase db, final Iterable<Node> nodes) {
+        RevTreeBuilder builder = new RevTreeBuilder(db);
+        for (Node node : nodes) {
+            builder.put(node);
+        }
+        RevTree tree = builder.build();
+        db.put(tree);
+        return tree;
+    }
+
+    public static RevCommit commit(final int i) {
+        CommitBuilder builder = new CommitBuilder();
+        builder.setAuthor("groldan");
+        builder.setAuthorEmail("groldan@opengeo.org");
+        builder.setCommitter("jdeolive");
+        builder.setCommitterEmail("jdeolive@opengeo.org");
+        builder.setAuthorTimestamp(1000L * i);
+        builder.setCommitterTimestamp(1000L * i);
+        builder.setMessage("commit message " + i);
+        builder.setTreeId(ObjectId.forString("tree " + i));
+        builder.setParentIds(ImmutableList.of(ObjectId.forString("parent " + i)));
+        return builder.build();
+    }
+
+    public static RevTag tag(final int i) {
+        RevPerson tagger = new RevPerson("groldan", "groldan@opengeo.org", 1000L * i, 0);
+        RevTag tag = new RevTag(ObjectId.NULL, "tag" + i, ObjectId.forString("commit " + i),
+                "tag message " + i, tagger);
+        ObjectId id = new HashObject().setObject(tag).call();
+        return new RevTag(id, tag.getName(), tag.getCommitId(), tag.getMessage(),
+                tag.getTagger());
+    }
+
+    public static RevFeatureType featureType() {
+        try {
+            return RevFeatureType.build(DataUtilities.createType("http://geogit.org/benchmarks",
+                    "Points", FEATURE_TYPE_SPEC));
+        } catch (SchemaException e) {
+            throw Throwables.propagate(e);
+        }
+    }
+
+    /**
+     * @return {@code count} objects as they would be found in a repository: mostly features, a
+     *         leaf tree every hundred objects, and a commit and a tag every thousand
+     */
+    public static List<RevObject> objects(final int count) {
+        List<RevObject> objects = Lists.newArrayListWithCapacity(count);
+        for (int i = 0; i < count; i++) {
+            if (i % 1000 == 998) {
+                objects.add(commit(i));
+            } else if (i % 1000 == 999) {
+                objects.add(tag(i));
+            } else if (i % 100 == 99) {
+                objects.add(leafTree(i, 100));
+            } else {
+                objects.add(feature(i));
+            }
+        }
+        return objects;
+    }
+
+    /**
+     * @return a leaf tree that's not saved anywhere, with {@code size} feature nodes
+     */
+    public static RevTree leafTree(final int i, final int size) {
+        List<Node> nodes = Lists.newArrayListWithCapacity(size);
+        for (int n = 0; n < size; n++) {
+            nodes.add(featureNode(n, i));
+        }
+        Collections.sort(nodes, new NodeStorageOrder());
+        RevTree tree = RevTreeImpl.createLeafTree(ObjectId.NULL, size, nodes,
+                ImmutableList.<Node> of());
+        ObjectId id = new HashObject().setObject(tree).call();
+        return RevTreeImpl.createLeafTree(id, size, nodes, ImmutableList.<Node> of());
+    }
+
+    public static void delete(final File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+}
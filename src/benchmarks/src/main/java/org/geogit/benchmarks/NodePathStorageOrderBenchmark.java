@@ -0,0 +1,188 @@
+/* Copyright (c) 2013 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+package org.geogit.benchmarks;
+
+import static com.google.common.base.Preconditions.checkState;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.geogit.api.Node;
+import org.geogit.api.ObjectId;
+import org.geogit.api.RevObject.TYPE;
+import org.geogit.api.RevTree;
+import org.geogit.storage.NodePathStorageOrder;
+import org.geogit.storage.NodeStorageOrder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.google.common.collect.Lists;
+import com.google.common.primitives.UnsignedLong;
+
+/**
+ * Compares the primitive FNV-1a {@link NodePathStorageOrder} and the cached name hashes of
+ * {@link NodeStorageOrder} against the {@link UnsignedLong} based implementation they replace.
+ * <p>
+ * The {@link #verify() setup} fails the benchmark if the bucket assignment or ordering of any node
+ * differs from the reference implementation, since storage order is part of the repository
+ * format.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class NodePathStorageOrderBenchmark {
+
+    @Param({ "1000", "100000" })
+    public int size;
+
+    private List<String> names;
+
+    private List<Node> nodes;
+
+    private final NodePathStorageOrder pathOrder = new NodePathStorageOrder();
+
+    private final NodeStorageOrder nodeOrder = new NodeStorageOrder();
+
+    private static final Comparator<Node> REFERENCE_ORDER = new Comparator<Node>() {
+        @Override
+        public int compare(Node n1, Node n2) {
+            return Reference.fnv(n1.getName()).compareTo(Reference.fnv(n2.getName()));
+        }
+    };
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(size);
+        names = Lists.newArrayListWithCapacity(size);
+        for (int i = 0; i < size; i++) {
+            names.add(i % 2 == 0 ? "Points." + i : Long.toHexString(random.nextLong()));
+        }
+        verify();
+    }
+
+    /**
+     * Fresh node instances for each iteration so the sort benchmarks pay for computing the name
+     * hashes
+     */
+    @Setup(Level.Invocation)
+    public void createNodes() {
+        nodes = Lists.newArrayListWithCapacity(size);
+        for (String name : names) {
+            nodes.add(Node.create(name, ObjectId.NULL, ObjectId.NULL, TYPE.FEATURE, null));
+        }
+    }
+
+    private void verify() {
+        for (String name : names) {
+            UnsignedLong expected = Reference.fnv(name);
+            checkState(expected.longValue() == NodePathStorageOrder.hash(name),
+                    "hash mismatch for %s", name);
+            for (int depth = 0; depth < 8; depth++) {
+                checkState(Reference.bucket(expected, depth) == pathOrder.bucket(name, depth)
+                        .intValue(), "bucket mismatch for %s at depth %s", name, depth);
+            }
+        }
+        List<Node> expected = new ArrayList<Node>();
+        for (String name : names) {
+            expected.add(Node.create(name, ObjectId.NULL, ObjectId.NULL, TYPE.FEATURE, null));
+        }
+        List<Node> actual = new ArrayList<Node>(expected);
+        Collections.sort(expected, REFERENCE_ORDER);
+        Collections.sort(actual, nodeOrder);
+        for (int i = 0; i < expected.size(); i++) {
+            checkState(REFERENCE_ORDER.compare(expected.get(i), actual.get(i)) == 0,
+                    "order mismatch at %s", i);
+        }
+    }
+
+    @Benchmark
+    public void hashReference(Blackhole bh) {
+        for (String name : names) {
+            bh.consume(Reference.fnv(name));
+        }
+    }
+
+    @Benchmark
+    public void hash(Blackhole bh) {
+        for (String name : names) {
+            bh.consume(NodePathStorageOrder.hash(name));
+        }
+    }
+
+    @Benchmark
+    public void bucketReference(Blackhole bh) {
+        for (String name : names) {
+            bh.consume(Reference.bucket(Reference.fnv(name), 0));
+        }
+    }
+
+    @Benchmark
+    public void bucket(Blackhole bh) {
+        for (String name : names) {
+            bh.consume(pathOrder.bucket(name, 0));
+        }
+    }
+
+    @Benchmark
+    public List<Node> sortReference() {
+        Collections.sort(nodes, REFERENCE_ORDER);
+        return nodes;
+    }
+
+    @Benchmark
+    public List<Node> sort() {
+        Collections.sort(nodes, nodeOrder);
+        return nodes;
+    }
+
+    /**
+     * The {@link UnsignedLong} based FNV-1a implementation {@link NodePathStorageOrder} used before
+     * hashing over primitive longs
+     */
+    private static class Reference {
+
+        private static final UnsignedLong FNV64_OFFSET_BASIS = UnsignedLong
+                .valueOf("14695981039346656037");
+
+        private static final UnsignedLong FNV64_PRIME = UnsignedLong.valueOf("1099511628211");
+
+        static UnsignedLong fnv(CharSequence chars) {
+            UnsignedLong hash = FNV64_OFFSET_BASIS;
+            for (int i = 0; i < chars.length(); i++) {
+                char c = chars.charAt(i);
+                hash = update(hash, (byte) (c >> 8));
+                hash = update(hash, (byte) c);
+            }
+            return hash;
+        }
+
+        private static UnsignedLong update(UnsignedLong hash, final byte octet) {
+            return UnsignedLong.fromLongBits(hash.longValue() ^ octet).times(FNV64_PRIME);
+        }
+
+        static int bucket(UnsignedLong hash, int depth) {
+            int byteN = ((byte) (hash.longValue() >> (8 * (7 - depth)))) & 0xFF;
+            return (byteN * RevTree.MAX_BUCKETS) / 256;
+        }
+    }
+}
@@ -0,0 +1,176 @@
+/* Copyright (c) 2013 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+package org.geogit.benchmarks;
+
+import java.io.File;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.geogit.api.ObjectId;
+import org.geogit.api.Platform;
+import org.geogit.api.RevObject;
+import org.geogit.api.TestPlatform;
+import org.geogit.storage.BulkOpListener;
+import org.geogit.storage.ConfigDatabase;
+import org.geogit.storage.ObjectDatabase;
+import org.geogit.storage.bdbje.EnvironmentBuilder;
+import org.geogit.storage.bdbje.JEObjectDatabase;
+import org.geogit.storage.fs.FileObjectDatabase;
+import org.geogit.storage.fs.IniFileConfigDatabase;
+import org.geogit.storage.memory.HeapObjectDatabse;
+import org.geogit.storage.sqlite.XerialObjectDatabase;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.common.collect.Lists;
+import com.google.common.io.Files;
+
+/**
+ * Measures {@link ObjectDatabase#putAll(Iterator, BulkOpListener) putAll} and
+ * {@link ObjectDatabase#getAll(Iterable, BulkOpListener) getAll} on every storage backend, with
+ * a {@link Datasets#objects(int) repository like} mix of objects.
+ * <p>
+ * {@code putAll} runs against a new, empty database on each invocation, so its results include
+ * the cost of inserting into an empty database but not of opening it.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ObjectDatabaseBenchmark {
+
+    public enum Backend {
+        HEAP {
+            @Override
+            ObjectDatabase create(Platform platform, ConfigDatabase config) {
+                return new HeapObjectDatabse();
+            }
+        },
+        FILE {
+            @Override
+            ObjectDatabase create(Platform platform, ConfigDatabase config) {
+                return new FileObjectDatabase(platform, config);
+            }
+        },
+        JE {
+            @Override
+            ObjectDatabase create(Platform platform, ConfigDatabase config) {
+                return new JEObjectDatabase(config, new EnvironmentBuilder(platform), false,
+                        "objects");
+            }
+        },
+        SQLITE {
+            @Override
+            ObjectDatabase create(Platform platform, ConfigDatabase config) {
+                return new XerialObjectDatabase(config, platform);
+            }
+        };
+
+        abstract ObjectDatabase create(Platform platform, ConfigDatabase config);
+    }
+
+    /**
+     * An open database created in a new repository directory
+     */
+    static final class Database {
+
+        final File root;
+
+        final ObjectDatabase db;
+
+        Database(final Backend backend) {
+            root = Files.createTempDir();
+            new File(root, ".geogit").mkdir();
+            TestPlatform platform = new TestPlatform(root);
+            ConfigDatabase config = new IniFileConfigDatabase(platform);
+            db = backend.create(platform, config);
+            db.open();
+        }
+
+        void close() {
+            db.close();
+            Datasets.delete(root);
+        }
+    }
+
+    @Param({ "HEAP", "FILE", "JE", "SQLITE" })
+    public Backend backend;
+
+    @Param({ "10000", "100000" })
+    public int size;
+
+    private List<RevObject> objects;
+
+    private List<ObjectId> ids;
+
+    private Database populated;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        objects = Datasets.objects(size);
+        ids = Lists.newArrayListWithCapacity(size);
+        for (RevObject object : objects) {
+            ids.add(object.getId());
+        }
+        populated = new Database(backend);
+        populated.db.putAll(objects.iterator());
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        populated.close();
+    }
+
+    /**
+     * An empty database for each {@link ObjectDatabaseBenchmark#putAll putAll} invocation
+     */
+    @State(Scope.Thread)
+    public static class EmptyDatabase {
+
+        Database database;
+
+        @Setup(Level.Invocation)
+        public void open(ObjectDatabaseBenchmark benchmark) {
+            database = new Database(benchmark.backend);
+        }
+
+        @TearDown(Level.Invocation)
+        public void close() {
+            database.close();
+        }
+    }
+
+    @Benchmark
+    public int putAll(EmptyDatabase empty) {
+        BulkOpListener.CountingListener listener = BulkOpListener.newCountingListener();
+        empty.database.db.putAll(objects.iterator(), listener);
+        return listener.inserted();
+    }
+
+    @Benchmark
+    public int getAll() {
+        Iterator<RevObject> all = populated.db.getAll(ids);
+        int count = 0;
+        while (all.hasNext()) {
+            all.next();
+            count++;
+        }
+        return count;
+    }
+}
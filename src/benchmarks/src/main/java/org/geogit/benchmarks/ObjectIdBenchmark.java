@@ -0,0 +1,96 @@
+/* Copyright (c) 2013 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+package org.geogit.benchmarks;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.geogit.api.ObjectId;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+
+/**
+ * Measures parsing, formatting, hashing and comparing {@link ObjectId}s, which happens for every
+ * object read, written or looked up.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class ObjectIdBenchmark {
+
+    @Param({ "1000", "100000" })
+    public int size;
+
+    private List<ObjectId> ids;
+
+    private List<String> hexIds;
+
+    @Setup
+    public void createIds() {
+        ids = Lists.newArrayListWithCapacity(size);
+        hexIds = Lists.newArrayListWithCapacity(size);
+        for (int i = 0; i < size; i++) {
+            ObjectId id = ObjectId.forString("object " + i);
+            ids.add(id);
+            hexIds.add(id.toString());
+        }
+    }
+
+    @Benchmark
+    public void valueOf(Blackhole bh) {
+        for (String hex : hexIds) {
+            bh.consume(ObjectId.valueOf(hex));
+        }
+    }
+
+    @Benchmark
+    public void format(Blackhole bh) {
+        for (ObjectId id : ids) {
+            bh.consume(id.toString());
+        }
+    }
+
+    @Benchmark
+    public void forString(Blackhole bh) {
+        for (String hex : hexIds) {
+            bh.consume(ObjectId.forString(hex));
+        }
+    }
+
+    @Benchmark
+    public int hashCodes() {
+        int hash = 0;
+        for (ObjectId id : ids) {
+            hash += id.hashCode();
+        }
+        return hash;
+    }
+
+    @Benchmark
+    public int hashSet() {
+        return Sets.newHashSet(ids).size();
+    }
+
+    @Benchmark
+    public int sortedSet() {
+        return Sets.newTreeSet(ids).size();
+    }
+}
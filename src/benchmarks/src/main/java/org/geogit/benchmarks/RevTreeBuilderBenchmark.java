@@ -0,0 +1,81 @@
+/* Copyright (c) 2013 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+package org.geogit.benchmarks;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.geogit.api.Node;
+import org.geogit.api.RevTree;
+import org.geogit.api.RevTreeBuilder;
+import org.geogit.storage.ObjectDatabase;
+import org.geogit.storage.memory.HeapObjectDatabse;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures {@link RevTreeBuilder#put(Node)} and {@link RevTreeBuilder#build()} for trees of
+ * increasing size, from a single leaf tree to several levels of buckets.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class RevTreeBuilderBenchmark {
+
+    @Param({ "500", "10000", "100000" })
+    public int size;
+
+    private List<Node> nodes;
+
+    private ObjectDatabase db;
+
+    @Setup(Level.Trial)
+    public void createNodes() {
+        nodes = Datasets.featureNodes(size, 0);
+    }
+
+    /**
+     * A fresh database per iteration so that it doesn't keep growing with the bucket trees of
+     * every invocation
+     */
+    @Setup(Level.Iteration)
+    public void openDatabase() {
+        db = new HeapObjectDatabse();
+        db.open();
+    }
+
+    @TearDown(Level.Iteration)
+    public void closeDatabase() {
+        db.close();
+    }
+
+    @Benchmark
+    public RevTreeBuilder put() {
+        RevTreeBuilder builder = new RevTreeBuilder(db);
+        for (Node node : nodes) {
+            builder.put(node);
+        }
+        return builder;
+    }
+
+    @Benchmark
+    public RevTree putAndBuild() {
+        return put().build();
+    }
+}
@@ -0,0 +1,98 @@
+/* Copyright (c) 2013 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+package org.geogit.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.geogit.api.RevObject;
+import org.geogit.api.RevObject.TYPE;
+import org.geogit.storage.ObjectReader;
+import org.geogit.storage.ObjectWriter;
+import org.geogit.storage.datastream.DataStreamSerializationFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures writing and reading one object of each {@link TYPE type} with the
+ * {@link DataStreamSerializationFactory}. Trees are leaf trees of {@code treeSize} nodes.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class SerializationBenchmark {
+
+    private static final DataStreamSerializationFactory SERIALIZER = DataStreamSerializationFactory.INSTANCE;
+
+    @Param({ "COMMIT", "TREE", "FEATURE", "FEATURETYPE", "TAG" })
+    public TYPE type;
+
+    @Param({ "512" })
+    public int treeSize;
+
+    private RevObject object;
+
+    private ObjectWriter<RevObject> writer;
+
+    private ObjectReader<RevObject> reader;
+
+    private byte[] serialized;
+
+    private ByteArrayOutputStream out;
+
+    @Setup
+    public void setUp() throws IOException {
+        switch (type) {
+        case COMMIT:
+            object = Datasets.commit(1);
+            break;
+        case TREE:
+            object = Datasets.leafTree(1, treeSize);
+            break;
+        case FEATURE:
+            object = Datasets.feature(1);
+            break;
+        case FEATURETYPE:
+            object = Datasets.featureType();
+            break;
+        case TAG:
+            object = Datasets.tag(1);
+            break;
+        default:
+            throw new IllegalArgumentException(type.toString());
+        }
+        writer = SERIALIZER.createObjectWriter(type);
+        reader = SERIALIZER.createObjectReader();
+        out = new ByteArrayOutputStream();
+        writer.write(object, out);
+        serialized = out.toByteArray();
+    }
+
+    @Benchmark
+    public int write() throws IOException {
+        out.reset();
+        writer.write(object, out);
+        return out.size();
+    }
+
+    @Benchmark
+    public RevObject read() throws IOException {
+        return reader.read(object.getId(), new ByteArrayInputStream(serialized));
+    }
+}
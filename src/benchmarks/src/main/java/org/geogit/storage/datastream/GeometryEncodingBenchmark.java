@@ -0,0 +1,172 @@
+/* Copyright (c) 2013 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+package org.geogit.storage.datastream;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.io.ParseException;
+import com.vividsolutions.jts.io.WKBReader;
+import com.vividsolutions.jts.io.WKBWriter;
+
+/**
+ * Compares encoding and decoding a layer of geometries as WKB and with the
+ * {@link CompactGeometryEncoding}, for point, line and polygon layers with coordinates of
+ * {@code precision} decimal digits. The encoded size of the layer is printed on setup.
+ * <p>
+ * Lives in the same package as {@link CompactGeometryEncoding} since it is package private.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class GeometryEncodingBenchmark {
+
+    public enum Layer {
+        POINT, LINE, POLYGON
+    }
+
+    public enum Encoding {
+        WKB, COMPACT
+    }
+
+    private static final GeometryFactory GEOMETRY_FACTORY = new GeometryFactory();
+
+    @Param({ "POINT", "LINE", "POLYGON" })
+    public Layer layer;
+
+    @Param({ "WKB", "COMPACT" })
+    public Encoding encoding;
+
+    @Param({ "1000" })
+    public int layerSize;
+
+    @Param({ "6" })
+    public int precision;
+
+    private final WKBWriter wkbWriter = new WKBWriter();
+
+    private final WKBReader wkbReader = new WKBReader();
+
+    private Geometry[] geometries;
+
+    private byte[][] encoded;
+
+    @Setup
+    public void setUp() throws IOException, ParseException {
+        Random random = new Random(layerSize);
+        geometries = new Geometry[layerSize];
+        for (int i = 0; i < layerSize; i++) {
+            geometries[i] = geometry(random);
+        }
+        encoded = new byte[layerSize][];
+        long size = 0;
+        for (int i = 0; i < layerSize; i++) {
+            encoded[i] = encode(geometries[i]);
+            size += encoded[i].length;
+            if (!geometries[i].equalsExact(decode(encoded[i]))) {
+                throw new IllegalStateException("Geometry changed by its encoding: "
+                        + geometries[i]);
+            }
+        }
+        System.out.printf("%n%s %s layer: %,d bytes, %.1f per geometry%n", encoding, layer, size,
+                (double) size / layerSize);
+    }
+
+    private Geometry geometry(Random random) {
+        final double x = coord(random.nextDouble() * 360 - 180);
+        final double y = coord(random.nextDouble() * 180 - 90);
+        switch (layer) {
+        case POINT:
+            return GEOMETRY_FACTORY.createPoint(new Coordinate(x, y));
+        case LINE:
+            return GEOMETRY_FACTORY.createLineString(walk(random, x, y, 50, false));
+        case POLYGON:
+            return GEOMETRY_FACTORY.createPolygon(
+                    GEOMETRY_FACTORY.createLinearRing(walk(random, x, y, 50, true)), null);
+        default:
+            throw new IllegalArgumentException(layer.toString());
+        }
+    }
+
+    /**
+     * @return a random walk of short steps, like the vertices of real world features
+     */
+    private Coordinate[] walk(Random random, double x, double y, int size, boolean closed) {
+        Coordinate[] coords = new Coordinate[size];
+        for (int i = 0; i < size; i++) {
+            coords[i] = new Coordinate(x, y);
+            x = coord(x + random.nextDouble() / 100);
+            y = coord(y + (random.nextDouble() - 0.5) / 100);
+        }
+        if (closed) {
+            coords[size - 1] = new Coordinate(coords[0]);
+        }
+        return coords;
+    }
+
+    private double coord(double value) {
+        final double scale = Math.pow(10, precision);
+        return Math.round(value * scale) / scale;
+    }
+
+    private byte[] encode(Geometry geometry) {
+        switch (encoding) {
+        case WKB:
+            return wkbWriter.write(geometry);
+        case COMPACT:
+            return CompactGeometryEncoding.encode(geometry);
+        default:
+            throw new IllegalArgumentException(encoding.toString());
+        }
+    }
+
+    private Geometry decode(byte[] bytes) throws IOException, ParseException {
+        switch (encoding) {
+        case WKB:
+            return wkbReader.read(bytes);
+        case COMPACT:
+            return CompactGeometryEncoding.decode(bytes);
+        default:
+            throw new IllegalArgumentException(encoding.toString());
+        }
+    }
+
+    @Benchmark
+    public int encode() {
+        int size = 0;
+        for (Geometry geometry : geometries) {
+            size += encode(geometry).length;
+        }
+        return size;
+    }
+
+    @Benchmark
+    public int decode() throws IOException, ParseException {
+        int coords = 0;
+        for (byte[] bytes : encoded) {
+            coords += decode(bytes).getNumPoints();
+        }
+        return coords;
+    }
+}
@@ -0,0 +1,83 @@
+/* Copyright (c) 2013 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+package org.geogit.benchmarks;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.io.StringReader;
+import java.util.List;
+import java.util.SortedMap;
+
+import org.geogit.benchmarks.BaselineComparison.Comparison;
+import org.geogit.benchmarks.BaselineComparison.Result;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class BaselineComparisonTest extends Assert {
+
+    private static String run(String benchmark, String mode, String params, double score,
+            String error, String unit) {
+        return String.format("{\"benchmark\":\"%s\",\"mode\":\"%s\",\"threads\":1,\"forks\":1,"
+                + "\"params\":{%s},\"primaryMetric\":{\"score\":%s,\"scoreError\":%s,"
+                + "\"scoreUnit\":\"%s\"},\"secondaryMetrics\":{}}", benchmark, mode, params,
+                Double.toString(score), error, unit);
+    }
+
+    private static SortedMap<String, Result> parse(String... runs) {
+        StringBuilder json = new StringBuilder("[");
+        for (int i = 0; i < runs.length; i++) {
+            json.append(i == 0 ? "" : ",").append(runs[i]);
+        }
+        return BaselineComparison.parse(new StringReader(json.append(']').toString()));
+    }
+
+    @Test
+    public void testParse() {
+        SortedMap<String, Result> results = parse(
+                run("a.B.put", "avgt", "\"size\":\"10\",\"backend\":\"JE\"", 1.5, "0.1", "ms/op"),
+                run("a.B.get", "thrpt", "", 100, "\"NaN\"", "ops/s"));
+        assertEquals(2, results.size());
+        Result put = results.get("a.B.put:backend=JE,size=10");
+        assertNotNull(put);
+        assertEquals(1.5, put.score, 0);
+        assertEquals(0.1, put.error, 0);
+        assertEquals("ms/op", put.unit);
+        assertFalse(put.higherIsBetter());
+
+        Result get = results.get("a.B.get");
+        assertNotNull(get);
+        assertEquals(0, get.error, 0);
+        assertTrue(get.higherIsBetter());
+    }
+
+    @Test
+    public void testRegressions() {
+        SortedMap<String, Result> baseline = parse(
+                run("a.B.slower", "avgt", "", 100, "1", "ms/op"),
+                run("a.B.noisy", "avgt", "", 100, "20", "ms/op"),
+                run("a.B.faster", "avgt", "", 100, "1", "ms/op"),
+                run("a.B.lessThroughput", "thrpt", "", 100, "1", "ops/s"),
+                run("a.B.removed", "avgt", "", 100, "1", "ms/op"));
+        SortedMap<String, Result> current = parse(
+                run("a.B.slower", "avgt", "", 120, "1", "ms/op"),
+                run("a.B.noisy", "avgt", "", 120, "20", "ms/op"),
+                run("a.B.faster", "avgt", "", 50, "1", "ms/op"),
+                run("a.B.lessThroughput", "thrpt", "", 80, "1", "ops/s"),
+                run("a.B.added", "avgt", "", 100, "1", "ms/op"));
+
+        BaselineComparison comparison = new BaselineComparison(10);
+        List<Comparison> comparisons = comparison.compare(baseline, current);
+        assertEquals(4, comparisons.size());
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        int regressions = comparison.report(comparisons, new PrintStream(out));
+        assertEquals(2, regressions);
+        String report = out.toString();
+        assertTrue(report, report.contains("a.B.slower: 20.0% worse"));
+        assertTrue(report, report.contains("a.B.lessThroughput: 20.0% worse"));
+        assertFalse(report, report.contains("a.B.noisy: "));
+        assertFalse(report, report.contains("a.B.faster: "));
+    }
+}
@@ -40,4 +40,12 @@ public abstract class AbstractRevObject implements RevObject {
         }
         return id.equals(((AbstractRevObject) o).getId());
     }
+
+    /**
+     * Hash code is based on id, consistent with {@link #equals(Object)}
+     */
+    @Override
+    public int hashCode() {
+        return id.hashCode();
+    }
 }
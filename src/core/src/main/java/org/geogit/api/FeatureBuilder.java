@@ -5,7 +5,9 @@
 
 package org.geogit.api;
 
+import java.util.AbstractList;
 import java.util.Map;
+import java.util.RandomAccess;
 
 import org.geotools.filter.identity.FeatureIdVersionedImpl;
 import org.opengis.feature.Feature;
@@ -16,7 +18,6 @@ import org.opengis.filter.identity.FeatureId;
 import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.BiMap;
-import com.google.common.collect.ImmutableList;
 
 /**
  * Provides a method of building features from {@link RevFeature} objects that have the type
@@ -76,10 +77,32 @@ public class FeatureBuilder {
         final String version = revFeature.getId().toString();
         final FeatureId fid = new FeatureIdVersionedImpl(id, version);
 
-        ImmutableList<Optional<Object>> values = revFeature.getValues();
-        GeogitSimpleFeature feature = new GeogitSimpleFeature(values,
+        GeogitSimpleFeature feature = new GeogitSimpleFeature(new ValuesView(revFeature),
                 (SimpleFeatureType) featureType, fid, attNameToRevTypeIndex, typeToRevTypeIndex);
         return feature;
     }
 
+    /**
+     * A read only view of the values of a {@link RevFeature}, so that a feature only gets the
+     * values it's asked for out of it
+     */
+    private static class ValuesView extends AbstractList<Optional<Object>> implements
+            RandomAccess {
+
+        private final RevFeature revFeature;
+
+        ValuesView(RevFeature revFeature) {
+            this.revFeature = revFeature;
+        }
+
+        @Override
+        public Optional<Object> get(int index) {
+            return revFeature.get(index);
+        }
+
+        @Override
+        public int size() {
+            return revFeature.size();
+        }
+    }
 }
@@ -84,13 +84,14 @@ public class GeogitSimpleFeature implements SimpleFeature {
      * constructor
      * </p>
      * 
-     * @param values
+     * @param values the values, possibly a view that decodes them on demand; copied on the first
+     *        modification
      * @param featureType
      * @param id
      * @param validating
      * @param nameToRevTypeInded - attribute name to value index mapping
      */
-    public GeogitSimpleFeature(ImmutableList<Optional<Object>> values,
+    public GeogitSimpleFeature(List<Optional<Object>> values,
             SimpleFeatureType featureType, FeatureId id, Map<String, Integer> nameToRevTypeInded,
             BiMap<Integer, Integer> typeToRevTypeIndex) {
         this.id = id;
@@ -101,7 +102,7 @@ public class GeogitSimpleFeature implements SimpleFeature {
     }
 
     private List<Optional<Object>> mutableValues() {
-        if (revFeatureValues instanceof ImmutableList) {
+        if (!(revFeatureValues instanceof ArrayList)) {
             revFeatureValues = Lists.newArrayList(revFeatureValues);
         }
         return revFeatureValues;
@@ -242,11 +243,15 @@ public class GeogitSimpleFeature implements SimpleFeature {
         CoordinateReferenceSystem crs = featureType.getCoordinateReferenceSystem();
         Envelope bounds = ReferencedEnvelope.create(crs);
 
-        Optional<Object> o;
-        for (int i = 0; i < revFeatureValues.size(); i++) {
-            o = revFeatureValues.get(i);
-            if (o.isPresent() && o.get() instanceof Geometry) {
-                Geometry g = (Geometry) o.get();
+        // only look at the geometry attributes, so the others don't need to be decoded
+        final List<AttributeDescriptor> descriptors = featureType.getAttributeDescriptors();
+        for (int i = 0; i < descriptors.size(); i++) {
+            if (!(descriptors.get(i) instanceof GeometryDescriptor)) {
+                continue;
+            }
+            Object value = getAttribute(i);
+            if (value instanceof Geometry) {
+                Geometry g = (Geometry) value;
                 // TODO: check userData for crs... and ensure its of the same
                 // crs as the feature type
                 if (bounds.isNull()) {
@@ -9,6 +9,7 @@ import static com.google.common.base.Preconditions.checkNotNull;
 import javax.annotation.Nullable;
 
 import org.geogit.api.RevObject.TYPE;
+import org.geogit.storage.NodePathStorageOrder;
 
 import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
@@ -36,6 +37,12 @@ public abstract class Node implements Bounded, Comparable<Node> {
      */
     private ObjectId objectId;
 
+    /**
+     * Cached {@link NodePathStorageOrder#hash(CharSequence) storage order hash} of the name, lazily
+     * computed; zero means not computed yet
+     */
+    private volatile long nameHash;
+
     private Node(final String name, final ObjectId oid, final ObjectId metadataId) {
         checkNotNull(name);
         checkNotNull(oid);
@@ -56,6 +63,20 @@ public abstract class Node implements Bounded, Comparable<Node> {
         return name;
     }
 
+    /**
+     * @return the hash of this node's name that defines its storage order, computed only once per
+     *         node
+     * @see NodePathStorageOrder#hash(CharSequence)
+     */
+    public long getNameHash() {
+        long hash = nameHash;
+        if (hash == 0L) {
+            hash = NodePathStorageOrder.hash(name);
+            nameHash = hash;
+        }
+        return hash;
+    }
+
     /**
      * @return the id of the {@link RevObject} this Node points to
      */
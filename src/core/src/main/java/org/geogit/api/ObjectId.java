@@ -44,16 +44,25 @@ public final class ObjectId implements Comparable<ObjectId> {
 
         NUM_CHARS = 2 * NUM_BYTES;
 
-        NULL = new ObjectId(new byte[20]);
+        NULL = new ObjectId(0L, 0L, 0);
     }
 
-    private final byte[] hashCode;
+    /**
+     * The hash is kept as primitive fields instead of a {@code byte[]}, sparing the array's object
+     * header and length, as there can be millions of ids alive at once. {@code h1} holds bytes 0 to
+     * 7, {@code h2} bytes 8 to 15 and {@code h3} bytes 16 to 19, big-endian.
+     */
+    final long h1;
+
+    final long h2;
+
+    final int h3;
 
     /**
      * Constructs a new {@code NULL} object id.
      */
     public ObjectId() {
-        this.hashCode = NULL.hashCode;
+        this(0L, 0L, 0);
     }
 
     /**
@@ -62,25 +71,33 @@ public final class ObjectId implements Comparable<ObjectId> {
      * @param raw the byte code to use
      */
     public ObjectId(byte[] raw) {
-        this(raw, true);
-    }
-
-    private ObjectId(byte[] raw, boolean cloneArg) {
         Preconditions.checkNotNull(raw);
         Preconditions.checkArgument(raw.length == NUM_BYTES, "expected a byte[%s], got byte[%s]",
                 NUM_BYTES, raw.length);
-        this.hashCode = cloneArg ? raw.clone() : raw;
+        this.h1 = toLong(raw, 0);
+        this.h2 = toLong(raw, 8);
+        this.h3 = toInt(raw, 16);
+    }
+
+    ObjectId(final long h1, final long h2, final int h3) {
+        this.h1 = h1;
+        this.h2 = h2;
+        this.h3 = h3;
     }
 
+    /**
+     * Same as {@link #ObjectId(byte[])}, kept as the raw bytes are no longer held by the created
+     * id anyway.
+     */
     public static ObjectId createNoClone(byte[] rawHash) {
-        return new ObjectId(rawHash, false);
+        return new ObjectId(rawHash);
     }
 
     /**
      * @return whether or not this object id represents the {@link #NULL} object id
      */
     public boolean isNull() {
-        return NULL.equals(this);
+        return h1 == 0L && h2 == 0L && h3 == 0;
     }
 
     /**
@@ -96,35 +113,51 @@ public final class ObjectId implements Comparable<ObjectId> {
         if (!(o instanceof ObjectId)) {
             return false;
         }
-        return Arrays.equals(hashCode, ((ObjectId) o).hashCode);
+        ObjectId other = (ObjectId) o;
+        return h1 == other.h1 && h2 == other.h2 && h3 == other.h3;
     }
 
     /**
-     * @return a hash code based on the contents of the byte array.
+     * @return a hash code based on the first four bytes of the hash, taken as a little-endian int
      */
     @Override
     public int hashCode() {
-        return (hashCode[0] & 0xFF)//
-                | ((hashCode[1] & 0xFF) << 8)//
-                | ((hashCode[2] & 0xFF) << 16)//
-                | ((hashCode[3] & 0xFF) << 24);
+        return Integer.reverseBytes((int) (h1 >>> 32));
     }
 
     private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
 
+    /**
+     * Value of each hex digit character, or {@code -1} for any other character
+     */
+    private static final byte[] HEX_VALUES = new byte['f' + 1];
+    static {
+        Arrays.fill(HEX_VALUES, (byte) -1);
+        for (int i = 0; i < HEX_DIGITS.length; i++) {
+            HEX_VALUES[HEX_DIGITS[i]] = (byte) i;
+            HEX_VALUES[Character.toUpperCase(HEX_DIGITS[i])] = (byte) i;
+        }
+    }
+
     /**
      * @return a human friendly representation of this SHA1
      * @see java.lang.Object#toString()
      */
     @Override
     public String toString() {
-        StringBuilder sb = new StringBuilder(2 * NUM_BYTES);
-        byte b;
-        for (int i = 0; i < NUM_BYTES; i++) {
-            b = hashCode[i];
-            sb.append(HEX_DIGITS[(b >> 4) & 0xf]).append(HEX_DIGITS[b & 0xf]);
+        char[] chars = new char[NUM_CHARS];
+        writeHex(h1, 16, chars, 0);
+        writeHex(h2, 16, chars, 16);
+        writeHex(h3, 8, chars, 32);
+        return new String(chars);
+    }
+
+    private static void writeHex(final long value, final int numDigits, final char[] target,
+            final int offset) {
+        for (int i = 0; i < numDigits; i++) {
+            int shift = 4 * (numDigits - 1 - i);
+            target[offset + i] = HEX_DIGITS[(int) (value >>> shift) & 0xf];
         }
-        return sb.toString();
     }
 
     /**
@@ -139,14 +172,28 @@ public final class ObjectId implements Comparable<ObjectId> {
         Preconditions.checkArgument(hash.length() == NUM_CHARS, hash,
                 String.format("ObjectId.valueOf: Invalid hash string %s", hash));
 
-        // this is perhaps the worse way of doing this...
+        final long h1 = parseHex(hash, 0, 16);
+        final long h2 = parseHex(hash, 16, 16);
+        final int h3 = (int) parseHex(hash, 32, 8);
+        return new ObjectId(h1, h2, h3);
+    }
 
-        final byte[] raw = new byte[NUM_BYTES];
-        final int radix = 16;
-        for (int i = 0; i < NUM_BYTES; i++) {
-            raw[i] = (byte) Integer.parseInt(hash.substring(2 * i, 2 * i + 2), radix);
+    private static long parseHex(final String hash, final int offset, final int numDigits) {
+        long value = 0L;
+        for (int i = offset; i < offset + numDigits; i++) {
+            value = (value << 4) | hexValue(hash, i);
         }
-        return new ObjectId(raw, false);
+        return value;
+    }
+
+    private static int hexValue(final String hash, final int index) {
+        char c = hash.charAt(index);
+        int value = c < HEX_VALUES.length ? HEX_VALUES[c] : -1;
+        if (value == -1) {
+            throw new IllegalArgumentException("At index " + index
+                    + ": not a valid hash character '" + hash + "'");
+        }
+        return value;
     }
 
     /**
@@ -166,9 +213,9 @@ public final class ObjectId implements Comparable<ObjectId> {
         }
 
         final byte[] raw = new byte[hash.length() / 2];
-        final int radix = 16;
         for (int i = 0; i < raw.length; i++) {
-            raw[i] = (byte) Integer.parseInt(hash.substring(2 * i, 2 * i + 2), radix);
+            raw[i] = (byte) ((Character.digit(hash.charAt(2 * i), 16) << 4) | Character.digit(
+                    hash.charAt(2 * i + 1), 16));
         }
         return raw;
     }
@@ -180,9 +227,22 @@ public final class ObjectId implements Comparable<ObjectId> {
      * @see java.lang.Comparable#compareTo(java.lang.Object)
      */
     public int compareTo(final ObjectId o) {
-        byte[] left = this.hashCode;
-        byte[] right = o.hashCode;
-        return compare(left, right);
+        int c = compareUnsigned(h1, o.h1);
+        if (c == 0) {
+            c = compareUnsigned(h2, o.h2);
+            if (c == 0) {
+                // an int widened without sign extension compares as unsigned
+                c = compareUnsigned(h3 & 0xFFFFFFFFL, o.h3 & 0xFFFFFFFFL);
+            }
+        }
+        return c;
+    }
+
+    private static int compareUnsigned(final long l1, final long l2) {
+        // flip the sign bit to compare as unsigned
+        final long u1 = l1 ^ Long.MIN_VALUE;
+        final long u2 = l2 ^ Long.MIN_VALUE;
+        return u1 < u2 ? -1 : (u1 == u2 ? 0 : 1);
     }
 
     public static int compare(byte[] left, byte[] right) {
@@ -194,11 +254,36 @@ public final class ObjectId implements Comparable<ObjectId> {
      *         do not affect this object.
      */
     public byte[] getRawValue() {
-        return hashCode.clone();
+        byte[] raw = new byte[NUM_BYTES];
+        getRawValue(raw);
+        return raw;
     }
 
     public void getRawValue(byte[] target) {
-        System.arraycopy(hashCode, 0, target, 0, NUM_BYTES);
+        putLong(h1, target, 0);
+        putLong(h2, target, 8);
+        putInt(h3, target, 16);
+    }
+
+    private static long toLong(final byte[] raw, final int offset) {
+        return ((long) toInt(raw, offset) << 32) | (toInt(raw, offset + 4) & 0xFFFFFFFFL);
+    }
+
+    private static int toInt(final byte[] raw, final int offset) {
+        return ((raw[offset] & 0xFF) << 24) | ((raw[offset + 1] & 0xFF) << 16)
+                | ((raw[offset + 2] & 0xFF) << 8) | (raw[offset + 3] & 0xFF);
+    }
+
+    private static void putLong(final long value, final byte[] target, final int offset) {
+        putInt((int) (value >>> 32), target, offset);
+        putInt((int) value, target, offset + 4);
+    }
+
+    private static void putInt(final int value, final byte[] target, final int offset) {
+        target[offset] = (byte) (value >>> 24);
+        target[offset + 1] = (byte) (value >>> 16);
+        target[offset + 2] = (byte) (value >>> 8);
+        target[offset + 3] = (byte) value;
     }
 
     /**
@@ -214,7 +299,7 @@ public final class ObjectId implements Comparable<ObjectId> {
     public static ObjectId forString(final String strToHash) {
         Preconditions.checkNotNull(strToHash);
         HashCode hashCode = HASH_FUNCTION.hashString(strToHash, Charset.forName("UTF-8"));
-        return new ObjectId(hashCode.asBytes(), false);
+        return new ObjectId(hashCode.asBytes());
     }
 
     /**
@@ -225,7 +310,15 @@ public final class ObjectId implements Comparable<ObjectId> {
      * @return the byte at the given index as an integer
      */
     public int byteN(int index) {
-        int b = this.hashCode[index] & 0xFF;
-        return b;
+        Preconditions.checkElementIndex(index, NUM_BYTES);
+        final int b;
+        if (index < 8) {
+            b = (int) (h1 >>> (56 - 8 * index));
+        } else if (index < 16) {
+            b = (int) (h2 >>> (56 - 8 * (index - 8)));
+        } else {
+            b = h3 >>> (24 - 8 * (index - 16));
+        }
+        return b & 0xFF;
     }
 }
@@ -0,0 +1,177 @@
+/* Copyright (c) 2013 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+package org.geogit.api;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.Nullable;
+
+import org.geogit.api.ObjectIdTable.SlotIterator;
+
+import com.google.common.collect.UnmodifiableIterator;
+
+/**
+ * A {@link Map} keyed by {@link ObjectId} that keeps the keys as 20 bytes each in a single open
+ * addressing table, and the values in an array parallel to it, instead of a
+ * {@link java.util.HashMap}'s entry and key objects.
+ * <p>
+ * The keys table can be allocated {@link #offHeap(int) off the Java heap}, the values are always
+ * on it. Keys returned by the iterators are new instances equal to the put ones. {@code null}
+ * values are not supported.
+ * <p>
+ * Not thread safe, and the iterators don't support {@link Iterator#remove() removal}.
+ */
+public class ObjectIdMap<V> extends AbstractMap<ObjectId, V> {
+
+    private final ObjectIdTable table;
+
+    public ObjectIdMap() {
+        this(0);
+    }
+
+    /**
+     * @param expectedSize the number of entries to size the table for
+     */
+    public ObjectIdMap(final int expectedSize) {
+        this(expectedSize, false);
+    }
+
+    private ObjectIdMap(final int expectedSize, final boolean offHeap) {
+        this.table = new ObjectIdTable(expectedSize, offHeap, true);
+    }
+
+    /**
+     * @param expectedSize the number of entries to size the table for
+     * @return a map whose keys table is allocated in a direct buffer, off the Java heap
+     */
+    public static <V> ObjectIdMap<V> offHeap(final int expectedSize) {
+        return new ObjectIdMap<V>(expectedSize, true);
+    }
+
+    @Override
+    public boolean containsKey(final Object key) {
+        return key instanceof ObjectId && table.contains((ObjectId) key);
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    @Nullable
+    public V get(final Object key) {
+        return key instanceof ObjectId ? (V) table.get((ObjectId) key) : null;
+    }
+
+    @Override
+    @Nullable
+    public V put(final ObjectId key, final V value) {
+        if (value == null) {
+            throw new NullPointerException("null values are not supported");
+        }
+        V previous = get(key);
+        table.put(key, value);
+        return previous;
+    }
+
+    @Override
+    @Nullable
+    public V remove(final Object key) {
+        V previous = get(key);
+        if (previous != null) {
+            table.remove((ObjectId) key);
+        }
+        return previous;
+    }
+
+    @Override
+    public int size() {
+        return table.size();
+    }
+
+    @Override
+    public void clear() {
+        table.clear();
+    }
+
+    @Override
+    public Set<Map.Entry<ObjectId, V>> entrySet() {
+        return new AbstractSet<Map.Entry<ObjectId, V>>() {
+            @Override
+            public int size() {
+                return table.size();
+            }
+
+            @Override
+            public Iterator<Map.Entry<ObjectId, V>> iterator() {
+                final SlotIterator slots = table.slots();
+                return new UnmodifiableIterator<Map.Entry<ObjectId, V>>() {
+                    @Override
+                    public boolean hasNext() {
+                        return slots.hasNext();
+                    }
+
+                    @Override
+                    public Map.Entry<ObjectId, V> next() {
+                        return new Entry(slots.next());
+                    }
+                };
+            }
+        };
+    }
+
+    private class Entry implements Map.Entry<ObjectId, V> {
+
+        private final int slot;
+
+        private final ObjectId key;
+
+        Entry(final int slot) {
+            this.slot = slot;
+            this.key = table.idAt(slot);
+        }
+
+        @Override
+        public ObjectId getKey() {
+            return key;
+        }
+
+        @SuppressWarnings("unchecked")
+        @Override
+        public V getValue() {
+            return (V) table.valueAt(slot);
+        }
+
+        @Override
+        public V setValue(final V value) {
+            if (value == null) {
+                throw new NullPointerException("null values are not supported");
+            }
+            V previous = getValue();
+            table.setValueAt(slot, value);
+            return previous;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Map.Entry)) {
+                return false;
+            }
+            Map.Entry<?, ?> e = (Map.Entry<?, ?>) o;
+            return key.equals(e.getKey()) && getValue().equals(e.getValue());
+        }
+
+        @Override
+        public int hashCode() {
+            return key.hashCode() ^ getValue().hashCode();
+        }
+
+        @Override
+        public String toString() {
+            return key + "=" + getValue();
+        }
+    }
+}
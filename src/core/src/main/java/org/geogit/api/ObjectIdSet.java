@@ -0,0 +1,125 @@
+/* Copyright (c) 2013 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+package org.geogit.api;
+
+import java.io.IOException;
+import java.nio.channels.WritableByteChannel;
+import java.util.AbstractSet;
+import java.util.Collection;
+import java.util.Iterator;
+
+import org.geogit.api.ObjectIdTable.SlotIterator;
+
+import com.google.common.collect.UnmodifiableIterator;
+
+/**
+ * A {@link java.util.Set} of {@link ObjectId}s that keeps the ids as 20 bytes each in a single
+ * open addressing table instead of a {@link java.util.HashSet}'s entry and id objects.
+ * <p>
+ * The table can be allocated {@link #offHeap(int) off the Java heap}, for sets of many millions
+ * of ids. Ids returned by the iterator are new instances equal to the added ones.
+ * <p>
+ * Not thread safe, and the iterator doesn't support {@link Iterator#remove() removal}.
+ */
+public class ObjectIdSet extends AbstractSet<ObjectId> {
+
+    private final ObjectIdTable table;
+
+    public ObjectIdSet() {
+        this(0);
+    }
+
+    /**
+     * @param expectedSize the number of ids to size the table for
+     */
+    public ObjectIdSet(final int expectedSize) {
+        this(expectedSize, false);
+    }
+
+    public ObjectIdSet(final Collection<ObjectId> ids) {
+        this(ids.size());
+        addAll(ids);
+    }
+
+    private ObjectIdSet(final int expectedSize, final boolean offHeap) {
+        this.table = new ObjectIdTable(expectedSize, offHeap, false);
+    }
+
+    /**
+     * @param expectedSize the number of ids to size the table for
+     * @return a set whose table is allocated in a direct buffer, off the Java heap
+     */
+    public static ObjectIdSet offHeap(final int expectedSize) {
+        return new ObjectIdSet(expectedSize, true);
+    }
+
+    @Override
+    public boolean add(final ObjectId id) {
+        return table.put(id, null);
+    }
+
+    @Override
+    public boolean contains(final Object o) {
+        return o instanceof ObjectId && table.contains((ObjectId) o);
+    }
+
+    @Override
+    public boolean remove(final Object o) {
+        return o instanceof ObjectId && table.remove((ObjectId) o);
+    }
+
+    /**
+     * Overrides {@link AbstractSet#removeAll(Collection)} so it never removes through the iterator
+     */
+    @Override
+    public boolean removeAll(final Collection<?> c) {
+        boolean modified = false;
+        for (Object o : c) {
+            modified |= remove(o);
+        }
+        return modified;
+    }
+
+    @Override
+    public int size() {
+        return table.size();
+    }
+
+    /**
+     * @return the number of bytes taken by the table of ids, whether on or off the heap
+     */
+    public long sizeInBytes() {
+        return table.sizeInBytes();
+    }
+
+    @Override
+    public void clear() {
+        table.clear();
+    }
+
+    /**
+     * Writes the 20 raw bytes of each id to {@code out}, in ascending order, and empties the set.
+     * The ids are sorted in place in the table, without creating an {@link ObjectId} for each.
+     */
+    public void drainSorted(final WritableByteChannel out) throws IOException {
+        table.drainSorted(out);
+    }
+
+    @Override
+    public Iterator<ObjectId> iterator() {
+        final SlotIterator slots = table.slots();
+        return new UnmodifiableIterator<ObjectId>() {
+            @Override
+            public boolean hasNext() {
+                return slots.hasNext();
+            }
+
+            @Override
+            public ObjectId next() {
+                return table.idAt(slots.next());
+            }
+        };
+    }
+}
@@ -0,0 +1,481 @@
+/* Copyright (c) 2013 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+package org.geogit.api;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+
+import javax.annotation.Nullable;
+
+import com.google.common.base.Preconditions;
+import com.google.common.primitives.UnsignedInts;
+import com.google.common.primitives.UnsignedLongs;
+
+/**
+ * Open addressing hash table of {@link ObjectId}s backing {@link ObjectIdSet} and
+ * {@link ObjectIdMap}.
+ * <p>
+ * Ids are kept as their 20 raw bytes in a {@link ByteBuffer}, on the heap or off it, and found by
+ * linear probing. An all zeroes slot is empty, so the {@link ObjectId#NULL NULL} id is kept apart.
+ * Values, if any, are kept in an array parallel to the slots.
+ */
+final class ObjectIdTable {
+
+    private static final int SLOT_BYTES = ObjectId.NUM_BYTES;
+
+    private static final int MIN_CAPACITY = 16;
+
+    /**
+     * Largest power of two number of slots a buffer can address
+     */
+    private static final int MAX_CAPACITY = 1 << 26;
+
+    private final boolean offHeap;
+
+    private final boolean withValues;
+
+    private final int initialCapacity;
+
+    private final int maxCapacity;
+
+    private ByteBuffer slots;
+
+    @Nullable
+    private Object[] values;
+
+    private int mask;
+
+    private int size;
+
+    private boolean hasNull;
+
+    @Nullable
+    private Object nullValue;
+
+    ObjectIdTable(final int expectedSize, final boolean offHeap, final boolean withValues) {
+        this(expectedSize, offHeap, withValues, MAX_CAPACITY);
+    }
+
+    /**
+     * @param maxCapacity the power of two number of slots the table stops growing at, holding up
+     *        to half as many ids
+     */
+    ObjectIdTable(final int expectedSize, final boolean offHeap, final boolean withValues,
+            final int maxCapacity) {
+        Preconditions.checkArgument(expectedSize >= 0, "expectedSize < 0: %s", expectedSize);
+        Preconditions.checkArgument(maxCapacity >= MIN_CAPACITY && maxCapacity <= MAX_CAPACITY
+                && Integer.bitCount(maxCapacity) == 1, "invalid maxCapacity: %s", maxCapacity);
+        this.offHeap = offHeap;
+        this.withValues = withValues;
+        this.maxCapacity = maxCapacity;
+        this.initialCapacity = capacityFor(expectedSize);
+        allocate(initialCapacity);
+    }
+
+    private int capacityFor(final int expectedSize) {
+        // keep the load factor under 0.5
+        int capacity = MIN_CAPACITY;
+        while (capacity < 2L * expectedSize && capacity < maxCapacity) {
+            capacity <<= 1;
+        }
+        return capacity;
+    }
+
+    /**
+     * @return the most ids, besides {@link ObjectId#NULL NULL}, the table holds before it's full
+     */
+    int maxSize() {
+        return maxCapacity / 2;
+    }
+
+    private void allocate(final int capacity) {
+        final int bytes = capacity * SLOT_BYTES;
+        slots = offHeap ? ByteBuffer.allocateDirect(bytes) : ByteBuffer.allocate(bytes);
+        values = withValues ? new Object[capacity] : null;
+        mask = capacity - 1;
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * @return the number of bytes taken by the slots, not counting values
+     */
+    long sizeInBytes() {
+        return (long) (mask + 1) * SLOT_BYTES;
+    }
+
+    boolean contains(final ObjectId id) {
+        if (id.isNull()) {
+            return hasNull;
+        }
+        return slotOf(id) >= 0;
+    }
+
+    @Nullable
+    Object get(final ObjectId id) {
+        if (id.isNull()) {
+            return nullValue;
+        }
+        final int slot = slotOf(id);
+        return slot < 0 ? null : values[slot];
+    }
+
+    /**
+     * Adds the id if not present, and sets its value if the table has values.
+     *
+     * @return whether the id was added
+     */
+    boolean put(final ObjectId id, @Nullable final Object value) {
+        if (id.isNull()) {
+            boolean added = !hasNull;
+            hasNull = true;
+            nullValue = value;
+            if (added) {
+                size++;
+            }
+            return added;
+        }
+        int slot = home(id);
+        while (!isEmpty(slot)) {
+            if (matches(slot, id)) {
+                if (withValues) {
+                    values[slot] = value;
+                }
+                return false;
+            }
+            slot = (slot + 1) & mask;
+        }
+        // past half full at the max capacity lookups would degrade, so refuse new ids instead
+        Preconditions.checkState(size - (hasNull ? 1 : 0) < maxSize(),
+                "ObjectId table is full, it can't hold more than %s ids", maxSize());
+        write(slot, id);
+        if (withValues) {
+            values[slot] = value;
+        }
+        size++;
+        if (2 * size > mask + 1 && mask + 1 < maxCapacity) {
+            resize((mask + 1) << 1);
+        }
+        return true;
+    }
+
+    /**
+     * @return whether the id was present
+     */
+    boolean remove(final ObjectId id) {
+        if (id.isNull()) {
+            boolean removed = hasNull;
+            if (removed) {
+                hasNull = false;
+                nullValue = null;
+                size--;
+            }
+            return removed;
+        }
+        int slot = slotOf(id);
+        if (slot < 0) {
+            return false;
+        }
+        // shift back the ids that probed past the removed one, so lookups don't stop early
+        int next = (slot + 1) & mask;
+        while (!isEmpty(next)) {
+            int home = home(next);
+            boolean movable = slot <= next ? (home <= slot || home > next)
+                    : (home <= slot && home > next);
+            if (movable) {
+                copy(next, slot);
+                slot = next;
+            }
+            next = (next + 1) & mask;
+        }
+        clear(slot);
+        size--;
+        return true;
+    }
+
+    /**
+     * Empties the table. If it grew past the capacity it was created with, the larger buffer is
+     * released and the initial capacity allocated again.
+     */
+    void clear() {
+        size = 0;
+        hasNull = false;
+        nullValue = null;
+        if (mask + 1 > initialCapacity) {
+            allocate(initialCapacity);
+            return;
+        }
+        for (int i = 0; i < slots.capacity(); i += 4) {
+            slots.putInt(i, 0);
+        }
+        if (withValues) {
+            Arrays.fill(values, null);
+        }
+    }
+
+    /**
+     * Writes the raw ids to {@code out} in ascending order and empties the table. The ids are
+     * compacted to the front of the slots and sorted in place, so no {@link ObjectId} is created.
+     */
+    void drainSorted(final WritableByteChannel out) throws IOException {
+        Preconditions.checkState(!withValues, "can't drain a table with values");
+        int count = 0;
+        for (int slot = 0; slot <= mask; slot++) {
+            if (!isEmpty(slot)) {
+                if (slot != count) {
+                    copy(slot, count);
+                }
+                count++;
+            }
+        }
+        sort(0, count - 1);
+        try {
+            if (hasNull) {
+                // the NULL id sorts first
+                write(out, ByteBuffer.allocate(SLOT_BYTES));
+            }
+            ByteBuffer sorted = slots.duplicate();
+            sorted.position(0);
+            sorted.limit(count * SLOT_BYTES);
+            write(out, sorted);
+        } finally {
+            clear();
+        }
+    }
+
+    private static void write(final WritableByteChannel out, final ByteBuffer buffer)
+            throws IOException {
+        while (buffer.hasRemaining()) {
+            out.write(buffer);
+        }
+    }
+
+    /**
+     * Quicksorts the slots from {@code low} to {@code high}, both inclusive, by their raw bytes,
+     * recursing into the smaller partition only
+     */
+    private void sort(int low, int high) {
+        while (high - low > 16) {
+            final int mid = (low + high) >>> 1;
+            // median of three as the pivot, moved to high
+            if (compare(mid, low) < 0) {
+                swap(mid, low);
+            }
+            if (compare(high, low) < 0) {
+                swap(high, low);
+            }
+            if (compare(mid, high) < 0) {
+                swap(mid, high);
+            }
+            int i = low;
+            for (int j = low; j < high; j++) {
+                if (compare(j, high) < 0) {
+                    swap(i++, j);
+                }
+            }
+            swap(i, high);
+            if (i - low < high - i) {
+                sort(low, i - 1);
+                low = i + 1;
+            } else {
+                sort(i + 1, high);
+                high = i - 1;
+            }
+        }
+        for (int i = low + 1; i <= high; i++) {
+            for (int j = i; j > low && compare(j, j - 1) < 0; j--) {
+                swap(j, j - 1);
+            }
+        }
+    }
+
+    /**
+     * Compares two slots as {@link ObjectId#compareTo} does, byte by byte as unsigned values
+     */
+    private int compare(final int slot1, final int slot2) {
+        final int offset1 = slot1 * SLOT_BYTES;
+        final int offset2 = slot2 * SLOT_BYTES;
+        int c = UnsignedLongs.compare(slots.getLong(offset1), slots.getLong(offset2));
+        if (c == 0) {
+            c = UnsignedLongs.compare(slots.getLong(offset1 + 8), slots.getLong(offset2 + 8));
+        }
+        if (c == 0) {
+            c = UnsignedInts.compare(slots.getInt(offset1 + 16), slots.getInt(offset2 + 16));
+        }
+        return c;
+    }
+
+    private void swap(final int slot1, final int slot2) {
+        final int offset1 = slot1 * SLOT_BYTES;
+        final int offset2 = slot2 * SLOT_BYTES;
+        final long h1 = slots.getLong(offset1);
+        final long h2 = slots.getLong(offset1 + 8);
+        final int h3 = slots.getInt(offset1 + 16);
+        slots.putLong(offset1, slots.getLong(offset2));
+        slots.putLong(offset1 + 8, slots.getLong(offset2 + 8));
+        slots.putInt(offset1 + 16, slots.getInt(offset2 + 16));
+        slots.putLong(offset2, h1);
+        slots.putLong(offset2 + 8, h2);
+        slots.putInt(offset2 + 16, h3);
+    }
+
+    /**
+     * @return an iterator over the occupied slots, the {@code NULL} id coming first as slot
+     *         {@code -1}
+     */
+    SlotIterator slots() {
+        return new SlotIterator();
+    }
+
+    ObjectId idAt(final int slot) {
+        if (slot == -1) {
+            return ObjectId.NULL;
+        }
+        final int offset = slot * SLOT_BYTES;
+        return new ObjectId(slots.getLong(offset), slots.getLong(offset + 8),
+                slots.getInt(offset + 16));
+    }
+
+    @Nullable
+    Object valueAt(final int slot) {
+        return slot == -1 ? nullValue : values[slot];
+    }
+
+    void setValueAt(final int slot, @Nullable final Object value) {
+        if (slot == -1) {
+            nullValue = value;
+        } else {
+            values[slot] = value;
+        }
+    }
+
+    private int slotOf(final ObjectId id) {
+        int slot = home(id);
+        while (!isEmpty(slot)) {
+            if (matches(slot, id)) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    private int home(final ObjectId id) {
+        return hash(id.h1, id.h2, id.h3) & mask;
+    }
+
+    private int home(final int slot) {
+        final int offset = slot * SLOT_BYTES;
+        return hash(slots.getLong(offset), slots.getLong(offset + 8), slots.getInt(offset + 16))
+                & mask;
+    }
+
+    private static int hash(final long h1, final long h2, final int h3) {
+        // ids are uniformly distributed already, but those built by hand in tests may not
+        return (int) (((h1 ^ h2 ^ h3) * 0x9E3779B97F4A7C15L) >>> 32);
+    }
+
+    private boolean isEmpty(final int slot) {
+        final int offset = slot * SLOT_BYTES;
+        return slots.getLong(offset) == 0L && slots.getLong(offset + 8) == 0L
+                && slots.getInt(offset + 16) == 0;
+    }
+
+    private boolean matches(final int slot, final ObjectId id) {
+        final int offset = slot * SLOT_BYTES;
+        return slots.getLong(offset) == id.h1 && slots.getLong(offset + 8) == id.h2
+                && slots.getInt(offset + 16) == id.h3;
+    }
+
+    private void write(final int slot, final ObjectId id) {
+        final int offset = slot * SLOT_BYTES;
+        slots.putLong(offset, id.h1);
+        slots.putLong(offset + 8, id.h2);
+        slots.putInt(offset + 16, id.h3);
+    }
+
+    private void copy(final int from, final int to) {
+        final int fromOffset = from * SLOT_BYTES;
+        final int toOffset = to * SLOT_BYTES;
+        slots.putLong(toOffset, slots.getLong(fromOffset));
+        slots.putLong(toOffset + 8, slots.getLong(fromOffset + 8));
+        slots.putInt(toOffset + 16, slots.getInt(fromOffset + 16));
+        if (withValues) {
+            values[to] = values[from];
+        }
+    }
+
+    private void clear(final int slot) {
+        final int offset = slot * SLOT_BYTES;
+        slots.putLong(offset, 0L);
+        slots.putLong(offset + 8, 0L);
+        slots.putInt(offset + 16, 0);
+        if (withValues) {
+            values[slot] = null;
+        }
+    }
+
+    private void resize(final int capacity) {
+        final ByteBuffer oldSlots = slots;
+        final Object[] oldValues = values;
+        final int oldCapacity = mask + 1;
+        allocate(capacity);
+        for (int i = 0; i < oldCapacity; i++) {
+            final int offset = i * SLOT_BYTES;
+            final long h1 = oldSlots.getLong(offset);
+            final long h2 = oldSlots.getLong(offset + 8);
+            final int h3 = oldSlots.getInt(offset + 16);
+            if (h1 == 0L && h2 == 0L && h3 == 0) {
+                continue;
+            }
+            int slot = hash(h1, h2, h3) & mask;
+            while (!isEmpty(slot)) {
+                slot = (slot + 1) & mask;
+            }
+            slots.putLong(slot * SLOT_BYTES, h1);
+            slots.putLong(slot * SLOT_BYTES + 8, h2);
+            slots.putInt(slot * SLOT_BYTES + 16, h3);
+            if (withValues) {
+                values[slot] = oldValues[i];
+            }
+        }
+        if (oldValues != null) {
+            Arrays.fill(oldValues, null);
+        }
+    }
+
+    /**
+     * Iterates over the occupied slots. Modifying the table while iterating is not supported.
+     */
+    final class SlotIterator {
+
+        private int next = hasNull ? -1 : advance(0);
+
+        boolean hasNext() {
+            return next <= mask;
+        }
+
+        int next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            final int slot = next;
+            next = advance(slot + 1);
+            return slot;
+        }
+
+        private int advance(int slot) {
+            while (slot <= mask && isEmpty(slot)) {
+                slot++;
+            }
+            return slot;
+        }
+    }
+}
@@ -11,7 +11,9 @@ import com.google.common.collect.ImmutableList;
 
 /**
  * A binary representation of the values of a Feature.
- * 
+ * <p>
+ * Subclasses may decode their values on demand, so callers that need only some of them should
+ * prefer {@link #get(int)} over {@link #getValues()}.
  */
 public class RevFeature extends AbstractRevObject {
 
@@ -43,6 +45,17 @@ public class RevFeature extends AbstractRevObject {
         this.values = values;
     }
 
+    /**
+     * Constructor for subclasses that provide their values by overriding {@link #getValues()},
+     * {@link #size()} and {@link #get(int)}
+     * 
+     * @param id the {@link ObjectId} to use for this feature
+     */
+    protected RevFeature(ObjectId id) {
+        super(id);
+        this.values = null;
+    }
+
     /**
      * @return a list of values, with {@link Optional#absent()} representing a null value
      */
@@ -50,6 +63,22 @@ public class RevFeature extends AbstractRevObject {
         return values;
     }
 
+    /**
+     * @return the number of values
+     */
+    public int size() {
+        return values.size();
+    }
+
+    /**
+     * @param index the index of the value, in the order of the feature type's
+     *        {@link RevFeatureType#sortedDescriptors() sorted descriptors}
+     * @return the value at {@code index}, with {@link Optional#absent()} representing a null value
+     */
+    public Optional<Object> get(int index) {
+        return values.get(index);
+    }
+
     @Override
     public TYPE getType() {
         return TYPE.FEATURE;
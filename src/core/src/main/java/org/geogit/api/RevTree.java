@@ -96,6 +96,11 @@ public interface RevTree extends RevObject {
             return Iterators.emptyIterator();
         }
 
+        @Override
+        public Optional<Node> child(String name) {
+            return Optional.absent();
+        }
+
         @Override
         public String toString() {
             return "RevTree.EMTPY";
@@ -129,4 +134,12 @@ public interface RevTree extends RevObject {
      *         storage {@link NodeStorageOrder order}
      */
     public Iterator<Node> children();
+
+    /**
+     * Precondition: {@code !buckets().isPresent()}
+     * 
+     * @param name the name of a direct child tree or feature
+     * @return the child node named {@code name}, or absent if there is no such child
+     */
+    public Optional<Node> child(String name);
 }
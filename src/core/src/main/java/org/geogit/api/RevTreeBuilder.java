@@ -409,7 +409,7 @@ public class RevTreeBuilder {
         Multimap<Integer, Node> changesByBucket = ArrayListMultimap.create();
         if (!featureChanges.isEmpty()) {
             for (Node change : featureChanges.values()) {
-                Integer bucketIndex = computeBucket(change.getName());
+                Integer bucketIndex = computeBucket(change);
                 changesByBucket.put(bucketIndex, change);
             }
             featureChanges.clear();
@@ -417,7 +417,7 @@ public class RevTreeBuilder {
 
         if (!treeChanges.isEmpty()) {
             for (Node change : treeChanges.values()) {
-                Integer bucketIndex = computeBucket(change.getName());
+                Integer bucketIndex = computeBucket(change);
                 changesByBucket.put(bucketIndex, change);
             }
             treeChanges.clear();
@@ -438,6 +438,10 @@ public class RevTreeBuilder {
         return this.storageOrder.bucket(path, this.depth);
     }
 
+    private Integer computeBucket(final Node node) {
+        return this.storageOrder.bucket(node.getNameHash(), this.depth);
+    }
+
     /**
      * Gets an entry by key, this is potentially slow.
      * 
@@ -213,6 +213,22 @@ public abstract class RevTreeImpl extends AbstractRevObject implements RevTree {
                 ordering);
     }
 
+    @Override
+    public Optional<Node> child(final String name) {
+        Preconditions.checkState(!buckets().isPresent());
+        for (Node node : trees().or(ImmutableList.<Node> of())) {
+            if (name.equals(node.getName())) {
+                return Optional.of(node);
+            }
+        }
+        for (Node node : features().or(ImmutableList.<Node> of())) {
+            if (name.equals(node.getName())) {
+                return Optional.of(node);
+            }
+        }
+        return Optional.absent();
+    }
+
     @Override
     public String toString() {
         final int nSubtrees;
@@ -0,0 +1,303 @@
+/* Copyright (c) 2013 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+package org.geogit.api;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+import static org.geogit.api.RevTree.NORMALIZED_SIZE_LIMIT;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.geogit.api.RevObject.TYPE;
+import org.geogit.api.plumbing.HashObject;
+import org.geogit.repository.SpatialOps;
+import org.geogit.storage.NodeBucketOrder;
+import org.geogit.storage.NodePathStorageOrder;
+import org.geogit.storage.NodeStorageOrder;
+import org.geogit.storage.ObjectDatabase;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+/**
+ * Builds a tree from scratch out of nodes given in {@link NodeBucketOrder bucket order}, writing
+ * its bucket trees bottom up as their nodes are all known.
+ * <p>
+ * Produces the same tree, and hence the same {@link ObjectId}, as adding the same nodes to an empty
+ * {@link RevTreeBuilder}, but without holding them all in memory: nodes in bucket order fill
+ * buckets one after the other at every depth, so only the bucket being filled at each depth is
+ * open, and only the deepest one holds nodes, no more than {@link RevTree#NORMALIZED_SIZE_LIMIT}
+ * of them. The others just hold the up to {@link RevTree#MAX_BUCKETS} buckets already written.
+ * Plain {@link NodeStorageOrder storage order} won't do, as it interleaves the buckets below the
+ * first depth.
+ * <p>
+ * Meant for bulk loads into a new tree, or to replace a tree altogether, for example from the
+ * sorted output of an external sort. As with {@link RevTreeBuilder}, when a node with the same name
+ * and type is added more than once the last one wins, and {@link #remove(String)} discards a node
+ * added before; both need to be given in bucket order too.
+ */
+public class StreamingRevTreeBuilder {
+
+    /**
+     * How many bucket trees to hold before writing them to the database
+     */
+    private static final int PENDING_WRITES_THRESHOLD = 256;
+
+    private final ObjectDatabase db;
+
+    private final NodePathStorageOrder storageOrder = new NodePathStorageOrder();
+
+    private final Level root = new Level(0);
+
+    private final List<RevTree> pendingWrites = Lists.newArrayList();
+
+    /**
+     * Nodes whose name has the {@link #runHash current hash}, kept apart until a node with a
+     * greater hash arrives so that repeated names are resolved as {@link RevTreeBuilder} does
+     */
+    private final Map<String, Node> runFeatures = Maps.newLinkedHashMap();
+
+    private final Map<String, Node> runTrees = Maps.newLinkedHashMap();
+
+    private long runHash;
+
+    private boolean started;
+
+    private boolean built;
+
+    public StreamingRevTreeBuilder(final ObjectDatabase db) {
+        checkNotNull(db);
+        this.db = db;
+    }
+
+    /**
+     * Adds a node, or replaces the last one added with the same name and type.
+     *
+     * @throws IllegalArgumentException if {@code node} comes before the last node added in
+     *         bucket order
+     */
+    public StreamingRevTreeBuilder put(final Node node) {
+        checkNotNull(node, "node can't be null");
+        startRun(node.getNameHash(), node.getName());
+        switch (node.getType()) {
+        case FEATURE:
+            runFeatures.put(node.getName(), node);
+            break;
+        case TREE:
+            runTrees.put(node.getName(), node);
+            break;
+        default:
+            throw new IllegalArgumentException(
+                    "Only tree or feature nodes can be added to a tree: " + node + " "
+                            + node.getType());
+        }
+        return this;
+    }
+
+    /**
+     * Discards the last node added with the given name, the feature one if there are both a
+     * feature and a tree node named like that.
+     *
+     * @throws IllegalArgumentException if {@code childName} comes before the last node added in
+     *         bucket order
+     */
+    public StreamingRevTreeBuilder remove(final String childName) {
+        checkNotNull(childName, "key can't be null");
+        startRun(NodePathStorageOrder.hash(childName), childName);
+        if (null == runFeatures.remove(childName)) {
+            runTrees.remove(childName);
+        }
+        return this;
+    }
+
+    private void startRun(final long nameHash, final String name) {
+        checkState(!built, "tree already built");
+        if (!started) {
+            started = true;
+            runHash = nameHash;
+            return;
+        }
+        final int c = NodeBucketOrder.compare(runHash, nameHash);
+        checkArgument(c <= 0, "%s is out of bucket order", name);
+        if (c < 0) {
+            flushRun();
+            runHash = nameHash;
+        }
+    }
+
+    private void flushRun() {
+        for (Node node : runFeatures.values()) {
+            root.add(node);
+        }
+        for (Node node : runTrees.values()) {
+            root.add(node);
+        }
+        runFeatures.clear();
+        runTrees.clear();
+    }
+
+    /**
+     * @return the new tree, not saved to the object database. Its bucket trees though are saved
+     *         when this method returns.
+     */
+    public RevTree build() {
+        checkState(!built, "tree already built");
+        built = true;
+        flushRun();
+        RevTree tree = root.build();
+        flushPendingWrites();
+        return tree;
+    }
+
+    private void save(final RevTree bucketTree) {
+        pendingWrites.add(bucketTree);
+        if (pendingWrites.size() >= PENDING_WRITES_THRESHOLD) {
+            flushPendingWrites();
+        }
+    }
+
+    private void flushPendingWrites() {
+        if (!pendingWrites.isEmpty()) {
+            db.putAll(pendingWrites.iterator());
+            pendingWrites.clear();
+        }
+    }
+
+    private long sizeOf(final Node node) {
+        if (node.getType().equals(TYPE.TREE)) {
+            return node.getObjectId().isNull() ? 0L : db.getTree(node.getObjectId()).size();
+        }
+        return 1L;
+    }
+
+    /**
+     * The tree, or bucket tree, being built at a given depth
+     */
+    private final class Level {
+
+        private final int depth;
+
+        /**
+         * The nodes added so far while they fit in a leaf tree, {@code null} once they were split
+         * into buckets
+         */
+        private List<Node> nodes = new ArrayList<Node>();
+
+        private TreeMap<Integer, Bucket> buckets;
+
+        private long size;
+
+        private int numTrees;
+
+        private Level child;
+
+        private Integer childBucket;
+
+        Level(final int depth) {
+            this.depth = depth;
+        }
+
+        void add(final Node node) {
+            if (nodes == null) {
+                addToBucket(node);
+                return;
+            }
+            nodes.add(node);
+            if (nodes.size() > NORMALIZED_SIZE_LIMIT) {
+                List<Node> leafNodes = nodes;
+                nodes = null;
+                buckets = Maps.newTreeMap();
+                for (Node n : leafNodes) {
+                    addToBucket(n);
+                }
+            }
+        }
+
+        private void addToBucket(final Node node) {
+            final Integer bucket = storageOrder.bucket(node.getNameHash(), depth);
+            if (child != null && !bucket.equals(childBucket)) {
+                closeChild();
+            }
+            if (child == null) {
+                child = new Level(depth + 1);
+                childBucket = bucket;
+            }
+            child.add(node);
+        }
+
+        private void closeChild() {
+            RevTree bucketTree = child.build();
+            if (!bucketTree.isEmpty()) {
+                save(bucketTree);
+                buckets.put(childBucket,
+                        Bucket.create(bucketTree.getId(), SpatialOps.boundsOf(bucketTree)));
+                size += bucketTree.size();
+                numTrees += bucketTree.numTrees();
+            }
+            child = null;
+            childBucket = null;
+        }
+
+        RevTree build() {
+            RevTree unnamedTree;
+            if (nodes != null) {
+                unnamedTree = leafTree(nodes);
+            } else {
+                if (child != null) {
+                    closeChild();
+                }
+                if (size <= NORMALIZED_SIZE_LIMIT) {
+                    // more nodes than fit in a leaf tree, but tree nodes count as the size of
+                    // their trees, which may be less; like RevTreeBuilder, go back to a leaf tree
+                    flushPendingWrites();
+                    List<Node> children = Lists.newArrayList();
+                    for (Bucket bucket : buckets.values()) {
+                        collectChildren(db.getTree(bucket.id()), children);
+                    }
+                    unnamedTree = leafTree(children);
+                } else {
+                    unnamedTree = RevTreeImpl.createNodeTree(ObjectId.NULL, size, numTrees,
+                            buckets);
+                }
+            }
+            ObjectId treeId = new HashObject().setObject(unnamedTree).call();
+            return RevTreeImpl.create(treeId, unnamedTree.size(), unnamedTree);
+        }
+
+        private void collectChildren(final RevTree tree, final List<Node> target) {
+            if (tree.buckets().isPresent()) {
+                for (Bucket bucket : tree.buckets().get().values()) {
+                    collectChildren(db.getTree(bucket.id()), target);
+                }
+            } else {
+                Iterator<Node> children = tree.children();
+                while (children.hasNext()) {
+                    target.add(children.next());
+                }
+            }
+        }
+
+        private RevTree leafTree(final List<Node> nodes) {
+            List<Node> features = Lists.newArrayList();
+            List<Node> trees = Lists.newArrayList();
+            long size = 0;
+            for (Node node : nodes) {
+                if (TYPE.TREE.equals(node.getType())) {
+                    trees.add(node);
+                } else {
+                    features.add(node);
+                }
+                size += sizeOf(node);
+            }
+            // sorts them back in storage order
+            return RevTreeImpl.createLeafTree(ObjectId.NULL, size, features, trees);
+        }
+    }
+}
@@ -0,0 +1,75 @@
+/* Copyright (c) 2013 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+package org.geogit.api.plumbing;
+
+import java.util.LinkedList;
+import java.util.Set;
+
+import org.geogit.api.AbstractGeoGitOp;
+import org.geogit.api.ObjectId;
+import org.geogit.api.RevCommit;
+import org.geogit.repository.Repository;
+import org.geogit.storage.ChangedPathsDatabase;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Sets;
+import com.google.inject.Inject;
+
+/**
+ * Computes the missing {@link UpdateChangedPaths changed paths filters} of the history of a
+ * commit, such as the commits brought in by a fetch or a clone, which don't go through
+ * {@link org.geogit.api.porcelain.CommitOp CommitOp}.
+ * <p>
+ * The history is walked back from the given commit, stopping at the commits that already have a
+ * filter, so it only costs a lookup when there's nothing to do. Ids that are not commits, such as
+ * tags, are ignored.
+ */
+public class BackfillChangedPaths extends AbstractGeoGitOp<Integer> {
+
+    private Repository repository;
+
+    private ChangedPathsDatabase changedPaths;
+
+    private ObjectId tip;
+
+    @Inject
+    public BackfillChangedPaths(Repository repository, ChangedPathsDatabase changedPaths) {
+        this.repository = repository;
+        this.changedPaths = changedPaths;
+    }
+
+    /**
+     * @param tip the commit whose history to compute the filters for
+     */
+    public BackfillChangedPaths setTip(ObjectId tip) {
+        this.tip = tip;
+        return this;
+    }
+
+    /**
+     * @return the number of commits whose filter was computed
+     */
+    @Override
+    public Integer call() {
+        Preconditions.checkState(tip != null, "tip not set");
+        int count = 0;
+        Set<ObjectId> visited = Sets.newHashSet();
+        LinkedList<ObjectId> pending = new LinkedList<ObjectId>();
+        pending.add(tip);
+        while (!pending.isEmpty()) {
+            ObjectId id = pending.removeFirst();
+            if (id.isNull() || !visited.add(id) || changedPaths.exists(id)
+                    || !repository.commitExists(id)) {
+                continue;
+            }
+            RevCommit commit = repository.getCommit(id);
+            if (command(UpdateChangedPaths.class).setCommit(commit).call().isPresent()) {
+                count++;
+            }
+            pending.addAll(commit.getParentIds());
+        }
+        return count;
+    }
+}
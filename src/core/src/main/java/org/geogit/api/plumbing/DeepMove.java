@@ -229,8 +229,9 @@ public class DeepMove extends AbstractGeoGitOp<ObjectId> {
         try {
             final DeletingListener deletingListener = new DeletingListener(deletingService, from);
 
-            // store objects into the target db and remove them from the origin db in one shot
-            to.putAll(from.getAll(ids), deletingListener);
+            // store objects into the target db and remove them from the origin db in one shot,
+            // copying them as stored instead of parsing and serializing them again
+            to.putRawAll(from.getRawAll(ids, BulkOpListener.NOOP_LISTENER), deletingListener);
             // in case there are some deletes pending cause the iterator finished and the listener
             // didn't fill its buffer
             deletingListener.deleteInserted();
@@ -24,6 +24,9 @@ import com.google.inject.Inject;
 /**
  * Rebuilds the {@link GraphDatabase} and returns a list of {@link ObjectId}s that were found to be
  * missing or incomplete.
+ * <p>
+ * Commits with no {@link UpdateChangedPaths changed paths filter}, such as the ones created before
+ * filters were recorded, get theirs computed along the way.
  */
 public class RebuildGraphOp extends AbstractGeoGitOp<ImmutableList<ObjectId>> {
 
@@ -62,6 +65,7 @@ public class RebuildGraphOp extends AbstractGeoGitOp<ImmutableList<ObjectId>> {
                 if (graphDb.put(next.getId(), next.getParentIds())) {
                     updated.add(next.getId());
                 }
+                command(UpdateChangedPaths.class).setCommit(next).call();
             }
         }
 
@@ -0,0 +1,91 @@
+/* Copyright (c) 2013 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+package org.geogit.api.plumbing;
+
+import java.util.Iterator;
+import java.util.Set;
+
+import org.geogit.api.AbstractGeoGitOp;
+import org.geogit.api.ObjectId;
+import org.geogit.api.RevCommit;
+import org.geogit.api.plumbing.diff.DiffEntry;
+import org.geogit.repository.Repository;
+import org.geogit.storage.ChangedPathsDatabase;
+import org.geogit.storage.ChangedPathsFilter;
+
+import com.google.common.base.Optional;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Sets;
+import com.google.inject.Inject;
+
+/**
+ * Computes the {@link ChangedPathsFilter changed paths filter} of a commit, out of the differences
+ * between its first parent's tree and its own, and saves it to the {@link ChangedPathsDatabase}.
+ * <p>
+ * Does nothing if the commit already has a filter, or if its first parent is not in the
+ * repository, as happens at the bottom of a shallow clone.
+ */
+public class UpdateChangedPaths extends AbstractGeoGitOp<Optional<ChangedPathsFilter>> {
+
+    private Repository repository;
+
+    private ChangedPathsDatabase changedPaths;
+
+    private RevCommit commit;
+
+    @Inject
+    public UpdateChangedPaths(Repository repository, ChangedPathsDatabase changedPaths) {
+        this.repository = repository;
+        this.changedPaths = changedPaths;
+    }
+
+    /**
+     * @param commit the commit to compute the filter for
+     */
+    public UpdateChangedPaths setCommit(RevCommit commit) {
+        this.commit = commit;
+        return this;
+    }
+
+    /**
+     * @return the filter of the commit, or {@link Optional#absent() absent} if it can't be
+     *         computed
+     */
+    @Override
+    public Optional<ChangedPathsFilter> call() {
+        Preconditions.checkState(commit != null, "commit not set");
+        Optional<ChangedPathsFilter> existing = changedPaths.get(commit.getId());
+        if (existing.isPresent()) {
+            return existing;
+        }
+
+        ObjectId parentTreeId = ObjectId.NULL;
+        Optional<ObjectId> parentId = commit.parentN(0);
+        if (parentId.isPresent()) {
+            if (!repository.commitExists(parentId.get())) {
+                return Optional.absent();
+            }
+            parentTreeId = repository.getCommit(parentId.get()).getTreeId();
+        }
+
+        Iterator<DiffEntry> diffs = command(DiffTree.class).setOldTree(parentTreeId)
+                .setNewTree(commit.getTreeId()).setReportTrees(true).setRecursive(true).call();
+
+        Set<String> paths = Sets.newHashSet();
+        while (diffs.hasNext() && paths.size() <= ChangedPathsFilter.MAX_PATHS) {
+            DiffEntry diff = diffs.next();
+            if (diff.getOldObject() != null) {
+                paths.add(diff.getOldObject().path());
+            }
+            if (diff.getNewObject() != null) {
+                paths.add(diff.getNewObject().path());
+            }
+        }
+
+        ChangedPathsFilter filter = ChangedPathsFilter.create(paths);
+        changedPaths.put(commit.getId(), filter);
+        return Optional.of(filter);
+    }
+}
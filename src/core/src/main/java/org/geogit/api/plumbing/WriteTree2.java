@@ -11,6 +11,11 @@ import java.util.Map;
 import java.util.Set;
 import java.util.SortedMap;
 import java.util.SortedSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import javax.annotation.Nullable;
 
@@ -39,9 +44,11 @@ import com.google.common.base.Preconditions;
 import com.google.common.base.Predicate;
 import com.google.common.base.Supplier;
 import com.google.common.base.Suppliers;
+import com.google.common.base.Throwables;
 import com.google.common.collect.Iterators;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.inject.Inject;
 import com.vividsolutions.jts.geom.Envelope;
 
@@ -71,6 +78,14 @@ public class WriteTree2 extends AbstractGeoGitOp<ObjectId> {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(WriteTree2.class);
 
+    /**
+     * Rebuilds changed trees and builds the new root tree. Shared by all the calls, as none of its
+     * tasks waits on another one.
+     */
+    private static final ExecutorService EXECUTOR = Executors.newFixedThreadPool(Math.max(2,
+            Runtime.getRuntime().availableProcessors() / 2), new ThreadFactoryBuilder()
+            .setNameFormat("WriteTree2-%d").setDaemon(true).build());
+
     private ObjectDatabase repositoryDatabase;
 
     private Supplier<RevTree> oldRoot;
@@ -142,26 +157,103 @@ public class WriteTree2 extends AbstractGeoGitOp<ObjectId> {
         final MutableTree oldLeftTree = treeDifference.getLeftTree().clone();
         Preconditions.checkState(oldLeftTree.equals(treeDifference.getLeftTree()));
 
+        final ExecutorService executor = EXECUTOR;
         // handle renames before new and deleted trees for the computation of new and deleted to be
         // accurate
         Set<String> ignoreList = Sets.newHashSet();
         handleRenames(treeDifference, ignoreList);
         handlePureMetadataChanges(treeDifference, ignoreList);
-        handleNewTrees(treeDifference, ignoreList);
-        handleDeletedTrees(treeDifference, ignoreList);
-        handleRemainingDifferences(treeDifference, ignoreList);
+        handleNewTrees(treeDifference, ignoreList, executor);
+        handleDeletedTrees(treeDifference, ignoreList, executor);
+        handleRemainingDifferences(treeDifference, ignoreList, executor);
 
         progress.complete();
 
         MutableTree newLeftTree = treeDifference.getLeftTree();
 
-        final RevTree newRoot = newLeftTree.build(getIndex().getDatabase(), repositoryDatabase);
+        final RevTree newRoot = newLeftTree.build(getIndex().getDatabase(), repositoryDatabase,
+                executor);
 
         ObjectId newRootId = newRoot.getId();
 
         return newRootId;
     }
 
+    /**
+     * A change to a tree node of the left tree, whose new node is computed on the executor.
+     * <p>
+     * Subtree rebuilds are independent of each other, so they run concurrently, while the changes
+     * they result in are applied to the left tree in the same order as if they were sequential.
+     */
+    private static class PendingChange {
+
+        private final NodeRef ref;
+
+        @Nullable
+        private final Future<Node> newNode;
+
+        private final boolean force;
+
+        /**
+         * @param newNode the new node for {@code ref}, or {@code null} to remove it
+         * @param force whether to {@link MutableTree#forceChild force} the new node, creating any
+         *        missing parent
+         */
+        PendingChange(NodeRef ref, @Nullable Future<Node> newNode, boolean force) {
+            this.ref = ref;
+            this.newNode = newNode;
+            this.force = force;
+        }
+
+        void apply(MutableTree leftTree) {
+            if (newNode == null) {
+                leftTree.removeChild(ref.path());
+                return;
+            }
+            final Node node;
+            try {
+                node = newNode.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw Throwables.propagate(e);
+            } catch (ExecutionException e) {
+                throw Throwables.propagate(e.getCause());
+            }
+            if (force) {
+                leftTree.forceChild(ref.getParentPath(), node);
+            } else {
+                leftTree.setChild(ref.getParentPath(), node);
+            }
+        }
+    }
+
+    private static void applyAll(List<PendingChange> changes, MutableTree leftTree) {
+        for (PendingChange change : changes) {
+            change.apply(leftTree);
+        }
+    }
+
+    /**
+     * @return a future node for the tree at {@code ref}, rebuilt from the changes between
+     *         {@code leftTreeRef} and {@code rightTreeRef}
+     */
+    private Future<Node> rebuild(final ExecutorService executor,
+            @Nullable final NodeRef leftTreeRef, @Nullable final NodeRef rightTreeRef) {
+        return executor.submit(new Callable<Node>() {
+            @Override
+            public Node call() {
+                NodeRef ref = rightTreeRef == null ? leftTreeRef : rightTreeRef;
+                RevTree newTree = applyChanges(leftTreeRef, rightTreeRef);
+                if (rightTreeRef == null || leftTreeRef == null) {
+                    return Node.tree(ref.name(), newTree.getId(), ref.getMetadataId());
+                }
+                Envelope bounds = SpatialOps.boundsOf(newTree);
+                return Node.create(ref.name(), newTree.getId(), ref.getMetadataId(), TYPE.TREE,
+                        bounds);
+            }
+        });
+    }
+
     private void handlePureMetadataChanges(TreeDifference treeDifference, Set<String> ignoreList) {
         Map<NodeRef, NodeRef> pureMetadataChanges = treeDifference.findPureMetadataChanges();
         for (Map.Entry<NodeRef, NodeRef> e : pureMetadataChanges.entrySet()) {
@@ -180,8 +272,10 @@ public class WriteTree2 extends AbstractGeoGitOp<ObjectId> {
         }
     }
 
-    private void handleDeletedTrees(TreeDifference treeDifference, Set<String> ignoreList) {
+    private void handleDeletedTrees(TreeDifference treeDifference, Set<String> ignoreList,
+            ExecutorService executor) {
         SortedSet<NodeRef> deletes = treeDifference.findDeletes();
+        List<PendingChange> changes = Lists.newArrayList();
         for (NodeRef ref : deletes) {
             String path = ref.path();
             if (ignoreList.contains(path)) {
@@ -191,21 +285,20 @@ public class WriteTree2 extends AbstractGeoGitOp<ObjectId> {
             if (!filterMatchesOrIsParent(path)) {
                 if (filterApplies(path, treeDifference.getRightTree())) {
                     // can't optimize
-                    RevTree newTree = applyChanges(ref, null);
-                    Node newNode = Node.tree(ref.name(), newTree.getId(), ref.getMetadataId());
-                    MutableTree leftTree = treeDifference.getLeftTree();
-                    leftTree.forceChild(ref.getParentPath(), newNode);
+                    changes.add(new PendingChange(ref, rebuild(executor, ref, null), true));
                 }
             } else {
-                MutableTree leftTree = treeDifference.getLeftTree();
-                leftTree.removeChild(path);
+                changes.add(new PendingChange(ref, null, false));
             }
         }
+        applyAll(changes, treeDifference.getLeftTree());
     }
 
-    private void handleNewTrees(TreeDifference treeDifference, Set<String> ignoreList) {
+    private void handleNewTrees(TreeDifference treeDifference, Set<String> ignoreList,
+            ExecutorService executor) {
         SortedSet<NodeRef> newTrees = treeDifference.findNewTrees();
-        for (NodeRef ref : newTrees) {
+        List<PendingChange> changes = Lists.newArrayList();
+        for (final NodeRef ref : newTrees) {
             final String path = ref.path();
             if (ignoreList.contains(path)) {
                 continue;
@@ -216,20 +309,21 @@ public class WriteTree2 extends AbstractGeoGitOp<ObjectId> {
                 MutableTree rightTree = treeDifference.getRightTree();
                 if (filterApplies(path, rightTree)) {
                     // can't optimize
-                    RevTree newTree = applyChanges(null, ref);
-                    Node newNode = Node.tree(ref.name(), newTree.getId(), ref.getMetadataId());
-                    MutableTree leftTree = treeDifference.getLeftTree();
-                    leftTree.forceChild(ref.getParentPath(), newNode);
+                    changes.add(new PendingChange(ref, rebuild(executor, null, ref), true));
                 }
             } else {
                 LOGGER.trace("Creating new tree {}", path);
-                deepMove(ref.getNode());
-                MutableTree leftTree = treeDifference.getLeftTree();
-                String parentPath = ref.getParentPath();
-                Node node = ref.getNode();
-                leftTree.setChild(parentPath, node);
+                Future<Node> moved = executor.submit(new Callable<Node>() {
+                    @Override
+                    public Node call() {
+                        deepMove(ref.getNode());
+                        return ref.getNode();
+                    }
+                });
+                changes.add(new PendingChange(ref, moved, false));
             }
         }
+        applyAll(changes, treeDifference.getLeftTree());
     }
 
     /**
@@ -263,12 +357,14 @@ public class WriteTree2 extends AbstractGeoGitOp<ObjectId> {
         }
     }
 
-    private void handleRemainingDifferences(TreeDifference treeDifference, Set<String> ignoreList) {
+    private void handleRemainingDifferences(TreeDifference treeDifference, Set<String> ignoreList,
+            ExecutorService executor) {
 
         // old/new refs to trees that have changed and apply to the pathFilters, deepest paths first
         final SortedMap<NodeRef, NodeRef> changedTrees = treeDifference.findChanges();
         final SortedMap<NodeRef, NodeRef> filteredChangedTrees = changedTrees;// filterChanges(changedTrees);
 
+        List<PendingChange> changes = Lists.newArrayList();
         for (Map.Entry<NodeRef, NodeRef> changedTreeRefs : filteredChangedTrees.entrySet()) {
 
             NodeRef leftTreeRef = changedTreeRefs.getKey();
@@ -281,16 +377,10 @@ public class WriteTree2 extends AbstractGeoGitOp<ObjectId> {
                 continue;
             }
             ignoreList.add(newPath);
-            RevTree tree = applyChanges(leftTreeRef, rightTreeRef);
-
-            Envelope bounds = SpatialOps.boundsOf(tree);
-            Node newTreeNode = Node.create(rightTreeRef.name(), tree.getId(),
-                    rightTreeRef.getMetadataId(), TYPE.TREE, bounds);
-
-            MutableTree leftRoot = treeDifference.getLeftTree();
-            String parentPath = rightTreeRef.getParentPath();
-            leftRoot.setChild(parentPath, newTreeNode);
+            changes.add(new PendingChange(rightTreeRef, rebuild(executor, leftTreeRef,
+                    rightTreeRef), false));
         }
+        applyAll(changes, treeDifference.getLeftTree());
     }
 
     private RevTree applyChanges(@Nullable final NodeRef leftTreeRef,
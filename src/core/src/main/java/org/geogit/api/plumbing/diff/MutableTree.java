@@ -8,12 +8,16 @@ import static org.geogit.api.NodeRef.ROOT;
 import static org.geogit.api.NodeRef.depth;
 import static org.geogit.api.NodeRef.split;
 
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.SortedMap;
 import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.annotation.Nullable;
 
@@ -30,12 +34,14 @@ import com.google.common.base.Function;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Strings;
 import com.google.common.base.Supplier;
+import com.google.common.base.Throwables;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Iterators;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Ordering;
+import com.google.common.util.concurrent.SettableFuture;
 import com.vividsolutions.jts.geom.Envelope;
 
 /**
@@ -269,19 +275,57 @@ public class MutableTree implements Cloneable {
     }
 
     public RevTree build(ObjectDatabase origin, ObjectDatabase target) {
+        List<RevTree> newChildren = Lists.newArrayListWithCapacity(childTrees.size());
+        for (MutableTree childTree : this.childTrees.values()) {
+            newChildren.add(childTree.build(origin, target));
+        }
+        return assemble(origin, target, newChildren);
+    }
+
+    /**
+     * Same as {@link #build(ObjectDatabase, ObjectDatabase)}, but sibling trees are built
+     * concurrently on {@code executor}, and each tree is built as soon as all its children are.
+     * <p>
+     * The resulting trees are the same as the ones built sequentially.
+     */
+    public RevTree build(final ObjectDatabase origin, final ObjectDatabase target,
+            final ExecutorService executor) {
+        final SettableFuture<RevTree> result = SettableFuture.create();
+        final List<BuildTask> leaves = Lists.newArrayList();
+        new BuildTask(this, null, 0, origin, target, executor, result).collectLeaves(leaves);
+        for (BuildTask leaf : leaves) {
+            executor.execute(leaf);
+        }
+        try {
+            return result.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw Throwables.propagate(e);
+        } catch (ExecutionException e) {
+            throw Throwables.propagate(e.getCause());
+        }
+    }
+
+    /**
+     * Builds this tree out of its {@code newChildren}, given in the same order as
+     * {@link #childTrees}
+     */
+    private RevTree assemble(ObjectDatabase origin, ObjectDatabase target,
+            List<RevTree> newChildren) {
         RevTree tree = RevTree.EMPTY;
         if (!node.getObjectId().isNull()) {
             tree = origin.getTree(node.getObjectId());
         }
         RevTreeBuilder builder = tree.builder(target).clearSubtrees();
 
+        Iterator<RevTree> built = newChildren.iterator();
         for (MutableTree childTree : this.childTrees.values()) {
             String name;
             ObjectId newObjectId;
             ObjectId metadataId;
             Envelope bounds;
             {
-                RevTree newChild = childTree.build(origin, target);
+                RevTree newChild = built.next();
                 target.put(newChild);
                 Node oldNode = childTree.getNode();
                 name = oldNode.getName();
@@ -303,6 +347,77 @@ public class MutableTree implements Cloneable {
         return newTree;
     }
 
+    /**
+     * Builds a tree once all its children are built, then hands its result to its parent, and
+     * schedules the parent if it was the last child pending
+     */
+    private static class BuildTask implements Runnable {
+
+        private final MutableTree tree;
+
+        @Nullable
+        private final BuildTask parent;
+
+        private final int index;
+
+        private final ObjectDatabase origin;
+
+        private final ObjectDatabase target;
+
+        private final ExecutorService executor;
+
+        private final SettableFuture<RevTree> result;
+
+        private final RevTree[] children;
+
+        private final AtomicInteger pending;
+
+        BuildTask(MutableTree tree, @Nullable BuildTask parent, int index, ObjectDatabase origin,
+                ObjectDatabase target, ExecutorService executor, SettableFuture<RevTree> result) {
+            this.tree = tree;
+            this.parent = parent;
+            this.index = index;
+            this.origin = origin;
+            this.target = target;
+            this.executor = executor;
+            this.result = result;
+            this.children = new RevTree[tree.childTrees.size()];
+            this.pending = new AtomicInteger(children.length);
+        }
+
+        void collectLeaves(List<BuildTask> leaves) {
+            if (children.length == 0) {
+                leaves.add(this);
+                return;
+            }
+            int i = 0;
+            for (MutableTree child : tree.childTrees.values()) {
+                new BuildTask(child, this, i++, origin, target, executor, result)
+                        .collectLeaves(leaves);
+            }
+        }
+
+        @Override
+        public void run() {
+            if (result.isDone()) {
+                return;// a sibling failed
+            }
+            try {
+                RevTree built = tree.assemble(origin, target, Arrays.asList(children));
+                if (parent == null) {
+                    result.set(built);
+                } else {
+                    parent.children[index] = built;
+                    if (parent.pending.decrementAndGet() == 0) {
+                        executor.execute(parent);
+                    }
+                }
+            } catch (Throwable e) {
+                result.setException(e);
+            }
+        }
+    }
+
     @Override
     public MutableTree clone() {
         MutableTree clone = new MutableTree(node);
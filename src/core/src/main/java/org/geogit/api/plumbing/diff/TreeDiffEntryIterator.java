@@ -6,12 +6,17 @@
 package org.geogit.api.plumbing.diff;
 
 import static com.google.common.base.Preconditions.checkArgument;
-import static com.google.common.base.Preconditions.checkState;
 import static org.geogit.api.plumbing.diff.DiffEntry.ChangeType.ADDED;
 import static org.geogit.api.plumbing.diff.DiffEntry.ChangeType.REMOVED;
 
 import java.util.Iterator;
-import java.util.Set;
+import java.util.List;
+import java.util.SortedSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import javax.annotation.Nullable;
 
@@ -21,24 +26,27 @@ import org.geogit.api.NodeRef;
 import org.geogit.api.ObjectId;
 import org.geogit.api.RevObject.TYPE;
 import org.geogit.api.RevTree;
+import org.geogit.api.RevTreeImpl;
 import org.geogit.api.plumbing.diff.DepthTreeIterator.Strategy;
 import org.geogit.api.plumbing.diff.DiffEntry.ChangeType;
 import org.geogit.storage.NodeStorageOrder;
 import org.geogit.storage.ObjectDatabase;
 
 import com.google.common.base.Function;
-import com.google.common.base.Objects;
-import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
 import com.google.common.collect.AbstractIterator;
 import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSortedMap;
 import com.google.common.collect.Iterators;
 import com.google.common.collect.ListMultimap;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Ordering;
 import com.google.common.collect.PeekingIterator;
 import com.google.common.collect.Sets;
 import com.google.common.collect.UnmodifiableIterator;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
 /**
  * Traverses the direct children iterators of both trees (fromTree and toTree) simultaneously. If
@@ -46,9 +54,29 @@ import com.google.common.collect.UnmodifiableIterator;
  * changed. If the two elements of the current iteration are not the same, find out whether it's an
  * addition or a deletion; when the change is on a subtree, returns the subtree differences before
  * continuing with the own ones.
+ * <p>
+ * When either tree is split into {@link RevTree#buckets() buckets} the two trees are compared bucket
+ * by bucket, skipping the buckets with the same id on both sides. If only one of the trees has
+ * buckets, the children of the other one are partitioned into the same buckets they'd fall into, so
+ * neither tree needs to be flattened. Since bucket indexes follow {@link NodeStorageOrder}, the
+ * differences are still reported in storage order.
+ * <p>
+ * The bucket trees that differ are fetched, and the small ones compared, in parallel on a shared
+ * thread pool, one bucket level at a time as the iterator is consumed, so memory usage is bounded
+ * regardless of the size of the trees.
  */
 class TreeDiffEntryIterator extends AbstractIterator<DiffEntry> {
 
+    /**
+     * Bucket subtree pairs of at most this many features in total and no subtrees are compared
+     * eagerly on the thread pool, larger ones are descended lazily
+     */
+    private static final int EAGER_DIFF_LIMIT = 2 * RevTree.NORMALIZED_SIZE_LIMIT;
+
+    private static final ExecutorService EXECUTOR = Executors.newFixedThreadPool(Math.max(2,
+            Runtime.getRuntime().availableProcessors()), new ThreadFactoryBuilder()
+            .setNameFormat("geogit-diff-%d").setDaemon(true).build());
+
     private final ObjectDatabase objectDb;
 
     private Iterator<DiffEntry> delegate;
@@ -57,20 +85,42 @@ class TreeDiffEntryIterator extends AbstractIterator<DiffEntry> {
 
     private final boolean recursive;
 
+    /**
+     * Whether bucket trees are fetched and compared on the thread pool
+     */
+    private final boolean parallel;
+
     /**
      * The {@link Strategy} used to iterate the two trees which tells whether to report or not tree
      * entries besides feature entries
      */
     private final Strategy strategy;
 
+    private final NodeStorageOrder storageOrder = new NodeStorageOrder();
+
+    @Nullable
+    private final NodeRef oldTreeRef;
+
+    @Nullable
+    private final NodeRef newTreeRef;
+
     public TreeDiffEntryIterator(@Nullable NodeRef oldTreeRef, @Nullable NodeRef newTreeRef,
             @Nullable RevTree oldTree, @Nullable RevTree newTree, final boolean reportTrees,
             final boolean recursive, final ObjectDatabase db) {
+        this(oldTreeRef, newTreeRef, oldTree, newTree, reportTrees, recursive, db, true);
+    }
+
+    TreeDiffEntryIterator(@Nullable NodeRef oldTreeRef, @Nullable NodeRef newTreeRef,
+            @Nullable RevTree oldTree, @Nullable RevTree newTree, final boolean reportTrees,
+            final boolean recursive, final ObjectDatabase db, final boolean parallel) {
 
         checkArgument(oldTree != null || newTree != null);
+        this.oldTreeRef = oldTreeRef;
+        this.newTreeRef = newTreeRef;
         this.reportTrees = reportTrees;
         this.recursive = recursive;
         this.objectDb = db;
+        this.parallel = parallel;
 
         this.strategy = resolveStrategy();
 
@@ -80,41 +130,8 @@ class TreeDiffEntryIterator extends AbstractIterator<DiffEntry> {
             delegate = addRemoveAll(newTreeRef, newTree, ADDED);
         } else if (newTree == null) {
             delegate = addRemoveAll(oldTreeRef, oldTree, REMOVED);
-        } else if (!oldTree.buckets().isPresent() && !newTree.buckets().isPresent()) {
-
-            Strategy itStategy = recursive ? DepthTreeIterator.Strategy.CHILDREN
-                    : DepthTreeIterator.Strategy.FEATURES_ONLY;
-
-            Iterator<NodeRef> left = new DepthTreeIterator(oldTreeRef.path(),
-                    oldTreeRef.getMetadataId(), oldTree, db, itStategy);
-
-            Iterator<NodeRef> right = new DepthTreeIterator(newTreeRef.path(),
-                    newTreeRef.getMetadataId(), newTree, db, itStategy);
-
-            delegate = new ChildrenChildrenDiff(left, right);
-        } else if (oldTree.buckets().isPresent() && newTree.buckets().isPresent()) {
-            delegate = new BucketBucketDiff(oldTreeRef, newTreeRef, oldTree.buckets().get(),
-                    newTree.buckets().get());
-        } else if (newTree.buckets().isPresent()) {
-            checkState(!oldTree.buckets().isPresent());
-            DepthTreeIterator left = new DepthTreeIterator(oldTreeRef.path(),
-                    oldTreeRef.getMetadataId(), oldTree, objectDb, strategy);
-
-            DepthTreeIterator rightIterator;
-            rightIterator = new DepthTreeIterator(newTreeRef.path(), newTreeRef.getMetadataId(),
-                    newTree, objectDb, strategy);
-            delegate = new ChildrenChildrenDiff(left, rightIterator);
         } else {
-            checkState(oldTree.buckets().isPresent());
-
-            DepthTreeIterator right = new DepthTreeIterator(newTreeRef.path(),
-                    newTreeRef.getMetadataId(), newTree, objectDb, strategy);
-
-            DepthTreeIterator leftIterator;
-            leftIterator = new DepthTreeIterator(oldTreeRef.path(), oldTreeRef.getMetadataId(),
-                    oldTree, objectDb, strategy);
-            delegate = new ChildrenChildrenDiff(leftIterator, right);
-            // delegate = new BucketsChildrenDiff(left, right);
+            delegate = diff(oldTree, newTree, 0, parallel);
         }
 
         // If the tree has changed its metadata Id, it will not be reported as a diff
@@ -147,6 +164,107 @@ class TreeDiffEntryIterator extends AbstractIterator<DiffEntry> {
         return strategy;
     }
 
+    /**
+     * Compares two trees, or two bucket subtrees of the trees being compared, whose nodes fall into
+     * buckets at {@code depth}.
+     */
+    private Iterator<DiffEntry> diff(final RevTree left, final RevTree right, final int depth,
+            final boolean parallel) {
+
+        final boolean leftBuckets = left.buckets().isPresent();
+        final boolean rightBuckets = right.buckets().isPresent();
+
+        if (!leftBuckets && !rightBuckets) {
+            return childrenChildrenDiff(left, right);
+        }
+        if (leftBuckets && rightBuckets) {
+            return bucketBucketDiff(left.buckets().get(), right.buckets().get(), depth, parallel);
+        }
+        if (rightBuckets) {
+            return childrenBucketDiff(left, right.buckets().get(), true, depth, parallel);
+        }
+        return childrenBucketDiff(right, left.buckets().get(), false, depth, parallel);
+    }
+
+    private Iterator<DiffEntry> childrenChildrenDiff(final RevTree left, final RevTree right) {
+        Strategy itStategy = recursive ? DepthTreeIterator.Strategy.CHILDREN
+                : DepthTreeIterator.Strategy.FEATURES_ONLY;
+
+        Iterator<NodeRef> leftIterator = new DepthTreeIterator(oldTreeRef.path(),
+                oldTreeRef.getMetadataId(), left, objectDb, itStategy);
+
+        Iterator<NodeRef> rightIterator = new DepthTreeIterator(newTreeRef.path(),
+                newTreeRef.getMetadataId(), right, objectDb, itStategy);
+
+        return new ChildrenChildrenDiff(leftIterator, rightIterator);
+    }
+
+    private Iterator<DiffEntry> bucketBucketDiff(final ImmutableSortedMap<Integer, Bucket> left,
+            final ImmutableSortedMap<Integer, Bucket> right, final int depth,
+            final boolean parallel) {
+
+        List<BucketPair> pairs = Lists.newArrayList();
+        SortedSet<Integer> buckets = Sets.newTreeSet(Sets.union(left.keySet(), right.keySet()));
+        for (Integer bucket : buckets) {
+            Bucket leftBucket = left.get(bucket);
+            Bucket rightBucket = right.get(bucket);
+            if (leftBucket != null && rightBucket != null
+                    && leftBucket.id().equals(rightBucket.id())) {
+                // same contents, prune
+                continue;
+            }
+            ObjectId leftId = leftBucket == null ? null : leftBucket.id();
+            ObjectId rightId = rightBucket == null ? null : rightBucket.id();
+            pairs.add(new BucketPair(null, leftId, null, rightId, depth + 1));
+        }
+        return new BucketBucketDiff(pairs, parallel);
+    }
+
+    /**
+     * Handles the case where one version of a tree has so few nodes that they all fit in its
+     * {@link RevTree#children() children}, but the other version of the tree has more nodes so its
+     * split into {@link RevTree#buckets()}, by splitting the children into the buckets they'd fall
+     * into at this depth.
+     */
+    private Iterator<DiffEntry> childrenBucketDiff(final RevTree children,
+            final ImmutableSortedMap<Integer, Bucket> buckets, final boolean childrenIsLeft,
+            final int depth, final boolean parallel) {
+
+        final ListMultimap<Integer, Node> treesByBucket = ArrayListMultimap.create();
+        final ListMultimap<Integer, Node> featuresByBucket = ArrayListMultimap.create();
+        // nodes are in storage order, and so is each bucket's list
+        for (Node node : children.trees().or(ImmutableList.<Node> of())) {
+            treesByBucket.put(storageOrder.bucket(node, depth), node);
+        }
+        for (Node node : children.features().or(ImmutableList.<Node> of())) {
+            featuresByBucket.put(storageOrder.bucket(node, depth), node);
+        }
+
+        List<BucketPair> pairs = Lists.newArrayList();
+        SortedSet<Integer> indexes = Sets.newTreeSet(buckets.keySet());
+        indexes.addAll(treesByBucket.keySet());
+        indexes.addAll(featuresByBucket.keySet());
+        for (Integer index : indexes) {
+            List<Node> trees = treesByBucket.get(index);
+            List<Node> features = featuresByBucket.get(index);
+            RevTree leaf = RevTree.EMPTY;
+            if (!trees.isEmpty() || !features.isEmpty()) {
+                leaf = RevTreeImpl.createLeafTree(ObjectId.NULL, features.size(),
+                        ImmutableList.copyOf(features), ImmutableList.copyOf(trees));
+            }
+            Bucket bucket = buckets.get(index);
+            ObjectId bucketId = bucket == null ? null : bucket.id();
+            BucketPair pair;
+            if (childrenIsLeft) {
+                pair = new BucketPair(leaf, null, null, bucketId, depth + 1);
+            } else {
+                pair = new BucketPair(null, bucketId, leaf, null, depth + 1);
+            }
+            pairs.add(pair);
+        }
+        return new BucketBucketDiff(pairs, parallel);
+    }
+
     @Override
     protected DiffEntry computeNext() {
         if (delegate.hasNext()) {
@@ -267,7 +385,7 @@ class TreeDiffEntryIterator extends AbstractIterator<DiffEntry> {
             Iterator<DiffEntry> it;
 
             it = new TreeDiffEntryIterator(nextLeft, nextRight, fromTree, toTree, reportTrees,
-                    recursive, objectDb);
+                    recursive, objectDb, parallel);
 
             return it;
         }
@@ -305,74 +423,127 @@ class TreeDiffEntryIterator extends AbstractIterator<DiffEntry> {
 
     }
 
-    private class BucketBucketDiff extends AbstractIterator<DiffEntry> {
+    /**
+     * The two versions of a bucket subtree to compare, each of which is either already resolved
+     * or the id of the bucket tree to fetch, or none if the bucket doesn't exist on that side.
+     */
+    private class BucketPair implements Callable<Iterator<DiffEntry>> {
+
+        @Nullable
+        private final RevTree leftTree, rightTree;
+
+        @Nullable
+        private final ObjectId leftId, rightId;
+
+        private final int depth;
+
+        BucketPair(@Nullable RevTree leftTree, @Nullable ObjectId leftId,
+                @Nullable RevTree rightTree, @Nullable ObjectId rightId, int depth) {
+            this.leftTree = leftTree;
+            this.leftId = leftId;
+            this.rightTree = rightTree;
+            this.rightId = rightId;
+            this.depth = depth;
+        }
+
+        private RevTree resolve(@Nullable RevTree tree, @Nullable ObjectId id) {
+            if (tree != null) {
+                return tree;
+            }
+            return id == null ? RevTree.EMPTY : objectDb.getTree(id);
+        }
 
         /**
-         * A multi-map of bucket/objectId where key is guaranteed to have two entries, the first one
-         * for the left tree id and the second one for he right tree id.
+         * Lazily compares the two subtrees on the calling thread
          */
-        private final ListMultimap<Integer, Optional<Bucket>> leftRightBuckets;
+        Iterator<DiffEntry> diff() {
+            RevTree left = resolve(leftTree, leftId);
+            RevTree right = resolve(rightTree, rightId);
+            return TreeDiffEntryIterator.this.diff(left, right, depth, false);
+        }
 
-        private final Iterator<Integer> combinedBuckets;
+        /**
+         * Called on the thread pool: fetches both subtrees and, if small enough, compares them
+         * right away; otherwise returns an iterator that descends further as it's consumed.
+         */
+        @Override
+        public Iterator<DiffEntry> call() {
+            RevTree left = resolve(leftTree, leftId);
+            RevTree right = resolve(rightTree, rightId);
+            if (left.numTrees() == 0 && right.numTrees() == 0
+                    && left.size() + right.size() <= EAGER_DIFF_LIMIT) {
+                Iterator<DiffEntry> diff = TreeDiffEntryIterator.this.diff(left, right, depth,
+                        false);
+                return ImmutableList.copyOf(diff).iterator();
+            }
+            return TreeDiffEntryIterator.this.diff(left, right, depth, true);
+        }
+    }
 
-        private Iterator<DiffEntry> currentBucketIterator;
+    /**
+     * Concatenates the differences of a list of bucket pairs, given in bucket index order. When
+     * parallel, all the pairs are submitted to the thread pool the first time the iterator is
+     * accessed, and their results consumed in order.
+     */
+    private class BucketBucketDiff extends AbstractIterator<DiffEntry> {
 
-        private NodeRef leftRef;
+        private final List<BucketPair> pairs;
 
-        private NodeRef rightRef;
+        private final boolean parallel;
 
-        public BucketBucketDiff(final NodeRef leftRef, final NodeRef rightRef,
-                final ImmutableSortedMap<Integer, Bucket> left,
-                final ImmutableSortedMap<Integer, Bucket> right) {
+        private Iterator<Iterator<DiffEntry>> bucketIterators;
 
-            this.leftRef = leftRef;
-            this.rightRef = rightRef;
-            int expectedKeys = left.size() + right.size();
-            int expectedValuesPerKey = 2;
-            leftRightBuckets = ArrayListMultimap.create(expectedKeys, expectedValuesPerKey);
+        private Iterator<DiffEntry> currentBucketIterator = Iterators.emptyIterator();
 
-            Set<Integer> buckets = Sets.newTreeSet(Sets.union(left.keySet(), right.keySet()));
-            for (Integer bucket : buckets) {
-                leftRightBuckets.put(bucket, Optional.fromNullable(left.get(bucket)));
-                leftRightBuckets.put(bucket, Optional.fromNullable(right.get(bucket)));
-            }
-            this.combinedBuckets = leftRightBuckets.keySet().iterator();
+        public BucketBucketDiff(final List<BucketPair> pairs, final boolean parallel) {
+            this.pairs = pairs;
+            this.parallel = parallel;
         }
 
         @Override
         protected DiffEntry computeNext() {
-            if (currentBucketIterator != null && currentBucketIterator.hasNext()) {
-                return currentBucketIterator.next();
-            }
-            if (!combinedBuckets.hasNext()) {
-                return endOfData();
+            if (bucketIterators == null) {
+                bucketIterators = parallel && pairs.size() > 1 ? submit() : sequential();
             }
-
-            while (combinedBuckets.hasNext()) {
-                final Integer bucket = combinedBuckets.next();
-                final Optional<Bucket> leftBucket = leftRightBuckets.get(bucket).get(0);
-                final Optional<Bucket> rightBucket = leftRightBuckets.get(bucket).get(1);
-
-                if (Objects.equal(leftBucket, rightBucket)) {
-                    continue;
+            while (!currentBucketIterator.hasNext()) {
+                if (!bucketIterators.hasNext()) {
+                    return endOfData();
                 }
-
-                final RevTree left = resolveTree(leftBucket);
-                final RevTree right = resolveTree(rightBucket);
-
-                this.currentBucketIterator = new TreeDiffEntryIterator(leftRef, rightRef, left,
-                        right, reportTrees, recursive, objectDb);
-                break;
+                currentBucketIterator = bucketIterators.next();
             }
-            return computeNext();
+            return currentBucketIterator.next();
+        }
+
+        private Iterator<Iterator<DiffEntry>> sequential() {
+            return Iterators.transform(pairs.iterator(),
+                    new Function<BucketPair, Iterator<DiffEntry>>() {
+                        @Override
+                        public Iterator<DiffEntry> apply(BucketPair pair) {
+                            return pair.diff();
+                        }
+                    });
         }
 
-        private RevTree resolveTree(Optional<Bucket> bucket) {
-            RevTree bucketTree = RevTree.EMPTY;
-            if (bucket.isPresent()) {
-                bucketTree = objectDb.getTree(bucket.get().id());
+        private Iterator<Iterator<DiffEntry>> submit() {
+            List<Future<Iterator<DiffEntry>>> futures = Lists.newArrayListWithCapacity(pairs
+                    .size());
+            for (BucketPair pair : pairs) {
+                futures.add(EXECUTOR.submit(pair));
             }
-            return bucketTree;
+            return Iterators.transform(futures.iterator(),
+                    new Function<Future<Iterator<DiffEntry>>, Iterator<DiffEntry>>() {
+                        @Override
+                        public Iterator<DiffEntry> apply(Future<Iterator<DiffEntry>> future) {
+                            try {
+                                return future.get();
+                            } catch (InterruptedException e) {
+                                Thread.currentThread().interrupt();
+                                throw Throwables.propagate(e);
+                            } catch (ExecutionException e) {
+                                throw Throwables.propagate(e.getCause());
+                            }
+                        }
+                    });
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,45 @@
+/* Copyright (c) 2013 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+package org.geogit.api.plumbing.merge;
+
+import org.geogit.api.FeatureInfo;
+import org.geogit.api.plumbing.diff.DiffEntry;
+
+/**
+ * Receives the changes of a merge scenario as {@link ReportMergeScenarioOp} finds them, so that
+ * they can be applied or written out without keeping all of them in memory.
+ *
+ * @see ReportMergeScenarioOp#setConsumer(MergeScenarioConsumer)
+ */
+public abstract class MergeScenarioConsumer {
+
+    /**
+     * Signals a change that conflicts with a change made by the receiving branch
+     */
+    public void conflicted(Conflict conflict) {
+        // no-op
+    }
+
+    /**
+     * Signals a change that can be applied as it is onto the receiving branch
+     */
+    public void unconflicted(DiffEntry diff) {
+        // no-op
+    }
+
+    /**
+     * Signals a new feature resulting from merging the changes made by both branches to it
+     */
+    public void merged(FeatureInfo featureInfo) {
+        // no-op
+    }
+
+    /**
+     * Signals that all the changes have been reported
+     */
+    public void finished() {
+        // no-op
+    }
+}
@@ -57,7 +57,9 @@ public class MergeScenarioReport {
 
     /**
      * List of diff entries that can be applied as they are, without merging with the corresponding
-     * features in the receiving branch, but overwriting them
+     * features in the receiving branch, but overwriting them.
+     * <p>
+     * Empty if the changes were handed to a {@link MergeScenarioConsumer} instead.
      * 
      * @return
      */
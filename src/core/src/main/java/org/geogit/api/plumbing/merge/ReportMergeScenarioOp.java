@@ -5,9 +5,10 @@
 package org.geogit.api.plumbing.merge;
 
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
-import java.util.Set;
+
+import javax.annotation.Nullable;
 
 import org.geogit.api.AbstractGeoGitOp;
 import org.geogit.api.FeatureInfo;
@@ -22,19 +23,22 @@ import org.geogit.api.RevTree;
 import org.geogit.api.plumbing.DiffFeature;
 import org.geogit.api.plumbing.DiffTree;
 import org.geogit.api.plumbing.FindCommonAncestor;
-import org.geogit.api.plumbing.FindTreeChild;
-import org.geogit.api.plumbing.ResolveObjectType;
 import org.geogit.api.plumbing.RevObjectParse;
 import org.geogit.api.plumbing.RevParse;
 import org.geogit.api.plumbing.diff.DiffEntry;
 import org.geogit.api.plumbing.diff.DiffEntry.ChangeType;
 import org.geogit.api.plumbing.diff.FeatureDiff;
+import org.geogit.repository.CachingDepthSearch;
+import org.geogit.storage.NodePathStorageOrder;
+import org.geogit.storage.ObjectDatabase;
 import org.opengis.feature.Feature;
 
 import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Suppliers;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import com.google.common.collect.UnmodifiableIterator;
 import com.google.inject.Inject;
 
 /**
@@ -42,15 +46,43 @@ import com.google.inject.Inject;
  * another reference commit, it returns the set of changes from the common ancestor to the first
  * commit, classified according to whether they can or not be safely applied onto the reference
  * commit. Changes that will have no effect on the target commit are not included as unconflicted.
+ * <p>
+ * Both histories are compared against the common ancestor with {@link DiffTree}, which reports
+ * changes in tree storage order. The two sequences of changes are walked side by side, so changes
+ * to the same path are found without holding all the changes of either history in memory, and
+ * the ancestor versions of the paths changed by both are looked up sharing the trees and buckets
+ * on the way to them.
  */
 public class ReportMergeScenarioOp extends AbstractGeoGitOp<MergeScenarioReport> {
 
+    private static final NodePathStorageOrder ORDER = new NodePathStorageOrder();
+
     private RevCommit toMerge;
 
     private RevCommit mergeInto;
 
+    @Nullable
+    private MergeScenarioConsumer consumer;
+
+    private ObjectDatabase objectDb;
+
+    private MergeScenarioReport report;
+
+    private RevTree ancestorTree;
+
+    private CachingDepthSearch ancestorSearch;
+
+    private LookAheadIterator mergeIntoDiffs;
+
+    /**
+     * The tree changes already walked past in {@link #mergeIntoDiffs}, trees whose only change is
+     * their metadata are reported after their contents
+     */
+    private Map<String, DiffEntry> mergeIntoTrees;
+
     @Inject
-    public ReportMergeScenarioOp() {
+    public ReportMergeScenarioOp(ObjectDatabase objectDb) {
+        this.objectDb = objectDb;
     }
 
     /**
@@ -69,6 +101,19 @@ public class ReportMergeScenarioOp extends AbstractGeoGitOp<MergeScenarioReport>
         return this;
     }
 
+    /**
+     * Sets a consumer to hand the changes to as they are found. Unconflicted changes are then only
+     * given to the consumer, and not collected in the returned report, which still contains the
+     * conflicts and merged features.
+     *
+     * @param consumer the consumer of the changes, or {@code null} to collect all of them in the
+     *        returned report
+     */
+    public ReportMergeScenarioOp setConsumer(@Nullable MergeScenarioConsumer consumer) {
+        this.consumer = consumer;
+        return this;
+    }
+
     @Override
     public MergeScenarioReport call() {
 
@@ -76,180 +121,304 @@ public class ReportMergeScenarioOp extends AbstractGeoGitOp<MergeScenarioReport>
                 .setRight(mergeInto).call();
         Preconditions.checkState(ancestor.isPresent(), "No ancestor commit could be found.");
 
-        Map<String, DiffEntry> mergeIntoDiffs = Maps.newHashMap();
-        MergeScenarioReport report = new MergeScenarioReport();
-
-        Iterator<DiffEntry> diffs = command(DiffTree.class).setOldTree(ancestor.get().getId())
-                .setReportTrees(true).setNewTree(mergeInto.getId()).call();
-        while (diffs.hasNext()) {
-            DiffEntry diff = diffs.next();
-            String path = diff.oldPath() == null ? diff.newPath() : diff.oldPath();
-            mergeIntoDiffs.put(path, diff);
-        }
+        report = new MergeScenarioReport();
+        ancestorTree = command(RevObjectParse.class).setObjectId(ancestor.get().getTreeId())
+                .call(RevTree.class).get();
+        ancestorSearch = new CachingDepthSearch(objectDb);
+        mergeIntoTrees = Maps.newHashMap();
+        mergeIntoDiffs = new LookAheadIterator(command(DiffTree.class)
+                .setOldTree(ancestor.get().getId()).setReportTrees(true)
+                .setNewTree(mergeInto.getId()).call());
 
         Iterator<DiffEntry> toMergeDiffs = command(DiffTree.class)
                 .setOldTree(ancestor.get().getId()).setReportTrees(true)
                 .setNewTree(toMerge.getId()).call();
         while (toMergeDiffs.hasNext()) {
             DiffEntry toMergeDiff = toMergeDiffs.next();
-            String path = toMergeDiff.oldPath() == null ? toMergeDiff.newPath() : toMergeDiff
-                    .oldPath();
-            if (mergeIntoDiffs.containsKey(path)) {
-                RevTree ancestorTree = command(RevObjectParse.class)
-                        .setObjectId(ancestor.get().getTreeId()).call(RevTree.class).get();
-                Optional<NodeRef> ancestorVersion = command(FindTreeChild.class).setChildPath(path)
-                        .setParent(ancestorTree).call();
-                ObjectId ancestorVersionId = ancestorVersion.isPresent() ? ancestorVersion.get()
-                        .getNode().getObjectId() : ObjectId.NULL;
-                ObjectId theirs = toMergeDiff.getNewObject() == null ? ObjectId.NULL : toMergeDiff
-                        .getNewObject().objectId();
-                DiffEntry mergeIntoDiff = mergeIntoDiffs.get(path);
-                ObjectId ours = mergeIntoDiff.getNewObject() == null ? ObjectId.NULL
-                        : mergeIntoDiff.getNewObject().objectId();
-                if (!mergeIntoDiff.changeType().equals(toMergeDiff.changeType())) {
-                    report.addConflict(new Conflict(path, ancestorVersionId, ours, theirs));
-                    continue;
-                }
-                switch (toMergeDiff.changeType()) {
-                case ADDED:
-                    if (toMergeDiff.getNewObject().equals(mergeIntoDiff.getNewObject())) {
-                        // already added in current branch, no need to do anything
-                    } else {
-                        TYPE type = command(ResolveObjectType.class).setObjectId(
-                                toMergeDiff.getNewObject().objectId()).call();
-                        if (TYPE.TREE.equals(type)) {
-                            boolean conflict = !toMergeDiff.getNewObject().getMetadataId()
-                                    .equals(mergeIntoDiff.getNewObject().getMetadataId());
-                            if (conflict) {
-                                // In this case, we store the metadata id, not the element id
-                                ancestorVersionId = ancestorVersion.isPresent() ? ancestorVersion
-                                        .get().getMetadataId() : ObjectId.NULL;
-                                ours = mergeIntoDiff.getNewObject().getMetadataId();
-                                theirs = toMergeDiff.getNewObject().getMetadataId();
-                                report.addConflict(new Conflict(path, ancestorVersionId, ours,
-                                        theirs));
-                            }
-                            // if the metadata ids match, it means both branches have added the same
-                            // tree, maybe with different content, but there is no need to do
-                            // anything. The correct tree is already there and the merge can be run
-                            // safely, so we do not add it neither as a conflicted change nor as an
-                            // unconflicted one
-                        } else {
-                            report.addConflict(new Conflict(path, ancestorVersionId, ours, theirs));
-                        }
-                    }
-                    break;
-                case REMOVED:
-                    // removed by both histories => no conflict and no need to do anything
-                    break;
-                case MODIFIED:
-                    TYPE type = command(ResolveObjectType.class).setObjectId(
-                            toMergeDiff.getNewObject().objectId()).call();
-                    if (TYPE.TREE.equals(type)) {
-                        boolean conflict = !toMergeDiff.getNewObject().getMetadataId()
-                                .equals(mergeIntoDiff.getNewObject().getMetadataId());
-                        if (conflict) {
-                            // In this case, we store the metadata id, not the element id
-                            ancestorVersionId = ancestorVersion.isPresent() ? ancestorVersion.get()
-                                    .getMetadataId() : ObjectId.NULL;
-                            ours = mergeIntoDiff.getNewObject().getMetadataId();
-                            theirs = toMergeDiff.getNewObject().getMetadataId();
-                            report.addConflict(new Conflict(path, ancestorVersionId, ours, theirs));
-                        }
-                    } else {
-                        FeatureDiff toMergeFeatureDiff = command(DiffFeature.class)
-                                .setOldVersion(Suppliers.ofInstance(toMergeDiff.getOldObject()))
-                                .setNewVersion(Suppliers.ofInstance(toMergeDiff.getNewObject()))
-                                .call();
-                        FeatureDiff mergeIntoFeatureDiff = command(DiffFeature.class)
-                                .setOldVersion(Suppliers.ofInstance(mergeIntoDiff.getOldObject()))
-                                .setNewVersion(Suppliers.ofInstance(mergeIntoDiff.getNewObject()))
-                                .call();
-                        if (toMergeFeatureDiff.conflicts(mergeIntoFeatureDiff)) {
-                            report.addConflict(new Conflict(path, ancestorVersionId, ours, theirs));
-                        } else {
-                            // if the feature types are different we report a conflict and do not
-                            // try to perform automerge
-                            if (!toMergeDiff.getNewObject().getMetadataId()
-                                    .equals(mergeIntoDiff.getNewObject().getMetadataId())) {
-                                report.addConflict(new Conflict(path, ancestorVersionId, ours,
-                                        theirs));
-                            } else if (!toMergeFeatureDiff.equals(mergeIntoFeatureDiff)) {
-                                Feature mergedFeature = command(MergeFeaturesOp.class)
-                                        .setFirstFeature(mergeIntoDiff.getNewObject())
-                                        .setSecondFeature(toMergeDiff.getNewObject())
-                                        .setAncestorFeature(mergeIntoDiff.getOldObject()).call();
-                                RevFeature revFeature = new RevFeatureBuilder()
-                                        .build(mergedFeature);
-                                if (revFeature.getId().equals(toMergeDiff.newObjectId())) {
-                                    // the resulting merged feature equals the feature to merge from
-                                    // the branch, which means that it exists in the repo and there
-                                    // is no need to add it
-                                    report.addUnconflicted(toMergeDiff);
-                                } else {
-                                    RevFeatureType featureType = command(RevObjectParse.class)
-                                            .setObjectId(
-                                                    mergeIntoDiff.getNewObject().getMetadataId())
-                                            .call(RevFeatureType.class).get();
-                                    FeatureInfo merged = new FeatureInfo(mergedFeature,
-                                            featureType, path);
-                                    report.addMerged(merged);
-                                }
-                            }
-                        }
-                    }
-                    break;
-                }
-            } else {
+            String path = path(toMergeDiff);
+            DiffEntry mergeIntoDiff = findMergeIntoDiff(toMergeDiff, path);
+            if (mergeIntoDiff != null) {
+                reportChangedByBoth(path, toMergeDiff, mergeIntoDiff);
+            } else if (ChangeType.REMOVED.equals(toMergeDiff.changeType())
+                    && TYPE.TREE.equals(toMergeDiff.getOldObject().getType())) {
                 // If the element is a tree, not a feature, it might be a conflict even if the other
                 // branch has not modified it.
                 // If we are removing the tree, we have to make sure that there are no features
                 // modified in the other branch under it.
-                if (ChangeType.REMOVED.equals(toMergeDiff.changeType())) {
-                    TYPE type = command(ResolveObjectType.class).setObjectId(
-                            toMergeDiff.oldObjectId()).call();
-                    if (TYPE.TREE.equals(type)) {
-                        String parentPath = toMergeDiff.oldPath();
-                        Set<Entry<String, DiffEntry>> entries = mergeIntoDiffs.entrySet();
-                        boolean conflict = false;
-                        for (Entry<String, DiffEntry> entry : entries) {
-                            if (entry.getKey().startsWith(parentPath)) {
-                                if (!ChangeType.REMOVED.equals(entry.getValue().changeType())) {
-                                    RevTree ancestorTree = command(RevObjectParse.class)
-                                            .setObjectId(ancestor.get().getTreeId())
-                                            .call(RevTree.class).get();
-                                    Optional<NodeRef> ancestorVersion = command(FindTreeChild.class)
-                                            .setChildPath(path).setParent(ancestorTree).call();
-                                    ObjectId ancestorVersionId = ancestorVersion.isPresent() ? ancestorVersion
-                                            .get().getNode().getObjectId()
-                                            : ObjectId.NULL;
-                                    ObjectId theirs = toMergeDiff.getNewObject() == null ? ObjectId.NULL
-                                            : toMergeDiff.getNewObject().objectId();
-                                    String oursRefSpec = mergeInto.getId().toString() + ":"
-                                            + parentPath;
-                                    Optional<ObjectId> ours = command(RevParse.class).setRefSpec(
-                                            oursRefSpec).call();
-                                    report.addConflict(new Conflict(path, ancestorVersionId, ours
-                                            .get(), theirs));
-                                    conflict = true;
-                                    break;
-                                }
-                            }
-                        }
-                        if (!conflict) {
-                            report.addUnconflicted(toMergeDiff);
+                if (isChangedUnder(path)) {
+                    String oursRefSpec = mergeInto.getId().toString() + ":" + path;
+                    Optional<ObjectId> ours = command(RevParse.class).setRefSpec(oursRefSpec)
+                            .call();
+                    conflicted(new Conflict(path, ancestorVersionId(path), ours.get(),
+                            ObjectId.NULL));
+                } else {
+                    unconflicted(toMergeDiff);
+                }
+            } else {
+                unconflicted(toMergeDiff);
+            }
+        }
+        if (consumer != null) {
+            consumer.finished();
+        }
+
+        return report;
+
+    }
+
+    private void reportChangedByBoth(final String path, final DiffEntry toMergeDiff,
+            final DiffEntry mergeIntoDiff) {
+        ObjectId theirs = toMergeDiff.getNewObject() == null ? ObjectId.NULL : toMergeDiff
+                .getNewObject().objectId();
+        ObjectId ours = mergeIntoDiff.getNewObject() == null ? ObjectId.NULL : mergeIntoDiff
+                .getNewObject().objectId();
+        if (!mergeIntoDiff.changeType().equals(toMergeDiff.changeType())) {
+            conflicted(new Conflict(path, ancestorVersionId(path), ours, theirs));
+            return;
+        }
+        switch (toMergeDiff.changeType()) {
+        case ADDED:
+            if (toMergeDiff.getNewObject().equals(mergeIntoDiff.getNewObject())) {
+                // already added in current branch, no need to do anything
+            } else {
+                if (TYPE.TREE.equals(toMergeDiff.getNewObject().getType())) {
+                    reportTreeChangedByBoth(path, toMergeDiff, mergeIntoDiff);
+                    // if the metadata ids match, it means both branches have added the same
+                    // tree, maybe with different content, but there is no need to do
+                    // anything. The correct tree is already there and the merge can be run
+                    // safely, so we do not add it neither as a conflicted change nor as an
+                    // unconflicted one
+                } else {
+                    conflicted(new Conflict(path, ancestorVersionId(path), ours, theirs));
+                }
+            }
+            break;
+        case REMOVED:
+            // removed by both histories => no conflict and no need to do anything
+            break;
+        case MODIFIED:
+            if (TYPE.TREE.equals(toMergeDiff.getNewObject().getType())) {
+                reportTreeChangedByBoth(path, toMergeDiff, mergeIntoDiff);
+            } else {
+                FeatureDiff toMergeFeatureDiff = command(DiffFeature.class)
+                        .setOldVersion(Suppliers.ofInstance(toMergeDiff.getOldObject()))
+                        .setNewVersion(Suppliers.ofInstance(toMergeDiff.getNewObject())).call();
+                FeatureDiff mergeIntoFeatureDiff = command(DiffFeature.class)
+                        .setOldVersion(Suppliers.ofInstance(mergeIntoDiff.getOldObject()))
+                        .setNewVersion(Suppliers.ofInstance(mergeIntoDiff.getNewObject())).call();
+                if (toMergeFeatureDiff.conflicts(mergeIntoFeatureDiff)) {
+                    conflicted(new Conflict(path, ancestorVersionId(path), ours, theirs));
+                } else {
+                    // if the feature types are different we report a conflict and do not
+                    // try to perform automerge
+                    if (!toMergeDiff.getNewObject().getMetadataId()
+                            .equals(mergeIntoDiff.getNewObject().getMetadataId())) {
+                        conflicted(new Conflict(path, ancestorVersionId(path), ours, theirs));
+                    } else if (!toMergeFeatureDiff.equals(mergeIntoFeatureDiff)) {
+                        Feature mergedFeature = command(MergeFeaturesOp.class)
+                                .setFirstFeature(mergeIntoDiff.getNewObject())
+                                .setSecondFeature(toMergeDiff.getNewObject())
+                                .setAncestorFeature(mergeIntoDiff.getOldObject()).call();
+                        RevFeature revFeature = new RevFeatureBuilder().build(mergedFeature);
+                        if (revFeature.getId().equals(toMergeDiff.newObjectId())) {
+                            // the resulting merged feature equals the feature to merge from
+                            // the branch, which means that it exists in the repo and there
+                            // is no need to add it
+                            unconflicted(toMergeDiff);
+                        } else {
+                            RevFeatureType featureType = command(RevObjectParse.class)
+                                    .setObjectId(mergeIntoDiff.getNewObject().getMetadataId())
+                                    .call(RevFeatureType.class).get();
+                            FeatureInfo merged = new FeatureInfo(mergedFeature, featureType, path);
+                            merged(merged);
                         }
-                    } else {
-                        report.addUnconflicted(toMergeDiff);
                     }
-                } else {
-                    report.addUnconflicted(toMergeDiff);
                 }
             }
+            break;
+        }
+    }
 
+    private void reportTreeChangedByBoth(final String path, final DiffEntry toMergeDiff,
+            final DiffEntry mergeIntoDiff) {
+        boolean conflict = !toMergeDiff.getNewObject().getMetadataId()
+                .equals(mergeIntoDiff.getNewObject().getMetadataId());
+        if (conflict) {
+            // In this case, we store the metadata id, not the element id
+            Optional<NodeRef> ancestorVersion = ancestorSearch.find(ancestorTree, path);
+            ObjectId ancestorVersionId = ancestorVersion.isPresent() ? ancestorVersion.get()
+                    .getMetadataId() : ObjectId.NULL;
+            ObjectId ours = mergeIntoDiff.getNewObject().getMetadataId();
+            ObjectId theirs = toMergeDiff.getNewObject().getMetadataId();
+            conflicted(new Conflict(path, ancestorVersionId, ours, theirs));
         }
+    }
 
-        return report;
+    /**
+     * Walks the changes made by the receiving branch up to the position of the given change made
+     * by the branch to merge.
+     *
+     * @return the change made by the receiving branch to the same path, or {@code null}
+     */
+    @Nullable
+    private DiffEntry findMergeIntoDiff(final DiffEntry toMergeDiff, final String path) {
+        if (ChangeType.MODIFIED.equals(toMergeDiff.changeType())
+                && TYPE.TREE.equals(toMergeDiff.getNewObject().getType())) {
+            // a tree whose metadata changed is reported after its contents, and so might be the
+            // change made to it by the receiving branch, or that one might be already past
+            skip(path, true);
+            return mergeIntoTrees.get(path);
+        }
+        skip(path, false);
+        if (mergeIntoDiffs.hasNext() && path.equals(path(mergeIntoDiffs.peek(0)))) {
+            return consumeMergeIntoDiff();
+        }
+        return null;
+    }
+
+    /**
+     * Walks past the changes made by the receiving branch that are reported before the changes to
+     * {@code path}, and, if {@code inclusive}, past the ones to {@code path} and its children too.
+     */
+    private void skip(final String path, final boolean inclusive) {
+        while (mergeIntoDiffs.hasNext()) {
+            String next = path(mergeIntoDiffs.peek(0));
+            boolean skip = precedes(next, path)
+                    || (inclusive && (next.equals(path) || NodeRef.isChild(path, next)));
+            if (!skip) {
+                break;
+            }
+            consumeMergeIntoDiff();
+        }
+    }
+
+    private DiffEntry consumeMergeIntoDiff() {
+        DiffEntry diff = mergeIntoDiffs.next();
+        NodeRef ref = diff.getNewObject() == null ? diff.getOldObject() : diff.getNewObject();
+        if (TYPE.TREE.equals(ref.getType())) {
+            mergeIntoTrees.put(path(diff), diff);
+        }
+        return diff;
+    }
+
+    /**
+     * @return whether the receiving branch made any change other than a removal to the given tree
+     *         or its children. Those are reported next, so they are looked ahead instead of walked
+     *         past, as the changes to the children made by the other branch are still to come.
+     */
+    private boolean isChangedUnder(final String treePath) {
+        for (int i = 0;; i++) {
+            DiffEntry next = mergeIntoDiffs.peek(i);
+            if (next == null) {
+                return false;
+            }
+            String nextPath = path(next);
+            if (!nextPath.equals(treePath) && !NodeRef.isChild(treePath, nextPath)) {
+                return false;
+            }
+            if (!ChangeType.REMOVED.equals(next.changeType())) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Whether changes to {@code path} are reported before changes to {@code other} by
+     * {@link DiffTree}: at the first step the paths differ in, they are in tree storage order, and
+     * a tree is reported before its contents (or after all of them, in which case none of them
+     * are left to compare to).
+     */
+    private static boolean precedes(final String path, final String other) {
+        List<String> steps = NodeRef.split(path);
+        List<String> otherSteps = NodeRef.split(other);
+        final int common = Math.min(steps.size(), otherSteps.size());
+        for (int i = 0; i < common; i++) {
+            String step = steps.get(i);
+            String otherStep = otherSteps.get(i);
+            if (!step.equals(otherStep)) {
+                return ORDER.compare(step, otherStep) < 0;
+            }
+        }
+        return steps.size() < otherSteps.size();
+    }
+
+    private ObjectId ancestorVersionId(final String path) {
+        Optional<NodeRef> ancestorVersion = ancestorSearch.find(ancestorTree, path);
+        return ancestorVersion.isPresent() ? ancestorVersion.get().getNode().getObjectId()
+                : ObjectId.NULL;
+    }
 
+    private static String path(final DiffEntry diff) {
+        return diff.oldPath() == null ? diff.newPath() : diff.oldPath();
+    }
+
+    private void conflicted(final Conflict conflict) {
+        report.addConflict(conflict);
+        if (consumer != null) {
+            consumer.conflicted(conflict);
+        }
+    }
+
+    private void unconflicted(final DiffEntry diff) {
+        if (consumer == null) {
+            report.addUnconflicted(diff);
+        } else {
+            consumer.unconflicted(diff);
+        }
+    }
+
+    private void merged(final FeatureInfo merged) {
+        report.addMerged(merged);
+        if (consumer != null) {
+            consumer.merged(merged);
+        }
+    }
+
+    /**
+     * An iterator that can look any number of elements ahead, keeping only the ones looked at
+     */
+    private static class LookAheadIterator extends UnmodifiableIterator<DiffEntry> {
+
+        private final Iterator<DiffEntry> source;
+
+        private final List<DiffEntry> buffer = Lists.newArrayList();
+
+        private int head;
+
+        public LookAheadIterator(Iterator<DiffEntry> source) {
+            this.source = source;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return head < buffer.size() || source.hasNext();
+        }
+
+        @Override
+        public DiffEntry next() {
+            if (head == buffer.size()) {
+                return source.next();
+            }
+            DiffEntry next = buffer.get(head);
+            buffer.set(head, null);
+            head++;
+            if (head == buffer.size()) {
+                buffer.clear();
+                head = 0;
+            }
+            return next;
+        }
+
+        /**
+         * @return the element {@code index} positions ahead of the next one, or {@code null} if
+         *         there aren't as many left
+         */
+        @Nullable
+        public DiffEntry peek(int index) {
+            while (buffer.size() - head <= index && source.hasNext()) {
+                buffer.add(source.next());
+            }
+            return head + index < buffer.size() ? buffer.get(head + index) : null;
+        }
     }
 }
@@ -8,6 +8,7 @@ import java.util.Iterator;
 import java.util.Map;
 
 import org.geogit.api.AbstractGeoGitOp;
+import org.geogit.api.NodeRef;
 import org.geogit.api.ObjectId;
 import org.geogit.api.Ref;
 import org.geogit.api.RevCommit;
@@ -17,22 +18,32 @@ import org.geogit.api.RevObject.TYPE;
 import org.geogit.api.plumbing.DiffFeature;
 import org.geogit.api.plumbing.ResolveFeatureType;
 import org.geogit.api.plumbing.ResolveObjectType;
-import org.geogit.api.plumbing.RevObjectParse;
 import org.geogit.api.plumbing.RevParse;
 import org.geogit.api.plumbing.diff.AttributeDiff;
-import org.geogit.api.plumbing.diff.DiffEntry;
 import org.geogit.api.plumbing.diff.FeatureDiff;
 import org.geogit.api.porcelain.BlameException.StatusCode;
 import org.geogit.di.CanRunDuringConflict;
+import org.geogit.repository.CachingDepthSearch;
+import org.geogit.repository.Repository;
+import org.geogit.storage.ChangedPathsDatabase;
+import org.geogit.storage.ChangedPathsFilter;
 import org.opengis.feature.type.PropertyDescriptor;
 
 import com.google.common.base.Optional;
 import com.google.common.base.Suppliers;
+import com.google.inject.Inject;
 
 /**
  * Creates a report that contains information about who was the last to change each attribute in a
  * feature
+ * <p>
+ * History is followed through first parents. The versions of the feature at each commit are
+ * compared by object id, looking them up with a {@link CachingDepthSearch} that descends only the
+ * trees and buckets on the way to the feature, and commits whose
+ * {@link ChangedPathsDatabase changed paths filter} rules out the feature are skipped without
+ * reading their trees. Only the versions that differ are compared attribute by attribute.
  * 
+ * @see LayerBlameOp
  */
 @CanRunDuringConflict
 public class BlameOp extends AbstractGeoGitOp<BlameReport> {
@@ -41,6 +52,18 @@ public class BlameOp extends AbstractGeoGitOp<BlameReport> {
 
     private ObjectId commit;
 
+    private CachingDepthSearch search;
+
+    private Repository repository;
+
+    private ChangedPathsDatabase changedPaths;
+
+    @Inject
+    public BlameOp(Repository repository, ChangedPathsDatabase changedPaths) {
+        this.repository = repository;
+        this.changedPaths = changedPaths;
+    }
+
     /**
      * Sets the path of the feature to use
      * 
@@ -63,6 +86,19 @@ public class BlameOp extends AbstractGeoGitOp<BlameReport> {
         return this;
     }
 
+    /**
+     * Sets the search used to find the versions of the feature along history. Blaming several
+     * features of the same layer with the same search shares the lookups of the trees they have in
+     * common. If not set, a new one is used for each call.
+     * 
+     * @param search a search over the repository object database
+     * @return {@code this}
+     */
+    public BlameOp setSearch(CachingDepthSearch search) {
+        this.search = search;
+        return this;
+    }
+
     @Override
     public BlameReport call() {
         String fullPath = (commit != null ? commit.toString() : Ref.HEAD) + ":" + path;
@@ -79,50 +115,67 @@ public class BlameOp extends AbstractGeoGitOp<BlameReport> {
 
         BlameReport report = new BlameReport(featureType.get());
 
-        Iterator<RevCommit> log = command(LogOp.class).addPath(path).setUntil(commit).call();
-        RevCommit commit = log.next();
-        RevObjectParse revObjectParse = command(RevObjectParse.class);
-        DiffOp diffOp = command(DiffOp.class);
+        final CachingDepthSearch search = this.search == null ? new CachingDepthSearch(
+                repository.getObjectDatabase()) : this.search;
+
+        final ObjectId startId = command(RevParse.class)
+                .setRefSpec(commit != null ? commit.toString() : Ref.HEAD).call().get();
+        RevCommit current = repository.getCommit(startId);
+        NodeRef currentVersion = search.find(current.getTreeId(), path).get();
         DiffFeature diffFeature = command(DiffFeature.class);
 
         while (!report.isComplete()) {
-            if (!log.hasNext()) {
-                String refSpec = commit.getId().toString() + ":" + path;
-                RevFeature feature = revObjectParse.setRefSpec(refSpec).call(RevFeature.class)
-                        .get();
-                report.setFirstVersion(feature, commit);
+            Optional<ObjectId> parentId = current.parentN(0);
+            if (!parentId.isPresent() || !repository.commitExists(parentId.get())) {
+                // reached the beginning of history, or the bottom of a shallow clone
+                report.setFirstVersion(feature(currentVersion), current);
                 break;
             }
-            RevCommit commitB = log.next();
-            Iterator<DiffEntry> diffs = diffOp.setNewVersion(commit.getId())
-                    .setOldVersion(commitB.getId()).setReportTrees(false).call();
-
-            while (diffs.hasNext()) {
-                DiffEntry diff = diffs.next();
-                if (path.equals(diff.newPath())) {
-                    if (diff.isAdd()) {
-                        String refSpec = commit.getId().toString() + ":" + path;
-                        RevFeature feature = revObjectParse.setRefSpec(refSpec)
-                                .call(RevFeature.class).get();
-                        report.setFirstVersion(feature, commit);
-                        break;
-                    }
-                    FeatureDiff featureDiff = diffFeature
-                            .setNewVersion(Suppliers.ofInstance(diff.getNewObject()))
-                            .setOldVersion(Suppliers.ofInstance(diff.getOldObject())).call();
-                    Map<PropertyDescriptor, AttributeDiff> attribDiffs = featureDiff.getDiffs();
-                    Iterator<PropertyDescriptor> iter = attribDiffs.keySet().iterator();
-                    while (iter.hasNext()) {
-                        PropertyDescriptor key = iter.next();
-                        Optional<?> value = attribDiffs.get(key).getNewValue();
-                        String attribute = key.getName().toString();
-                        report.addDiff(attribute, value, commit);
-                    }
-                }
-
+            final RevCommit parent = repository.getCommit(parentId.get());
+            if (!mightChange(current, path)) {
+                current = parent;
+                continue;
             }
-            commit = commitB;
+            Optional<NodeRef> parentVersion = search.find(parent.getTreeId(), path);
+            if (!parentVersion.isPresent()) {
+                report.setFirstVersion(feature(currentVersion), current);
+                break;
+            }
+            if (!parentVersion.get().objectId().equals(currentVersion.objectId())) {
+                FeatureDiff featureDiff = diffFeature
+                        .setNewVersion(Suppliers.ofInstance(currentVersion))
+                        .setOldVersion(Suppliers.ofInstance(parentVersion.get())).call();
+                addDiffs(report, featureDiff, current);
+                currentVersion = parentVersion.get();
+            }
+            current = parent;
         }
         return report;
     }
+
+    private RevFeature feature(NodeRef version) {
+        return repository.getObjectDatabase().getFeature(version.objectId());
+    }
+
+    /**
+     * @return {@code false} if the commit's changed paths filter rules out {@code path}
+     */
+    private boolean mightChange(RevCommit commit, String path) {
+        Optional<ChangedPathsFilter> filter = changedPaths.get(commit.getId());
+        return !filter.isPresent() || filter.get().mightContain(path);
+    }
+
+    /**
+     * Reports the attributes changed by {@code commit} according to {@code featureDiff}
+     */
+    static void addDiffs(BlameReport report, FeatureDiff featureDiff, RevCommit commit) {
+        Map<PropertyDescriptor, AttributeDiff> attribDiffs = featureDiff.getDiffs();
+        Iterator<PropertyDescriptor> iter = attribDiffs.keySet().iterator();
+        while (iter.hasNext()) {
+            PropertyDescriptor key = iter.next();
+            Optional<?> value = attribDiffs.get(key).getNewValue();
+            String attribute = key.getName().toString();
+            report.addDiff(attribute, value, commit);
+        }
+    }
 }
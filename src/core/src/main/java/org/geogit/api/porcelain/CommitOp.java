@@ -26,6 +26,7 @@ import org.geogit.api.SymRef;
 import org.geogit.api.plumbing.RefParse;
 import org.geogit.api.plumbing.ResolveTreeish;
 import org.geogit.api.plumbing.RevObjectParse;
+import org.geogit.api.plumbing.UpdateChangedPaths;
 import org.geogit.api.plumbing.UpdateRef;
 import org.geogit.api.plumbing.UpdateSymRef;
 import org.geogit.api.plumbing.WriteTree2;
@@ -362,6 +363,7 @@ public class CommitOp extends AbstractGeoGitOp<RevCommit> {
             return null;
         }
         objectDb.put(commit);
+        command(UpdateChangedPaths.class).setCommit(commit).call();
         // set the HEAD pointing to the new commit
         final Optional<Ref> branchHead = command(UpdateRef.class).setName(currentBranch)
                 .setNewValue(commit.getId()).call();
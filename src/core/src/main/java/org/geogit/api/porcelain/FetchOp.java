@@ -14,6 +14,7 @@ import org.geogit.api.ObjectId;
 import org.geogit.api.Ref;
 import org.geogit.api.Remote;
 import org.geogit.api.SymRef;
+import org.geogit.api.plumbing.BackfillChangedPaths;
 import org.geogit.api.plumbing.LsRemote;
 import org.geogit.api.plumbing.RefParse;
 import org.geogit.api.plumbing.UpdateRef;
@@ -264,6 +265,8 @@ public class FetchOp extends AbstractGeoGitOp<FetchResult> {
                         // Update the ref
                         Ref updatedRef = updateLocalRef(ref.getNewRef(), remote, localRemoteRefs);
                         ref.setNewRef(updatedRef);
+                        command(BackfillChangedPaths.class).setTip(updatedRef.getObjectId())
+                                .call();
                     }
                 }
 
@@ -0,0 +1,173 @@
+/* Copyright (c) 2013 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+package org.geogit.api.porcelain;
+
+import java.util.Iterator;
+import java.util.Map;
+
+import org.geogit.api.AbstractGeoGitOp;
+import org.geogit.api.NodeRef;
+import org.geogit.api.ObjectId;
+import org.geogit.api.Ref;
+import org.geogit.api.RevCommit;
+import org.geogit.api.RevFeatureType;
+import org.geogit.api.RevObject.TYPE;
+import org.geogit.api.plumbing.DiffFeature;
+import org.geogit.api.plumbing.DiffTree;
+import org.geogit.api.plumbing.LsTreeOp;
+import org.geogit.api.plumbing.LsTreeOp.Strategy;
+import org.geogit.api.plumbing.ResolveObjectType;
+import org.geogit.api.plumbing.RevParse;
+import org.geogit.api.plumbing.diff.DiffEntry;
+import org.geogit.api.plumbing.diff.FeatureDiff;
+import org.geogit.api.porcelain.BlameException.StatusCode;
+import org.geogit.di.CanRunDuringConflict;
+import org.geogit.repository.Repository;
+import org.geogit.storage.ChangedPathsDatabase;
+import org.geogit.storage.ChangedPathsFilter;
+import org.geogit.storage.ObjectDatabase;
+
+import com.google.common.base.Optional;
+import com.google.common.base.Suppliers;
+import com.google.common.collect.Maps;
+import com.google.inject.Inject;
+
+/**
+ * Creates a {@link BlameReport} for each feature in a feature type tree, in a single pass over
+ * history.
+ * <p>
+ * Instead of following each feature on its own as {@link BlameOp} does, the differences between
+ * each commit and its first parent are computed once for the whole tree, skipping the buckets that
+ * didn't change, and dispatched to the reports of the features they affect. History is walked until
+ * all reports are complete.
+ */
+@CanRunDuringConflict
+public class LayerBlameOp extends AbstractGeoGitOp<Map<String, BlameReport>> {
+
+    private String path;
+
+    private ObjectId commit;
+
+    private Repository repository;
+
+    private ChangedPathsDatabase changedPaths;
+
+    @Inject
+    public LayerBlameOp(Repository repository, ChangedPathsDatabase changedPaths) {
+        this.repository = repository;
+        this.changedPaths = changedPaths;
+    }
+
+    /**
+     * @param path the path of the feature type tree to blame
+     * @return {@code this}
+     */
+    public LayerBlameOp setPath(String path) {
+        this.path = path;
+        return this;
+    }
+
+    /**
+     * @param commit the commit to blame from, defaults to {@code HEAD}
+     * @return {@code this}
+     */
+    public LayerBlameOp setCommit(ObjectId commit) {
+        this.commit = commit;
+        return this;
+    }
+
+    /**
+     * @return the reports of the features in the tree at the blamed commit, keyed by feature path
+     */
+    @Override
+    public Map<String, BlameReport> call() {
+        final String startSpec = commit != null ? commit.toString() : Ref.HEAD;
+        Optional<ObjectId> id = command(RevParse.class).setRefSpec(startSpec + ":" + path).call();
+        if (!id.isPresent()) {
+            throw new BlameException(StatusCode.FEATURE_NOT_FOUND);
+        }
+        TYPE type = command(ResolveObjectType.class).setObjectId(id.get()).call();
+        if (!type.equals(TYPE.TREE)) {
+            throw new BlameException(StatusCode.PATH_NOT_FEATURE);
+        }
+
+        final ObjectDatabase objectDb = repository.getObjectDatabase();
+        final Map<String, BlameReport> reports = Maps.newTreeMap();
+        // the reports still missing some attribute, with the version of the feature at current
+        final Map<String, NodeRef> pending = Maps.newHashMap();
+        final Map<ObjectId, RevFeatureType> featureTypes = Maps.newHashMap();
+
+        Iterator<NodeRef> features = command(LsTreeOp.class)
+                .setReference(startSpec + ":" + path)
+                .setStrategy(Strategy.DEPTHFIRST_ONLY_FEATURES).call();
+        while (features.hasNext()) {
+            NodeRef feature = features.next();
+            String featurePath = feature.path();
+            ObjectId metadataId = feature.getMetadataId();
+            RevFeatureType featureType = featureTypes.get(metadataId);
+            if (featureType == null) {
+                featureType = objectDb.getFeatureType(metadataId);
+                featureTypes.put(metadataId, featureType);
+            }
+            reports.put(featurePath, new BlameReport(featureType));
+            pending.put(featurePath, feature);
+        }
+
+        final ObjectId startId = command(RevParse.class).setRefSpec(startSpec).call().get();
+        RevCommit current = repository.getCommit(startId);
+        DiffFeature diffFeature = command(DiffFeature.class);
+
+        while (!pending.isEmpty()) {
+            Optional<ObjectId> parentId = current.parentN(0);
+            if (!parentId.isPresent() || !repository.commitExists(parentId.get())) {
+                // reached the beginning of history, or the bottom of a shallow clone
+                for (Map.Entry<String, NodeRef> e : pending.entrySet()) {
+                    reports.get(e.getKey()).setFirstVersion(
+                            objectDb.getFeature(e.getValue().objectId()), current);
+                }
+                break;
+            }
+            final RevCommit parent = repository.getCommit(parentId.get());
+            Optional<ChangedPathsFilter> filter = changedPaths.get(current.getId());
+            if (filter.isPresent() && !filter.get().mightContain(path)) {
+                current = parent;
+                continue;
+            }
+
+            Iterator<DiffEntry> diffs = command(DiffTree.class).setOldTree(parent.getTreeId())
+                    .setNewTree(current.getTreeId()).setFilterPath(path).setReportTrees(false)
+                    .call();
+            while (diffs.hasNext()) {
+                DiffEntry diff = diffs.next();
+                NodeRef newVersion = diff.getNewObject();
+                if (newVersion == null) {
+                    continue;
+                }
+                final String featurePath = newVersion.path();
+                final NodeRef currentVersion = pending.get(featurePath);
+                if (currentVersion == null) {
+                    continue;
+                }
+                BlameReport report = reports.get(featurePath);
+                NodeRef oldVersion = diff.getOldObject();
+                if (oldVersion == null) {
+                    report.setFirstVersion(objectDb.getFeature(currentVersion.objectId()),
+                            current);
+                } else {
+                    FeatureDiff featureDiff = diffFeature
+                            .setNewVersion(Suppliers.ofInstance(currentVersion))
+                            .setOldVersion(Suppliers.ofInstance(oldVersion)).call();
+                    BlameOp.addDiffs(report, featureDiff, current);
+                    pending.put(featurePath, oldVersion);
+                }
+                if (report.isComplete()) {
+                    pending.remove(featurePath);
+                }
+            }
+            current = parent;
+        }
+        return reports;
+    }
+}
@@ -26,6 +26,8 @@ import org.geogit.api.plumbing.FindTreeChild;
 import org.geogit.api.plumbing.RevParse;
 import org.geogit.di.CanRunDuringConflict;
 import org.geogit.repository.Repository;
+import org.geogit.storage.ChangedPathsDatabase;
+import org.geogit.storage.ChangedPathsFilter;
 import org.geogit.storage.GraphDatabase;
 import org.geotools.util.Range;
 
@@ -84,6 +86,8 @@ public class LogOp extends AbstractGeoGitOp<Iterator<RevCommit>> {
 
     private GraphDatabase graphDb;
 
+    private ChangedPathsDatabase changedPaths;
+
     private List<ObjectId> commits = Lists.newArrayList();
 
     /**
@@ -92,9 +96,11 @@ public class LogOp extends AbstractGeoGitOp<Iterator<RevCommit>> {
      * @param repository the repository to log commits from
      */
     @Inject
-    public LogOp(final Repository repository, GraphDatabase graphDb) {
+    public LogOp(final Repository repository, GraphDatabase graphDb,
+            ChangedPathsDatabase changedPaths) {
         this.repository = repository;
         this.graphDb = graphDb;
+        this.changedPaths = changedPaths;
         timeRange = ALWAYS;
     }
 
@@ -495,6 +501,11 @@ public class LogOp extends AbstractGeoGitOp<Iterator<RevCommit>> {
 
         private final Map<String, ObjectId> paths;
 
+        /**
+         * The commit whose tree the hashes in {@link #paths} were taken from
+         */
+        private ObjectId pathsCommitId = ObjectId.NULL;
+
         private Pattern author;
 
         private Pattern committer;
@@ -522,8 +533,8 @@ public class LogOp extends AbstractGeoGitOp<Iterator<RevCommit>> {
             if (paths != null && paths.size() > 0) {
                 findTreeChild = command(FindTreeChild.class);
                 // We can determine if the path was affected by comparing the hash of the node with
-                // the hash of the node in the parent tree, this map stores the most recent hash.
-                // Specifying null as the hash will cause the first commit to find the first hash.
+                // the hash of the node in the parent tree, this map stores the most recent hash,
+                // which is the commit's own when walking down a line of first parents.
                 this.paths = new HashMap<String, ObjectId>();
                 for (String path : paths) {
                     this.paths.put(path, null);
@@ -569,45 +580,62 @@ public class LogOp extends AbstractGeoGitOp<Iterator<RevCommit>> {
                 applies = false;
                 // did this commit touch any of the paths?
                 ObjectId parentId = commit.parentN(0).or(ObjectId.NULL);
+                if (!commit.getId().equals(pathsCommitId)) {
+                    // not the parent of the last commit evaluated, as happens when walking a
+                    // merged branch, so the hashes we have are not this commit's
+                    RevTree commitTree = repository.getTree(commit.getTreeId());
+                    for (String path : paths.keySet()) {
+                        paths.put(path, getPathHash(commitTree, path));
+                    }
+                    pathsCommitId = commit.getId();
+                }
                 if (parentId.equals(ObjectId.NULL) || !repository.commitExists(parentId)) {
                     // we have reached the bottom of a shallow clone or the end of history.
-                    for (String path : paths.keySet()) {
-                        ObjectId value = paths.get(path);
-                        if (value == null) {
-                            // First commit we are processing
-                            RevTree commitTree = repository.getTree(commit.getTreeId());
-                            value = getPathHash(commitTree, path);
-                        }
+                    for (ObjectId value : paths.values()) {
                         if (!value.equals(ObjectId.NULL)) {
                             applies = true;
                             break;
                         }
                     }
                 } else {
+                    if (!mightChangePaths(commit)) {
+                        // the hashes in the parent tree are the same we already have
+                        pathsCommitId = parentId;
+                        return false;
+                    }
                     RevTree parentTree = repository.getTree(repository.getCommit(parentId)
                             .getTreeId());
-                    ObjectId hash = ObjectId.NULL;
-                    ObjectId compare = null;
                     for (String path : paths.keySet()) {
-                        compare = paths.get(path);
-                        if (compare == null) {
-                            // First commit we are processing
-                            RevTree commitTree = repository.getTree(commit.getTreeId());
-                            paths.put(path, getPathHash(commitTree, path));
-                        }
-                        hash = getPathHash(parentTree, path);
+                        ObjectId hash = getPathHash(parentTree, path);
                         if (!hash.equals(paths.get(path))) {
                             applies = true;
                             paths.put(path, hash);
-                            break;
                         }
                     }
+                    pathsCommitId = parentId;
                 }
             }
 
             return applies;
         }
 
+        /**
+         * @return {@code false} if the commit's {@link ChangedPathsFilter changed paths filter}
+         *         rules out all the paths, {@code true} if it doesn't or the commit has no filter
+         */
+        private boolean mightChangePaths(final RevCommit commit) {
+            Optional<ChangedPathsFilter> filter = changedPaths.get(commit.getId());
+            if (!filter.isPresent()) {
+                return true;
+            }
+            for (String path : paths.keySet()) {
+                if (filter.get().mightContain(path)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
         private ObjectId getPathHash(RevTree tree, String path) {
             ObjectId hash = ObjectId.NULL;
             Optional<NodeRef> ref = findTreeChild.setChildPath(path).setParent(tree).call();
@@ -17,6 +17,7 @@ import org.geogit.api.ObjectId;
 import org.geogit.api.ProgressListener;
 import org.geogit.api.Ref;
 import org.geogit.api.RevCommit;
+import org.geogit.api.RevObject.TYPE;
 import org.geogit.api.SubProgressListener;
 import org.geogit.api.SymRef;
 import org.geogit.api.plumbing.DiffTree;
@@ -26,9 +27,11 @@ import org.geogit.api.plumbing.ResolveBranchId;
 import org.geogit.api.plumbing.UpdateRef;
 import org.geogit.api.plumbing.UpdateSymRef;
 import org.geogit.api.plumbing.diff.DiffEntry;
+import org.geogit.api.plumbing.diff.DiffEntry.ChangeType;
 import org.geogit.api.plumbing.merge.CheckMergeScenarioOp;
 import org.geogit.api.plumbing.merge.Conflict;
 import org.geogit.api.plumbing.merge.ConflictsWriteOp;
+import org.geogit.api.plumbing.merge.MergeScenarioConsumer;
 import org.geogit.api.plumbing.merge.MergeScenarioReport;
 import org.geogit.api.plumbing.merge.ReportMergeScenarioOp;
 import org.geogit.api.plumbing.merge.SaveMergeCommitMessageOp;
@@ -36,7 +39,9 @@ import org.geogit.repository.Repository;
 
 import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
+import com.google.common.base.Predicate;
 import com.google.common.base.Supplier;
+import com.google.common.collect.Iterators;
 import com.google.common.collect.Lists;
 import com.google.inject.Inject;
 
@@ -47,6 +52,19 @@ import com.google.inject.Inject;
  */
 public class MergeOp extends AbstractGeoGitOp<MergeOp.MergeReport> {
 
+    /**
+     * Number of unconflicted changes staged at once when merging a conflicted scenario
+     */
+    private static final int STAGE_BATCH_SIZE = 10000;
+
+    private static final Predicate<DiffEntry> IS_FEATURE = new Predicate<DiffEntry>() {
+        @Override
+        public boolean apply(DiffEntry diff) {
+            NodeRef ref = diff.getNewObject() == null ? diff.getOldObject() : diff.getNewObject();
+            return TYPE.FEATURE.equals(ref.getType());
+        }
+    };
+
     private List<ObjectId> commits = new ArrayList<ObjectId>();;
 
     private String message = null;
@@ -59,6 +77,8 @@ public class MergeOp extends AbstractGeoGitOp<MergeOp.MergeReport> {
 
     private boolean noCommit;
 
+    private boolean reportMergeScenario;
+
     private Optional<String> authorName = Optional.absent();
 
     private Optional<String> authorEmail = Optional.absent();
@@ -126,6 +146,18 @@ public class MergeOp extends AbstractGeoGitOp<MergeOp.MergeReport> {
         return this;
     }
 
+    /**
+     * 
+     * @param reportMergeScenario true if the returned {@link MergeReport} should contain the report
+     *        of the merge scenario, with all the changes merged. Otherwise they are applied without
+     *        being kept in memory.
+     * @return {@code this}
+     */
+    public MergeOp setReportMergeScenario(boolean reportMergeScenario) {
+        this.reportMergeScenario = reportMergeScenario;
+        return this;
+    }
+
     /**
      * 
      * @param author the author of the commit
@@ -196,28 +228,39 @@ public class MergeOp extends AbstractGeoGitOp<MergeOp.MergeReport> {
 
             pairs.add(new CommitAncestorPair(commitId, ancestorCommit.get().getId()));
 
-            mergeScenario = Optional.of(command(ReportMergeScenarioOp.class)
-                    .setMergeIntoCommit(headCommit).setToMergeCommit(targetCommit).call());
+            // unconflicted changes are staged as they are found, and only added to the report if
+            // it is asked for
+            UnconflictedStager stager = new UnconflictedStager();
+            MergeScenarioReport report = command(ReportMergeScenarioOp.class)
+                    .setMergeIntoCommit(headCommit).setToMergeCommit(targetCommit)
+                    .setConsumer(stager).call();
+            if (stager.staged) {
+                changed = true;
+                fastForward = false;
+            }
+            if (reportMergeScenario) {
+                for (DiffEntry diff : stager.reported) {
+                    report.addUnconflicted(diff);
+                }
+                mergeScenario = Optional.of(report);
+            }
 
-            List<FeatureInfo> merged = mergeScenario.get().getMerged();
+            List<FeatureInfo> merged = report.getMerged();
             for (FeatureInfo feature : merged) {
                 this.getWorkTree().insert(NodeRef.parentPath(feature.getPath()),
                         feature.getFeature());
-                Iterator<DiffEntry> unstaged = getWorkTree().getUnstaged(null);
+                // the unconflicted changes are in the index only, so the parent trees in the work
+                // tree are stale and only the feature itself is staged
+                Iterator<DiffEntry> unstaged = Iterators.filter(
+                        getWorkTree().getUnstaged(feature.getPath()), IS_FEATURE);
                 getIndex().stage(getProgressListener(), unstaged, 0);
                 changed = true;
                 fastForward = false;
             }
-            List<DiffEntry> unconflicting = mergeScenario.get().getUnconflicted();
-            if (!unconflicting.isEmpty()) {
-                getIndex().stage(getProgressListener(), unconflicting.iterator(), 0);
-                changed = true;
-                fastForward = false;
-            }
 
             getWorkTree().updateWorkHead(getIndex().getTree().getId());
 
-            List<Conflict> conflicts = mergeScenario.get().getConflicts();
+            List<Conflict> conflicts = report.getConflicts();
             if (!ours && !conflicts.isEmpty()) {
                 // In case we use the "ours" strategy, we do nothing. We ignore conflicting
                 // changes and leave the current elements
@@ -234,7 +277,7 @@ public class MergeOp extends AbstractGeoGitOp<MergeOp.MergeReport> {
                     msg.append("Merge commit '" + commitId.toString() + "'. ");
                 }
                 msg.append("\n\nConflicts:\n");
-                for (Conflict conflict : mergeScenario.get().getConflicts()) {
+                for (Conflict conflict : conflicts) {
                     msg.append("\t" + conflict.getPath() + "\n");
                 }
 
@@ -295,8 +338,11 @@ public class MergeOp extends AbstractGeoGitOp<MergeOp.MergeReport> {
                         "No ancestor commit could be found.");
 
                 if (commits.size() == 1) {
-                    mergeScenario = Optional.of(command(ReportMergeScenarioOp.class)
-                            .setMergeIntoCommit(headCommit).setToMergeCommit(targetCommit).call());
+                    if (reportMergeScenario) {
+                        mergeScenario = Optional.of(command(ReportMergeScenarioOp.class)
+                                .setMergeIntoCommit(headCommit).setToMergeCommit(targetCommit)
+                                .call());
+                    }
                     if (ancestorCommit.get().getId().equals(headCommit.getId())) {
                         // Fast-forward
                         if (headRef instanceof SymRef) {
@@ -349,6 +395,57 @@ public class MergeOp extends AbstractGeoGitOp<MergeOp.MergeReport> {
 
     }
 
+    /**
+     * Stages the unconflicted changes of a merge scenario in batches of {@link #STAGE_BATCH_SIZE}
+     */
+    private class UnconflictedStager extends MergeScenarioConsumer {
+
+        private final List<DiffEntry> batch = new ArrayList<DiffEntry>();
+
+        /**
+         * All the unconflicted changes, kept only if the merge scenario is to be reported
+         */
+        private final List<DiffEntry> reported = new ArrayList<DiffEntry>();
+
+        /**
+         * The last removed tree, whose children are reported next and need not be staged, as the
+         * index would otherwise recreate the tree to remove them if they fell in the next batch
+         */
+        private String removedTree;
+
+        private boolean staged;
+
+        @Override
+        public void unconflicted(DiffEntry diff) {
+            if (reportMergeScenario) {
+                reported.add(diff);
+            }
+            String path = diff.oldPath() == null ? diff.newPath() : diff.oldPath();
+            if (removedTree != null && NodeRef.isChild(removedTree, path)) {
+                return;
+            }
+            removedTree = ChangeType.REMOVED.equals(diff.changeType())
+                    && TYPE.TREE.equals(diff.getOldObject().getType()) ? path : null;
+            batch.add(diff);
+            if (batch.size() == STAGE_BATCH_SIZE) {
+                stage();
+            }
+        }
+
+        @Override
+        public void finished() {
+            stage();
+        }
+
+        private void stage() {
+            if (!batch.isEmpty()) {
+                getIndex().stage(getProgressListener(), batch.iterator(), batch.size());
+                batch.clear();
+                staged = true;
+            }
+        }
+    }
+
     private RevCommit commit(boolean fastForward) {
 
         RevCommit mergeCommit;
@@ -429,6 +526,10 @@ public class MergeOp extends AbstractGeoGitOp<MergeOp.MergeReport> {
             return pairs;
         }
 
+        /**
+         * @return the report of the merge scenario, present if it was asked for with
+         *         {@link MergeOp#setReportMergeScenario(boolean)}
+         */
         public Optional<MergeScenarioReport> getReport() {
             return report;
         }
@@ -46,6 +46,8 @@ public class PullOp extends AbstractGeoGitOp<PullResult> {
 
     private Optional<String> authorEmail = Optional.absent();
 
+    private boolean reportMergeScenario;
+
     /**
      * Constructs a new {@code PullOp}.
      */
@@ -137,6 +139,17 @@ public class PullOp extends AbstractGeoGitOp<PullResult> {
         return this;
     }
 
+    /**
+     * @param reportMergeScenario true if the merge report of the result should contain the report
+     *        of the merge scenario
+     * @return {@code this}
+     * @see MergeOp#setReportMergeScenario(boolean)
+     */
+    public PullOp setReportMergeScenario(boolean reportMergeScenario) {
+        this.reportMergeScenario = reportMergeScenario;
+        return this;
+    }
+
     /**
      * Executes the pull operation.
      * 
@@ -221,6 +234,7 @@ public class PullOp extends AbstractGeoGitOp<PullResult> {
                         try {
                             MergeReport report = command(MergeOp.class)
                                     .setAuthor(authorName.orNull(), authorEmail.orNull())
+                                    .setReportMergeScenario(reportMergeScenario)
                                     .addCommit(Suppliers.ofInstance(sourceRef.get().getObjectId()))
                                     .call();
                             result.setMergeReport(Optional.of(report));
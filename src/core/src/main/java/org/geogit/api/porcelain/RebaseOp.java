@@ -25,6 +25,7 @@ import org.geogit.api.plumbing.DiffTree;
 import org.geogit.api.plumbing.FindCommonAncestor;
 import org.geogit.api.plumbing.RefParse;
 import org.geogit.api.plumbing.ResolveGeogitDir;
+import org.geogit.api.plumbing.UpdateChangedPaths;
 import org.geogit.api.plumbing.UpdateRef;
 import org.geogit.api.plumbing.UpdateSymRef;
 import org.geogit.api.plumbing.WriteTree;
@@ -468,6 +469,7 @@ public class RebaseOp extends AbstractGeoGitOp<Boolean> {
 
                 RevCommit newCommit = builder.build();
                 repository.getObjectDatabase().put(newCommit);
+                command(UpdateChangedPaths.class).setCommit(newCommit).call();
 
                 rebaseHead = newCommit.getId();
 
@@ -520,6 +522,7 @@ public class RebaseOp extends AbstractGeoGitOp<Boolean> {
 
             RevCommit newCommit = builder.build();
             repository.getObjectDatabase().put(newCommit);
+            command(UpdateChangedPaths.class).setCommit(newCommit).call();
 
             rebaseHead = newCommit.getId();
 
@@ -27,6 +27,7 @@ import org.geogit.api.plumbing.DiffTree;
 import org.geogit.api.plumbing.FindTreeChild;
 import org.geogit.api.plumbing.RefParse;
 import org.geogit.api.plumbing.ResolveGeogitDir;
+import org.geogit.api.plumbing.UpdateChangedPaths;
 import org.geogit.api.plumbing.UpdateRef;
 import org.geogit.api.plumbing.UpdateSymRef;
 import org.geogit.api.plumbing.WriteTree;
@@ -377,6 +378,7 @@ public class RevertOp extends AbstractGeoGitOp<Boolean> {
 
         RevCommit newCommit = builder.build();
         repository.getObjectDatabase().put(newCommit);
+        command(UpdateChangedPaths.class).setCommit(newCommit).call();
 
         revertHead = newCommit.getId();
 
@@ -24,6 +24,7 @@ import org.geogit.api.SymRef;
 import org.geogit.api.plumbing.FindCommonAncestor;
 import org.geogit.api.plumbing.ForEachRef;
 import org.geogit.api.plumbing.RefParse;
+import org.geogit.api.plumbing.UpdateChangedPaths;
 import org.geogit.api.plumbing.UpdateRef;
 import org.geogit.api.plumbing.UpdateSymRef;
 import org.geogit.api.porcelain.ResetOp.ResetMode;
@@ -238,6 +239,7 @@ public class SquashOp extends AbstractGeoGitOp<ObjectId> {
 
         RevCommit newCommit = builder.build();
         repository.getObjectDatabase().put(newCommit);
+        command(UpdateChangedPaths.class).setCommit(newCommit).call();
 
         newHead = newCommit.getId();
         ObjectId newTreeId = newCommit.getTreeId();
@@ -283,6 +285,7 @@ public class SquashOp extends AbstractGeoGitOp<ObjectId> {
             RevCommit newCommit = builder.build();
             replacedCommits.put(commit.getId(), newCommit.getId());
             repository.getObjectDatabase().put(newCommit);
+            command(UpdateChangedPaths.class).setCommit(newCommit).call();
             head = newCommit.getId();
             ObjectId newTreeId = newCommit.getTreeId();
 
@@ -18,8 +18,10 @@ import org.geogit.repository.Index;
 import org.geogit.repository.Repository;
 import org.geogit.repository.StagingArea;
 import org.geogit.repository.WorkingTree;
+import org.geogit.storage.ChangedPathsDatabase;
 import org.geogit.storage.ConfigDatabase;
 import org.geogit.storage.DeduplicationService;
+import org.geogit.storage.DefaultDeduplicationService;
 import org.geogit.storage.GraphDatabase;
 import org.geogit.storage.ObjectDatabase;
 import org.geogit.storage.ObjectSerializingFactory;
@@ -29,7 +31,6 @@ import org.geogit.storage.datastream.DataStreamSerializationFactory;
 import org.geogit.storage.fs.FileObjectDatabase;
 import org.geogit.storage.fs.FileRefDatabase;
 import org.geogit.storage.fs.IniFileConfigDatabase;
-import org.geogit.storage.memory.HeapDeduplicationService;
 import org.geogit.storage.memory.HeapGraphDatabase;
 import org.geogit.storage.memory.HeapStagingDatabase;
 
@@ -75,6 +76,7 @@ public class GeogitModule extends AbstractModule {
         bind(StagingDatabase.class).to(HeapStagingDatabase.class).in(Scopes.SINGLETON);
         bind(WorkingTree.class).in(Scopes.SINGLETON);
         bind(GraphDatabase.class).to(HeapGraphDatabase.class).in(Scopes.SINGLETON);
+        bind(ChangedPathsDatabase.class).in(Scopes.SINGLETON);
 
         bind(ObjectDatabase.class).to(FileObjectDatabase.class).in(Scopes.SINGLETON);
         bind(RefDatabase.class).to(FileRefDatabase.class).in(Scopes.SINGLETON);
@@ -82,7 +84,8 @@ public class GeogitModule extends AbstractModule {
         bind(ObjectSerializingFactory.class).to(DataStreamSerializationFactory.class).in(
                 Scopes.SINGLETON);
 
-        bind(DeduplicationService.class).to(HeapDeduplicationService.class).in(Scopes.SINGLETON);
+        bind(DeduplicationService.class).to(DefaultDeduplicationService.class).in(
+                Scopes.SINGLETON);
 
         bindCommitGraphInterceptor();
 
@@ -0,0 +1,66 @@
+/* Copyright (c) 2013 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+package org.geogit.di.bloomfilter;
+
+import static com.google.inject.matcher.Matchers.not;
+import static com.google.inject.matcher.Matchers.subclassesOf;
+
+import java.lang.reflect.Method;
+import java.util.Iterator;
+
+import org.geogit.api.ObjectId;
+import org.geogit.api.Platform;
+import org.geogit.api.RevObject;
+import org.geogit.di.GeogitModule;
+import org.geogit.di.MethodMatcher;
+import org.geogit.storage.BulkOpListener;
+import org.geogit.storage.ConfigDatabase;
+import org.geogit.storage.ObjectDatabase;
+import org.geogit.storage.StagingDatabase;
+
+import com.google.inject.AbstractModule;
+import com.google.inject.matcher.Matcher;
+
+/**
+ * Opt-in module that puts an {@link ObjectDatabaseBloomFilter} in front of the repository's
+ * {@link ObjectDatabase}, so that {@link ObjectDatabase#exists(ObjectId) exists} lookups for
+ * missing objects are answered without hitting the database, whatever its implementation.
+ * <p>
+ * Depends on {@link GeogitModule} or similar that provides bindings for {@link Platform},
+ * {@link ConfigDatabase} and {@link ObjectDatabase}. The filter is bound as a singleton so its
+ * statistics can be inspected.
+ * 
+ * @see ObjectDatabaseBloomFilter
+ * @see ObjectDatabaseBloomFilterInterceptor
+ */
+public class BloomFilterModule extends AbstractModule {
+
+    @SuppressWarnings("rawtypes")
+    @Override
+    protected void configure() {
+        final ObjectDatabaseBloomFilter filter = new ObjectDatabaseBloomFilter("objects",
+                "objectdb.bloomfilter", getProvider(Platform.class),
+                getProvider(ConfigDatabase.class));
+        bind(ObjectDatabaseBloomFilter.class).toInstance(filter);
+
+        final Matcher<Method> methodMatcher = new MethodMatcher(ObjectDatabase.class, "exists",
+                ObjectId.class)
+                .or(new MethodMatcher(ObjectDatabase.class, "put", RevObject.class))
+                .or(new MethodMatcher(ObjectDatabase.class, "putAll", Iterator.class,
+                        BulkOpListener.class))
+                .or(new MethodMatcher(ObjectDatabase.class, "putRawAll", Iterator.class,
+                        BulkOpListener.class))
+                .or(new MethodMatcher(ObjectDatabase.class, "open"))
+                .or(new MethodMatcher(ObjectDatabase.class, "close"));
+
+        // the staging database answers exists() for both itself and the repository database
+        final Matcher<Class> objectDatabaseMatcher = subclassesOf(ObjectDatabase.class).and(
+                not(subclassesOf(StagingDatabase.class)));
+
+        bindInterceptor(objectDatabaseMatcher, methodMatcher,
+                new ObjectDatabaseBloomFilterInterceptor(
+                        getProvider(ObjectDatabaseBloomFilter.class)));
+    }
+}
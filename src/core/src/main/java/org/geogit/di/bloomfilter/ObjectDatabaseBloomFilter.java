@@ -0,0 +1,663 @@
+/* Copyright (c) 2013 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+package org.geogit.di.bloomfilter;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.Nullable;
+
+import org.geogit.api.ObjectId;
+import org.geogit.api.Platform;
+import org.geogit.api.plumbing.ResolveGeogitDir;
+import org.geogit.api.porcelain.ConfigException;
+import org.geogit.storage.ConfigDatabase;
+import org.geogit.storage.EnumerableObjectDatabase;
+import org.geogit.storage.ObjectDatabase;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Optional;
+import com.google.common.base.Stopwatch;
+import com.google.common.collect.Sets;
+import com.google.common.io.Closeables;
+import com.google.inject.Provider;
+
+/**
+ * A persistent bloom filter of the ids of all the objects in an {@link ObjectDatabase}, used by
+ * {@link ObjectDatabaseBloomFilterInterceptor} to answer definite misses of
+ * {@link ObjectDatabase#exists(ObjectId)} without hitting the database.
+ * <p>
+ * The filter is loaded when the database is opened and saved to {@code <.geogit>/<name>.bloom}
+ * when it's closed, merged with whatever filter other processes saved in the meantime, so that the
+ * saved filter holds the objects added by all of them.
+ * <p>
+ * While loaded, each process holds a lock on its own {@code <name>.bloom.session-<uuid>} file,
+ * which is deleted when the filter is saved. The saved filter is only used if there are no other
+ * sessions: a live one may have added objects it hasn't saved yet, and a session file that's not
+ * locked was left behind by a process that died before saving. In both cases the filter is
+ * rebuilt out of the database contents instead. Rebuilding requires the database to be an
+ * {@link EnumerableObjectDatabase}; otherwise the filter is disabled and all lookups go straight to
+ * the database.
+ * <p>
+ * A filter doesn't see the objects other processes add, so its misses are only trusted while no
+ * other session has been live at the same time. Each session bumps a counter kept in the
+ * {@code <name>.bloom.lock} file when it starts, which is checked before answering a miss; once
+ * another session is found, all misses go to the database until the filter is saved.
+ * <p>
+ * Note only processes that install the {@link BloomFilterModule} keep the filter up to date, so
+ * the filter shall be enabled for all processes accessing the same repository.
+ * <p>
+ * Config properties, prefixed by {@code objectdb.bloomfilter.}:
+ * <ul>
+ * <li>{@code enabled}: whether to use the filter at all, defaults to {@code true}
+ * <li>{@code expectedInsertions}: the initial capacity of the filter, defaults to 1M. The filter is
+ * resized when rebuilt if the database holds more objects than that.
+ * <li>{@code fpp}: the desired false positive probability at capacity, defaults to {@code 0.01}
+ * </ul>
+ */
+public class ObjectDatabaseBloomFilter {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ObjectDatabaseBloomFilter.class);
+
+    private static final int MAGIC = 0x4747424C;// GGBL
+
+    private static final int VERSION = 2;
+
+    private static final String SESSION_INFIX = ".bloom.session-";
+
+    /**
+     * Serializes the access to the filter files of all the instances in this JVM, since file locks
+     * are held on behalf of the whole JVM
+     */
+    private static final Object FILES_LOCK = new Object();
+
+    /**
+     * The session files locked by this JVM, so they're not mistaken for abandoned ones. They're not
+     * probed with {@link FileChannel#tryLock()} since on some platforms closing the probing channel
+     * would release the lock held by the session.
+     */
+    private static final Set<File> LIVE_SESSIONS = Sets.newHashSet();
+
+    private static final int DEFAULT_EXPECTED_INSERTIONS = 1000 * 1000;
+
+    private static final double DEFAULT_FPP = 0.01;
+
+    /**
+     * Coarsest resolution of file modification times among the supported file systems (FAT)
+     */
+    private static final long MTIME_RESOLUTION = 2000;
+
+    private final String name;
+
+    private final String configKeywordPrefix;
+
+    private final Provider<Platform> platform;
+
+    private final Provider<ConfigDatabase> configDb;
+
+    @Nullable
+    private volatile ObjectIdBloomFilter filter;
+
+    /**
+     * The filter being filled up by {@link #rebuild}, if any, so that objects added concurrently
+     * are recorded on it too
+     */
+    @Nullable
+    private volatile ObjectIdBloomFilter building;
+
+    /**
+     * {@link ObjectIdBloomFilter#put} is not thread safe, concurrent puts could lose bits
+     */
+    private final Object putLock = new Object();
+
+    @Nullable
+    private File sessionFile;
+
+    @Nullable
+    private RandomAccessFile sessionLockFile;
+
+    /**
+     * Whether other sessions have been live during this one, so misses can't be trusted
+     */
+    private volatile boolean shared;
+
+    /**
+     * The file holding the number of sessions started, and its contents and modification time when
+     * this session started
+     */
+    @Nullable
+    private volatile File sessionCountFile;
+
+    private long sessionCount;
+
+    private long sessionCountMtime;
+
+    /**
+     * Whether the session count has been checked after {@link #sessionCountMtime} could have
+     * changed, so that any later session start changes the modification time
+     */
+    private volatile boolean sessionCountSettled;
+
+    private volatile int capacity;
+
+    private final AtomicLong insertions = new AtomicLong();
+
+    private final AtomicLong queries = new AtomicLong();
+
+    private final AtomicLong definiteMisses = new AtomicLong();
+
+    public ObjectDatabaseBloomFilter(final String name, final String configKeywordPrefix,
+            final Provider<Platform> platform, final Provider<ConfigDatabase> configDb) {
+        this.name = name;
+        this.configKeywordPrefix = configKeywordPrefix;
+        this.platform = platform;
+        this.configDb = configDb;
+    }
+
+    /**
+     * @return {@code true} if the filter is loaded and is answering lookups
+     */
+    public boolean isEnabled() {
+        return filter != null;
+    }
+
+    /**
+     * @return {@code false} if the object is definitely not in the database, {@code true} if it
+     *         might be or the filter is not enabled
+     */
+    public boolean mightContain(final ObjectId id) {
+        final ObjectIdBloomFilter filter = this.filter;
+        if (filter == null) {
+            return true;
+        }
+        queries.incrementAndGet();
+        boolean mightContain = filter.mightContain(id);
+        if (!mightContain) {
+            if (isShared()) {
+                return true;
+            }
+            definiteMisses.incrementAndGet();
+        }
+        return mightContain;
+    }
+
+    /**
+     * @return whether another session has been live during this one, and hence may have added
+     *         objects this filter doesn't know about
+     */
+    private boolean isShared() {
+        if (shared) {
+            return true;
+        }
+        final File countFile = this.sessionCountFile;
+        if (countFile == null) {
+            return false;
+        }
+        if (countFile.lastModified() != sessionCountMtime) {
+            shared = true;
+            return true;
+        }
+        if (sessionCountSettled) {
+            return false;
+        }
+        // another session may have started within the same mtime resolution window
+        final long now = System.currentTimeMillis();
+        try {
+            RandomAccessFile raf = new RandomAccessFile(countFile, "r");
+            try {
+                if (readSessionCount(raf) != sessionCount) {
+                    shared = true;
+                    return true;
+                }
+            } finally {
+                Closeables.closeQuietly(raf);
+            }
+        } catch (IOException e) {
+            LOGGER.debug("Unable to read bloom filter sessions " + countFile, e);
+            shared = true;
+            return true;
+        }
+        if (now >= sessionCountMtime + MTIME_RESOLUTION) {
+            sessionCountSettled = true;
+        }
+        return false;
+    }
+
+    /**
+     * Records the id of an object added to the database
+     */
+    public void put(final ObjectId id) {
+        synchronized (putLock) {
+            final ObjectIdBloomFilter building = this.building;
+            if (building != null) {
+                building.put(id);
+            }
+            final ObjectIdBloomFilter filter = this.filter;
+            if (filter != null && filter.put(id)) {
+                insertions.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * @return the probability that {@link #mightContain} returns {@code true} for an object that's
+     *         not in the database, given the number of objects recorded so far, or {@code 1} if
+     *         the filter is not enabled
+     */
+    public double getFalsePositiveProbability() {
+        final ObjectIdBloomFilter filter = this.filter;
+        return filter == null ? 1D : filter.expectedFpp();
+    }
+
+    /**
+     * @return the approximate number of objects recorded in the filter
+     */
+    public long getInsertions() {
+        return insertions.get();
+    }
+
+    /**
+     * @return the number of objects the filter was sized for
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * @return the number of lookups answered while enabled
+     */
+    public long getQueryCount() {
+        return queries.get();
+    }
+
+    /**
+     * @return the number of lookups answered as definite misses, that is, that didn't need to hit
+     *         the database
+     */
+    public long getDefiniteMissCount() {
+        return definiteMisses.get();
+    }
+
+    /**
+     * Loads the persisted filter for the given database, or rebuilds it if missing, stale, or other
+     * processes have it loaded too, and the database supports it. Does nothing if the filter is
+     * already loaded.
+     */
+    public synchronized void load(final ObjectDatabase db) {
+        if (filter != null || !isConfigEnabled()) {
+            return;
+        }
+        final File file = getFile();
+        if (file != null) {
+            synchronized (FILES_LOCK) {
+                try {
+                    RandomAccessFile lockFile = lockFile(file);
+                    try {
+                        lockFile.getChannel().lock();
+                        final boolean otherSessions = hasOtherSessions(file);
+                        if (!otherSessions && file.exists()) {
+                            try {
+                                read(file);
+                            } catch (IOException e) {
+                                LOGGER.warn("Unable to read bloom filter " + file
+                                        + ", rebuilding it", e);
+                            }
+                        }
+                        // abandoned sessions are deleted by now, and what they added is rebuilt
+                        this.shared = otherSessions && hasOtherSessions(file);
+                        startSession(file, lockFile);
+                    } finally {
+                        // releases the lock too
+                        Closeables.closeQuietly(lockFile);
+                    }
+                } catch (IOException e) {
+                    LOGGER.warn("Unable to lock bloom filter " + file + ", rebuilding it", e);
+                }
+            }
+        }
+        if (filter == null && db instanceof EnumerableObjectDatabase) {
+            rebuild((EnumerableObjectDatabase) db);
+        }
+        if (filter == null) {
+            LOGGER.debug("No bloom filter available for {}, lookups go straight to the database",
+                    db);
+        }
+    }
+
+    /**
+     * Merges the filter with the one saved by other processes, if any, saves it, and disables it
+     * until it's {@link #load loaded} again. If both filters can't be merged, the saved one is
+     * deleted instead so that the filter is rebuilt on the next load.
+     */
+    public synchronized void save() {
+        final ObjectIdBloomFilter filter = this.filter;
+        this.filter = null;
+        final File file = getFile();
+        if (file == null) {
+            return;
+        }
+        synchronized (FILES_LOCK) {
+            if (filter == null && sessionFile == null) {
+                // not loaded
+                return;
+            }
+            try {
+                RandomAccessFile lockFile = lockFile(file);
+                try {
+                    lockFile.getChannel().lock();
+                    if (filter == null) {
+                        // objects were added without recording them
+                        file.delete();
+                    } else {
+                        merge(filter, file);
+                    }
+                } finally {
+                    Closeables.closeQuietly(lockFile);
+                }
+            } catch (IOException e) {
+                // never leave behind a filter that may be missing objects
+                file.delete();
+                LOGGER.warn("Unable to save bloom filter " + file, e);
+            } finally {
+                endSession();
+            }
+        }
+    }
+
+    private void merge(final ObjectIdBloomFilter filter, final File file) throws IOException {
+        long count = insertions.get();
+        if (file.exists()) {
+            ObjectIdBloomFilter saved = null;
+            try {
+                saved = readFilter(file);
+            } catch (IOException e) {
+                LOGGER.debug("Ignoring unreadable bloom filter " + file, e);
+            }
+            if (saved == null || !saved.isCompatible(filter)) {
+                LOGGER.debug("Bloom filter {} can't be merged with the saved one, discarding both",
+                        name);
+                file.delete();
+                return;
+            }
+            filter.putAll(saved);
+            count = filter.approximateCount();
+        }
+        final File tmp = new File(file.getParentFile(), file.getName() + ".tmp");
+        try {
+            write(filter, count, tmp);
+            // renameTo doesn't replace existing files on all platforms
+            file.delete();
+            if (!tmp.renameTo(file)) {
+                throw new IOException("Unable to rename " + tmp + " to " + file);
+            }
+        } finally {
+            tmp.delete();
+        }
+    }
+
+    private static RandomAccessFile lockFile(final File file) throws IOException {
+        return new RandomAccessFile(lockFileOf(file), "rw");
+    }
+
+    private static File lockFileOf(final File file) {
+        return new File(file.getParentFile(), file.getName() + ".lock");
+    }
+
+    private static long readSessionCount(final RandomAccessFile lockFile) throws IOException {
+        if (lockFile.length() < 8) {
+            return 0L;
+        }
+        lockFile.seek(0);
+        return lockFile.readLong();
+    }
+
+    /**
+     * Creates and locks the session file of this instance, and records the session start on the
+     * given, locked, lock file
+     */
+    private void startSession(final File file, final RandomAccessFile lockFile)
+            throws IOException {
+        final long count = readSessionCount(lockFile) + 1;
+        lockFile.seek(0);
+        lockFile.writeLong(count);
+        final File countFile = lockFileOf(file);
+        this.sessionCount = count;
+        this.sessionCountMtime = countFile.lastModified();
+        this.sessionCountSettled = false;
+        this.sessionCountFile = countFile;
+
+        final File session = new File(file.getParentFile(), name + SESSION_INFIX
+                + UUID.randomUUID().toString().replace("-", ""));
+        RandomAccessFile sessionLockFile = new RandomAccessFile(session, "rw");
+        try {
+            if (sessionLockFile.getChannel().tryLock() == null) {
+                throw new IOException("Unable to lock " + session);
+            }
+        } catch (IOException e) {
+            Closeables.closeQuietly(sessionLockFile);
+            session.delete();
+            throw e;
+        }
+        this.sessionFile = session;
+        this.sessionLockFile = sessionLockFile;
+        LIVE_SESSIONS.add(session);
+    }
+
+    private void endSession() {
+        final File session = this.sessionFile;
+        if (session != null) {
+            // release the lock before deleting, some platforms can't delete locked files
+            Closeables.closeQuietly(sessionLockFile);
+            session.delete();
+            LIVE_SESSIONS.remove(session);
+            this.sessionFile = null;
+            this.sessionLockFile = null;
+        }
+        this.sessionCountFile = null;
+        this.shared = false;
+    }
+
+    /**
+     * @return whether there are session files of other instances, live or abandoned. The abandoned
+     *         ones are deleted.
+     */
+    private boolean hasOtherSessions(final File file) {
+        final String prefix = name + SESSION_INFIX;
+        final File[] sessions = file.getParentFile().listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String fileName) {
+                return fileName.startsWith(prefix);
+            }
+        });
+        if (sessions == null || sessions.length == 0) {
+            return false;
+        }
+        for (File session : sessions) {
+            if (LIVE_SESSIONS.contains(session)) {
+                continue;
+            }
+            try {
+                RandomAccessFile probe = new RandomAccessFile(session, "rw");
+                try {
+                    FileLock lock = probe.getChannel().tryLock();
+                    if (lock == null) {
+                        continue;
+                    }
+                } finally {
+                    Closeables.closeQuietly(probe);
+                }
+                LOGGER.debug("Found abandoned bloom filter session {}", session);
+                session.delete();
+            } catch (IOException e) {
+                LOGGER.debug("Unable to probe bloom filter session " + session, e);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Rebuilds the filter out of all the object ids in the database
+     */
+    public synchronized void rebuild(final EnumerableObjectDatabase db) {
+        Stopwatch sw = new Stopwatch().start();
+        int expectedInsertions = getConfig("expectedInsertions",
+                Integer.valueOf(DEFAULT_EXPECTED_INSERTIONS)).intValue();
+        long count = fill(db, expectedInsertions);
+        if (count > expectedInsertions) {
+            // make room for the database to grow before its accuracy degrades
+            expectedInsertions = (int) Math.min(Integer.MAX_VALUE, 2 * count);
+            count = fill(db, expectedInsertions);
+        }
+        LOGGER.info("Bloom filter for {} rebuilt with {} objects in {}. FPP: {}", db, count,
+                sw.stop(), getFalsePositiveProbability());
+    }
+
+    private long fill(final EnumerableObjectDatabase db, final int expectedInsertions) {
+        final ObjectIdBloomFilter filter = ObjectIdBloomFilter.create(expectedInsertions,
+                getFpp());
+        long count = 0;
+        this.building = filter;
+        try {
+            for (Iterator<ObjectId> ids = db.listIds(); ids.hasNext();) {
+                ObjectId id = ids.next();
+                synchronized (putLock) {
+                    filter.put(id);
+                }
+                count++;
+            }
+            synchronized (putLock) {
+                this.capacity = expectedInsertions;
+                this.insertions.set(count);
+                this.filter = filter;
+            }
+        } finally {
+            this.building = null;
+        }
+        return count;
+    }
+
+    private void read(final File file) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(
+                file)));
+        try {
+            final int capacity = readHeader(in, file);
+            final long insertions = in.readLong();
+            final ObjectIdBloomFilter filter = ObjectIdBloomFilter.readFrom(in);
+            this.capacity = capacity;
+            this.insertions.set(insertions);
+            if (insertions > capacity) {
+                LOGGER.debug("Bloom filter {} is over capacity ({}/{}), rebuilding", name,
+                        insertions, capacity);
+                return;
+            }
+            this.filter = filter;
+        } finally {
+            Closeables.closeQuietly(in);
+        }
+    }
+
+    private static ObjectIdBloomFilter readFilter(final File file) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(
+                file)));
+        try {
+            readHeader(in, file);
+            in.readLong();
+            return ObjectIdBloomFilter.readFrom(in);
+        } finally {
+            Closeables.closeQuietly(in);
+        }
+    }
+
+    /**
+     * @return the capacity
+     */
+    private static int readHeader(final DataInputStream in, final File file) throws IOException {
+        if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+            throw new IOException("Unrecognized bloom filter file " + file);
+        }
+        return in.readInt();
+    }
+
+    private void write(final ObjectIdBloomFilter filter, final long count, final File file)
+            throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(
+                file)));
+        boolean threw = true;
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(capacity);
+            out.writeLong(count);
+            filter.writeTo(out);
+            threw = false;
+        } finally {
+            Closeables.close(out, threw);
+        }
+    }
+
+    @Nullable
+    private File getFile() {
+        Optional<URL> geogitDir = new ResolveGeogitDir(platform.get()).call();
+        if (!geogitDir.isPresent()) {
+            return null;
+        }
+        try {
+            return new File(new File(geogitDir.get().toURI()), name + ".bloom");
+        } catch (URISyntaxException e) {
+            return null;
+        }
+    }
+
+    private boolean isConfigEnabled() {
+        return getConfig("enabled", Boolean.TRUE).booleanValue();
+    }
+
+    private double getFpp() {
+        String fpp = getConfig("fpp", String.valueOf(DEFAULT_FPP));
+        try {
+            return Double.parseDouble(fpp);
+        } catch (NumberFormatException e) {
+            LOGGER.warn("Invalid bloom filter fpp: {}, using default", fpp);
+            return DEFAULT_FPP;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> T getConfig(final String keyword, final T defaultValue) {
+        final String kw = configKeywordPrefix + "." + keyword;
+        try {
+            Optional<? extends Object> value = configDb.get().get(kw, defaultValue.getClass());
+            if (value.isPresent()) {
+                return (T) value.get();
+            }
+        } catch (ConfigException e) {
+            return defaultValue;
+        }
+        return defaultValue;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s[%s, objects: %d, capacity: %d, fpp: %f]", getClass()
+                .getSimpleName(), name, insertions.get(), capacity, getFalsePositiveProbability());
+    }
+}
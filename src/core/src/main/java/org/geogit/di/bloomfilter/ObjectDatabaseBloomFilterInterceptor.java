@@ -0,0 +1,94 @@
+/* Copyright (c) 2013 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+package org.geogit.di.bloomfilter;
+
+import java.util.Iterator;
+
+import org.aopalliance.intercept.MethodInterceptor;
+import org.aopalliance.intercept.MethodInvocation;
+import org.geogit.api.ObjectId;
+import org.geogit.api.RevObject;
+import org.geogit.storage.ObjectDatabase;
+import org.geogit.storage.RawObject;
+
+import com.google.common.base.Function;
+import com.google.common.collect.Iterators;
+import com.google.inject.Provider;
+
+/**
+ * Method interceptor for {@link ObjectDatabase} methods that keeps an
+ * {@link ObjectDatabaseBloomFilter} in sync with the database and uses it to shortcut
+ * {@link ObjectDatabase#exists(ObjectId) exists} lookups for objects that are definitely not in
+ * the database.
+ * <p>
+ * Object ids are added to the filter before the objects are actually inserted, so a concurrent
+ * lookup never gets a false negative.
+ */
+class ObjectDatabaseBloomFilterInterceptor implements MethodInterceptor {
+
+    private Provider<ObjectDatabaseBloomFilter> filterProvider;
+
+    ObjectDatabaseBloomFilterInterceptor(Provider<ObjectDatabaseBloomFilter> filterProvider) {
+        this.filterProvider = filterProvider;
+    }
+
+    @Override
+    public Object invoke(MethodInvocation invocation) throws Throwable {
+        final String methodName = invocation.getMethod().getName();
+        final ObjectDatabaseBloomFilter filter = filterProvider.get();
+        if (methodName.equals("exists")) {
+            final ObjectId id = (ObjectId) invocation.getArguments()[0];
+            if (!filter.mightContain(id)) {
+                return Boolean.FALSE;
+            }
+        } else if (methodName.equals("put")) {
+            final RevObject object = (RevObject) invocation.getArguments()[0];
+            filter.put(object.getId());
+        } else if (methodName.equals("putAll")) {
+            putAll(invocation, filter);
+        } else if (methodName.equals("putRawAll")) {
+            putRawAll(invocation, filter);
+        } else if (methodName.equals("open")) {
+            Object result = invocation.proceed();
+            filter.load((ObjectDatabase) invocation.getThis());
+            return result;
+        } else if (methodName.equals("close")) {
+            filter.save();
+        }
+        return invocation.proceed();
+    }
+
+    private void putAll(MethodInvocation invocation, final ObjectDatabaseBloomFilter filter) {
+        Object[] arguments = invocation.getArguments();
+
+        @SuppressWarnings("unchecked")
+        final Iterator<? extends RevObject> objects = (Iterator<? extends RevObject>) arguments[0];
+
+        arguments[0] = Iterators.transform(objects, new Function<RevObject, RevObject>() {
+
+            @Override
+            public RevObject apply(RevObject input) {
+                filter.put(input.getId());
+                return input;
+            }
+        });
+    }
+
+    private void putRawAll(MethodInvocation invocation, final ObjectDatabaseBloomFilter filter) {
+        Object[] arguments = invocation.getArguments();
+
+        @SuppressWarnings("unchecked")
+        final Iterator<RawObject> objects = (Iterator<RawObject>) arguments[0];
+
+        arguments[0] = Iterators.transform(objects, new Function<RawObject, RawObject>() {
+
+            @Override
+            public RawObject apply(RawObject input) {
+                filter.put(input.getId());
+                return input;
+            }
+        });
+    }
+}
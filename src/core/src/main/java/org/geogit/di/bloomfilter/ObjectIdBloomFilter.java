@@ -0,0 +1,165 @@
+/* Copyright (c) 2013 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+package org.geogit.di.bloomfilter;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import org.geogit.api.ObjectId;
+
+/**
+ * A bloom filter of {@link ObjectId}s that can be {@link #putAll merged} with another one of the
+ * same size, so that {@link ObjectDatabaseBloomFilter} can combine the filters saved by different
+ * processes.
+ * <p>
+ * Object ids are uniformly distributed hashes already, so the bit positions are derived straight
+ * from the id bytes by double hashing instead of hashing the ids again.
+ * <p>
+ * Not thread safe, concurrent {@link #put puts} need external synchronization.
+ */
+final class ObjectIdBloomFilter {
+
+    private final int numHashes;
+
+    private final long[] words;
+
+    private long bitCount;
+
+    private ObjectIdBloomFilter(final int numHashes, final long[] words) {
+        this.numHashes = numHashes;
+        this.words = words;
+        for (long word : words) {
+            bitCount += Long.bitCount(word);
+        }
+    }
+
+    /**
+     * Creates a filter sized to hold {@code expectedInsertions} ids with a false positive
+     * probability of {@code fpp}
+     */
+    public static ObjectIdBloomFilter create(final int expectedInsertions, final double fpp) {
+        checkArgument(expectedInsertions > 0, "expectedInsertions must be positive");
+        checkArgument(fpp > 0 && fpp < 1, "fpp must be between 0 and 1: %s", fpp);
+        final double ln2 = Math.log(2);
+        final long numBits = Math.max(64,
+                (long) (-expectedInsertions * Math.log(fpp) / (ln2 * ln2)));
+        final long numWords = Math.min(Integer.MAX_VALUE, (numBits + 63) / 64);
+        final int numHashes = Math.max(1,
+                (int) Math.round(64D * numWords / expectedInsertions * ln2));
+        return new ObjectIdBloomFilter(numHashes, new long[(int) numWords]);
+    }
+
+    /**
+     * @return {@code true} if any bit changed, that is, if the id was definitely not in the filter
+     */
+    public boolean put(final ObjectId id) {
+        final long h1 = hash(id, 0);
+        final long h2 = hash(id, 8);
+        final long numBits = bitSize();
+        boolean changed = false;
+        for (int i = 0; i < numHashes; i++) {
+            final long bit = ((h1 + i * h2) & Long.MAX_VALUE) % numBits;
+            final int word = (int) (bit >>> 6);
+            final long mask = 1L << bit;
+            if ((words[word] & mask) == 0) {
+                words[word] |= mask;
+                bitCount++;
+                changed = true;
+            }
+        }
+        return changed;
+    }
+
+    public boolean mightContain(final ObjectId id) {
+        final long h1 = hash(id, 0);
+        final long h2 = hash(id, 8);
+        final long numBits = bitSize();
+        for (int i = 0; i < numHashes; i++) {
+            final long bit = ((h1 + i * h2) & Long.MAX_VALUE) % numBits;
+            if ((words[(int) (bit >>> 6)] & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static long hash(final ObjectId id, final int offset) {
+        long hash = 0;
+        for (int i = offset; i < offset + 8; i++) {
+            hash = (hash << 8) | id.byteN(i);
+        }
+        return hash;
+    }
+
+    private long bitSize() {
+        return 64L * words.length;
+    }
+
+    /**
+     * @return the probability that {@link #mightContain} returns {@code true} for an id that was
+     *         never put, given the bits set so far
+     */
+    public double expectedFpp() {
+        return Math.pow((double) bitCount / bitSize(), numHashes);
+    }
+
+    /**
+     * @return an estimate of the number of distinct ids put in the filter, derived from the number
+     *         of bits set
+     */
+    public long approximateCount() {
+        final double numBits = bitSize();
+        final double fractionUnset = 1D - bitCount / numBits;
+        if (fractionUnset <= 0) {
+            return Long.MAX_VALUE;
+        }
+        return Math.round(-numBits / numHashes * Math.log(fractionUnset));
+    }
+
+    /**
+     * @return whether {@code other} has the same size and number of hash functions than this
+     *         filter, and hence can be {@link #putAll merged} into it
+     */
+    public boolean isCompatible(final ObjectIdBloomFilter other) {
+        return numHashes == other.numHashes && words.length == other.words.length;
+    }
+
+    /**
+     * Adds all the ids in {@code other} to this filter
+     */
+    public void putAll(final ObjectIdBloomFilter other) {
+        checkArgument(isCompatible(other), "Incompatible bloom filters");
+        bitCount = 0;
+        for (int i = 0; i < words.length; i++) {
+            words[i] |= other.words[i];
+            bitCount += Long.bitCount(words[i]);
+        }
+    }
+
+    public void writeTo(final DataOutput out) throws IOException {
+        out.writeInt(numHashes);
+        out.writeInt(words.length);
+        for (long word : words) {
+            out.writeLong(word);
+        }
+    }
+
+    public static ObjectIdBloomFilter readFrom(final DataInput in) throws IOException {
+        final int numHashes = in.readInt();
+        final int numWords = in.readInt();
+        if (numHashes < 1 || numWords < 1) {
+            throw new IOException("Corrupt bloom filter: hashes: " + numHashes + ", words: "
+                    + numWords);
+        }
+        final long[] words = new long[numWords];
+        for (int i = 0; i < numWords; i++) {
+            words[i] = in.readLong();
+        }
+        return new ObjectIdBloomFilter(numHashes, words);
+    }
+}
@@ -4,8 +4,6 @@
  */
 package org.geogit.di.caching;
 
-import java.util.Collections;
-import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentMap;
@@ -27,10 +25,48 @@ import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Maps;
 import com.google.inject.Provider;
 
+/**
+ * Creates and holds the {@link Cache} used by the {@link CachingModule} interceptors.
+ * <p>
+ * The cache is bounded by the estimated amount of heap its objects retain, as computed by
+ * {@link RevObjectWeigher}, rather than by number of entries, and records hit, miss, and eviction
+ * {@link Cache#stats() statistics}. Optionally, objects evicted from the heap are kept serialized
+ * in an {@link OffHeapObjectStore off-heap tier}.
+ * <p>
+ * Config properties, prefixed by the factory's keyword prefix (e.g. {@code objectdb.cache.}):
+ * <ul>
+ * <li>{@code enabled}: whether to cache at all, defaults to {@code true}
+ * <li>{@code maxSizeMB}: the estimated heap size bound of the cache, defaults to a tenth of the
+ * maximum heap size
+ * <li>{@code maxSize}: deprecated, the number of objects the cache used to be bounded by. If
+ * {@code maxSizeMB} is not set it's converted to a size bound assuming 1KB
+ * per object, otherwise it's ignored; a warning is logged
+ * either way
+ * <li>{@code offHeapSizeMB}: the size of the direct memory buffer for the off-heap tier, defaults
+ * to {@code 0} (no off-heap tier), up to 2047
+ * <li>{@code concurrencyLevel}: the number of concurrent writers to allow for, defaults to
+ * {@code 4}
+ * <li>{@code expireSeconds}: evict objects not accessed for this many seconds, defaults to
+ * {@code 0} (never)
+ * <li>{@code initialCapacity}: defaults to {@code 1000}
+ * </ul>
+ */
 abstract class CacheFactory {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(CacheFactory.class);
 
+    private static final int MB = 1024 * 1024;
+
+    private static final int DEFAULT_MAX_SIZE_MB = 64;
+
+    /**
+     * Average heap size of a cached object assumed when converting the deprecated {@code maxSize}
+     * number of objects to a size bound; features weigh less, trees a lot more
+     */
+    private static final int ESTIMATED_OBJECT_BYTES = 1024;
+
+    private static final int MAX_OFFHEAP_SIZE_MB = Integer.MAX_VALUE / MB;
+
     private volatile Cache<ObjectId, RevObject> cache;
 
     private final Provider<ConfigDatabase> configDb;
@@ -57,37 +93,76 @@ abstract class CacheFactory {
             this.cache = NO_CACHE;
             return;
         }
-        final int maxSize = getConfig("maxSize", 50 * 1000);
-        final int concurrencyLevel = getConfig("concurrencyLevel", 0);
-        if (concurrencyLevel == 0) {
-            this.cache = new SimpleCache<ObjectId, RevObject>(maxSize);
-            LOGGER.debug("Cache '{}' configured with maxSize: {}", configKeywordPrefix, maxSize);
-            return;
-        }
+        final long maxBytes = maxBytes();
+        final int offHeapSizeMB = Math.min(MAX_OFFHEAP_SIZE_MB, getConfig("offHeapSizeMB", 0));
+        final int concurrencyLevel = getConfig("concurrencyLevel", 4);
+        final int expireSeconds = getConfig("expireSeconds", 0);
+        final int initialCapacity = getConfig("initialCapacity", 1000);
 
-        final int expireSeconds = getConfig("expireSeconds", 30);
-        final int initialCapacity = getConfig("initialCapacity", 10 * 1000);
-        CacheBuilder<Object, Object> cacheBuilder = CacheBuilder.newBuilder();
-        cacheBuilder = cacheBuilder.maximumSize(maxSize);
-        cacheBuilder.expireAfterAccess(expireSeconds, TimeUnit.SECONDS);
+        CacheBuilder<ObjectId, RevObject> cacheBuilder = CacheBuilder.newBuilder()
+                .maximumWeight(maxBytes).weigher(RevObjectWeigher.INSTANCE);
+        if (expireSeconds > 0) {
+            cacheBuilder.expireAfterAccess(expireSeconds, TimeUnit.SECONDS);
+        }
         cacheBuilder.initialCapacity(initialCapacity);
-        cacheBuilder.concurrencyLevel(concurrencyLevel);
+        cacheBuilder.concurrencyLevel(Math.max(1, concurrencyLevel));
+        cacheBuilder.recordStats();
 
+        OffHeapObjectStore offHeap = null;
         try {
-            this.cache = cacheBuilder.build();
+            if (offHeapSizeMB > 0) {
+                offHeap = new OffHeapObjectStore(offHeapSizeMB * MB);
+                cacheBuilder.removalListener(TieredCache.evictionListener(offHeap));
+            }
+            Cache<ObjectId, RevObject> heapCache = cacheBuilder.build();
+            this.cache = offHeap == null ? heapCache : new TieredCache(heapCache, offHeap);
         } catch (RuntimeException e) {
             LOGGER.error(
-                    "Error configuring cache '{}' with maxSize: {}, expireSeconds: {}, initialCapacity: {}, concurrencyLevel: {}",
-                    configKeywordPrefix, maxSize, expireSeconds, initialCapacity, concurrencyLevel,
-                    e);
+                    "Error configuring cache '{}' with maxSizeMB: {}, offHeapSizeMB: {}, expireSeconds: {}, initialCapacity: {}, concurrencyLevel: {}",
+                    configKeywordPrefix, maxBytes / MB, offHeapSizeMB, expireSeconds,
+                    initialCapacity, concurrencyLevel, e);
 
             throw e;
         }
 
         LOGGER.debug(
-                "Cache '{}' configured with maxSize: {}, expireSeconds: {}, initialCapacity: {}, concurrencyLevel: {}",
-                configKeywordPrefix, maxSize, expireSeconds, initialCapacity, concurrencyLevel);
+                "Cache '{}' configured with maxSizeMB: {}, offHeapSizeMB: {}, expireSeconds: {}, initialCapacity: {}, concurrencyLevel: {}",
+                configKeywordPrefix, maxBytes / MB, offHeapSizeMB, expireSeconds, initialCapacity,
+                concurrencyLevel);
+
+    }
+
+    /**
+     * @return the size bound of the cache, out of {@code maxSizeMB}, or of the deprecated
+     *         {@code maxSize} number of objects if only that is set
+     */
+    private long maxBytes() {
+        final Optional<Integer> maxSizeMB = getConfig("maxSizeMB", Integer.class);
+        final Optional<Integer> maxSize = getConfig("maxSize", Integer.class);
+        if (maxSize.isPresent()) {
+            if (maxSizeMB.isPresent()) {
+                LOGGER.warn("Cache config property {}.maxSize is deprecated and ignored in favour"
+                        + " of {}.maxSizeMB", configKeywordPrefix, configKeywordPrefix);
+            } else {
+                long maxBytes = Math.max(MB, (long) ESTIMATED_OBJECT_BYTES * maxSize.get());
+                LOGGER.warn("Cache config property {}.maxSize is deprecated, bounding the cache to"
+                        + " an estimated {}MB for {} objects. Set {}.maxSizeMB instead",
+                        configKeywordPrefix, maxBytes / MB, maxSize.get(), configKeywordPrefix);
+                return maxBytes;
+            }
+        }
+        return (long) MB * maxSizeMB.or(defaultMaxSizeMB());
+    }
 
+    /**
+     * @return a tenth of the maximum heap size, in megabytes
+     */
+    private static Integer defaultMaxSizeMB() {
+        long maxMemory = Runtime.getRuntime().maxMemory();
+        if (maxMemory == Long.MAX_VALUE) {
+            return Integer.valueOf(DEFAULT_MAX_SIZE_MB);
+        }
+        return Integer.valueOf((int) Math.max(1, maxMemory / 10 / MB));
     }
 
     private boolean cacheIsEnabled() {
@@ -101,18 +176,39 @@ abstract class CacheFactory {
 
     @SuppressWarnings("unchecked")
     private <T> T getConfig(final String keyword, final T defaultValue) {
+        return getConfig(keyword, (Class<T>) defaultValue.getClass()).or(defaultValue);
+    }
+
+    /**
+     * Reads the property as a string and parses it here, as not all config databases convert to
+     * {@code Integer}
+     */
+    private <T> Optional<T> getConfig(final String keyword, final Class<T> type) {
         final String kw = configKeywordPrefix + "." + keyword;
         ConfigDatabase configDatabase = configDb.get();
+        final Optional<String> value;
         try {
-            Optional<? extends Object> value = configDatabase.get(kw, defaultValue.getClass());
-            if (value.isPresent()) {
-                LOGGER.trace("Got cache config property {} = {}", kw, value.get());
-                return (T) value.get();
-            }
+            value = configDatabase.get(kw, String.class);
         } catch (ConfigException e) {
-            return defaultValue;
+            return Optional.absent();
+        }
+        if (!value.isPresent()) {
+            return Optional.absent();
+        }
+        LOGGER.trace("Got cache config property {} = {}", kw, value.get());
+        final String text = value.get().trim();
+        try {
+            if (Integer.class.equals(type)) {
+                return Optional.of(type.cast(Integer.valueOf(text)));
+            }
+            if (Boolean.class.equals(type)) {
+                return Optional.of(type.cast(Boolean.valueOf(text)));
+            }
+            return Optional.of(type.cast(text));
+        } catch (NumberFormatException e) {
+            LOGGER.warn("Ignoring cache config property {}, not a number: '{}'", kw, text);
+            return Optional.absent();
         }
-        return defaultValue;
     }
 
     private static final Cache<ObjectId, RevObject> NO_CACHE = new Cache<ObjectId, RevObject>() {
@@ -178,91 +274,4 @@ abstract class CacheFactory {
             // do nothing
         }
     };
-
-    public static class SimpleCache<K, V> implements Cache<K, V> {
-
-        private static class LinkedCache<K, V> extends LinkedHashMap<K, V> {
-            private static final long serialVersionUID = 1L;
-
-            private final int maxEntries;
-
-            public LinkedCache(int maxEntries) {
-                this.maxEntries = maxEntries;
-            }
-
-            @Override
-            protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
-                return size() > maxEntries;
-            }
-        };
-
-        private Map<K, V> map;
-
-        public SimpleCache(int maxEntries) {
-            map = Collections.synchronizedMap(new LinkedCache<K, V>(maxEntries));
-        }
-
-        @Override
-        public V getIfPresent(Object key) {
-            return map.get(key);
-        }
-
-        @Override
-        public V get(K key, Callable<? extends V> valueLoader) throws ExecutionException {
-            throw new UnsupportedOperationException("not in use");
-        }
-
-        @Override
-        public ImmutableMap<K, V> getAllPresent(Iterable<?> keys) {
-            throw new UnsupportedOperationException("not in use");
-        }
-
-        @Override
-        public void put(K key, V value) {
-            map.put(key, value);
-        }
-
-        @Override
-        public void putAll(Map<? extends K, ? extends V> m) {
-            map.putAll(m);
-        }
-
-        @Override
-        public void invalidate(Object key) {
-            map.remove(key);
-        }
-
-        @Override
-        public void invalidateAll(Iterable<?> keys) {
-            for (Object k : keys) {
-                map.remove(k);
-            }
-        }
-
-        @Override
-        public void invalidateAll() {
-            map.clear();
-        }
-
-        @Override
-        public long size() {
-            return map.size();
-        }
-
-        @Override
-        public CacheStats stats() {
-            return new CacheStats(0, 0, 0, 0, 0, 0);
-        }
-
-        @Override
-        public ConcurrentMap<K, V> asMap() {
-            throw new UnsupportedOperationException();
-        }
-
-        @Override
-        public void cleanUp() {
-            map.clear();
-        }
-
-    }
 }
@@ -30,6 +30,7 @@ import com.google.inject.matcher.Matcher;
  * 
  * @see CacheFactory
  * @see ObjectDatabaseGetCacheInterceptor
+ * @see ObjectDatabaseGetAllCacheInterceptor
  * @see ObjectDatabaseDeleteCacheInterceptor
  * @see ObjectDatabaseDeleteAllCacheInterceptor
  */
@@ -46,6 +47,9 @@ public class CachingModule extends AbstractModule {
                 ObjectId.class).or(new MethodMatcher(ObjectDatabase.class, "get", ObjectId.class,
                 Class.class));
 
+        final Matcher<Method> getAllMatcher = new MethodMatcher(ObjectDatabase.class, "getAll",
+                Iterable.class, BulkOpListener.class);
+
         final Matcher<Method> deleteMatcher = new MethodMatcher(ObjectDatabase.class, "delete",
                 ObjectId.class);
 
@@ -61,8 +65,8 @@ public class CachingModule extends AbstractModule {
             bind(StagingDatabaseCacheFactory.class).toInstance(indexCacheProvider);
 
             bindCacheAwareMethodInterceptors(stagingDatabaseMatcher,
-                    getProvider(StagingDatabaseCacheFactory.class), getMatcher, deleteMatcher,
-                    deleteAllMatcher);
+                    getProvider(StagingDatabaseCacheFactory.class), getMatcher, getAllMatcher,
+                    deleteMatcher, deleteAllMatcher);
         }
         {
             final ObjectDatabaseCacheFactory odbCacheProvider;
@@ -73,8 +77,8 @@ public class CachingModule extends AbstractModule {
                     not(subclassesOf(StagingDatabase.class)));
 
             bindCacheAwareMethodInterceptors(objectDatabaseMatcher,
-                    getProvider(ObjectDatabaseCacheFactory.class), getMatcher, deleteMatcher,
-                    deleteAllMatcher);
+                    getProvider(ObjectDatabaseCacheFactory.class), getMatcher, getAllMatcher,
+                    deleteMatcher, deleteAllMatcher);
 
         }
     }
@@ -82,11 +86,15 @@ public class CachingModule extends AbstractModule {
     @SuppressWarnings("rawtypes")
     private void bindCacheAwareMethodInterceptors(final Matcher<Class> objectDatabaseMatcher,
             final Provider<? extends CacheFactory> cacheProvider, final Matcher<Method> getMatcher,
-            final Matcher<Method> deleteMatcher, final Matcher<Method> deleteAllMatcher) {
+            final Matcher<Method> getAllMatcher, final Matcher<Method> deleteMatcher,
+            final Matcher<Method> deleteAllMatcher) {
 
         bindInterceptor(objectDatabaseMatcher, getMatcher, new ObjectDatabaseGetCacheInterceptor(
                 cacheProvider));
 
+        bindInterceptor(objectDatabaseMatcher, getAllMatcher,
+                new ObjectDatabaseGetAllCacheInterceptor(cacheProvider));
+
         bindInterceptor(objectDatabaseMatcher, deleteMatcher,
                 new ObjectDatabaseDeleteCacheInterceptor(cacheProvider));
 
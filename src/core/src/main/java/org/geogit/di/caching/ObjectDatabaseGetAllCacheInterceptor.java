@@ -0,0 +1,120 @@
+/* Copyright (c) 2013 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+
+package org.geogit.di.caching;
+
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Queue;
+
+import org.aopalliance.intercept.MethodInterceptor;
+import org.aopalliance.intercept.MethodInvocation;
+import org.geogit.api.ObjectId;
+import org.geogit.api.RevObject;
+import org.geogit.storage.BulkOpListener;
+import org.geogit.storage.ObjectDatabase;
+
+import com.google.common.base.Function;
+import com.google.common.base.Predicate;
+import com.google.common.cache.Cache;
+import com.google.common.collect.AbstractIterator;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Iterators;
+import com.google.inject.Provider;
+
+/**
+ * Method interceptor for {@link ObjectDatabase#getAll(Iterable, BulkOpListener)} that serves the
+ * cached objects out of the cache, in batches through {@link Cache#getAllPresent}, and only asks
+ * the database for the ones not in the cache.
+ * <p>
+ * The cached objects are returned interleaved with the ones coming from the database, as they're
+ * found while the database consumes the requested ids. Cacheable objects returned by the database
+ * are added to the cache.
+ */
+class ObjectDatabaseGetAllCacheInterceptor implements MethodInterceptor {
+
+    private static final int BATCH_SIZE = 1000;
+
+    private Provider<? extends CacheFactory> cacheProvider;
+
+    ObjectDatabaseGetAllCacheInterceptor(Provider<? extends CacheFactory> cacheProvider) {
+        this.cacheProvider = cacheProvider;
+    }
+
+    @Override
+    public Object invoke(MethodInvocation invocation) throws Throwable {
+        final Cache<ObjectId, RevObject> cache = cacheProvider.get().get();
+
+        @SuppressWarnings("unchecked")
+        final Iterable<ObjectId> ids = (Iterable<ObjectId>) invocation.getArguments()[0];
+        final BulkOpListener listener = (BulkOpListener) invocation.getArguments()[1];
+
+        final Queue<RevObject> cached = new LinkedList<RevObject>();
+
+        invocation.getArguments()[0] = new Iterable<ObjectId>() {
+
+            private boolean consumed;
+
+            @Override
+            public Iterator<ObjectId> iterator() {
+                // only report cache hits once should the database iterate over the ids twice
+                final boolean collect = !consumed;
+                consumed = true;
+                return Iterators.concat(Iterators.transform(
+                        Iterators.partition(ids.iterator(), BATCH_SIZE),
+                        new Function<List<ObjectId>, Iterator<ObjectId>>() {
+                            @Override
+                            public Iterator<ObjectId> apply(List<ObjectId> batch) {
+                                return missing(cache, batch, collect ? cached : null, listener);
+                            }
+                        }));
+            }
+        };
+
+        @SuppressWarnings("unchecked")
+        final Iterator<RevObject> found = (Iterator<RevObject>) invocation.proceed();
+
+        return new AbstractIterator<RevObject>() {
+            @Override
+            protected RevObject computeNext() {
+                if (!cached.isEmpty()) {
+                    return cached.poll();
+                }
+                if (found.hasNext()) {
+                    RevObject object = found.next();
+                    if (ObjectDatabaseGetCacheInterceptor.isCacheable(object)) {
+                        cache.put(object.getId(), object);
+                    }
+                    return object;
+                }
+                // the database may have consumed the last ids while figuring out it had no more
+                // objects to return
+                return cached.isEmpty() ? endOfData() : cached.poll();
+            }
+        };
+    }
+
+    private static Iterator<ObjectId> missing(final Cache<ObjectId, RevObject> cache,
+            final List<ObjectId> batch, final Queue<RevObject> hits, final BulkOpListener listener) {
+
+        final ImmutableMap<ObjectId, RevObject> present = cache.getAllPresent(batch);
+        if (present.isEmpty()) {
+            return batch.iterator();
+        }
+        if (hits != null) {
+            for (RevObject object : present.values()) {
+                hits.add(object);
+                listener.found(object.getId(), null);
+            }
+        }
+        return Iterators.filter(batch.iterator(), new Predicate<ObjectId>() {
+            @Override
+            public boolean apply(ObjectId id) {
+                return !present.containsKey(id);
+            }
+        });
+    }
+}
@@ -45,7 +45,7 @@ class ObjectDatabaseGetCacheInterceptor implements MethodInterceptor {
         return object;
     }
 
-    private final boolean isCacheable(Object object) {
+    static boolean isCacheable(Object object) {
         if (object == null) {
             return false;
         }
@@ -0,0 +1,255 @@
+/* Copyright (c) 2013 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+package org.geogit.di.caching;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Map;
+
+import javax.annotation.Nullable;
+
+import org.geogit.api.ObjectId;
+import org.geogit.api.RevObject;
+import org.geogit.storage.ObjectReader;
+import org.geogit.storage.ObjectSerializingFactory;
+import org.geogit.storage.ObjectWriter;
+import org.geogit.storage.datastream.DataStreamSerializationFactory;
+
+import com.google.common.base.Throwables;
+import com.google.common.collect.Maps;
+import com.ning.compress.lzf.LZFDecoder;
+import com.ning.compress.lzf.LZFEncoder;
+
+/**
+ * A fixed size store of LZF compressed, serialized {@link RevObject}s held in direct (off-heap)
+ * memory, used as a second cache tier for objects evicted from an on-heap cache.
+ * <p>
+ * The store is a single direct buffer used as a ring: objects are appended at the write position,
+ * wrapping around to the start of the buffer when they don't fit at the end, and the oldest
+ * objects are evicted as their space is overwritten. This makes eviction FIFO rather than LRU, but
+ * needs no allocation nor fragmentation management, and objects read back from this tier are
+ * expected to be promoted to the on-heap tier anyway.
+ * <p>
+ * The objects are serialized with the {@link DataStreamSerializationFactory} regardless of the
+ * repository's storage format, since the bytes never leave the process.
+ */
+final class OffHeapObjectStore {
+
+    private static final ObjectSerializingFactory SERIALIZER = DataStreamSerializationFactory.INSTANCE;
+
+    private static final class Entry {
+
+        final ObjectId id;
+
+        /**
+         * Logical (not wrapped around) start position
+         */
+        final long start;
+
+        final int length;
+
+        Entry(ObjectId id, long start, int length) {
+            this.id = id;
+            this.start = start;
+            this.length = length;
+        }
+    }
+
+    private final int capacity;
+
+    private final ByteBuffer buffer;
+
+    private final Map<ObjectId, Entry> index = Maps.newHashMap();
+
+    /**
+     * All entries in write order, including the ones already removed from the index, so that the
+     * overwritten ones can be evicted from the head
+     */
+    private final ArrayDeque<Entry> entries = new ArrayDeque<Entry>();
+
+    /**
+     * Logical write position, always increasing; the physical position is
+     * {@code writePosition % capacity}
+     */
+    private long writePosition;
+
+    private long usedBytes;
+
+    private long hitCount, missCount, evictionCount;
+
+    /**
+     * @param capacity the size in bytes of the direct buffer to allocate
+     */
+    public OffHeapObjectStore(final int capacity) {
+        checkArgument(capacity > 0, "capacity must be > 0");
+        this.capacity = capacity;
+        this.buffer = ByteBuffer.allocateDirect(capacity);
+    }
+
+    /**
+     * Serializes and stores the object, evicting the oldest objects as needed.
+     *
+     * @return {@code false} if the object is already stored or too large to fit in the store
+     */
+    public boolean put(final RevObject object) {
+        final ObjectId id = object.getId();
+        synchronized (this) {
+            if (index.containsKey(id)) {
+                return false;
+            }
+        }
+        final byte[] data = encode(object);
+        synchronized (this) {
+            if (data.length > capacity) {
+                evictionCount++;
+                return false;
+            }
+            if (index.containsKey(id)) {
+                return false;
+            }
+            long start = writePosition;
+            int offset = (int) (start % capacity);
+            if (offset + data.length > capacity) {
+                start += capacity - offset;
+                offset = 0;
+            }
+            final long end = start + data.length;
+            evictBefore(end - capacity);
+
+            ByteBuffer target = buffer.duplicate();
+            target.position(offset);
+            target.put(data);
+
+            Entry entry = new Entry(id, start, data.length);
+            index.put(id, entry);
+            entries.addLast(entry);
+            usedBytes += data.length;
+            writePosition = end;
+        }
+        return true;
+    }
+
+    /**
+     * Evicts all the entries starting before the given logical position, whose space is about to
+     * be overwritten
+     */
+    private void evictBefore(final long position) {
+        Entry head;
+        while ((head = entries.peekFirst()) != null && head.start < position) {
+            entries.removeFirst();
+            if (index.get(head.id) == head) {
+                index.remove(head.id);
+                usedBytes -= head.length;
+                evictionCount++;
+            }
+        }
+    }
+
+    /**
+     * @return the stored object, or {@code null} if not present
+     */
+    @Nullable
+    public RevObject get(final ObjectId id) {
+        final byte[] data;
+        synchronized (this) {
+            Entry entry = index.get(id);
+            if (entry == null) {
+                missCount++;
+                return null;
+            }
+            hitCount++;
+            data = new byte[entry.length];
+            ByteBuffer source = buffer.duplicate();
+            source.position((int) (entry.start % capacity));
+            source.get(data);
+        }
+        return decode(id, data);
+    }
+
+    /**
+     * Removes the object from the store, its space is reclaimed once overwritten
+     *
+     * @return whether the object was present
+     */
+    public synchronized boolean remove(final Object id) {
+        Entry entry = index.remove(id);
+        if (entry == null) {
+            return false;
+        }
+        usedBytes -= entry.length;
+        return true;
+    }
+
+    public synchronized void clear() {
+        index.clear();
+        entries.clear();
+        usedBytes = 0;
+    }
+
+    /**
+     * @return the number of objects in the store
+     */
+    public synchronized int size() {
+        return index.size();
+    }
+
+    /**
+     * @return the number of bytes held by the objects in the store
+     */
+    public synchronized long usedBytes() {
+        return usedBytes;
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    public synchronized long hitCount() {
+        return hitCount;
+    }
+
+    public synchronized long missCount() {
+        return missCount;
+    }
+
+    /**
+     * @return the number of objects overwritten by newer ones or rejected for being larger than the
+     *         store
+     */
+    public synchronized long evictionCount() {
+        return evictionCount;
+    }
+
+    private static byte[] encode(final RevObject object) {
+        ObjectWriter<RevObject> writer = SERIALIZER.createObjectWriter(object.getType());
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            writer.write(object, out);
+        } catch (IOException e) {
+            throw Throwables.propagate(e);
+        }
+        return LZFEncoder.encode(out.toByteArray());
+    }
+
+    private static RevObject decode(final ObjectId id, final byte[] data) {
+        final ObjectReader<RevObject> reader = SERIALIZER.createObjectReader();
+        try {
+            return reader.read(id, new ByteArrayInputStream(LZFDecoder.decode(data)));
+        } catch (IOException e) {
+            throw Throwables.propagate(e);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s[objects: %d, used: %d/%d bytes]", getClass().getSimpleName(),
+                size(), usedBytes(), capacity);
+    }
+}
@@ -0,0 +1,177 @@
+/* Copyright (c) 2013 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+package org.geogit.di.caching;
+
+import java.util.Map;
+
+import org.geogit.api.Bucket;
+import org.geogit.api.Node;
+import org.geogit.api.ObjectId;
+import org.geogit.api.RevCommit;
+import org.geogit.api.RevFeature;
+import org.geogit.api.RevFeatureType;
+import org.geogit.api.RevObject;
+import org.geogit.api.RevTag;
+import org.geogit.api.RevTree;
+
+import com.google.common.base.Optional;
+import com.google.common.cache.Weigher;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSortedMap;
+import com.vividsolutions.jts.geom.Geometry;
+
+/**
+ * Estimates the number of heap bytes retained by a cached {@link RevObject}, so that caches can be
+ * bounded by memory usage rather than by number of entries.
+ * <p>
+ * The estimates are computed per {@link RevObject.TYPE type} and are deliberately cheap: they walk
+ * the object's direct contents (tree nodes, feature values, etc.) but make no attempt to be exact.
+ * A leaf tree with 512 nodes weighs in the order of a hundred kilobytes while a small feature
+ * weighs a few hundred bytes, which is the difference an entry-count bound can't account for.
+ */
+final class RevObjectWeigher implements Weigher<ObjectId, RevObject> {
+
+    static final RevObjectWeigher INSTANCE = new RevObjectWeigher();
+
+    /**
+     * {@link ObjectId} instance plus its {@code byte[20]}
+     */
+    private static final int OBJECTID = 16 + 40;
+
+    /**
+     * Cache entry, key, and the common {@link RevObject} header
+     */
+    private static final int BASE = 64 + OBJECTID + 16;
+
+    private static final int STRING = 40;
+
+    private static final int NODE = 40 + OBJECTID + STRING;
+
+    /**
+     * Nodes and buckets may carry a bounding box
+     */
+    private static final int ENVELOPE = 48;
+
+    private static final int BUCKET = 32 + OBJECTID + ENVELOPE;
+
+    /**
+     * {@link Optional} wrapper plus list slot of each feature value
+     */
+    private static final int VALUE = 24;
+
+    private static final int COORDINATE = 48;
+
+    private static final int GEOMETRY = 120;
+
+    private static final int PERSON = 64 + 2 * STRING;
+
+    private static final int PROPERTY_DESCRIPTOR = 512;
+
+    private static final int FEATURE_TYPE = 2048;
+
+    private RevObjectWeigher() {
+        //
+    }
+
+    @Override
+    public int weigh(final ObjectId key, final RevObject value) {
+        long weight;
+        switch (value.getType()) {
+        case TREE:
+            weight = weigh((RevTree) value);
+            break;
+        case FEATURE:
+            weight = weigh((RevFeature) value);
+            break;
+        case COMMIT:
+            weight = weigh((RevCommit) value);
+            break;
+        case TAG:
+            weight = weigh((RevTag) value);
+            break;
+        case FEATURETYPE:
+            weight = weigh((RevFeatureType) value);
+            break;
+        default:
+            weight = BASE;
+        }
+        return (int) Math.min(Integer.MAX_VALUE, weight);
+    }
+
+    private long weigh(final RevTree tree) {
+        long weight = BASE + 32;
+        Optional<ImmutableList<Node>> trees = tree.trees();
+        if (trees.isPresent()) {
+            weight += weigh(trees.get());
+        }
+        Optional<ImmutableList<Node>> features = tree.features();
+        if (features.isPresent()) {
+            weight += weigh(features.get());
+        }
+        Optional<ImmutableSortedMap<Integer, Bucket>> buckets = tree.buckets();
+        if (buckets.isPresent()) {
+            weight += buckets.get().size() * (long) (BUCKET + 32);
+        }
+        return weight;
+    }
+
+    private long weigh(final ImmutableList<Node> nodes) {
+        long weight = 16 + 8 * nodes.size();
+        for (Node node : nodes) {
+            weight += NODE + 2 * node.getName().length();
+            if (node.getMetadataId().isPresent()) {
+                weight += OBJECTID;
+            }
+        }
+        return weight;
+    }
+
+    private long weigh(final RevFeature feature) {
+        ImmutableList<Optional<Object>> values = feature.getValues();
+        long weight = BASE + 16;
+        for (Optional<Object> value : values) {
+            weight += VALUE;
+            if (value.isPresent()) {
+                weight += weigh(value.get());
+            }
+        }
+        return weight;
+    }
+
+    private long weigh(final Object value) {
+        if (value instanceof Geometry) {
+            return GEOMETRY + COORDINATE * (long) ((Geometry) value).getNumPoints();
+        }
+        if (value instanceof CharSequence) {
+            return chars((CharSequence) value);
+        }
+        if (value instanceof byte[]) {
+            return 16 + ((byte[]) value).length;
+        }
+        if (value instanceof Map) {
+            return 64 + 64 * ((Map<?, ?>) value).size();
+        }
+        // boxed primitives, dates, UUIDs, etc.
+        return 24;
+    }
+
+    private long weigh(final RevCommit commit) {
+        return BASE + OBJECTID + 2 * PERSON + 16 + OBJECTID * commit.getParentIds().size()
+                + chars(commit.getMessage());
+    }
+
+    private long weigh(final RevTag tag) {
+        return BASE + OBJECTID + PERSON + chars(tag.getName()) + chars(tag.getMessage());
+    }
+
+    private static long chars(final CharSequence s) {
+        return s == null ? 0 : STRING + 2 * s.length();
+    }
+
+    private long weigh(final RevFeatureType featureType) {
+        return BASE + FEATURE_TYPE + PROPERTY_DESCRIPTOR
+                * (long) featureType.sortedDescriptors().size();
+    }
+}
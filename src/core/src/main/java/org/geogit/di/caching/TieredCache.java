@@ -0,0 +1,178 @@
+/* Copyright (c) 2013 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+package org.geogit.di.caching;
+
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+
+import org.geogit.api.ObjectId;
+import org.geogit.api.RevObject;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheStats;
+import com.google.common.cache.ForwardingCache;
+import com.google.common.cache.RemovalCause;
+import com.google.common.cache.RemovalListener;
+import com.google.common.cache.RemovalNotification;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+/**
+ * A two tier cache made of an on-heap {@link Cache} and an {@link OffHeapObjectStore} that holds
+ * the objects evicted from the on-heap tier due to its size limit.
+ * <p>
+ * Objects found in the off-heap tier are moved back to the on-heap tier. {@link #stats()} reports
+ * the hits and misses of both tiers combined, and as evictions the objects that left the off-heap
+ * tier.
+ * <p>
+ * The on-heap cache shall be built with the {@link #evictionListener(OffHeapObjectStore) eviction
+ * listener} of the off-heap store.
+ */
+class TieredCache extends ForwardingCache.SimpleForwardingCache<ObjectId, RevObject> {
+
+    private final OffHeapObjectStore offHeap;
+
+    TieredCache(final Cache<ObjectId, RevObject> heapCache, final OffHeapObjectStore offHeap) {
+        super(heapCache);
+        this.offHeap = offHeap;
+    }
+
+    /**
+     * @return a removal listener that moves the objects evicted by size from the on-heap cache to
+     *         {@code offHeap}
+     */
+    static RemovalListener<ObjectId, RevObject> evictionListener(final OffHeapObjectStore offHeap) {
+        return new RemovalListener<ObjectId, RevObject>() {
+            @Override
+            public void onRemoval(RemovalNotification<ObjectId, RevObject> notification) {
+                if (notification.getCause() == RemovalCause.SIZE) {
+                    RevObject object = notification.getValue();
+                    if (object != null) {
+                        offHeap.put(object);
+                    }
+                }
+            }
+        };
+    }
+
+    OffHeapObjectStore offHeap() {
+        return offHeap;
+    }
+
+    @Override
+    public RevObject getIfPresent(final Object key) {
+        RevObject object = super.getIfPresent(key);
+        if (object == null && key instanceof ObjectId) {
+            object = promote((ObjectId) key);
+        }
+        return object;
+    }
+
+    @Override
+    public RevObject get(final ObjectId key, final Callable<? extends RevObject> valueLoader)
+            throws ExecutionException {
+        return super.get(key, new Callable<RevObject>() {
+            @Override
+            public RevObject call() throws Exception {
+                RevObject object = offHeap.get(key);
+                if (object == null) {
+                    object = valueLoader.call();
+                } else {
+                    offHeap.remove(key);
+                }
+                return object;
+            }
+        });
+    }
+
+    @Override
+    public ImmutableMap<ObjectId, RevObject> getAllPresent(final Iterable<?> keys) {
+        ImmutableMap<ObjectId, RevObject> present = super.getAllPresent(keys);
+        Map<ObjectId, RevObject> promoted = null;
+        for (Object key : keys) {
+            if (key instanceof ObjectId && !present.containsKey(key)) {
+                RevObject object = promote((ObjectId) key);
+                if (object != null) {
+                    if (promoted == null) {
+                        promoted = Maps.newHashMap(present);
+                    }
+                    promoted.put((ObjectId) key, object);
+                }
+            }
+        }
+        return promoted == null ? present : ImmutableMap.copyOf(promoted);
+    }
+
+    private RevObject promote(final ObjectId id) {
+        RevObject object = offHeap.get(id);
+        if (object != null) {
+            offHeap.remove(id);
+            super.put(id, object);
+        }
+        return object;
+    }
+
+    @Override
+    public void put(final ObjectId key, final RevObject value) {
+        offHeap.remove(key);
+        super.put(key, value);
+    }
+
+    @Override
+    public void putAll(final Map<? extends ObjectId, ? extends RevObject> m) {
+        for (ObjectId key : m.keySet()) {
+            offHeap.remove(key);
+        }
+        super.putAll(m);
+    }
+
+    @Override
+    public void invalidate(final Object key) {
+        super.invalidate(key);
+        offHeap.remove(key);
+    }
+
+    @Override
+    public void invalidateAll(final Iterable<?> keys) {
+        // keys may be a one shot iterable
+        Iterable<?> copy = Lists.newArrayList(keys);
+        super.invalidateAll(copy);
+        for (Object key : copy) {
+            offHeap.remove(key);
+        }
+    }
+
+    @Override
+    public void invalidateAll() {
+        super.invalidateAll();
+        offHeap.clear();
+    }
+
+    /**
+     * @return the number of objects in both tiers
+     */
+    @Override
+    public long size() {
+        return super.size() + offHeap.size();
+    }
+
+    @Override
+    public CacheStats stats() {
+        CacheStats heapStats = super.stats();
+        long offHeapHits = offHeap.hitCount();
+        return new CacheStats(heapStats.hitCount() + offHeapHits, Math.max(0,
+                heapStats.missCount() - offHeapHits), heapStats.loadSuccessCount(),
+                heapStats.loadExceptionCount(), heapStats.totalLoadTime(),
+                offHeap.evictionCount());
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s[heap: %d, %s]", getClass().getSimpleName(), super.size(),
+                offHeap);
+    }
+}
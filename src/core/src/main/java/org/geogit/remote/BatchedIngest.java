@@ -0,0 +1,219 @@
+/* Copyright (c) 2013 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+package org.geogit.remote;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nullable;
+
+import org.geogit.api.ObjectId;
+import org.geogit.api.RevObject;
+import org.geogit.remote.BinaryPackedObjects.Callback;
+import org.geogit.storage.BulkOpListener;
+import org.geogit.storage.ObjectDatabase;
+
+import com.google.common.base.Throwables;
+import com.google.common.collect.AbstractIterator;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Stores the objects decoded by {@link BinaryPackedObjects} in bounded batches through
+ * {@link ObjectDatabase#putAll(Iterator, BulkOpListener)}, on a writer thread separate from the
+ * decoding one.
+ * <p>
+ * The decoding thread {@link #add adds} objects and {@link #checkpoint checkpoints}; full batches
+ * are handed to the writer thread through a bounded queue, so decoding blocks when storage falls
+ * behind. Once a batch is stored the callbacks are called, on the writer thread and in stream
+ * order: the object callback for each object that was actually inserted, and the checkpoint
+ * callback for each checkpoint, which is then known to be backed by stored objects.
+ * <p>
+ * Instances are single use: {@link #finish()} must always be called, even if decoding failed, to
+ * store the pending objects and stop the writer thread.
+ */
+class BatchedIngest<T> {
+
+    static final int DEFAULT_BATCH_SIZE = 1000;
+
+    /**
+     * How many full batches may be waiting for the writer before the decoding thread blocks
+     */
+    private static final int QUEUE_CAPACITY = 2;
+
+    private static final Batch END = new Batch(0);
+
+    private final ObjectDatabase database;
+
+    private final Callback<T> objectCallback;
+
+    @Nullable
+    private final Callback<T> checkpointCallback;
+
+    private final int batchSize;
+
+    private final BlockingQueue<Batch> queue = new ArrayBlockingQueue<Batch>(QUEUE_CAPACITY);
+
+    private final ExecutorService executor;
+
+    private final Future<T> writer;
+
+    private Batch batch;
+
+    /**
+     * Objects and checkpoints in stream order, where {@link #checkpoints} tells which entries are
+     * checkpoints rather than objects to store
+     */
+    private static class Batch {
+
+        final List<RevObject> entries;
+
+        final BitSet checkpoints = new BitSet();
+
+        Batch(int size) {
+            entries = new ArrayList<RevObject>(size);
+        }
+
+        Iterator<RevObject> objects() {
+            return new AbstractIterator<RevObject>() {
+                int index = checkpoints.nextClearBit(0);
+
+                @Override
+                protected RevObject computeNext() {
+                    if (index >= entries.size()) {
+                        return endOfData();
+                    }
+                    RevObject next = entries.get(index);
+                    index = checkpoints.nextClearBit(index + 1);
+                    return next;
+                }
+            };
+        }
+    }
+
+    /**
+     * @param checkpointCallback the callback for checkpoints, or {@code null} if the stream has no
+     *        checkpoints
+     */
+    BatchedIngest(ObjectDatabase database, Callback<T> objectCallback,
+            @Nullable Callback<T> checkpointCallback, int batchSize) {
+        this.database = database;
+        this.objectCallback = objectCallback;
+        this.checkpointCallback = checkpointCallback;
+        this.batchSize = batchSize;
+        this.batch = new Batch(batchSize);
+        this.executor = Executors.newSingleThreadExecutor(new ThreadFactoryBuilder()
+                .setNameFormat("BinaryPackedObjects-ingest-%d").setDaemon(true).build());
+        this.writer = executor.submit(new Callable<T>() {
+            @Override
+            public T call() throws Exception {
+                return write();
+            }
+        });
+    }
+
+    /**
+     * Queues an object for storage, blocking if the writer is behind
+     */
+    public void add(RevObject object) {
+        batch.entries.add(object);
+        if (batch.entries.size() >= batchSize) {
+            flush();
+        }
+    }
+
+    /**
+     * Queues a checkpoint for {@code object}, to be signaled once all the objects queued so far
+     * are stored
+     */
+    public void checkpoint(RevObject object) {
+        batch.checkpoints.set(batch.entries.size());
+        add(object);
+    }
+
+    /**
+     * Stores the pending objects, waits for the writer to finish and returns the state returned by
+     * the last callback call.
+     *
+     * @throws RuntimeException if storing the objects or calling back failed
+     */
+    public T finish() {
+        try {
+            if (!writer.isDone()) {
+                flush();
+                enqueue(END);
+            }
+            return writer.get();
+        } catch (InterruptedException e) {
+            writer.cancel(true);
+            Thread.currentThread().interrupt();
+            throw Throwables.propagate(e);
+        } catch (ExecutionException e) {
+            throw Throwables.propagate(e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private void flush() {
+        if (!batch.entries.isEmpty()) {
+            enqueue(batch);
+            batch = new Batch(batchSize);
+        }
+    }
+
+    private void enqueue(Batch b) {
+        try {
+            while (!queue.offer(b, 1, TimeUnit.SECONDS)) {
+                if (writer.isDone()) {
+                    // the writer failed and won't take any more batches, report why
+                    finish();
+                }
+            }
+        } catch (InterruptedException e) {
+            writer.cancel(true);
+            Thread.currentThread().interrupt();
+            throw Throwables.propagate(e);
+        }
+    }
+
+    private T write() throws InterruptedException {
+        final Set<ObjectId> inserted = Collections
+                .newSetFromMap(new ConcurrentHashMap<ObjectId, Boolean>());
+        final BulkOpListener listener = new BulkOpListener() {
+            @Override
+            public void inserted(ObjectId object, @Nullable Integer storageSizeBytes) {
+                inserted.add(object);
+            }
+        };
+        T state = null;
+        Batch next;
+        while ((next = queue.take()) != END) {
+            database.putAll(next.objects(), listener);
+            for (int i = 0; i < next.entries.size(); i++) {
+                RevObject object = next.entries.get(i);
+                if (next.checkpoints.get(i)) {
+                    state = checkpointCallback.callback(object, state);
+                } else if (inserted.remove(object.getId())) {
+                    state = objectCallback.callback(object, state);
+                }
+            }
+            inserted.clear();
+        }
+        return state;
+    }
+}
@@ -8,16 +8,20 @@ import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.PushbackInputStream;
 import java.util.ArrayList;
-import java.util.HashSet;
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.Set;
 
 import javax.annotation.Nullable;
 
 import org.geogit.api.ObjectId;
+import org.geogit.api.ObjectIdMap;
+import org.geogit.api.ObjectIdSet;
 import org.geogit.api.RevCommit;
 import org.geogit.api.RevFeature;
 import org.geogit.api.RevFeatureType;
@@ -31,14 +35,60 @@ import org.geogit.storage.ObjectReader;
 import org.geogit.storage.ObjectSerializingFactory;
 import org.geogit.storage.ObjectWriter;
 import org.geogit.storage.datastream.DataStreamSerializationFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import com.google.common.base.Function;
 import com.google.common.base.Throwables;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterators;
+import com.ning.compress.lzf.LZFInputStream;
+import com.ning.compress.lzf.LZFOutputStream;
 
+/**
+ * Packs and unpacks the objects exchanged between repositories over the HTTP remote protocol.
+ * <p>
+ * Two stream formats are supported:
+ * <ul>
+ * <li>The original (version 1) format, written by {@link #write} and read by {@link #ingest}: a
+ * plain sequence of object id and serialized object pairs, holding at most {@code CAP} commits, so
+ * that transferring a long history takes several requests.
+ * <li>The {@link #PROTOCOL_VERSION version 2} format, written by {@link #writeStream} and read by
+ * {@link #ingestStream}: the whole closure of the wanted commits in a single, LZF compressed
+ * stream. Each commit or tag is followed by a checkpoint marker meaning the commit and everything
+ * it references has been sent, so that an interrupted transfer can be resumed from the last
+ * checkpoint instead of starting over, and the stream ends with an explicit end marker so that
+ * truncated streams are told apart from complete ones.
+ * </ul>
+ * A version 2 stream starts with an uncompressed {@link #isStreamHeader header}, which lets readers
+ * detect the format and fall back to version 1 when talking to peers that don't support it.
+ */
 public final class BinaryPackedObjects {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(BinaryPackedObjects.class);
+
+    /**
+     * The highest version of the pack protocol supported
+     */
+    public static final int PROTOCOL_VERSION = 2;
+
+    /**
+     * Magic bytes starting a version 2 stream, followed by one byte for the protocol version and one
+     * for the compression method
+     */
+    private static final byte[] STREAM_MAGIC = { 'G', 'G', 'P', 'A', 'C', 'K', 0, 0 };
+
+    private static final int HEADER_LENGTH = STREAM_MAGIC.length + 2;
+
+    private static final byte COMPRESSION_LZF = 1;
+
+    private static final int RECORD_END = 0;
+
+    private static final int RECORD_OBJECT = 1;
+
+    private static final int RECORD_CHECKPOINT = 2;
+
     private final ObjectWriter<RevTag> tagWriter;
 
     private final ObjectWriter<RevCommit> commitWriter;
@@ -55,8 +105,18 @@ public final class BinaryPackedObjects {
 
     private final ObjectDatabase database;
 
+    private final int ingestBatchSize;
+
     public BinaryPackedObjects(ObjectDatabase database) {
+        this(database, BatchedIngest.DEFAULT_BATCH_SIZE);
+    }
+
+    /**
+     * @param ingestBatchSize how many objects to store at once when ingesting
+     */
+    BinaryPackedObjects(ObjectDatabase database, int ingestBatchSize) {
         this.database = database;
+        this.ingestBatchSize = ingestBatchSize;
         final ObjectSerializingFactory factory = new DataStreamSerializationFactory();
         this.tagWriter = factory.createObjectWriter(RevObject.TYPE.TAG);
         this.commitWriter = factory.createObjectWriter(RevObject.TYPE.COMMIT);
@@ -68,47 +128,93 @@ public final class BinaryPackedObjects {
 
     public void write(OutputStream out, List<ObjectId> want, List<ObjectId> have,
             boolean traverseCommits, Deduplicator deduplicator) throws IOException {
-        write(out, want, have, new HashSet<ObjectId>(), DEFAULT_CALLBACK, traverseCommits, deduplicator);
+        write(out, want, have, new ObjectIdSet(), DEFAULT_CALLBACK, traverseCommits, deduplicator);
     }
 
     public <T> T write(OutputStream out, List<ObjectId> want, List<ObjectId> have,
             Set<ObjectId> sent, Callback<T> callback, boolean traverseCommits, Deduplicator deduplicator) throws IOException {
         T state = null;
+        int commitsSent = 0;
+        Iterator<RevObject> objects = objectsToSend(want, have, traverseCommits, deduplicator);
+        while (objects.hasNext() && commitsSent < CAP) {
+            RevObject object = objects.next();
+
+            writeObject(object, out);
+            if (object instanceof RevCommit) {
+                commitsSent++;
+            }
+            state = callback.callback(object, state);
+        }
+
+        return state;
+    }
+
+    /**
+     * Writes a {@link #PROTOCOL_VERSION version 2} stream with all the objects reachable from
+     * {@code want} and not reachable from {@code have}, in a single pass.
+     * <p>
+     * The {@code callback} is called for each object written. {@code out} is neither flushed nor
+     * closed, but the compressed stream wrapping it is finished.
+     */
+    public <T> T writeStream(OutputStream out, List<ObjectId> want, List<ObjectId> have,
+            Callback<T> callback, boolean traverseCommits, Deduplicator deduplicator)
+            throws IOException {
+
+        Iterator<RevObject> objects = objectsToSend(want, have, traverseCommits, deduplicator);
+
+        out.write(STREAM_MAGIC);
+        out.write(PROTOCOL_VERSION);
+        out.write(COMPRESSION_LZF);
+
+        final LZFOutputStream compressed = new LZFOutputStream(out);
+        T state = null;
+        while (objects.hasNext()) {
+            RevObject object = objects.next();
+            compressed.write(RECORD_OBJECT);
+            writeObject(object, compressed);
+            state = callback.callback(object, state);
+            if (object instanceof RevCommit || object instanceof RevTag) {
+                // post order traversal: everything the commit or tag references was already sent
+                compressed.write(RECORD_CHECKPOINT);
+                compressed.write(object.getId().getRawValue());
+            }
+        }
+        compressed.write(RECORD_END);
+        compressed.finishBlock();
+        return state;
+    }
+
+    private Iterator<RevObject> objectsToSend(List<ObjectId> want, List<ObjectId> have,
+            boolean traverseCommits, Deduplicator deduplicator) {
         for (ObjectId i : want) {
             if (!database.exists(i)) {
                 throw new NoSuchElementException("Wanted id: " + i + " is not known");
             }
         }
 
-        ImmutableList<ObjectId> needsPrevisit = traverseCommits ? scanForPrevisitList(want, have, deduplicator)
-                : ImmutableList.copyOf(have);
+        ImmutableList<ObjectId> needsPrevisit = traverseCommits ? scanForPrevisitList(want, have,
+                deduplicator) : ImmutableList.copyOf(have);
         deduplicator.reset();
         ImmutableList<ObjectId> previsitResults = reachableContentIds(needsPrevisit, deduplicator);
         deduplicator.reset();
 
-        int commitsSent = 0;
-        Iterator<RevObject> objects = PostOrderIterator.range(want, new ArrayList<ObjectId>(
-                previsitResults), database, traverseCommits, deduplicator);
-        while (objects.hasNext() && commitsSent < CAP) {
-            RevObject object = objects.next();
+        return PostOrderIterator.range(want, new ArrayList<ObjectId>(previsitResults), database,
+                traverseCommits, deduplicator);
+    }
 
-            out.write(object.getId().getRawValue());
-            if (object instanceof RevTag) {
-                tagWriter.write((RevTag) object, out);
-            } else if (object instanceof RevCommit) {
-                commitWriter.write((RevCommit) object, out);
-                commitsSent++;
-            } else if (object instanceof RevTree) {
-                treeWriter.write((RevTree) object, out);
-            } else if (object instanceof RevFeature) {
-                featureWriter.write((RevFeature) object, out);
-            } else if (object instanceof RevFeatureType) {
-                featureTypeWriter.write((RevFeatureType) object, out);
-            }
-            state = callback.callback(object, state);
+    private void writeObject(RevObject object, OutputStream out) throws IOException {
+        out.write(object.getId().getRawValue());
+        if (object instanceof RevTag) {
+            tagWriter.write((RevTag) object, out);
+        } else if (object instanceof RevCommit) {
+            commitWriter.write((RevCommit) object, out);
+        } else if (object instanceof RevTree) {
+            treeWriter.write((RevTree) object, out);
+        } else if (object instanceof RevFeature) {
+            featureWriter.write((RevFeature) object, out);
+        } else if (object instanceof RevFeatureType) {
+            featureTypeWriter.write((RevFeatureType) object, out);
         }
-
-        return state;
     }
 
     /**
@@ -130,12 +236,15 @@ public final class BinaryPackedObjects {
                 PostOrderIterator.rangeOfCommits(want, have, database, deduplicator), //
                 RevCommit.class);
         ImmutableSet.Builder<ObjectId> builder = ImmutableSet.builder();
+        Set<ObjectId> haveSet = new ObjectIdSet(have);
 
         while (willBeVisited.hasNext()) {
             RevCommit next = willBeVisited.next();
-            List<ObjectId> parents = new ArrayList<ObjectId>(next.getParentIds());
-            parents.retainAll(have);
-            builder.addAll(parents);
+            for (ObjectId parent : next.getParentIds()) {
+                if (haveSet.contains(parent)) {
+                    builder.add(parent);
+                }
+            }
         }
 
         return ImmutableList.copyOf(builder.build());
@@ -160,31 +269,142 @@ public final class BinaryPackedObjects {
         ingest(in, DEFAULT_CALLBACK);
     }
 
+    /**
+     * Reads a stream in the original format, storing the objects not already in the database.
+     * <p>
+     * Objects are decoded on the calling thread and stored in batches of {@code ingestBatchSize}
+     * objects on a separate one. {@code callback} is called on the storing thread, in stream order,
+     * for each object that was not already in the database, once its batch has been stored.
+     */
     public <T> T ingest(final InputStream in, Callback<T> callback) {
-        T state = null;
-        while (true) {
-            try {
-                state = ingestOne(in, callback, state);
-            } catch (EOFException e) {
-                break;
-            } catch (IOException e) {
-                Throwables.propagate(e);
+        final BatchedIngest<T> batches = new BatchedIngest<T>(database, callback, null,
+                ingestBatchSize);
+        try {
+            while (true) {
+                ObjectId id = readObjectId(in);
+                batches.add(objectReader.read(id, in));
             }
+        } catch (EOFException e) {
+            // end of stream
+        } catch (IOException e) {
+            finishQuietly(batches);
+            throw Throwables.propagate(e);
+        } catch (RuntimeException e) {
+            finishQuietly(batches);
+            throw e;
         }
-        return state;
+        return batches.finish();
     }
 
-    private <T> T ingestOne(final InputStream in, Callback<T> callback, T state) throws IOException {
-        ObjectId id = readObjectId(in);
-        RevObject revObj = objectReader.read(id, in);
-        final T result;
-        if (!database.exists(id)) {
-            result = callback.callback(revObj, state);
-            database.put(revObj);
-        } else {
-            result = state;
+    /**
+     * Stores what could be decoded before a failure, without masking it
+     */
+    private static void finishQuietly(BatchedIngest<?> batches) {
+        try {
+            batches.finish();
+        } catch (RuntimeException e) {
+            LOGGER.debug("Error storing objects after a failed ingest", e);
+        }
+    }
+
+    /**
+     * Reads the header of a {@link #PROTOCOL_VERSION version 2} stream, if present.
+     * <p>
+     * If the stream doesn't start with a version 2 header, the bytes read are pushed back so that
+     * it can be read as a version 1 stream with {@link #ingest}.
+     * 
+     * @param in a pushback stream with a buffer of at least {@link #HEADER_LENGTH} bytes
+     * @return {@code true} if a version 2 header was consumed
+     * @throws IOException if the header is for an unsupported version or compression method
+     */
+    public static boolean isStreamHeader(final PushbackInputStream in) throws IOException {
+        final byte[] header = new byte[HEADER_LENGTH];
+        int read = 0;
+        int amount;
+        while (read < header.length && (amount = in.read(header, read, header.length - read)) >= 0) {
+            read += amount;
+        }
+        final boolean matches = read == header.length
+                && Arrays.equals(STREAM_MAGIC, Arrays.copyOf(header, STREAM_MAGIC.length));
+        if (!matches) {
+            if (read > 0) {
+                in.unread(header, 0, read);
+            }
+            return false;
+        }
+        final int version = header[STREAM_MAGIC.length];
+        final int compression = header[STREAM_MAGIC.length + 1];
+        if (version != PROTOCOL_VERSION || compression != COMPRESSION_LZF) {
+            throw new IOException("Unsupported pack stream version " + version
+                    + " or compression " + compression);
+        }
+        return true;
+    }
+
+    /**
+     * @return a stream suitable for {@link #isStreamHeader(PushbackInputStream)}
+     */
+    public static PushbackInputStream pushbackStream(final InputStream in) {
+        return new PushbackInputStream(in, HEADER_LENGTH);
+    }
+
+    /**
+     * Reads a {@link #PROTOCOL_VERSION version 2} stream whose header has already been consumed
+     * with {@link #isStreamHeader(PushbackInputStream)}, storing the objects not already in the
+     * database.
+     * <p>
+     * {@code objectCallback} is called for each object that's not already in the database, as in
+     * {@link #ingest(InputStream, Callback)}. {@code checkpointCallback} is called with each commit
+     * or tag once the stream guarantees it and all the objects it references have been received
+     * and stored, whether they were already present or not.
+     * 
+     * @throws IOException if the stream is corrupt or ends before its end marker, in which case all
+     *         the objects up to the last checkpoint are safely stored
+     */
+    public <T> T ingestStream(final InputStream in, final Callback<T> objectCallback,
+            final Callback<T> checkpointCallback) throws IOException {
+
+        final InputStream data = new LZFInputStream(in);
+        final Map<ObjectId, RevObject> pending = new ObjectIdMap<RevObject>();
+        final BatchedIngest<T> batches = new BatchedIngest<T>(database, objectCallback,
+                checkpointCallback, ingestBatchSize);
+        try {
+            while (true) {
+                final int record = data.read();
+                switch (record) {
+                case RECORD_OBJECT: {
+                    ObjectId id = readObjectId(data);
+                    RevObject object = objectReader.read(id, data);
+                    batches.add(object);
+                    if (object instanceof RevCommit || object instanceof RevTag) {
+                        pending.put(id, object);
+                    }
+                    break;
+                }
+                case RECORD_CHECKPOINT: {
+                    ObjectId id = readObjectId(data);
+                    RevObject object = pending.remove(id);
+                    if (object == null) {
+                        throw new IOException("Checkpoint for an object not received: " + id);
+                    }
+                    batches.checkpoint(object);
+                    break;
+                }
+                case RECORD_END:
+                    return batches.finish();
+                case -1:
+                    throw new EOFException("Pack stream ended before its end marker");
+                default:
+                    throw new IOException("Unknown pack stream record: " + record);
+                }
+            }
+        } catch (IOException e) {
+            finishQuietly(batches);
+            throw e;
+        } catch (RuntimeException e) {
+            finishQuietly(batches);
+            throw e;
         }
-        return result;
     }
 
     private ObjectId readObjectId(final InputStream in) throws IOException {
@@ -207,6 +427,13 @@ public final class BinaryPackedObjects {
         public abstract T callback(RevObject object, T state);
     }
 
+    /**
+     * @return a callback that does nothing
+     */
+    public static Callback<Void> noOpCallback() {
+        return DEFAULT_CALLBACK;
+    }
+
     private static final Callback<Void> DEFAULT_CALLBACK = new Callback<Void>() {
         @Override
         public Void callback(RevObject object, Void state) {
@@ -10,17 +10,20 @@ import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
+import java.io.PushbackInputStream;
 import java.io.Writer;
 import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.util.ArrayList;
 import java.util.Collections;
-import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Set;
 
 import org.geogit.api.ObjectId;
+import org.geogit.api.ObjectIdSet;
 import org.geogit.api.Ref;
 import org.geogit.api.RevCommit;
 import org.geogit.api.RevObject;
@@ -29,11 +32,14 @@ import org.geogit.api.porcelain.SynchronizationException;
 import org.geogit.repository.Repository;
 import org.geogit.storage.DeduplicationService;
 import org.geogit.storage.Deduplicator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import com.google.common.base.Optional;
 import com.google.common.base.Throwables;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.io.Closeables;
 import com.google.gson.Gson;
 import com.google.gson.JsonArray;
 import com.google.gson.JsonObject;
@@ -47,6 +53,13 @@ import com.google.gson.JsonPrimitive;
  */
 class HttpRemoteRepo extends AbstractRemoteRepo {
 
+    private static final Logger LOGGER = LoggerFactory.getLogger(HttpRemoteRepo.class);
+
+    /**
+     * How many consecutive times to retry an interrupted fetch that made no progress
+     */
+    private static final int MAX_FETCH_RETRIES = 3;
+
     private URL repositoryURL;
 
     private List<ObjectId> fetchedIds;
@@ -192,13 +205,32 @@ class HttpRemoteRepo extends AbstractRemoteRepo {
 
         try {
             traverser.traverse(ref.getObjectId());
-            List<ObjectId> want = new LinkedList<ObjectId>();
-            want.addAll(traverser.commits);
-            Collections.reverse(want);
-            Set<ObjectId> have = new HashSet<ObjectId>();
-            have.addAll(traverser.have);
+            List<ObjectId> commits = new ArrayList<ObjectId>(traverser.commits);
+            Collections.reverse(commits);
+            Set<ObjectId> want = new LinkedHashSet<ObjectId>(commits);
+            Set<ObjectId> have = new ObjectIdSet(traverser.have);
+            int failures = 0;
             while (!want.isEmpty()) {
-                fetchMoreData(want, have);
+                final int pending = want.size();
+                try {
+                    fetchMoreData(want, have);
+                    failures = 0;
+                    if (want.size() == pending) {
+                        throw new IllegalStateException(
+                                "The remote repository didn't send any of the wanted commits");
+                    }
+                } catch (IOException e) {
+                    // the want and have sets are up to date with the last checkpoint received,
+                    // so the next request resumes from there
+                    if (want.size() < pending) {
+                        failures = 0;
+                    }
+                    if (++failures > MAX_FETCH_RETRIES) {
+                        throw e;
+                    }
+                    LOGGER.warn("Fetch interrupted with {} commits pending, resuming: {}",
+                            want.size(), e.getMessage());
+                }
             }
         } catch (Exception e) {
             for (ObjectId oid : fetchedIds) {
@@ -227,11 +259,10 @@ class HttpRemoteRepo extends AbstractRemoteRepo {
 
         traverser.traverse(ref.getObjectId());
 
-        List<ObjectId> toSend = new LinkedList<ObjectId>();
-        toSend.addAll(traverser.commits);
-        Collections.reverse(toSend);
-        Set<ObjectId> have = new HashSet<ObjectId>();
-        have.addAll(traverser.have);
+        List<ObjectId> commits = new ArrayList<ObjectId>(traverser.commits);
+        Collections.reverse(commits);
+        Set<ObjectId> toSend = new LinkedHashSet<ObjectId>(commits);
+        Set<ObjectId> have = new ObjectIdSet(traverser.have);
 
         Deduplicator deduplicator = deduplicationService.createDeduplicator();
         try {
@@ -247,45 +278,94 @@ class HttpRemoteRepo extends AbstractRemoteRepo {
         endPush(refspec, ref.getObjectId(), originalRemoteRefValue.toString());
     }
 
-    private void sendPackedObjects(final List<ObjectId> toSend, final Set<ObjectId> roots,
+    private void sendPackedObjects(final Set<ObjectId> toSend, final Set<ObjectId> roots,
             Deduplicator deduplicator) {
-        Set<ObjectId> sent = new HashSet<ObjectId>();
-        while (!toSend.isEmpty()) {
+        BinaryPackedObjects.Callback<Void> callback = new BinaryPackedObjects.Callback<Void>() {
+            @Override
+            public Void callback(RevObject object, Void state) {
+                if (object instanceof RevCommit) {
+                    RevCommit commit = (RevCommit) object;
+                    toSend.remove(commit.getId());
+                    roots.removeAll(commit.getParentIds());
+                    roots.add(commit.getId());
+                }
+                return null;
+            }
+        };
+        BinaryPackedObjects packer = new BinaryPackedObjects(localRepository.getObjectDatabase());
+        if (supportsStreamingPush()) {
             try {
-                String expanded = repositoryURL.toString() + "/repo/sendobject";
-                HttpURLConnection connection = (HttpURLConnection) new URL(expanded)
-                        .openConnection();
-                connection.setDoOutput(true);
-                connection.setChunkedStreamingMode(4096);
+                HttpURLConnection connection = openSendObjectConnection(true);
+                OutputStream out = connection.getOutputStream();
+                packer.writeStream(out, new ArrayList<ObjectId>(toSend),
+                        ImmutableList.copyOf(roots), callback, false, deduplicator);
+                out.flush();
+                out.close();
 
+                InputStream in = connection.getInputStream();
+                HttpUtils.consumeAndCloseStream(in);
+            } catch (IOException e) {
+                throw Throwables.propagate(e);
+            }
+            return;
+        }
+        Set<ObjectId> sent = new ObjectIdSet();
+        while (!toSend.isEmpty()) {
+            try {
+                HttpURLConnection connection = openSendObjectConnection(false);
                 OutputStream out = connection.getOutputStream();
-                BinaryPackedObjects.Callback<Void> callback = new BinaryPackedObjects.Callback<Void>() {
-                    @Override
-                    public Void callback(RevObject object, Void state) {
-                        if (object instanceof RevCommit) {
-                            RevCommit commit = (RevCommit) object;
-                            toSend.remove(commit.getId());
-                            roots.removeAll(commit.getParentIds());
-                            roots.add(commit.getId());
-                        }
-                        return null;
-                    }
-                };
-                BinaryPackedObjects packer = new BinaryPackedObjects(
-                        localRepository.getObjectDatabase());
-                packer.write(out, toSend, ImmutableList.copyOf(roots), sent, callback, false,
-                        deduplicator);
+                packer.write(out, new ArrayList<ObjectId>(toSend), ImmutableList.copyOf(roots),
+                        sent, callback, false, deduplicator);
                 out.flush();
                 out.close();
 
                 InputStream in = connection.getInputStream();
                 HttpUtils.consumeAndCloseStream(in);
             } catch (IOException e) {
-                Throwables.propagate(e);
+                throw Throwables.propagate(e);
             }
         }
     }
 
+    private HttpURLConnection openSendObjectConnection(final boolean streaming)
+            throws IOException {
+        String expanded = repositoryURL.toString() + "/repo/sendobject";
+        if (streaming) {
+            expanded += "?protocol=" + BinaryPackedObjects.PROTOCOL_VERSION;
+        }
+        HttpURLConnection connection = (HttpURLConnection) new URL(expanded).openConnection();
+        connection.setDoOutput(true);
+        connection.setChunkedStreamingMode(4096);
+        return connection;
+    }
+
+    /**
+     * Asks the remote whether it accepts {@link BinaryPackedObjects#PROTOCOL_VERSION version 2}
+     * pack streams by posting an empty one. Servers that don't know about the protocol parameter
+     * ingest the empty body as a no-op and reply with an empty response.
+     */
+    private boolean supportsStreamingPush() {
+        HttpURLConnection connection = null;
+        try {
+            connection = openSendObjectConnection(true);
+            connection.getOutputStream().close();
+            InputStream in = connection.getInputStream();
+            try {
+                BufferedReader rd = new BufferedReader(new InputStreamReader(in));
+                String line = rd.readLine();
+                return line != null
+                        && line.trim().equals("protocol=" + BinaryPackedObjects.PROTOCOL_VERSION);
+            } finally {
+                HttpUtils.consumeAndCloseStream(in);
+            }
+        } catch (IOException e) {
+            LOGGER.debug("Pack stream negotiation failed, using the original protocol", e);
+            return false;
+        } finally {
+            HttpUtils.consumeErrStreamAndCloseConnection(connection);
+        }
+    }
+
     /**
      * Delete a {@link Ref} from the remote repository.
      * 
@@ -310,11 +390,18 @@ class HttpRemoteRepo extends AbstractRemoteRepo {
      * list, and any parents of those commits are removed from the have list (it only represents the
      * most recent common commits.) Retrieved objects are added to the local repository, and the
      * want/have lists are updated in-place.
+     * <p>
+     * Servers that support the {@link BinaryPackedObjects#PROTOCOL_VERSION version 2} pack protocol
+     * send all the wanted objects in a single compressed stream, and the want/have sets are only
+     * updated at the stream checkpoints. Older servers send at most a batch of commits per request.
      * 
      * @param want a list of ObjectIds that need to be fetched
      * @param have a list of ObjectIds that are in common with the remote repository
+     * @throws IOException if the connection to the remote fails or is interrupted, in which case
+     *         the want and have sets reflect the objects safely received so far
      */
-    private void fetchMoreData(final List<ObjectId> want, final Set<ObjectId> have) {
+    private void fetchMoreData(final Set<ObjectId> want, final Set<ObjectId> have)
+            throws IOException {
         final JsonObject message = createFetchMessage(want, have);
         final URL resourceURL;
         try {
@@ -324,51 +411,53 @@ class HttpRemoteRepo extends AbstractRemoteRepo {
         }
 
         final Gson gson = new Gson();
-        final HttpURLConnection connection;
-        final OutputStream out;
-        final Writer writer;
+        final HttpURLConnection connection = (HttpURLConnection) resourceURL.openConnection();
         try {
-            connection = (HttpURLConnection) resourceURL.openConnection();
             connection.setDoOutput(true);
             connection.setDoInput(true);
-            out = connection.getOutputStream();
-            writer = new OutputStreamWriter(out);
+            final OutputStream out = connection.getOutputStream();
+            final Writer writer = new OutputStreamWriter(out);
             gson.toJson(message, writer);
             writer.flush();
-        } catch (IOException e) {
-            throw Throwables.propagate(e);
-        }
-
-        final InputStream in;
-        try {
-            in = connection.getInputStream();
-        } catch (IOException e) {
-            throw Throwables.propagate(e);
-        }
 
-        BinaryPackedObjects unpacker = new BinaryPackedObjects(localRepository.getObjectDatabase());
-        BinaryPackedObjects.Callback<Void> callback = new BinaryPackedObjects.Callback<Void>() {
-            @Override
-            public Void callback(RevObject object, Void state) {
-                if (object instanceof RevCommit) {
-                    RevCommit commit = (RevCommit) object;
-                    want.remove(commit.getId());
-                    have.removeAll(commit.getParentIds());
-                    have.add(commit.getId());
-                } else if (object instanceof RevTag) {
-                    RevTag tag = (RevTag) object;
-                    want.remove(tag.getId());
-                    have.remove(tag.getCommitId());
-                    have.add(tag.getId());
+            final PushbackInputStream in = BinaryPackedObjects.pushbackStream(connection
+                    .getInputStream());
+            try {
+                BinaryPackedObjects unpacker = new BinaryPackedObjects(
+                        localRepository.getObjectDatabase());
+                BinaryPackedObjects.Callback<Void> callback = new BinaryPackedObjects.Callback<Void>() {
+                    @Override
+                    public Void callback(RevObject object, Void state) {
+                        if (object instanceof RevCommit) {
+                            RevCommit commit = (RevCommit) object;
+                            want.remove(commit.getId());
+                            have.removeAll(commit.getParentIds());
+                            have.add(commit.getId());
+                        } else if (object instanceof RevTag) {
+                            RevTag tag = (RevTag) object;
+                            want.remove(tag.getId());
+                            have.remove(tag.getCommitId());
+                            have.add(tag.getId());
+                        }
+                        return null;
+                    }
+                };
+                if (BinaryPackedObjects.isStreamHeader(in)) {
+                    unpacker.ingestStream(in, BinaryPackedObjects.noOpCallback(), callback);
+                } else {
+                    unpacker.ingest(in, callback);
                 }
-                return null;
+            } finally {
+                Closeables.closeQuietly(in);
             }
-        };
-        unpacker.ingest(in, callback);
+        } finally {
+            HttpUtils.consumeErrStreamAndCloseConnection(connection);
+        }
     }
 
-    private JsonObject createFetchMessage(List<ObjectId> want, Set<ObjectId> have) {
+    private JsonObject createFetchMessage(Set<ObjectId> want, Set<ObjectId> have) {
         JsonObject message = new JsonObject();
+        message.addProperty("protocol", Integer.valueOf(BinaryPackedObjects.PROTOCOL_VERSION));
         JsonArray wantArray = new JsonArray();
         for (ObjectId id : want) {
             wantArray.add(new JsonPrimitive(id.toString()));
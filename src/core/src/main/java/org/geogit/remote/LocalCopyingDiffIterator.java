@@ -5,15 +5,20 @@
 package org.geogit.remote;
 
 import java.util.Iterator;
+import java.util.List;
 
 import org.geogit.api.NodeRef;
 import org.geogit.api.ObjectId;
-import org.geogit.api.RevObject;
-import org.geogit.api.plumbing.RevObjectParse;
 import org.geogit.api.plumbing.diff.DiffEntry;
 import org.geogit.repository.Repository;
+import org.geogit.storage.BulkOpListener;
+import org.geogit.storage.ObjectDatabase;
+import org.geogit.storage.RawObject;
 
+import com.google.common.base.Predicate;
 import com.google.common.collect.AbstractIterator;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
 
 /**
  * An iterator that copies all new objects from a source repository to a destination repository.
@@ -48,24 +53,38 @@ class LocalCopyingDiffIterator extends AbstractIterator<DiffEntry> {
             DiffEntry next = source.next();
             if (next.getNewObject() != null) {
                 NodeRef newObject = next.getNewObject();
-                RevObject object = sourceRepo.command(RevObjectParse.class)
-                        .setObjectId(newObject.getNode().getObjectId()).call().get();
-
-                RevObject metadata = null;
-                if (newObject.getMetadataId() != ObjectId.NULL) {
-                    metadata = sourceRepo.command(RevObjectParse.class)
-                            .setObjectId(newObject.getMetadataId()).call().get();
-                }
-
-                if (!destinationRepo.blobExists(object.getId())) {
-                    destinationRepo.getObjectDatabase().put(object);
-                }
-                if (metadata != null && !destinationRepo.blobExists(metadata.getId())) {
-                    destinationRepo.getObjectDatabase().put(metadata);
+                List<ObjectId> ids = Lists.newArrayListWithCapacity(2);
+                ids.add(newObject.getNode().getObjectId());
+                if (!newObject.getMetadataId().isNull()) {
+                    ids.add(newObject.getMetadataId());
                 }
+                copy(ids);
             }
             return next;
         }
         return endOfData();
     }
+
+    /**
+     * Copies the objects the destination repository doesn't have yet, as stored in the source
+     * repository
+     */
+    private void copy(List<ObjectId> ids) {
+        final ObjectDatabase destination = destinationRepo.getObjectDatabase();
+        Iterable<ObjectId> missing = Iterables.filter(ids, new Predicate<ObjectId>() {
+            @Override
+            public boolean apply(ObjectId id) {
+                return !destination.exists(id);
+            }
+        });
+        Iterator<RawObject> objects = sourceRepo.getIndex().getDatabase()
+                .getRawAll(missing, new BulkOpListener() {
+                    @Override
+                    public void notFound(ObjectId id) {
+                        throw new IllegalStateException("Object " + id
+                                + " not found in the source repository");
+                    }
+                });
+        destination.putRawAll(objects, BulkOpListener.NOOP_LISTENER);
+    }
 }
@@ -9,6 +9,9 @@ import java.io.IOException;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Set;
+
+import javax.annotation.Nullable;
 
 import org.geogit.api.Bucket;
 import org.geogit.api.GeoGIT;
@@ -28,6 +31,8 @@ import org.geogit.api.plumbing.UpdateRef;
 import org.geogit.api.plumbing.UpdateSymRef;
 import org.geogit.api.porcelain.SynchronizationException;
 import org.geogit.repository.Repository;
+import org.geogit.storage.BulkOpListener;
+import org.geogit.storage.ObjectDatabase;
 import org.geogit.storage.ObjectInserter;
 
 import com.google.common.base.Optional;
@@ -35,6 +40,8 @@ import com.google.common.base.Preconditions;
 import com.google.common.base.Predicate;
 import com.google.common.base.Throwables;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Sets;
 import com.google.inject.Injector;
 
 /**
@@ -279,36 +286,43 @@ class LocalRemoteRepo extends AbstractRemoteRepo {
                     walkTree(bucket.id(), from, to, objectInserter);
                 }
             } else {
-                // get new objects
+                // get new objects, copying features and feature types as stored
+                Set<ObjectId> blobs = Sets.newLinkedHashSet();
                 for (Iterator<Node> children = tree.children(); children.hasNext();) {
                     Node ref = children.next();
-                    moveObject(ref.getObjectId(), from, to, objectInserter);
+                    if (TYPE.TREE.equals(ref.getType())) {
+                        walkTree(ref.getObjectId(), from, to, objectInserter);
+                    } else {
+                        blobs.add(ref.getObjectId());
+                    }
                     ObjectId metadataId = ref.getMetadataId().or(ObjectId.NULL);
                     if (!metadataId.isNull()) {
-                        moveObject(metadataId, from, to, objectInserter);
+                        blobs.add(metadataId);
                     }
                 }
+                copyObjects(blobs, from, to);
             }
         }
     }
 
-    private void moveObject(ObjectId objectId, Repository from, Repository to,
-            ObjectInserter objectInserter) {
-        // See if we already have it
-        if (to.getObjectDatabase().exists(objectId)) {
-            return;
-        }
-
-        Optional<RevObject> childObject = from.command(RevObjectParse.class).setObjectId(objectId)
-                .call();
-        if (childObject.isPresent()) {
-            RevObject revObject = childObject.get();
-            if (TYPE.TREE.equals(revObject.getType())) {
-                walkTree(objectId, from, to, objectInserter);
+    /**
+     * Copies the objects {@code to} doesn't have yet without parsing them
+     */
+    private void copyObjects(Set<ObjectId> ids, Repository from, Repository to) {
+        final ObjectDatabase target = to.getObjectDatabase();
+        Iterable<ObjectId> missing = Iterables.filter(ids, new Predicate<ObjectId>() {
+            @Override
+            public boolean apply(ObjectId id) {
+                return !target.exists(id);
             }
-            objectInserter.insert(revObject);
-            touchedIds.add(objectId);
-        }
+        });
+        target.putRawAll(from.getIndex().getDatabase().getRawAll(missing,
+                BulkOpListener.NOOP_LISTENER), new BulkOpListener() {
+            @Override
+            public void inserted(ObjectId object, @Nullable Integer storageSizeBytes) {
+                touchedIds.add(object);
+            }
+        });
     }
 
     /**
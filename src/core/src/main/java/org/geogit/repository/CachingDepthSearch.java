@@ -0,0 +1,83 @@
+/* Copyright (c) 2013 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+package org.geogit.repository;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+
+import org.geogit.api.NodeRef;
+import org.geogit.api.ObjectId;
+import org.geogit.api.RevTree;
+import org.geogit.storage.ObjectDatabase;
+
+import com.google.common.base.Optional;
+import com.google.common.base.Throwables;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+
+/**
+ * A {@link DepthSearch} that keeps the trees it reads and the nodes it finds.
+ * <p>
+ * Meant for repeated searches over the trees of consecutive commits, such as following features
+ * along history: the trees and buckets on the way to a feature that didn't change between commits
+ * are read only once, and searching for several features of the same layer shares the trees on
+ * the way to the layer.
+ */
+public class CachingDepthSearch extends DepthSearch {
+
+    private static final int DEFAULT_MAX_TREES = 10 * 1000;
+
+    private final Cache<ObjectId, RevTree> trees;
+
+    private final Cache<String, Optional<NodeRef>> nodes;
+
+    public CachingDepthSearch(final ObjectDatabase db) {
+        this(db, DEFAULT_MAX_TREES);
+    }
+
+    /**
+     * @param maxTrees the maximum number of trees to keep
+     */
+    public CachingDepthSearch(final ObjectDatabase db, final int maxTrees) {
+        super(db);
+        this.trees = CacheBuilder.newBuilder().maximumSize(maxTrees).softValues().build();
+        this.nodes = CacheBuilder.newBuilder().maximumSize(10L * maxTrees).build();
+    }
+
+    @Override
+    public Optional<NodeRef> find(final RevTree parent, final String parentPath,
+            final String childPath) {
+        final String key = parent.getId() + ":" + parentPath + ":" + childPath;
+        try {
+            return nodes.get(key, new Callable<Optional<NodeRef>>() {
+                @Override
+                public Optional<NodeRef> call() {
+                    return CachingDepthSearch.super.find(parent, parentPath, childPath);
+                }
+            });
+        } catch (ExecutionException e) {
+            throw Throwables.propagate(e.getCause());
+        } catch (UncheckedExecutionException e) {
+            throw Throwables.propagate(e.getCause());
+        }
+    }
+
+    @Override
+    protected RevTree getTree(final ObjectId treeId) {
+        try {
+            return trees.get(treeId, new Callable<RevTree>() {
+                @Override
+                public RevTree call() {
+                    return CachingDepthSearch.super.getTree(treeId);
+                }
+            });
+        } catch (ExecutionException e) {
+            throw Throwables.propagate(e.getCause());
+        } catch (UncheckedExecutionException e) {
+            throw Throwables.propagate(e.getCause());
+        }
+    }
+}
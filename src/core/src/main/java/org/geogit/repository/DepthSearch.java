@@ -20,7 +20,6 @@ import org.geogit.storage.ObjectDatabase;
 
 import com.google.common.base.Optional;
 import com.google.common.base.Splitter;
-import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSortedMap;
 import com.google.common.collect.Lists;
 
@@ -55,7 +54,7 @@ public class DepthSearch {
      *         if it wasn't found.
      */
     public Optional<NodeRef> find(final ObjectId rootTreeId, final String path) {
-        RevTree tree = objectDb.get(rootTreeId, RevTree.class);
+        RevTree tree = getTree(rootTreeId);
         if (tree == null) {
             return null;
         }
@@ -110,7 +109,7 @@ public class DepthSearch {
                 return Optional.absent();
             }
             metadataId = subtreeRef.get().getMetadataId().or(ObjectId.NULL);
-            subTree = objectDb.get(subtreeRef.get().getObjectId(), RevTree.class);
+            subTree = getTree(subtreeRef.get().getObjectId());
         }
         final String childName = childSteps.get(childSteps.size() - 1);
         Optional<Node> node = getDirectChild(subTree, childName, 0);
@@ -134,24 +133,8 @@ public class DepthSearch {
             return Optional.absent();
         }
 
-        if (parent.trees().isPresent() || parent.features().isPresent()) {
-            if (parent.trees().isPresent()) {
-                ImmutableList<Node> refs = parent.trees().get();
-                for (int i = 0; i < refs.size(); i++) {
-                    if (directChildName.equals(refs.get(i).getName())) {
-                        return Optional.of(refs.get(i));
-                    }
-                }
-            }
-            if (parent.features().isPresent()) {
-                ImmutableList<Node> refs = parent.features().get();
-                for (int i = 0; i < refs.size(); i++) {
-                    if (directChildName.equals(refs.get(i).getName())) {
-                        return Optional.of(refs.get(i));
-                    }
-                }
-            }
-            return Optional.absent();
+        if (!parent.buckets().isPresent()) {
+            return parent.child(directChildName);
         }
 
         Integer bucket = refOrder.bucket(directChildName, subtreesDepth);
@@ -160,7 +143,14 @@ public class DepthSearch {
         if (subtreeBucket == null) {
             return Optional.absent();
         }
-        RevTree subtree = objectDb.get(subtreeBucket.id(), RevTree.class);
+        RevTree subtree = getTree(subtreeBucket.id());
         return getDirectChild(subtree, directChildName, subtreesDepth + 1);
     }
+
+    /**
+     * Reads a tree or bucket tree out of the object database, for subclasses to override
+     */
+    protected RevTree getTree(final ObjectId treeId) {
+        return objectDb.get(treeId, RevTree.class);
+    }
 }
@@ -0,0 +1,441 @@
+/* Copyright (c) 2013 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+package org.geogit.repository;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.Nullable;
+
+import org.geogit.api.Node;
+import org.geogit.api.ProgressListener;
+import org.geogit.api.RevFeature;
+import org.geogit.api.RevFeatureBuilder;
+import org.geogit.api.RevObject;
+import org.geogit.storage.BulkOpListener;
+import org.geogit.storage.ObjectDatabase;
+import org.opengis.feature.Feature;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Throwables;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Inserts features into the working tree through a pipeline of stages connected by bounded
+ * queues:
+ * <ol>
+ * <li>the calling thread reads the features and hands them out in chunks to
+ * <li>a pool of threads that build and hash their {@link RevFeature}s;
+ * <li>a single thread takes the chunks back in the order they were read and adds their features to
+ * the tree builders, or removes the {@link FeatureToDelete features to delete}, and
+ * <li>another single thread writes the {@code RevFeature}s to the object database in batches.
+ * </ol>
+ * A stage that gets ahead of the next one blocks once the queue between them is full. Features get
+ * to the tree builders and to the database in the order they were read, so the result is the same
+ * as inserting them one at a time.
+ * <p>
+ * When there are no more features than fit in a chunk, the stages are run one after the other on
+ * the calling thread instead, as it's not worth starting threads for them.
+ * <p>
+ * The number of features that went through each stage and the time the stage was busy, not
+ * counting the time spent waiting on the other stages, are kept as {@link StageCounter counters}
+ * and logged at debug level once the pipeline is done.
+ */
+class InsertPipeline {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(InsertPipeline.class);
+
+    /**
+     * Number of features read before handing them out to be hashed
+     */
+    private static final int CHUNK_SIZE = 64;
+
+    /**
+     * Number of {@code RevFeature}s written at once
+     */
+    private static final int BATCH_SIZE = 1000;
+
+    /**
+     * Number of batches that can be waiting to be written
+     */
+    private static final int MAX_PENDING_BATCHES = 2;
+
+    private static final long POLL_MILLIS = 100;
+
+    private static final Chunk END_OF_CHUNKS = new Chunk(null, null);
+
+    private static final List<RevObject> END_OF_BATCHES = ImmutableList.of();
+
+    /**
+     * The number of features that went through a pipeline stage and the time it took them
+     */
+    static final class StageCounter {
+
+        private final String name;
+
+        private final AtomicLong count = new AtomicLong();
+
+        private final AtomicLong busyNanos = new AtomicLong();
+
+        StageCounter(String name) {
+            this.name = name;
+        }
+
+        void add(long features, long nanos) {
+            count.addAndGet(features);
+            busyNanos.addAndGet(nanos);
+        }
+
+        public long getCount() {
+            return count.get();
+        }
+
+        public long getBusyMillis() {
+            return TimeUnit.NANOSECONDS.toMillis(busyNanos.get());
+        }
+
+        /**
+         * @return the number of features per second of busy time
+         */
+        public double getThroughput() {
+            final long nanos = busyNanos.get();
+            return nanos == 0 ? 0 : count.get() * 1E9 / nanos;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s: %,d features in %,dms busy, %,.0f/s", name, getCount(),
+                    getBusyMillis(), getThroughput());
+        }
+    }
+
+    /**
+     * Features read together, and the future result of hashing them, {@code null} for the
+     * features to delete
+     */
+    private static final class Chunk {
+
+        final List<Feature> features;
+
+        final Future<RevFeature[]> revFeatures;
+
+        Chunk(List<Feature> features, Future<RevFeature[]> revFeatures) {
+            this.features = features;
+            this.revFeatures = revFeatures;
+        }
+    }
+
+    private final ObjectDatabase db;
+
+    private final WorkingTreeInsertHelper insertHelper;
+
+    private final int nHashThreads;
+
+    private final ProgressListener listener;
+
+    @Nullable
+    private final List<Node> insertedTarget;
+
+    @Nullable
+    private final Integer collectionSize;
+
+    private final BlockingQueue<Chunk> chunks;
+
+    private final BlockingQueue<List<RevObject>> batches;
+
+    private final StageCounter read = new StageCounter("read");
+
+    private final StageCounter hash = new StageCounter("hash");
+
+    private final StageCounter tree = new StageCounter("tree");
+
+    private final StageCounter write = new StageCounter("write");
+
+    private volatile Throwable failure;
+
+    /**
+     * @param db the database to write the {@code RevFeature}s to
+     * @param insertHelper the tree builders to add the features to
+     * @param nHashThreads the number of threads building and hashing {@code RevFeature}s
+     * @param listener notified of the progress as features are added to the tree builders
+     * @param insertedTarget if given, the nodes of the features added are added to it, in order
+     * @param collectionSize if given, used to report the progress as a percentage
+     */
+    public InsertPipeline(final ObjectDatabase db, final WorkingTreeInsertHelper insertHelper,
+            final int nHashThreads, final ProgressListener listener,
+            @Nullable final List<Node> insertedTarget, @Nullable final Integer collectionSize) {
+        this.db = db;
+        this.insertHelper = insertHelper;
+        this.nHashThreads = Math.max(1, nHashThreads);
+        this.listener = listener;
+        this.insertedTarget = insertedTarget;
+        this.collectionSize = collectionSize;
+        // enough chunks to keep the hashing threads busy while the tree stage catches up
+        this.chunks = new ArrayBlockingQueue<Chunk>(4 * this.nHashThreads);
+        this.batches = new ArrayBlockingQueue<List<RevObject>>(MAX_PENDING_BATCHES);
+    }
+
+    /**
+     * Runs all the {@code features} through the pipeline, returning once they were all added to
+     * the tree builders and written to the database.
+     *
+     * @param writeListener notified of the {@code RevFeature}s written to the database
+     */
+    public void run(final Iterator<? extends Feature> features,
+            final BulkOpListener writeListener) {
+
+        final List<Feature> firstChunk = readChunk(features);
+        if (!features.hasNext()) {
+            runInline(firstChunk, writeListener);
+            return;
+        }
+        final ExecutorService hashService = Executors.newFixedThreadPool(nHashThreads,
+                new ThreadFactoryBuilder().setNameFormat("WorkingTree-hasher-%d").build());
+        final ExecutorService stageService = Executors.newFixedThreadPool(2,
+                new ThreadFactoryBuilder().setNameFormat("WorkingTree-insert-%d").build());
+        try {
+            Future<?> treeStage = stageService.submit(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        addToTrees();
+                    } catch (Throwable e) {
+                        fail(e);
+                    }
+                }
+            });
+            Future<?> writeStage = stageService.submit(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        write(writeListener);
+                    } catch (Throwable e) {
+                        fail(e);
+                    }
+                }
+            });
+            try {
+                read(firstChunk, features, hashService);
+                treeStage.get();
+                writeStage.get();
+            } catch (InterruptedException e) {
+                fail(e);
+            } catch (ExecutionException e) {
+                fail(e.getCause());
+            } catch (RuntimeException e) {
+                fail(e);
+            }
+        } finally {
+            hashService.shutdownNow();
+            stageService.shutdownNow();
+        }
+        if (failure != null) {
+            throw Throwables.propagate(failure);
+        }
+        if (LOGGER.isDebugEnabled()) {
+            LOGGER.debug("Insert pipeline done. {}; {} ({} threads); {}; {}", read, hash,
+                    nHashThreads, tree, write);
+        }
+    }
+
+    private void runInline(final List<Feature> features, final BulkOpListener writeListener) {
+        List<RevObject> batch = Lists.newArrayListWithCapacity(features.size());
+        addToTrees(features, build(features), batch, 0);
+        if (!batch.isEmpty()) {
+            write(batch, writeListener);
+        }
+        if (LOGGER.isDebugEnabled()) {
+            LOGGER.debug("Insert pipeline done inline. {}; {}; {}; {}", read, hash, tree, write);
+        }
+    }
+
+    public StageCounter getReadCounter() {
+        return read;
+    }
+
+    public StageCounter getHashCounter() {
+        return hash;
+    }
+
+    public StageCounter getTreeCounter() {
+        return tree;
+    }
+
+    public StageCounter getWriteCounter() {
+        return write;
+    }
+
+    private void read(final List<Feature> firstChunk, final Iterator<? extends Feature> features,
+            final ExecutorService hashService) throws InterruptedException {
+        List<Feature> chunk = firstChunk;
+        while (!chunk.isEmpty()) {
+            hash(chunk, hashService);
+            chunk = readChunk(features);
+        }
+        put(chunks, END_OF_CHUNKS);
+    }
+
+    /**
+     * @return the next {@link #CHUNK_SIZE} features at most, none if {@code features} is exhausted
+     */
+    private List<Feature> readChunk(final Iterator<? extends Feature> features) {
+        List<Feature> chunk = Lists.newArrayListWithCapacity(CHUNK_SIZE);
+        while (chunk.size() < CHUNK_SIZE) {
+            long start = System.nanoTime();
+            if (!features.hasNext()) {
+                break;
+            }
+            Feature feature = features.next();
+            read.add(1, System.nanoTime() - start);
+            chunk.add(feature);
+        }
+        return chunk;
+    }
+
+    private void hash(final List<Feature> features, final ExecutorService hashService)
+            throws InterruptedException {
+        checkFailure();
+        Future<RevFeature[]> revFeatures = hashService.submit(new Callable<RevFeature[]>() {
+            @Override
+            public RevFeature[] call() {
+                return build(features);
+            }
+        });
+        put(chunks, new Chunk(features, revFeatures));
+    }
+
+    /**
+     * @return the {@code RevFeature}s of {@code features}, with {@code null} for the features to
+     *         delete
+     */
+    private RevFeature[] build(final List<Feature> features) {
+        final long start = System.nanoTime();
+        RevFeature[] revFeatures = new RevFeature[features.size()];
+        for (int i = 0; i < revFeatures.length; i++) {
+            Feature feature = features.get(i);
+            if (!(feature instanceof FeatureToDelete)) {
+                revFeatures[i] = RevFeatureBuilder.build(feature);
+            }
+        }
+        hash.add(revFeatures.length, System.nanoTime() - start);
+        return revFeatures;
+    }
+
+    private void addToTrees() throws InterruptedException {
+        long count = 0;
+        List<RevObject> batch = Lists.newArrayListWithCapacity(BATCH_SIZE);
+        while (true) {
+            final Chunk chunk = take(chunks);
+            if (chunk == END_OF_CHUNKS) {
+                break;
+            }
+            final RevFeature[] revFeatures;
+            try {
+                revFeatures = chunk.revFeatures.get();
+            } catch (ExecutionException e) {
+                throw Throwables.propagate(e.getCause());
+            }
+            count = addToTrees(chunk.features, revFeatures, batch, count);
+            if (batch.size() >= BATCH_SIZE) {
+                put(batches, batch);
+                batch = Lists.newArrayListWithCapacity(BATCH_SIZE);
+            }
+        }
+        if (!batch.isEmpty()) {
+            put(batches, batch);
+        }
+        put(batches, END_OF_BATCHES);
+    }
+
+    /**
+     * Adds {@code features} to the tree builders, or removes them, and their {@code RevFeature}s to
+     * {@code batch}
+     *
+     * @param count the number of features added so far
+     * @return the number of features added so far, including these ones
+     */
+    private long addToTrees(final List<Feature> features, final RevFeature[] revFeatures,
+            final List<RevObject> batch, long count) {
+        final long start = System.nanoTime();
+        for (int i = 0; i < revFeatures.length; i++) {
+            final Feature feature = features.get(i);
+            final RevFeature revFeature = revFeatures[i];
+            if (revFeature == null) {
+                insertHelper.remove((FeatureToDelete) feature);
+                continue;
+            }
+            Node node = insertHelper.put(revFeature.getId(), feature);
+            if (insertedTarget != null) {
+                insertedTarget.add(node);
+            }
+            count++;
+            if (collectionSize == null) {
+                listener.setProgress(count);
+            } else {
+                listener.setProgress((float) (count * 100) / collectionSize.intValue());
+            }
+            batch.add(revFeature);
+        }
+        tree.add(revFeatures.length, System.nanoTime() - start);
+        return count;
+    }
+
+    private void write(final BulkOpListener writeListener) throws InterruptedException {
+        while (true) {
+            final List<RevObject> batch = take(batches);
+            if (batch == END_OF_BATCHES) {
+                break;
+            }
+            write(batch, writeListener);
+        }
+    }
+
+    private void write(final List<RevObject> batch, final BulkOpListener writeListener) {
+        final long start = System.nanoTime();
+        db.putAll(batch.iterator(), writeListener);
+        write.add(batch.size(), System.nanoTime() - start);
+    }
+
+    private void fail(Throwable e) {
+        if (failure == null) {
+            failure = e;
+        }
+    }
+
+    /**
+     * Gives up on the current stage if another one failed
+     */
+    private void checkFailure() {
+        if (failure != null) {
+            throw new IllegalStateException("Insert pipeline aborted", failure);
+        }
+    }
+
+    private <T> void put(final BlockingQueue<T> queue, final T item) throws InterruptedException {
+        while (!queue.offer(item, POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+            checkFailure();
+        }
+    }
+
+    private <T> T take(final BlockingQueue<T> queue) throws InterruptedException {
+        T item;
+        while ((item = queue.poll(POLL_MILLIS, TimeUnit.MILLISECONDS)) == null) {
+            checkFailure();
+        }
+        return item;
+    }
+}
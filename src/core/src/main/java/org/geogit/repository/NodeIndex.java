@@ -4,247 +4,899 @@
  */
 package org.geogit.repository;
 
-import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.Closeable;
-import java.io.DataInputStream;
-import java.io.DataOutput;
 import java.io.DataOutputStream;
-import java.io.EOFException;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.net.URISyntaxException;
+import java.net.URL;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Set;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 
+import org.geogit.api.CommandLocator;
 import org.geogit.api.Node;
+import org.geogit.api.StreamingRevTreeBuilder;
+import org.geogit.api.plumbing.ResolveGeogitDir;
+import org.geogit.api.porcelain.ConfigException;
+import org.geogit.api.porcelain.ConfigGet;
+import org.geogit.storage.NodeBucketOrder;
 import org.geogit.storage.NodeStorageOrder;
 import org.geogit.storage.datastream.FormatCommon;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Throwables;
 import com.google.common.collect.AbstractIterator;
-import com.google.common.collect.Iterators;
-import com.google.common.collect.Lists;
-import com.google.common.collect.PeekingIterator;
+import com.google.common.io.ByteStreams;
 import com.google.common.io.Closeables;
-
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.ning.compress.lzf.LZFDecoder;
+import com.ning.compress.lzf.LZFEncoder;
+
+/**
+ * Sorts the nodes added to a tree builder, spilling them to disk when they don't fit in memory.
+ * <p>
+ * Nodes are held in a partition until their estimated size reaches a fraction of the memory
+ * budget, then sorted on their 64-bit name hashes and written to a run file in the background
+ * while the next partitions fill. Runs are written as LZF compressed blocks of records and read
+ * back a block at a time. {@link #nodes()} merges the runs, and the last partition, with a
+ * loser tree; when there are more than {@link #MERGE_FAN_IN} runs, groups of them are first merged
+ * into larger runs in parallel.
+ * <p>
+ * Nodes with the same name hash come out in the order they were added, so the last one added wins
+ * when they are fed to a tree builder. Run files are created in the spill directory and deleted
+ * as soon as they are merged, or when the index is {@link #close() closed}; runs left behind by a
+ * process that died before closing its index are deleted the first time an index spills to the
+ * same directory, once they are older than {@link #STALE_RUN_AGE}.
+ */
 class NodeIndex implements Closeable {
 
-    private static final int PARTITION_SIZE = 500 * 1000;
+    private static final Logger LOGGER = LoggerFactory.getLogger(NodeIndex.class);
+
+    /**
+     * Default memory budget, 128MB
+     */
+    static final long DEFAULT_MEMORY_BUDGET = 128L * 1024 * 1024;
+
+    /**
+     * Number of runs merged at once
+     */
+    private static final int MERGE_FAN_IN = 64;
+
+    /**
+     * Uncompressed size of the run file blocks, the unit of compression and of reading
+     */
+    private static final int BLOCK_SIZE = 64 * 1024;
+
+    /**
+     * Age after which a run file nobody deleted is assumed to belong to a dead process, one day
+     */
+    private static final long STALE_RUN_AGE = 24L * 60 * 60 * 1000;
+
+    private static final String RUN_PREFIX = "geogitNodes";
+
+    private static final String RUN_SUFFIX = ".run";
+
+    /**
+     * The spill directories already cleaned up of stale runs by this JVM
+     */
+    private static final Set<File> CLEANED_SPILL_DIRS = Collections
+            .newSetFromMap(new ConcurrentHashMap<File, Boolean>());
+
+    /**
+     * Number of partitions being spilled at most, while another one fills up
+     */
+    private static final int MAX_PENDING_FLUSHES = 3;
+
+    /**
+     * Rough heap footprint of a node in a partition, excluding its name: the node and its ids,
+     * bounds and list slot. Serves to size partitions to the memory budget.
+     */
+    private static final int NODE_OVERHEAD = 200;
+
+    /**
+     * The order nodes come out of the index in, as a mapping of their name hashes to keys compared
+     * as unsigned values
+     */
+    enum Order {
+        /**
+         * @see NodeStorageOrder
+         */
+        STORAGE {
+            @Override
+            long key(long nameHash) {
+                return nameHash;
+            }
+        },
+        /**
+         * The order a {@link StreamingRevTreeBuilder} takes nodes in
+         *
+         * @see NodeBucketOrder
+         */
+        BUCKET {
+            @Override
+            long key(long nameHash) {
+                return NodeBucketOrder.sortKey(nameHash);
+            }
+        };
 
-    private static final class IndexPartition {
+        abstract long key(long nameHash);
+    }
 
-        List<Node> cache = new ArrayList<Node>(PARTITION_SIZE);
+    /**
+     * Where a node index spills to and how much memory it holds nodes in before doing so.
+     * <p>
+     * {@link #resolve(CommandLocator) Resolved} from the repository config:
+     * <ul>
+     * <li>{@code nodeindex.spillDir}: the directory run files are created in, defaults to
+     * {@code <.geogit>/tmp}, or to the system temporary directory out of a repository
+     * <li>{@code nodeindex.memoryBudget}: the megabytes of heap nodes are held in before spilling
+     * them, defaults to 128
+     * </ul>
+     */
+    static final class Settings {
+
+        static final Settings DEFAULT = new Settings(new File(
+                System.getProperty("java.io.tmpdir")), DEFAULT_MEMORY_BUDGET);
+
+        final File spillDir;
+
+        final long memoryBudget;
+
+        Settings(final File spillDir, final long memoryBudget) {
+            Preconditions.checkNotNull(spillDir);
+            Preconditions.checkArgument(memoryBudget > 0, "invalid memory budget: %s",
+                    memoryBudget);
+            this.spillDir = spillDir;
+            this.memoryBudget = memoryBudget;
+        }
+
+        static Settings resolve(final CommandLocator commandLocator) {
+            File spillDir = DEFAULT.spillDir;
+            long memoryBudget = DEFAULT.memoryBudget;
+            Optional<String> dir = getConfig(commandLocator, "spillDir");
+            if (dir.isPresent()) {
+                spillDir = new File(dir.get());
+            } else {
+                Optional<URL> geogitDir = new ResolveGeogitDir(commandLocator.getPlatform())
+                        .call();
+                if (geogitDir.isPresent()) {
+                    try {
+                        spillDir = new File(new File(geogitDir.get().toURI()), "tmp");
+                    } catch (URISyntaxException e) {
+                        // keep the system temp dir
+                    }
+                }
+            }
+            Optional<String> budget = getConfig(commandLocator, "memoryBudget");
+            if (budget.isPresent()) {
+                try {
+                    memoryBudget = 1024L * 1024L * Integer.parseInt(budget.get());
+                } catch (NumberFormatException e) {
+                    LOGGER.warn("Invalid node index memory budget: {}, using default",
+                            budget.get());
+                }
+            }
+            return new Settings(spillDir, memoryBudget);
+        }
+
+        private static Optional<String> getConfig(final CommandLocator commandLocator,
+                final String keyword) {
+            try {
+                return commandLocator.command(ConfigGet.class).setName("nodeindex." + keyword)
+                        .call();
+            } catch (ConfigException e) {
+                return Optional.absent();
+            }
+        }
+    }
+
+    private final class IndexPartition {
+
+        private List<Node> cache = new ArrayList<Node>();
+
+        private long estimatedSize;
 
         public void add(Node node) {
             cache.add(node);
+            estimatedSize += NODE_OVERHEAD + 2L * node.getName().length();
         }
 
-        public List<Node> getSortedNodes() {
-            Collections.sort(cache, new NodeStorageOrder());
-            return cache;
+        public boolean isFull() {
+            return estimatedSize >= partitionBudget;
         }
 
-        public File flush() {
-            List<Node> cache = getSortedNodes();
-            final File file;
-            try {
-                file = File.createTempFile("geogitNodes", ".idx");
-                file.deleteOnExit();
-                // System.err.println("Created index file " + file.getAbsolutePath());
-                FastByteArrayOutputStream buf = new FastByteArrayOutputStream();
-                OutputStream fileOut = new BufferedOutputStream(new FileOutputStream(file),
-                        1024 * 1024);
-                try {
-                    for (Node node : cache) {
-                        buf.reset();
-                        DataOutput out = new DataOutputStream(buf);
-                        try {
-                            FormatCommon.writeNode(node, out);
-                        } catch (IOException e) {
-                            throw Throwables.propagate(e);
-                        }
-                        int size = buf.size();
-                        fileOut.write(buf.bytes(), 0, size);
+        /**
+         * @return the cursor over the nodes sorted in the index order
+         */
+        public MemoryCursor sort() {
+            final int size = cache.size();
+            Node[] nodes = cache.toArray(new Node[size]);
+            long[] keys = new long[size];
+            for (int i = 0; i < size; i++) {
+                // flip the sign bit so that keys compare as unsigned values
+                keys[i] = order.key(nodes[i].getNameHash()) ^ Long.MIN_VALUE;
+            }
+            cache = null;
+            sortByKey(keys, nodes);
+            return new MemoryCursor(keys, nodes);
+        }
+
+        public File flush() throws IOException {
+            final MemoryCursor sorted = sort();
+            return writeRun(new Source() {
+                @Override
+                public boolean next(RunWriter writer) {
+                    if (sorted.advance()) {
+                        sorted.copyTo(writer);
+                        return true;
                     }
-                } finally {
-                    cache.clear();
-                    fileOut.close();
+                    return false;
                 }
-            } catch (Exception e) {
-                throw Throwables.propagate(e);
-            }
-            return file;
+            });
         }
     }
 
+    private final ExecutorService executorService;
+
+    private final Order order;
+
+    private final File spillDir;
+
+    /**
+     * The share of the memory budget of each of the partitions being filled or spilled
+     */
+    private final long partitionBudget;
+
     private IndexPartition currPartition;
 
-    private List<Future<File>> indexFiles = new LinkedList<Future<File>>();
+    private final LinkedList<Future<File>> pendingFlushes = new LinkedList<Future<File>>();
 
-    private List<CompositeNodeIterator> openIterators = new LinkedList<CompositeNodeIterator>();
+    private final List<Future<File>> indexFiles = new LinkedList<Future<File>>();
 
-    private ExecutorService executorService;
+    private final List<File> runFiles = new LinkedList<File>();
+
+    private final List<MergeIterator> openIterators = new LinkedList<MergeIterator>();
 
     public NodeIndex(ExecutorService executorService) {
+        this(executorService, Order.STORAGE, Settings.DEFAULT);
+    }
+
+    public NodeIndex(ExecutorService executorService, Order order, Settings settings) {
         this.executorService = executorService;
+        this.order = order;
+        this.spillDir = settings.spillDir;
+        this.partitionBudget = Math.max(1, settings.memoryBudget / (MAX_PENDING_FLUSHES + 1));
         this.currPartition = new IndexPartition();
+        deleteStaleRuns(spillDir);
     }
 
-    public void close() {
+    /**
+     * Deletes the run files in {@code spillDir} older than {@link #STALE_RUN_AGE}, the first time
+     * it's called for that directory
+     */
+    static void deleteStaleRuns(final File spillDir) {
+        if (!CLEANED_SPILL_DIRS.add(spillDir.getAbsoluteFile())) {
+            return;
+        }
+        File[] files = spillDir.listFiles();
+        if (files == null) {
+            return;
+        }
+        final long staleBefore = System.currentTimeMillis() - STALE_RUN_AGE;
+        for (File file : files) {
+            String name = file.getName();
+            if (name.startsWith(RUN_PREFIX) && name.endsWith(RUN_SUFFIX)
+                    && file.lastModified() < staleBefore && !file.delete()) {
+                LOGGER.warn("Unable to delete stale node index run file {}", file);
+            }
+        }
+    }
+
+    /**
+     * Closes the iterators returned by {@link #nodes()} and deletes all run files
+     */
+    public synchronized void close() {
         try {
-            for (CompositeNodeIterator it : openIterators) {
+            for (MergeIterator it : openIterators) {
                 it.close();
             }
             for (Future<File> ff : indexFiles) {
                 try {
-                    File file = ff.get();
-                    file.delete();
+                    runFiles.add(ff.get());
                 } catch (Exception e) {
-                    e.printStackTrace();
+                    LOGGER.warn("Error spilling node index partition", e);
+                }
+            }
+            for (File file : runFiles) {
+                if (file.exists() && !file.delete()) {
+                    LOGGER.warn("Unable to delete node index run file {}", file);
                 }
             }
         } finally {
             openIterators.clear();
             indexFiles.clear();
+            runFiles.clear();
         }
     }
 
     public synchronized void add(Node node) {
         currPartition.add(node);
-        if (currPartition.cache.size() == PARTITION_SIZE) {
+        if (currPartition.isFull()) {
             flush(currPartition);
             currPartition = new IndexPartition();
         }
     }
 
     private void flush(final IndexPartition ip) {
-        indexFiles.add(executorService.submit(new Callable<File>() {
+        // bounds the number of partitions in memory
+        if (pendingFlushes.size() == MAX_PENDING_FLUSHES) {
+            waitFor(pendingFlushes.removeFirst());
+        }
+        Future<File> flush = executorService.submit(new Callable<File>() {
 
             @Override
             public File call() throws Exception {
                 return ip.flush();
             }
-        }));
+        });
+        pendingFlushes.addLast(flush);
+        indexFiles.add(flush);
+    }
+
+    /**
+     * @return all the nodes added, in the index {@link Order order}
+     */
+    public synchronized Iterator<Node> nodes() {
+        for (Future<File> ff : indexFiles) {
+            runFiles.add(waitFor(ff));
+        }
+        indexFiles.clear();
+        pendingFlushes.clear();
 
+        mergeRuns();
+
+        List<Cursor> cursors = new ArrayList<Cursor>(runFiles.size() + 1);
+        for (File file : runFiles) {
+            cursors.add(new RunCursor(file));
+        }
+        // the last partition goes last, as it holds the most recently added nodes
+        cursors.add(currPartition.sort());
+        currPartition = new IndexPartition();
+
+        MergeIterator iterator = new MergeIterator(cursors);
+        openIterators.add(iterator);
+        return iterator;
     }
 
-    public Iterator<Node> nodes() {
-        List<File> files = new ArrayList<File>(indexFiles.size());
+    /**
+     * Merges groups of {@link #MERGE_FAN_IN} consecutive runs in parallel until there are at most
+     * that many runs left
+     */
+    private void mergeRuns() {
+        if (runFiles.size() <= MERGE_FAN_IN) {
+            return;
+        }
+        final int nThreads = Math.min(Runtime.getRuntime().availableProcessors(),
+                (runFiles.size() + MERGE_FAN_IN - 1) / MERGE_FAN_IN);
+        // a pool of its own, as the tree builder may be running on one of executorService's threads
+        ExecutorService mergeService = Executors.newFixedThreadPool(nThreads,
+                new ThreadFactoryBuilder().setNameFormat("NodeIndex-merge-%d").build());
         try {
-            for (Future<File> ff : indexFiles) {
-                files.add(ff.get());
+            while (runFiles.size() > MERGE_FAN_IN) {
+                List<Future<File>> merged = new ArrayList<Future<File>>();
+                List<File> runs = new ArrayList<File>(runFiles);
+                for (int i = 0; i < runs.size(); i += MERGE_FAN_IN) {
+                    final List<File> group = runs.subList(i, Math.min(runs.size(), i
+                            + MERGE_FAN_IN));
+                    merged.add(mergeService.submit(new Callable<File>() {
+                        @Override
+                        public File call() throws Exception {
+                            return merge(group);
+                        }
+                    }));
+                }
+                List<File> mergedRuns = new ArrayList<File>(merged.size());
+                try {
+                    for (Future<File> ff : merged) {
+                        mergedRuns.add(waitFor(ff));
+                    }
+                } finally {
+                    // on failure, wait for the other merges so that close() deletes their runs
+                    for (Future<File> ff : merged) {
+                        try {
+                            File file = ff.get();
+                            if (!mergedRuns.contains(file)) {
+                                mergedRuns.add(file);
+                            }
+                        } catch (Exception e) {
+                            // already propagated
+                        }
+                    }
+                    runFiles.addAll(mergedRuns);
+                }
+                for (File file : runs) {
+                    file.delete();
+                    runFiles.remove(file);
+                }
             }
+        } finally {
+            mergeService.shutdownNow();
+        }
+    }
+
+    private File merge(final List<File> runs) throws IOException {
+        List<Cursor> cursors = new ArrayList<Cursor>(runs.size());
+        for (File file : runs) {
+            cursors.add(new RunCursor(file));
+        }
+        final LoserTree tree = new LoserTree(cursors);
+        try {
+            return writeRun(new Source() {
+                @Override
+                public boolean next(RunWriter writer) {
+                    if (tree.hasNext()) {
+                        tree.top().copyTo(writer);
+                        tree.next();
+                        return true;
+                    }
+                    return false;
+                }
+            });
+        } finally {
+            tree.close();
+        }
+    }
+
+    /**
+     * Copies records to a run file one at a time
+     */
+    private interface Source {
+        /**
+         * @return {@code false} once there are no more records to copy
+         */
+        boolean next(RunWriter writer);
+    }
+
+    /**
+     * @return a new run file with the records of {@code source}, which is deleted if they can't
+     *         all be written
+     */
+    private File writeRun(final Source source) throws IOException {
+        final File file = newRunFile();
+        boolean written = false;
+        try {
+            RunWriter writer = new RunWriter(file);
+            try {
+                while (source.next(writer)) {
+                    // keep copying
+                }
+            } finally {
+                writer.close();
+            }
+            written = true;
+        } finally {
+            if (!written) {
+                file.delete();
+            }
+        }
+        return file;
+    }
+
+    private File newRunFile() throws IOException {
+        if (!spillDir.exists() && !spillDir.mkdirs() && !spillDir.exists()) {
+            throw new IOException("Unable to create node index spill directory " + spillDir);
+        }
+        return File.createTempFile(RUN_PREFIX, RUN_SUFFIX, spillDir);
+    }
+
+    private static <T> T waitFor(Future<T> future) {
+        try {
+            return future.get();
         } catch (Exception e) {
-            e.printStackTrace();
             throw Throwables.propagate(Throwables.getRootCause(e));
         }
+    }
 
-        List<Node> unflushed = Lists.newArrayList(currPartition.getSortedNodes());
-        currPartition.cache.clear();
-        return new CompositeNodeIterator(files, unflushed);
+    /**
+     * Sorts {@code keys} as signed values, and {@code nodes} along with them, with a stable merge
+     * sort so that nodes with the same key keep the order they were added in
+     */
+    private static void sortByKey(final long[] keys, final Node[] nodes) {
+        final int size = keys.length;
+        long[] src = keys, dst = new long[size];
+        Node[] srcNodes = nodes, dstNodes = new Node[size];
+        for (int width = 1; width < size; width *= 2) {
+            for (int lo = 0; lo < size; lo += 2 * width) {
+                final int mid = Math.min(lo + width, size);
+                final int hi = Math.min(lo + 2 * width, size);
+                int i = lo, j = mid, k = lo;
+                while (k < hi) {
+                    if (j >= hi || (i < mid && src[i] <= src[j])) {
+                        dst[k] = src[i];
+                        dstNodes[k++] = srcNodes[i++];
+                    } else {
+                        dst[k] = src[j];
+                        dstNodes[k++] = srcNodes[j++];
+                    }
+                }
+            }
+            long[] swap = src;
+            src = dst;
+            dst = swap;
+            Node[] swapNodes = srcNodes;
+            srcNodes = dstNodes;
+            dstNodes = swapNodes;
+        }
+        if (src != keys) {
+            System.arraycopy(src, 0, keys, 0, size);
+            System.arraycopy(srcNodes, 0, nodes, 0, size);
+        }
     }
 
-    private static class CompositeNodeIterator extends AbstractIterator<Node> {
+    /**
+     * A sorted source of records, positioned before the first one until {@link #advance()} is
+     * called
+     */
+    private static abstract class Cursor {
 
-        private NodeStorageOrder order = new NodeStorageOrder();
+        /**
+         * The sign flipped key of the current record
+         */
+        long key;
 
-        private ArrayList<PeekingIterator<Node>> iterators;
+        /**
+         * @return {@code false} if there are no more records
+         */
+        abstract boolean advance();
 
-        private List<IndexIterator> openIterators;
+        abstract Node node();
 
-        public CompositeNodeIterator(List<File> files, List<Node> unflushedAndSorted) {
+        abstract void copyTo(RunWriter writer);
 
-            openIterators = new ArrayList<IndexIterator>();
-            iterators = new ArrayList<PeekingIterator<Node>>();
-            for (File f : files) {
-                IndexIterator iterator = new IndexIterator(f);
-                openIterators.add(iterator);
-                iterators.add(Iterators.peekingIterator(iterator));
-            }
-            if (!unflushedAndSorted.isEmpty()) {
-                iterators.add(Iterators.peekingIterator(unflushedAndSorted.iterator()));
-            }
+        void close() {
+            // nothing to release by default
         }
+    }
 
-        public void close() {
-            for (IndexIterator it : openIterators) {
-                it.close();
+    private static final class MemoryCursor extends Cursor {
+
+        private final long[] keys;
+
+        private final Node[] nodes;
+
+        private int index = -1;
+
+        MemoryCursor(long[] keys, Node[] nodes) {
+            this.keys = keys;
+            this.nodes = nodes;
+        }
+
+        @Override
+        boolean advance() {
+            if (++index < keys.length) {
+                key = keys[index];
+                return true;
             }
-            openIterators.clear();
+            return false;
         }
 
         @Override
-        protected Node computeNext() {
-            int idx = -1;
-            Node lowest = null;
-            for (int i = 0; i < iterators.size(); i++) {
-                PeekingIterator<Node> it = iterators.get(i);
-                if (!it.hasNext()) {
-                    continue;
-                }
-                Node peek = it.peek();
-                if (lowest == null || peek == order.min(lowest, peek)) {
-                    lowest = peek;
-                    idx = i;
+        Node node() {
+            return nodes[index];
+        }
+
+        @Override
+        void copyTo(RunWriter writer) {
+            writer.write(key, nodes[index]);
+        }
+    }
+
+    /**
+     * Writes a run file: a sequence of blocks of records, each block made of its compressed and
+     * uncompressed lengths followed by its LZF compressed records. A record is its key, the length
+     * of the serialized node, and the {@link FormatCommon#writeNode serialized node}. Records don't
+     * span blocks.
+     */
+    private static final class RunWriter {
+
+        private final DataOutputStream out;
+
+        private final FastByteArrayOutputStream block = new FastByteArrayOutputStream(BLOCK_SIZE
+                + 1024);
+
+        private final DataOutputStream blockOut = new DataOutputStream(block);
+
+        private final FastByteArrayOutputStream node = new FastByteArrayOutputStream(256);
+
+        private final DataOutputStream nodeOut = new DataOutputStream(node);
+
+        RunWriter(File file) throws IOException {
+            this.out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file),
+                    1024 * 1024));
+        }
+
+        void write(long key, Node n) {
+            node.reset();
+            try {
+                FormatCommon.writeNode(n, nodeOut);
+            } catch (IOException e) {
+                throw Throwables.propagate(e);
+            }
+            write(key, node.bytes(), 0, node.size());
+        }
+
+        void write(long key, byte[] record, int offset, int length) {
+            try {
+                blockOut.writeLong(key);
+                blockOut.writeInt(length);
+                blockOut.write(record, offset, length);
+                if (block.size() >= BLOCK_SIZE) {
+                    flushBlock();
                 }
+            } catch (IOException e) {
+                throw Throwables.propagate(e);
             }
-            return idx == -1 ? endOfData() : iterators.get(idx).next();
         }
 
+        private void flushBlock() throws IOException {
+            final int size = block.size();
+            byte[] compressed = LZFEncoder.encode(block.bytes(), 0, size);
+            out.writeInt(compressed.length);
+            out.writeInt(size);
+            out.write(compressed);
+            block.reset();
+        }
+
+        void close() throws IOException {
+            try {
+                if (block.size() > 0) {
+                    flushBlock();
+                }
+            } finally {
+                out.close();
+            }
+        }
     }
 
-    private static class IndexIterator extends AbstractIterator<Node> {
+    /**
+     * Reads the records of a run file {@link RunWriter written} before a block at a time. The file
+     * is opened on the first read and closed once exhausted or when the cursor is closed, so that
+     * it can be deleted right away on every platform.
+     */
+    private static final class RunCursor extends Cursor {
+
+        private final File file;
+
+        private RandomAccessFile raf;
 
-        private DataInputStream in;
+        private boolean eof;
 
-        public IndexIterator(File file) {
+        private final byte[] header = new byte[8];
+
+        private byte[] compressed = new byte[0];
+
+        private byte[] block = new byte[0];
+
+        private int blockLength;
+
+        private int offset;
+
+        private int recordOffset;
+
+        private int recordLength;
+
+        RunCursor(File file) {
             Preconditions.checkArgument(file.exists(), "file %s does not exist", file);
-            try {
-                if (this.in == null) {
-                    this.in = new DataInputStream(new BufferedInputStream(
-                            new FileInputStream(file), 16 * 1024));
-                }
+            this.file = file;
+        }
 
+        @Override
+        boolean advance() {
+            if (offset >= blockLength && !nextBlock()) {
+                return false;
+            }
+            key = getLong(block, offset);
+            recordLength = getInt(block, offset + 8);
+            recordOffset = offset + 12;
+            offset = recordOffset + recordLength;
+            return true;
+        }
+
+        @Override
+        Node node() {
+            try {
+                return FormatCommon.readNode(ByteStreams.newDataInput(block, recordOffset));
             } catch (IOException e) {
                 throw Throwables.propagate(e);
             }
         }
 
-        public void close() {
-            Closeables.closeQuietly(in);
+        @Override
+        void copyTo(RunWriter writer) {
+            writer.write(key, block, recordOffset, recordLength);
         }
 
         @Override
-        protected Node computeNext() {
+        void close() {
+            eof = true;
+            blockLength = 0;
+            offset = 0;
+            Closeables.closeQuietly(raf);
+            raf = null;
+        }
+
+        private boolean nextBlock() {
+            if (eof) {
+                return false;
+            }
             try {
-                Node node = FormatCommon.readNode(in);
-                return node;
-            } catch (EOFException eof) {
-                Closeables.closeQuietly(in);
-                return endOfData();
-            } catch (Exception e) {
-                Closeables.closeQuietly(in);
+                if (raf == null) {
+                    raf = new RandomAccessFile(file, "r");
+                }
+                if (raf.getFilePointer() >= raf.length()) {
+                    close();
+                    return false;
+                }
+                raf.readFully(header);
+                final int compressedLength = getInt(header, 0);
+                blockLength = getInt(header, 4);
+                if (compressed.length < compressedLength) {
+                    compressed = new byte[compressedLength];
+                }
+                if (block.length < blockLength) {
+                    block = new byte[blockLength];
+                }
+                raf.readFully(compressed, 0, compressedLength);
+                LZFDecoder.decode(compressed, 0, compressedLength, block);
+                offset = 0;
+                return true;
+            } catch (IOException e) {
+                close();
                 throw Throwables.propagate(e);
             }
         }
 
+        private static long getLong(byte[] b, int i) {
+            return ((long) getInt(b, i) << 32) | (getInt(b, i + 4) & 0xFFFFFFFFL);
+        }
+
+        private static int getInt(byte[] b, int i) {
+            return (b[i] << 24) | ((b[i + 1] & 0xFF) << 16) | ((b[i + 2] & 0xFF) << 8)
+                    | (b[i + 3] & 0xFF);
+        }
+    }
+
+    /**
+     * A tournament tree over a number of cursors that finds the one with the lowest current key
+     * in {@code log2(n)} comparisons each time it advances. Cursors with the same key come out in
+     * the order they were given in.
+     */
+    private static final class LoserTree {
+
+        private final Cursor[] cursors;
+
+        private final boolean[] exhausted;
+
+        /**
+         * The loser of the match at each inner node, with the overall winner at index zero
+         */
+        private final int[] tree;
+
+        LoserTree(List<Cursor> cursors) {
+            final int k = cursors.size();
+            this.cursors = cursors.toArray(new Cursor[k]);
+            this.exhausted = new boolean[k];
+            this.tree = new int[Math.max(1, k)];
+            for (int i = 0; i < k; i++) {
+                exhausted[i] = !this.cursors[i].advance();
+            }
+            if (k > 0) {
+                tree[0] = init(1);
+            }
+        }
+
+        private int init(final int node) {
+            final int k = cursors.length;
+            if (node >= k) {
+                return node - k;
+            }
+            final int left = init(2 * node);
+            final int right = init(2 * node + 1);
+            if (less(left, right)) {
+                tree[node] = right;
+                return left;
+            }
+            tree[node] = left;
+            return right;
+        }
+
+        private boolean less(final int c1, final int c2) {
+            if (exhausted[c1]) {
+                return false;
+            }
+            if (exhausted[c2]) {
+                return true;
+            }
+            final long k1 = cursors[c1].key;
+            final long k2 = cursors[c2].key;
+            return k1 < k2 || (k1 == k2 && c1 < c2);
+        }
+
+        boolean hasNext() {
+            return cursors.length > 0 && !exhausted[tree[0]];
+        }
+
+        Cursor top() {
+            return cursors[tree[0]];
+        }
+
+        /**
+         * Advances the top cursor and plays its matches again up to the root
+         */
+        void next() {
+            int winner = tree[0];
+            exhausted[winner] = !cursors[winner].advance();
+            for (int node = (winner + cursors.length) / 2; node > 0; node /= 2) {
+                if (less(tree[node], winner)) {
+                    final int loser = winner;
+                    winner = tree[node];
+                    tree[node] = loser;
+                }
+            }
+            tree[0] = winner;
+        }
+
+        void close() {
+            for (Cursor c : cursors) {
+                c.close();
+            }
+        }
+    }
+
+    private static final class MergeIterator extends AbstractIterator<Node> {
+
+        private final LoserTree tree;
+
+        private boolean started;
+
+        MergeIterator(List<Cursor> cursors) {
+            this.tree = new LoserTree(cursors);
+        }
+
+        void close() {
+            tree.close();
+        }
+
+        @Override
+        protected Node computeNext() {
+            if (started) {
+                tree.next();
+            }
+            started = true;
+            return tree.hasNext() ? tree.top().node() : endOfData();
+        }
     }
 
     private static class FastByteArrayOutputStream extends ByteArrayOutputStream {
 
-        public FastByteArrayOutputStream() {
-            super(16 * 1024);
+        public FastByteArrayOutputStream(int size) {
+            super(size);
         }
 
         public int size() {
@@ -5,7 +5,6 @@
 package org.geogit.repository;
 
 import java.util.ArrayList;
-import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
@@ -14,6 +13,7 @@ import java.util.Set;
 import org.geogit.api.Bucket;
 import org.geogit.api.Node;
 import org.geogit.api.ObjectId;
+import org.geogit.api.ObjectIdSet;
 import org.geogit.api.RevCommit;
 import org.geogit.api.RevObject;
 import org.geogit.api.RevTag;
@@ -234,7 +234,7 @@ public class PostOrderIterator extends AbstractIterator<RevObject> {
             if (object instanceof RevTree) {
                 final RevTree tree = (RevTree) object;
                 if (tree.features().isPresent()) {
-                    final Set<ObjectId> seen = new HashSet<ObjectId>();
+                    final Set<ObjectId> seen = new ObjectIdSet();
                     for (Node n : tree.features().get()) {
                         if (n.getMetadataId().isPresent()) {
                             if (seen.add(n.getMetadataId().get())) {
@@ -263,7 +263,7 @@ public class PostOrderIterator extends AbstractIterator<RevObject> {
             if (object instanceof RevTree) {
                 final RevTree tree = (RevTree) object;
                 if (tree.trees().isPresent()) {
-                    final Set<ObjectId> seen = new HashSet<ObjectId>();
+                    final Set<ObjectId> seen = new ObjectIdSet();
                     for (Node n : tree.trees().get()) {
                         if (n.getMetadataId().isPresent()) {
                             if (seen.add(n.getMetadataId().get())) {
@@ -371,7 +371,7 @@ public class PostOrderIterator extends AbstractIterator<RevObject> {
      * @return a Successors policy for visiting the same nodes as the original policy, but with
      */
     private final static Successors blacklist(final Successors delegate, final List<ObjectId> base) {
-        final Set<ObjectId> baseSet = new HashSet<ObjectId>(base);
+        final Set<ObjectId> baseSet = new ObjectIdSet(base);
         return new Successors() {
             public void findSuccessors(final RevObject object, final List<ObjectId> successors) {
                 if (!baseSet.contains(object.getId())) {
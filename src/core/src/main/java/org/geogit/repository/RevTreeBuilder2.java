@@ -18,6 +18,7 @@ import org.geogit.api.RevFeatureType;
 import org.geogit.api.RevObject.TYPE;
 import org.geogit.api.RevTree;
 import org.geogit.api.RevTreeBuilder;
+import org.geogit.api.StreamingRevTreeBuilder;
 import org.geogit.storage.ObjectDatabase;
 import org.opengis.feature.type.FeatureType;
 import org.opengis.feature.type.Name;
@@ -47,16 +48,29 @@ class RevTreeBuilder2 {
 
     private final ObjectId defaultMetadataId;
 
+    private final NodeIndex.Settings indexSettings;
+
     /**
      * Copy constructor
      */
     public RevTreeBuilder2(final ObjectDatabase db, @Nullable final RevTree origTree,
             final ObjectId defaultMetadataId, final ExecutorService executorService) {
+        this(db, origTree, defaultMetadataId, executorService, NodeIndex.Settings.DEFAULT);
+    }
+
+    /**
+     * @param indexSettings where the nodes added are spilled to and how many are held in memory
+     *        before doing so
+     */
+    public RevTreeBuilder2(final ObjectDatabase db, @Nullable final RevTree origTree,
+            final ObjectId defaultMetadataId, final ExecutorService executorService,
+            final NodeIndex.Settings indexSettings) {
 
         this.db = db;
         this.original = origTree;
         this.executorService = executorService;
         this.defaultMetadataId = defaultMetadataId;
+        this.indexSettings = indexSettings;
     }
 
     public ObjectId getDefaultMetadataId() {
@@ -78,7 +92,9 @@ class RevTreeBuilder2 {
     public synchronized RevTreeBuilder2 put(final Node node) {
         Preconditions.checkNotNull(node, "node can't be null");
         if (this.nodeIndex == null) {
-            this.nodeIndex = new NodeIndex(executorService);
+            // with nothing to merge into, the nodes can go straight to a streaming builder
+            this.nodeIndex = new NodeIndex(executorService, isNew() ? NodeIndex.Order.BUCKET
+                    : NodeIndex.Order.STORAGE, indexSettings);
         }
         nodeIndex.add(node);
         return this;
@@ -96,6 +112,10 @@ class RevTreeBuilder2 {
             return original.builder(db).build();
         }
 
+        if (isNew()) {
+            return buildNew();
+        }
+
         Stopwatch sw = new Stopwatch().start();
         RevTreeBuilder builder;
         try {
@@ -121,6 +141,37 @@ class RevTreeBuilder2 {
         return namedTree;
     }
 
+    /**
+     * Builds a tree with no original from the nodes in the {@link NodeIndex}, which come out of it
+     * in bucket order, without holding them in memory
+     */
+    private RevTree buildNew() {
+        Stopwatch sw = new Stopwatch().start();
+        RevTree namedTree;
+        try {
+            StreamingRevTreeBuilder builder = new StreamingRevTreeBuilder(db);
+            Iterator<Node> nodes = nodeIndex.nodes();
+            while (nodes.hasNext()) {
+                Node node = nodes.next();
+                if (node.getObjectId().isNull()) {
+                    builder.remove(node.getName());
+                } else {
+                    builder.put(node);
+                }
+            }
+            namedTree = builder.build();
+        } finally {
+            nodeIndex.close();
+        }
+        saveExtraFeatureTypes();
+        LOGGER.debug("Tree built from the index in {}", sw.stop());
+        return namedTree;
+    }
+
+    private boolean isNew() {
+        return original == null || original.isEmpty();
+    }
+
     private void saveExtraFeatureTypes() {
         Collection<RevFeatureType> types = revFeatureTypes.values();
         List<RevFeatureType> nonDefaults = Lists.newLinkedList();
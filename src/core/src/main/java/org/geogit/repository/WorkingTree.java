@@ -68,7 +68,6 @@ import org.slf4j.LoggerFactory;
 import com.google.common.base.Function;
 import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
-import com.google.common.base.Predicate;
 import com.google.common.base.Stopwatch;
 import com.google.common.base.Supplier;
 import com.google.common.base.Suppliers;
@@ -76,7 +75,6 @@ import com.google.common.base.Throwables;
 import com.google.common.collect.Iterators;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
-import com.google.common.collect.UnmodifiableIterator;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.inject.Inject;
 import com.vividsolutions.jts.geom.CoordinateSequenceFactory;
@@ -480,7 +478,8 @@ public class WorkingTree {
         final RevTree origTree = treeRef.objectId().isNull() ? RevTree.EMPTY : indexDatabase
                 .getTree(treeRef.objectId());
         RevTreeBuilder2 builder = new RevTreeBuilder2(indexDatabase, origTree,
-                treeRef.getMetadataId(), executorService);
+                treeRef.getMetadataId(), executorService,
+                NodeIndex.Settings.resolve(commandLocator));
 
         List<Future<Integer>> insertBlobsFuture = insertBlobs(source, query, executorService,
                 listener, collectionSize, nFetchThreads, builder);
@@ -691,48 +690,15 @@ public class WorkingTree {
         insertHelper = new WorkingTreeInsertHelper(indexDatabase, commandLocator, getTree(),
                 treePathResolver, treeBuildingService);
 
-        UnmodifiableIterator<? extends Feature> filtered = Iterators.filter(features,
-                new Predicate<Feature>() {
-                    @Override
-                    public boolean apply(Feature feature) {
-                        if (feature instanceof FeatureToDelete) {
-                            insertHelper.remove((FeatureToDelete) feature);
-                            return false;
-                        } else {
-                            return true;
-                        }
-                    }
-
-                });
-        Iterator<RevObject> objects = Iterators.transform(filtered,
-                new Function<Feature, RevObject>() {
-
-                    private int count;
-
-                    @Override
-                    public RevFeature apply(Feature feature) {
-                        final RevFeature revFeature = RevFeatureBuilder.build(feature);
-                        ObjectId id = revFeature.getId();
-                        final Node node = insertHelper.put(id, feature);
-
-                        if (insertedTarget != null) {
-                            insertedTarget.add(node);
-                        }
-
-                        count++;
-                        if (collectionSize == null) {
-                            listener.setProgress(count);
-                        } else {
-                            listener.setProgress((float) (count * 100) / collectionSize.intValue());
-                        }
-                        return revFeature;
-                    }
-
-                });
+        // leave a core for each of the stages reading, adding to the trees and writing features
+        final int nHashThreads = Math.max(1,
+                commandLocator.getPlatform().availableProcessors() - 3);
+        final InsertPipeline pipeline = new InsertPipeline(indexDatabase, insertHelper,
+                nHashThreads, listener, insertedTarget, collectionSize);
         try {
             listener.started();
             CountingListener countingListener = BulkOpListener.newCountingListener();
-            indexDatabase.putAll(objects, countingListener);
+            pipeline.run(features, countingListener);
 
             listener.setDescription("Building trees for "
                     + new TreeSet<String>(insertHelper.getTreeNames()));
@@ -47,6 +47,8 @@ class WorkingTreeInsertHelper {
 
     private final ExecutorService executorService;
 
+    private final NodeIndex.Settings indexSettings;
+
     public WorkingTreeInsertHelper(ObjectDatabase db, CommandLocator cmdLocator, RevTree workHead,
             final Function<Feature, String> treePathResolver, final ExecutorService executorService) {
 
@@ -55,6 +57,7 @@ class WorkingTreeInsertHelper {
         this.workHead = workHead;
         this.treePathResolver = treePathResolver;
         this.executorService = executorService;
+        this.indexSettings = NodeIndex.Settings.resolve(cmdLocator);
     }
 
     public List<String> getTreeNames() {
@@ -122,7 +125,8 @@ class WorkingTreeInsertHelper {
         ObjectId defaultMetadataId = treeRef.getMetadataId();
 
         RevTreeBuilder2 builder;
-        builder = new RevTreeBuilder2(indexDatabase, origTree, defaultMetadataId, executorService);
+        builder = new RevTreeBuilder2(indexDatabase, origTree, defaultMetadataId, executorService,
+                indexSettings);
         return builder;
     }
 
@@ -24,6 +24,8 @@ import org.geogit.api.RevTree;
 
 import com.google.common.base.Preconditions;
 import com.google.common.base.Throwables;
+import com.google.common.collect.AbstractIterator;
+import com.google.common.io.ByteStreams;
 import com.google.common.io.Closeables;
 import com.ning.compress.lzf.LZFInputStream;
 import com.ning.compress.lzf.LZFOutputStream;
@@ -230,6 +232,60 @@ public abstract class AbstractObjectDatabase implements ObjectDatabase {
         }
     }
 
+    /**
+     * This default implementation reads each object's stored bytes through
+     * {@link #getRawInternal(ObjectId, boolean)}; subclasses may override if appropriate.
+     */
+    @Override
+    public Iterator<RawObject> getRawAll(final Iterable<ObjectId> ids,
+            final BulkOpListener listener) {
+
+        return new AbstractIterator<RawObject>() {
+            final Iterator<ObjectId> iterator = ids.iterator();
+
+            @Override
+            protected RawObject computeNext() {
+                while (iterator.hasNext()) {
+                    ObjectId id = iterator.next();
+                    InputStream in = getRawInternal(id, false);
+                    if (in == null) {
+                        listener.notFound(id);
+                        continue;
+                    }
+                    byte[] data;
+                    try {
+                        data = ByteStreams.toByteArray(in);
+                    } catch (IOException e) {
+                        throw Throwables.propagate(e);
+                    } finally {
+                        Closeables.closeQuietly(in);
+                    }
+                    listener.found(id, data.length);
+                    return new RawObject(id, data);
+                }
+                return endOfData();
+            }
+        };
+    }
+
+    /**
+     * This default implementation calls {@link #putInternal(ObjectId, byte[])} for each object;
+     * subclasses may override if appropriate.
+     */
+    @Override
+    public void putRawAll(Iterator<RawObject> objects, final BulkOpListener listener) {
+        while (objects.hasNext()) {
+            RawObject object = objects.next();
+            final ObjectId id = object.getId();
+            final byte[] rawData = object.getData();
+            if (putInternal(id, rawData)) {
+                listener.inserted(id, rawData.length);
+            } else {
+                listener.found(id, null);
+            }
+        }
+    }
+
     protected void writeObject(RevObject object, OutputStream target) {
 
         ObjectWriter<RevObject> writer = serializationFactory.createObjectWriter(object.getType());
@@ -0,0 +1,276 @@
+/* Copyright (c) 2013 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+package org.geogit.storage;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.annotation.Nullable;
+
+import org.geogit.api.ObjectId;
+import org.geogit.api.Platform;
+import org.geogit.api.plumbing.ResolveGeogitDir;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.Maps;
+import com.google.common.io.CountingInputStream;
+import com.google.inject.Inject;
+
+/**
+ * Keeps the {@link ChangedPathsFilter changed paths filter} of each commit, so that path filtered
+ * history traversals can skip the commits that didn't touch the paths of interest without
+ * comparing their trees.
+ * <p>
+ * Filters are kept next to the {@link GraphDatabase} in the {@code <.geogit>/changedpaths} file,
+ * which is appended to as commits are added, and loaded into memory on first use. The file is
+ * locked while it's read or appended to, so several processes can share it. Filters are computed
+ * at commit time by {@link org.geogit.api.plumbing.UpdateChangedPaths UpdateChangedPaths}, for
+ * fetched commits by {@link org.geogit.api.plumbing.BackfillChangedPaths BackfillChangedPaths},
+ * and backfilled for older commits by {@link org.geogit.api.plumbing.RebuildGraphOp RebuildGraphOp}.
+ * Commits with no filter are just not skipped.
+ */
+public class ChangedPathsDatabase {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ChangedPathsDatabase.class);
+
+    private static final int MAGIC = 0x47474350;// GGCP
+
+    private static final int VERSION = 1;
+
+    private static final String FILE_NAME = "changedpaths";
+
+    /**
+     * Monitors per changed paths file, to serialize the instances of this JVM that lock the file
+     */
+    private static final ConcurrentMap<File, Object> MONITORS = Maps.newConcurrentMap();
+
+    private final Platform platform;
+
+    @Nullable
+    private Map<ObjectId, ChangedPathsFilter> filters;
+
+    @Nullable
+    private File file;
+
+    @Inject
+    public ChangedPathsDatabase(final Platform platform) {
+        this.platform = platform;
+    }
+
+    /**
+     * @return the filter of the given commit, or {@link Optional#absent() absent} if it has none
+     */
+    public synchronized Optional<ChangedPathsFilter> get(final ObjectId commitId) {
+        return Optional.fromNullable(filters().get(commitId));
+    }
+
+    /**
+     * @return whether there's a filter for the given commit
+     */
+    public synchronized boolean exists(final ObjectId commitId) {
+        return filters().containsKey(commitId);
+    }
+
+    /**
+     * Records the filter of the given commit, if it doesn't have one already.
+     *
+     * @return {@code true} if the filter was added, {@code false} if there was one already
+     */
+    public synchronized boolean put(final ObjectId commitId, final ChangedPathsFilter filter) {
+        final Map<ObjectId, ChangedPathsFilter> filters = filters();
+        if (filters.containsKey(commitId)) {
+            return false;
+        }
+        filters.put(commitId, filter);
+        if (file != null) {
+            try {
+                append(commitId, filter);
+            } catch (IOException e) {
+                LOGGER.warn("Unable to save changed paths filter of " + commitId, e);
+            }
+        }
+        return true;
+    }
+
+    private Map<ObjectId, ChangedPathsFilter> filters() {
+        if (filters == null || file == null) {
+            File file = resolveFile();
+            if (file == null) {
+                // no repository yet, keep filters in memory until there is one
+                if (filters == null) {
+                    filters = Maps.newHashMap();
+                }
+                return filters;
+            }
+            Map<ObjectId, ChangedPathsFilter> loaded = load(file);
+            if (filters != null) {
+                loaded.putAll(filters);
+            }
+            this.file = file;
+            this.filters = loaded;
+        }
+        return filters;
+    }
+
+    private Map<ObjectId, ChangedPathsFilter> load(final File file) {
+        Map<ObjectId, ChangedPathsFilter> filters = Maps.newHashMap();
+        if (!file.exists()) {
+            return filters;
+        }
+        boolean discard = false;
+        synchronized (monitorOf(file)) {
+            try {
+                RandomAccessFile raf = new RandomAccessFile(file, "rw");
+                try {
+                    FileChannel channel = raf.getChannel();
+                    // don't read a record another process is halfway through appending
+                    FileLock lock = channel.lock();
+                    try {
+                        long validLength = read(channel, filters);
+                        if (validLength < channel.size()) {
+                            // a record was only partially written, drop it so appends start clean
+                            LOGGER.debug("Truncating incomplete changed paths record in {}", file);
+                            channel.truncate(validLength);
+                        }
+                    } finally {
+                        lock.release();
+                    }
+                } finally {
+                    raf.close();
+                }
+            } catch (IOException e) {
+                LOGGER.warn("Unable to read changed paths file " + file + ", discarding it", e);
+                filters.clear();
+                discard = true;
+            }
+            if (discard) {
+                file.delete();
+            }
+        }
+        return filters;
+    }
+
+    /**
+     * Reads the records of the file into {@code filters}
+     *
+     * @return the length of the complete records read, header included
+     */
+    private long read(final FileChannel channel, final Map<ObjectId, ChangedPathsFilter> filters)
+            throws IOException {
+        if (channel.size() == 0) {
+            return 0;
+        }
+        // not closed, as that would close the channel
+        CountingInputStream counting = new CountingInputStream(new BufferedInputStream(
+                Channels.newInputStream(channel)));
+        DataInputStream in = new DataInputStream(counting);
+        long validLength = 0;
+        try {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException("Unrecognized changed paths file");
+            }
+            validLength = 8;
+            while (true) {
+                byte[] raw = new byte[ObjectId.NUM_BYTES];
+                try {
+                    in.readFully(raw);
+                } catch (EOFException e) {
+                    break;
+                }
+                ChangedPathsFilter filter = ChangedPathsFilter.read(in);
+                filters.put(new ObjectId(raw), filter);
+                validLength = counting.getCount();
+            }
+        } catch (EOFException e) {
+            // partial record, or partial header
+        }
+        return validLength;
+    }
+
+    /**
+     * Appends a record to the file. The header check and the write are made holding a lock on the
+     * file, so records from other processes, or other instances on the same repository, are never
+     * interleaved.
+     */
+    private void append(final ObjectId commitId, final ChangedPathsFilter filter)
+            throws IOException {
+        ByteArrayOutputStream record = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(record);
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.write(commitId.getRawValue());
+        filter.write(out);
+        out.flush();
+        final byte[] bytes = record.toByteArray();
+
+        synchronized (monitorOf(file)) {
+            RandomAccessFile raf = new RandomAccessFile(file, "rw");
+            try {
+                FileChannel channel = raf.getChannel();
+                FileLock lock = channel.lock();
+                try {
+                    final long size = channel.size();
+                    // the header goes only at the start of the file
+                    final int offset = size == 0 ? 0 : 8;
+                    ByteBuffer buffer = ByteBuffer.wrap(bytes, offset, bytes.length - offset);
+                    long position = size;
+                    while (buffer.hasRemaining()) {
+                        position += channel.write(buffer, position);
+                    }
+                } finally {
+                    lock.release();
+                }
+            } finally {
+                raf.close();
+            }
+        }
+    }
+
+    /**
+     * @return the object to synchronize on within this JVM before locking the file, as file locks
+     *         are held on behalf of the whole JVM and can't be taken twice in it
+     */
+    private static Object monitorOf(final File file) {
+        final File key = file.getAbsoluteFile();
+        Object monitor = MONITORS.get(key);
+        if (monitor == null) {
+            Object newMonitor = new Object();
+            monitor = MONITORS.putIfAbsent(key, newMonitor);
+            if (monitor == null) {
+                monitor = newMonitor;
+            }
+        }
+        return monitor;
+    }
+
+    @Nullable
+    private File resolveFile() {
+        Optional<URL> geogitDir = new ResolveGeogitDir(platform).call();
+        if (!geogitDir.isPresent()) {
+            return null;
+        }
+        try {
+            return new File(new File(geogitDir.get().toURI()), FILE_NAME);
+        } catch (URISyntaxException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,155 @@
+/* Copyright (c) 2013 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+package org.geogit.storage;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Set;
+
+import org.geogit.api.NodeRef;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.Sets;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+
+/**
+ * An immutable bloom filter of the paths a commit changed with respect to its first parent.
+ * <p>
+ * Both the paths of the changed features and trees and all their parent paths are recorded, so
+ * that asking for a tree path matches any change below it. The filter answers {@code false} only if
+ * the path was definitely not changed by the commit; a {@link #isSaturated() saturated} filter,
+ * used for commits that change too many paths to be worth a filter, matches any path.
+ *
+ * @see ChangedPathsDatabase
+ */
+public final class ChangedPathsFilter {
+
+    /**
+     * The maximum number of paths recorded on a filter, commits that change more paths than this
+     * get a {@link #SATURATED saturated} filter
+     */
+    public static final int MAX_PATHS = 10 * 1000;
+
+    /**
+     * A filter that matches all paths
+     */
+    public static final ChangedPathsFilter SATURATED = new ChangedPathsFilter(0, new byte[0]);
+
+    private static final int BITS_PER_PATH = 10;
+
+    private static final int NUM_HASHES = 7;
+
+    private static final HashFunction HASH = Hashing.murmur3_128();
+
+    private final int numHashes;
+
+    private final byte[] bits;
+
+    private ChangedPathsFilter(final int numHashes, final byte[] bits) {
+        this.numHashes = numHashes;
+        this.bits = bits;
+    }
+
+    /**
+     * Creates the filter for the given changed paths, which are expanded to all their parent
+     * paths.
+     *
+     * @param paths the paths of the features and trees changed by a commit
+     * @return the filter, or {@link #SATURATED} if there are more than {@link #MAX_PATHS} paths
+     */
+    public static ChangedPathsFilter create(final Collection<String> paths) {
+        if (paths.size() > MAX_PATHS) {
+            return SATURATED;
+        }
+        Set<String> expanded = Sets.newHashSet();
+        for (String path : paths) {
+            for (String p = path; !p.isEmpty() && expanded.add(p); p = NodeRef.parentPath(p)) {
+                // parents already added have their own parents added too
+            }
+        }
+        final int numBytes = Math.max(8, (expanded.size() * BITS_PER_PATH + 7) / 8);
+        ChangedPathsFilter filter = new ChangedPathsFilter(NUM_HASHES, new byte[numBytes]);
+        for (String path : expanded) {
+            filter.add(path);
+        }
+        return filter;
+    }
+
+    /**
+     * @return {@code true} if this filter matches all paths
+     */
+    public boolean isSaturated() {
+        return numHashes == 0;
+    }
+
+    /**
+     * @return {@code false} if the commit definitely didn't change {@code path} nor anything below
+     *         it, {@code true} if it might have
+     */
+    public boolean mightContain(final String path) {
+        if (isSaturated()) {
+            return true;
+        }
+        final long numBits = bits.length * 8L;
+        final byte[] hash = HASH.hashString(path, Charsets.UTF_8).asBytes();
+        final long h1 = toLong(hash, 0);
+        final long h2 = toLong(hash, 8);
+        for (int i = 0; i < numHashes; i++) {
+            long bit = ((h1 + i * h2) & Long.MAX_VALUE) % numBits;
+            if ((bits[(int) (bit >>> 3)] & (1 << (bit & 7))) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void add(final String path) {
+        final long numBits = bits.length * 8L;
+        final byte[] hash = HASH.hashString(path, Charsets.UTF_8).asBytes();
+        final long h1 = toLong(hash, 0);
+        final long h2 = toLong(hash, 8);
+        for (int i = 0; i < numHashes; i++) {
+            long bit = ((h1 + i * h2) & Long.MAX_VALUE) % numBits;
+            bits[(int) (bit >>> 3)] |= 1 << (bit & 7);
+        }
+    }
+
+    private static long toLong(final byte[] bytes, final int offset) {
+        long value = 0;
+        for (int i = 7; i >= 0; i--) {
+            value = (value << 8) | (bytes[offset + i] & 0xFF);
+        }
+        return value;
+    }
+
+    public void write(final DataOutput out) throws IOException {
+        out.writeByte(numHashes);
+        out.writeInt(bits.length);
+        out.write(bits);
+    }
+
+    public static ChangedPathsFilter read(final DataInput in) throws IOException {
+        final int numHashes = in.readUnsignedByte();
+        final int length = in.readInt();
+        if (length < 0) {
+            throw new IOException("Invalid changed paths filter length: " + length);
+        }
+        if (numHashes == 0) {
+            return SATURATED;
+        }
+        byte[] bits = new byte[length];
+        in.readFully(bits);
+        return new ChangedPathsFilter(numHashes, bits);
+    }
+
+    @Override
+    public String toString() {
+        return isSaturated() ? "ChangedPathsFilter[saturated]" : "ChangedPathsFilter["
+                + bits.length + " bytes]";
+    }
+}
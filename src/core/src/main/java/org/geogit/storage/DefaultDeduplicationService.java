@@ -0,0 +1,131 @@
+/* Copyright (c) 2013 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+package org.geogit.storage;
+
+import java.io.File;
+import java.net.URISyntaxException;
+import java.net.URL;
+
+import org.geogit.api.Platform;
+import org.geogit.api.plumbing.ResolveGeogitDir;
+import org.geogit.api.porcelain.ConfigException;
+import org.geogit.storage.memory.HeapDeduplicator;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Optional;
+import com.google.inject.Inject;
+
+/**
+ * A {@link DeduplicationService} that creates the kind of {@link Deduplicator} set in the
+ * repository config.
+ * <p>
+ * Config properties, prefixed by {@code deduplicator.}:
+ * <ul>
+ * <li>{@code type}: {@code heap} for a {@link HeapDeduplicator}, or {@code offheap} for an
+ * {@link OffHeapDeduplicator}, meant for traversals of many millions of objects. Defaults to the
+ * {@link #createDefaultDeduplicator() default deduplicator} of the storage backend, a heap one
+ * unless a subclass says otherwise
+ * <li>{@code offheap.memoryBudget}: the megabytes of memory the off heap deduplicator keeps ids
+ * in before spilling them to disk, defaults to 64
+ * <li>{@code offheap.expectedInsertions}: the number of ids the off heap deduplicator's bloom
+ * filter is sized for, defaults to 10M
+ * <li>{@code offheap.fpp}: the false positive probability of the bloom filter at its expected
+ * insertions, defaults to {@code 0.01}
+ * </ul>
+ * Spilled ids go to {@code <.geogit>/tmp}, or to the system temporary directory out of a
+ * repository.
+ */
+public class DefaultDeduplicationService implements DeduplicationService {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(DefaultDeduplicationService.class);
+
+    private static final String TYPE_HEAP = "heap";
+
+    private static final String TYPE_OFFHEAP = "offheap";
+
+    private static final int DEFAULT_MEMORY_BUDGET_MB = 64;
+
+    private static final int DEFAULT_EXPECTED_INSERTIONS = 10 * 1000 * 1000;
+
+    private static final double DEFAULT_FPP = 0.01;
+
+    private final Platform platform;
+
+    private final ConfigDatabase configDb;
+
+    @Inject
+    public DefaultDeduplicationService(Platform platform, ConfigDatabase configDb) {
+        this.platform = platform;
+        this.configDb = configDb;
+    }
+
+    @Override
+    public Deduplicator createDeduplicator() {
+        String type = getConfig("type", "");
+        if (TYPE_HEAP.equalsIgnoreCase(type)) {
+            return new HeapDeduplicator();
+        }
+        if (!TYPE_OFFHEAP.equalsIgnoreCase(type)) {
+            if (!type.isEmpty()) {
+                LOGGER.warn("Unknown deduplicator type: {}, using default", type);
+            }
+            return createDefaultDeduplicator();
+        }
+        long memoryBudget = 1024L * 1024L * getConfig("offheap.memoryBudget",
+                DEFAULT_MEMORY_BUDGET_MB);
+        int expectedInsertions = getConfig("offheap.expectedInsertions",
+                DEFAULT_EXPECTED_INSERTIONS);
+        double fpp = DEFAULT_FPP;
+        String fppValue = getConfig("offheap.fpp", String.valueOf(DEFAULT_FPP));
+        try {
+            fpp = Double.parseDouble(fppValue);
+        } catch (NumberFormatException e) {
+            LOGGER.warn("Invalid deduplicator fpp: {}, using default", fppValue);
+        }
+        return new OffHeapDeduplicator(getTempDir(), memoryBudget, expectedInsertions, fpp);
+    }
+
+    /**
+     * @return the deduplicator to use when no {@code deduplicator.type} is set, a
+     *         {@link HeapDeduplicator}; storage backends with a deduplicator of their own override
+     *         it
+     */
+    protected Deduplicator createDefaultDeduplicator() {
+        return new HeapDeduplicator();
+    }
+
+    private int getConfig(final String keyword, final int defaultValue) {
+        String value = getConfig(keyword, String.valueOf(defaultValue));
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            LOGGER.warn("Invalid deduplicator {}: {}, using default", keyword, value);
+            return defaultValue;
+        }
+    }
+
+    private String getConfig(final String keyword, final String defaultValue) {
+        try {
+            Optional<String> value = configDb.get("deduplicator." + keyword);
+            return value.or(defaultValue);
+        } catch (ConfigException e) {
+            return defaultValue;
+        }
+    }
+
+    private File getTempDir() {
+        Optional<URL> geogitDir = new ResolveGeogitDir(platform).call();
+        if (geogitDir.isPresent()) {
+            try {
+                return new File(new File(geogitDir.get().toURI()), "tmp");
+            } catch (URISyntaxException e) {
+                // fall back to the system temp dir
+            }
+        }
+        return new File(System.getProperty("java.io.tmpdir"));
+    }
+}
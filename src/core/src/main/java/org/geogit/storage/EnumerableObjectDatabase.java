@@ -0,0 +1,24 @@
+/* Copyright (c) 2013 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+package org.geogit.storage;
+
+import java.util.Iterator;
+
+import org.geogit.api.ObjectId;
+
+/**
+ * Optional interface for {@link ObjectDatabase} implementations that can list the identifiers of
+ * all the objects they hold, so that structures derived from the whole set of objects (like an
+ * existence bloom filter) can be rebuilt from scratch.
+ */
+public interface EnumerableObjectDatabase extends ObjectDatabase {
+
+    /**
+     * @return an iterator over the ids of all the objects in the database, in no particular order.
+     *         Implementations shall release any resource held by the iterator once it's fully
+     *         traversed.
+     */
+    public Iterator<ObjectId> listIds();
+}
@@ -128,6 +128,17 @@ public abstract class ForwardingStagingDatabase implements StagingDatabase {
         stagingDb.putAll(objects, listener);
     }
 
+    @Override
+    public Iterator<RawObject> getRawAll(final Iterable<ObjectId> ids,
+            final BulkOpListener listener) {
+        return StagingDbCompositionHelper.getRawAll(repositoryDb, stagingDb, ids, listener);
+    }
+
+    @Override
+    public void putRawAll(Iterator<RawObject> objects, BulkOpListener listener) {
+        stagingDb.putRawAll(objects, listener);
+    }
+
     @Override
     public long deleteAll(Iterator<ObjectId> ids) {
         return deleteAll(ids, BulkOpListener.NOOP_LISTENER);
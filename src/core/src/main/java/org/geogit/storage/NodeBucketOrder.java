@@ -0,0 +1,65 @@
+/* Copyright (c) 2013 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+package org.geogit.storage;
+
+import java.io.Serializable;
+
+import org.geogit.api.Node;
+import org.geogit.api.RevTree;
+
+import com.google.common.collect.Ordering;
+
+/**
+ * Orders {@link Node nodes} by the {@link NodePathStorageOrder#bucket(long, int) bucket} they fall
+ * on at each tree depth, and then in {@link NodeStorageOrder storage order}.
+ * <p>
+ * Storage order does not keep the nodes of a bucket together below the first depth, since a bucket
+ * takes only the {@code log2(}{@link RevTree#MAX_BUCKETS}{@code )} most significant bits of its
+ * hash byte and the remaining bits of the byte come first. In this order instead the nodes of every
+ * bucket, at any depth, are contiguous, which is what building a tree bottom up in a single pass
+ * needs.
+ *
+ * @see NodeStorageOrder
+ */
+public final class NodeBucketOrder extends Ordering<Node> implements Serializable {
+
+    private static final long serialVersionUID = 7208254539834316817L;
+
+    /**
+     * How many bits of each hash byte make up a bucket index
+     */
+    private static final int BUCKET_BITS = Integer.numberOfTrailingZeros(RevTree.MAX_BUCKETS);
+
+    @Override
+    public int compare(Node n1, Node n2) {
+        return compare(n1.getNameHash(), n2.getNameHash());
+    }
+
+    /**
+     * Compares two {@link NodePathStorageOrder#hash(CharSequence) node name hashes} by their
+     * buckets at every depth, and then as unsigned values
+     */
+    public static int compare(final long nameHash1, final long nameHash2) {
+        return NodePathStorageOrder.compare(sortKey(nameHash1), sortKey(nameHash2));
+    }
+
+    /**
+     * Rearranges the bits of a {@link NodePathStorageOrder#hash(CharSequence) node name hash} so
+     * that comparing the results as unsigned values compares the hashes in bucket order: the
+     * bucket bits of the eight hash bytes come first, followed by the remaining bits of each byte.
+     */
+    public static long sortKey(final long nameHash) {
+        final int remainderBits = 8 - BUCKET_BITS;
+        final int remainderMask = (1 << remainderBits) - 1;
+        long buckets = 0;
+        long remainders = 0;
+        for (int depth = 0; depth < 8; depth++) {
+            final int byteN = (int) (nameHash >>> (8 * (7 - depth))) & 0xFF;
+            buckets = (buckets << BUCKET_BITS) | (byteN >>> remainderBits);
+            remainders = (remainders << remainderBits) | (byteN & remainderMask);
+        }
+        return (buckets << (8 * remainderBits)) | remainders;
+    }
+}
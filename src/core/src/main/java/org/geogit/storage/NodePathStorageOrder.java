@@ -16,7 +16,6 @@ import com.google.common.collect.Ordering;
 import com.google.common.hash.HashCode;
 import com.google.common.hash.HashFunction;
 import com.google.common.primitives.UnsignedBytes;
-import com.google.common.primitives.UnsignedLong;
 
 /**
  * Implements storage order of {@link Node} based on the non cryptographic 64-bit <a
@@ -62,7 +61,7 @@ public final class NodePathStorageOrder extends Ordering<String> implements Seri
 
     private static final long serialVersionUID = -685759544293388523L;
 
-    private static final HashOrder hashOrder = new FNV1a64bitHash();
+    private static final FNV1a64bitHash hashOrder = new FNV1a64bitHash();
 
     @Override
     public int compare(String p1, String p2) {
@@ -75,8 +74,18 @@ public final class NodePathStorageOrder extends Ordering<String> implements Seri
      * @return and Integer between zero and {@link RevTree#MAX_BUCKETS} minus one
      */
     public Integer bucket(final String nodeName, final int depth) {
+        return bucket(hash(nodeName), depth);
+    }
 
-        final int byteN = hashOrder.byteN(nodeName, depth);
+    /**
+     * Computes the bucket index that corresponds to the given {@link #hash(CharSequence) name hash}
+     * at the given depth.
+     * 
+     * @return and Integer between zero and {@link RevTree#MAX_BUCKETS} minus one
+     */
+    public Integer bucket(final long nameHash, final int depth) {
+
+        final int byteN = FNV1a64bitHash.byteN(nameHash, depth);
         Preconditions.checkState(byteN >= 0);
         Preconditions.checkState(byteN < 256);
 
@@ -86,6 +95,23 @@ public final class NodePathStorageOrder extends Ordering<String> implements Seri
         return Integer.valueOf(bucket);
     }
 
+    /**
+     * Computes the 64-bit hash of a node name that defines its storage order, so that it can be
+     * computed once and reused for multiple comparisons through {@link #compare(long, long)} and
+     * {@link #bucket(long, int)}.
+     */
+    public static long hash(final CharSequence nodeName) {
+        return FNV1a64bitHash.fnv(nodeName);
+    }
+
+    /**
+     * Compares two {@link #hash(CharSequence) node name hashes} as unsigned values, consistently
+     * with {@link #compare(String, String)}
+     */
+    public static int compare(final long nameHash1, final long nameHash2) {
+        return FNV1a64bitHash.compare(nameHash1, nameHash2);
+    }
+
     private static abstract class HashOrder extends Ordering<String> implements Serializable {
 
         private static final long serialVersionUID = -469599567110937126L;
@@ -96,69 +122,67 @@ public final class NodePathStorageOrder extends Ordering<String> implements Seri
 
     /**
      * The FNV-1a hash function used as {@link Node} storage order.
+     * <p>
+     * The hash is computed over primitive longs, relying on two's complement overflow for the
+     * modulo 2<sup>64</sup> multiplication, and compared as unsigned values.
      */
     private static class FNV1a64bitHash extends HashOrder {
 
         private static final long serialVersionUID = -1931193743208260766L;
 
-        private static final UnsignedLong FNV64_OFFSET_BASIS = UnsignedLong
-                .valueOf("14695981039346656037");
+        /**
+         * 14695981039346656037 as unsigned
+         */
+        private static final long FNV64_OFFSET_BASIS = 0xcbf29ce484222325L;
 
-        private static final UnsignedLong FNV64_PRIME = UnsignedLong.valueOf("1099511628211");
+        /**
+         * 1099511628211
+         */
+        private static final long FNV64_PRIME = 0x100000001b3L;
 
         @Override
         public int compare(final String p1, final String p2) {
-            UnsignedLong hash1 = fnv(p1);
-            UnsignedLong hash2 = fnv(p2);
-            return hash1.compareTo(hash2);
+            return compare(fnv(p1), fnv(p2));
         }
 
-        private static UnsignedLong fnv(CharSequence chars) {
+        static int compare(final long hash1, final long hash2) {
+            // flip the sign bit to compare as unsigned
+            final long h1 = hash1 ^ Long.MIN_VALUE;
+            final long h2 = hash2 ^ Long.MIN_VALUE;
+            return h1 < h2 ? -1 : (h1 == h2 ? 0 : 1);
+        }
+
+        static long fnv(final CharSequence chars) {
             final int length = chars.length();
 
-            UnsignedLong hash = FNV64_OFFSET_BASIS;
+            long hash = FNV64_OFFSET_BASIS;
 
             for (int i = 0; i < length; i++) {
-                char c = chars.charAt(i);
-                byte b1 = (byte) (c >> 8);
-                byte b2 = (byte) c;
-                hash = update(hash, b1);
-                hash = update(hash, b2);
+                final char c = chars.charAt(i);
+                // the octets are xor'ed as signed bytes, sign extension included, to preserve
+                // the order of trees created before this implementation
+                hash = (hash ^ (byte) (c >> 8)) * FNV64_PRIME;
+                hash = (hash ^ (byte) c) * FNV64_PRIME;
             }
             return hash;
         }
 
-        private static UnsignedLong update(UnsignedLong hash, final byte octet) {
-            // it's ok to use the signed long value here, its a bitwise operation anyways, and its
-            // on the lower byte of the long value
-            final long longValue = hash.longValue();
-            final long bits = longValue ^ octet;
-
-            // System.err.println("hash : " + Long.toBinaryString(longValue));
-            // System.err.println("xor  : " + Long.toBinaryString(bits));
-            // System.err.println("octet: " + Integer.toBinaryString(octet));
-
-            // convert back to unsigned long
-            hash = UnsignedLong.fromLongBits(bits);
-            // multiply by prime
-            hash = hash.times(FNV64_PRIME);
-            return hash;
-        }
-
         /**
          * Returns the Nth unsigned byte in the hash of {@code nodeName} where N is given by
          * {@code depth}
          */
         @Override
         public int byteN(final String nodeName, final int depth) {
-            Preconditions.checkArgument(depth < 8, "depth too deep: %s", Integer.valueOf(depth));
+            return byteN(fnv(nodeName), depth);
+        }
 
-            final long longBits = fnv(nodeName).longValue();
+        static int byteN(final long hash, final int depth) {
+            Preconditions.checkArgument(depth < 8, "depth too deep: %s", Integer.valueOf(depth));
 
             final int displaceBits = 8 * (7 - depth);// how many bits to right shift longBits to get
                                                      // the byte N
 
-            final int byteN = ((byte) (longBits >> displaceBits)) & 0xFF;
+            final int byteN = ((byte) (hash >> displaceBits)) & 0xFF;
             return byteN;
         }
     }
@@ -14,6 +14,9 @@ import com.google.common.collect.Ordering;
 /**
  * Implements storage order of {@link Node} based on its name using a {@link NodePathStorageOrder}
  * comparator.
+ * <p>
+ * Uses the nodes' {@link Node#getNameHash() cached name hashes}, so sorting a list of nodes or
+ * walking two sorted lists computes each name hash only once.
  * 
  * @see NodePathStorageOrder
  */
@@ -25,13 +28,13 @@ public final class NodeStorageOrder extends Ordering<Node> implements Serializab
 
     @Override
     public int compare(Node nr1, Node nr2) {
-        return nameOrder.compare(nr1.getName(), nr2.getName());
+        return NodePathStorageOrder.compare(nr1.getNameHash(), nr2.getNameHash());
     }
 
     /**
      * @see NodePathStorageOrder#bucket(String, int)
      */
     public Integer bucket(final Node ref, final int depth) {
-        return nameOrder.bucket(ref.getName(), depth);
+        return nameOrder.bucket(ref.getNameHash(), depth);
     }
 }
\ No newline at end of file
@@ -192,6 +192,36 @@ public interface ObjectDatabase extends Closeable {
      */
     public void putAll(Iterator<? extends RevObject> objects, BulkOpListener listener);
 
+    /**
+     * Same as {@link #getAll(Iterable, BulkOpListener)}, but returns the objects in their
+     * {@link RawObject raw} form instead of parsing them.
+     * <p>
+     * Meant to copy objects to another database through
+     * {@link #putRawAll(Iterator, BulkOpListener) putRawAll} without going through their
+     * serialization.
+     *
+     * @param ids the ids of the objects to retrieve
+     * @param listener a listener that gets notified of {@link BulkOpListener#found found} and
+     *        {@link BulkOpListener#notFound(ObjectId) not found} items
+     * @return an iterator with the objects <b>found</b> on the database, in no particular order
+     */
+    public Iterator<RawObject> getRawAll(final Iterable<ObjectId> ids, BulkOpListener listener);
+
+    /**
+     * Same as {@link #putAll(Iterator, BulkOpListener)}, but for objects in their
+     * {@link RawObject raw} form, as returned by {@link #getRawAll(Iterable, BulkOpListener)
+     * getRawAll}.
+     * <p>
+     * Since the objects are not parsed, commits inserted this way are not added to the
+     * {@link GraphDatabase}; this is meant to copy the contents of commits, such as features and
+     * feature types, while commits themselves go through {@link #putAll(Iterator, BulkOpListener)
+     * putAll}.
+     *
+     * @param objects the objects to request for insertion into the object database
+     * @param listener a listener to get notifications of actually inserted objects
+     */
+    public void putRawAll(Iterator<RawObject> objects, BulkOpListener listener);
+
     /**
      * Shorthand for {@link #deleteAll(Iterator, BulkOpListener)} with
      * {@link BulkOpListener#NOOP_LISTENER} as second argument
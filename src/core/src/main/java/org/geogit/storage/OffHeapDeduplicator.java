@@ -0,0 +1,515 @@
+/* Copyright (c) 2013 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+package org.geogit.storage;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.geogit.api.ObjectId;
+import org.geogit.api.ObjectIdSet;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Stopwatch;
+import com.google.common.base.Throwables;
+import com.google.common.collect.Lists;
+import com.google.common.hash.BloomFilter;
+import com.google.common.hash.Funnel;
+import com.google.common.hash.PrimitiveSink;
+import com.google.common.io.Closeables;
+
+/**
+ * A {@link Deduplicator} for traversals too large for a {@link java.util.HashSet} of ids, such as
+ * cloning or pushing a long history.
+ * <p>
+ * Visited ids are kept in an {@link ObjectIdSet#offHeap(int) off heap} hash table of raw ids,
+ * sized to a memory budget. When the table fills up its ids are sorted in place, spilled to a run
+ * file, which is memory mapped and binary searched from then on, and the table is emptied. Runs
+ * are merged into one when there are too many of them. A bloom filter of all the visited ids fronts
+ * the table and the runs, so ids never visited before, the bulk of a traversal, are answered
+ * without searching any of them.
+ * <p>
+ * Not thread safe. Run files are created in the given directory and deleted when the
+ * deduplicator is {@link #reset() reset} or {@link #release() released}; runs left behind by a
+ * process that died before releasing its deduplicator are deleted the first time a deduplicator
+ * is created on the same directory, once they are older than {@link #STALE_RUN_AGE}.
+ *
+ * @see DefaultDeduplicationService
+ */
+public class OffHeapDeduplicator implements Deduplicator {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(OffHeapDeduplicator.class);
+
+    private static final int ID_BYTES = ObjectId.NUM_BYTES;
+
+    /**
+     * Number of runs that triggers merging them into a single one
+     */
+    private static final int MAX_RUNS = 8;
+
+    /**
+     * Largest number of ids a single memory mapped run can hold
+     */
+    private static final int MAX_RUN_IDS = Integer.MAX_VALUE / ID_BYTES;
+
+    /**
+     * Age after which a run file nobody deleted is assumed to belong to a dead process, one day
+     */
+    private static final long STALE_RUN_AGE = 24L * 60 * 60 * 1000;
+
+    private static final String RUN_PREFIX = "geogitDedup";
+
+    private static final String RUN_SUFFIX = ".run";
+
+    /**
+     * The temp directories already cleaned up of stale runs by this JVM
+     */
+    private static final Set<File> CLEANED_TEMP_DIRS = Collections
+            .newSetFromMap(new ConcurrentHashMap<File, Boolean>());
+
+    private final File tempDir;
+
+    private final int expectedInsertions;
+
+    private final double fpp;
+
+    /**
+     * Number of ids the table holds before spilling, so that it never grows over the budget
+     */
+    private final int maxTableIds;
+
+    private ObjectIdSet table;
+
+    private BloomFilter<ObjectId> filter;
+
+    private List<Run> runs = Lists.newArrayList();
+
+    private long count;
+
+    private long lookups;
+
+    private long filterMisses;
+
+    private long runLookups;
+
+    private long spilledIds;
+
+    private int spills;
+
+    private final Stopwatch sw = new Stopwatch().start();
+
+    private boolean released;
+
+    /**
+     * @param tempDir the directory to create run files in
+     * @param memoryBudget the maximum number of bytes for the table of ids
+     * @param expectedInsertions the number of ids the bloom filter is sized for
+     * @param fpp the false positive probability of the bloom filter at its expected insertions
+     */
+    public OffHeapDeduplicator(final File tempDir, final long memoryBudget,
+            final int expectedInsertions, final double fpp) {
+        Preconditions.checkArgument(memoryBudget >= 1024, "memory budget too small: %s",
+                memoryBudget);
+        this.tempDir = tempDir;
+        this.expectedInsertions = expectedInsertions;
+        this.fpp = fpp;
+        // the table has a power of two slots of ID_BYTES each, and grows past half full
+        long slots = Long.highestOneBit(Math.min(memoryBudget / ID_BYTES, 1 << 26));
+        this.maxTableIds = (int) (slots / 2);
+        init();
+        deleteStaleRuns(tempDir);
+    }
+
+    private void init() {
+        this.table = ObjectIdSet.offHeap(maxTableIds);
+        this.filter = BloomFilter.create(ObjectIdFunnel.INSTANCE, expectedInsertions, fpp);
+        this.runs = Lists.newArrayList();
+        this.count = 0;
+    }
+
+    /**
+     * Funnels the raw bytes of an {@link ObjectId} into the filter's hash function
+     */
+    private static enum ObjectIdFunnel implements Funnel<ObjectId> {
+        INSTANCE;
+
+        @Override
+        public void funnel(ObjectId id, PrimitiveSink into) {
+            for (int i = 0; i < ObjectId.NUM_BYTES; i++) {
+                into.putByte((byte) id.byteN(i));
+            }
+        }
+    }
+
+    @Override
+    public boolean isDuplicate(final ObjectId id) {
+        checkNotReleased();
+        return contains(id);
+    }
+
+    @Override
+    public boolean visit(final ObjectId id) {
+        checkNotReleased();
+        if (contains(id)) {
+            return true;
+        }
+        if (table.size() >= maxTableIds) {
+            spill();
+        }
+        table.add(id);
+        filter.put(id);
+        count++;
+        return false;
+    }
+
+    @Override
+    public void removeDuplicates(final List<ObjectId> ids) {
+        checkNotReleased();
+        for (Iterator<ObjectId> it = ids.iterator(); it.hasNext();) {
+            if (contains(it.next())) {
+                it.remove();
+            }
+        }
+    }
+
+    @Override
+    public void reset() {
+        checkNotReleased();
+        deleteRuns();
+        init();
+    }
+
+    @Override
+    public void release() {
+        if (released) {
+            return;
+        }
+        LOGGER.debug("Released {}", this);
+        deleteRuns();
+        table = null;
+        filter = null;
+        released = true;
+    }
+
+    private void checkNotReleased() {
+        Preconditions.checkState(!released, "deduplicator already released");
+    }
+
+    private boolean contains(final ObjectId id) {
+        lookups++;
+        if (!filter.mightContain(id)) {
+            filterMisses++;
+            return false;
+        }
+        if (table.contains(id)) {
+            return true;
+        }
+        if (runs.isEmpty()) {
+            return false;
+        }
+        runLookups++;
+        final byte[] raw = id.getRawValue();
+        for (Run run : runs) {
+            if (run.contains(raw)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return the number of distinct ids visited
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * @return the number of lookups made, either by {@link #visit} or {@link #isDuplicate}
+     */
+    public long getLookupCount() {
+        return lookups;
+    }
+
+    /**
+     * @return the number of lookups answered by the bloom filter alone
+     */
+    public long getFilterMissCount() {
+        return filterMisses;
+    }
+
+    /**
+     * @return the number of lookups that had to search the spilled runs
+     */
+    public long getRunLookupCount() {
+        return runLookups;
+    }
+
+    /**
+     * @return the number of lookups per second since creation
+     */
+    public double getLookupRate() {
+        long millis = sw.elapsedMillis();
+        return millis == 0 ? 0D : lookups * 1000D / millis;
+    }
+
+    /**
+     * @return the number of bytes of memory taken by the table of ids and the bloom filter, not
+     *         counting the memory mapped runs
+     */
+    public long getMemoryUsage() {
+        if (released) {
+            return 0L;
+        }
+        // optimal number of bits of a bloom filter, as guava computes it
+        long filterBits = (long) (-expectedInsertions * Math.log(fpp) / (Math.log(2) * Math
+                .log(2)));
+        return table.sizeInBytes() + filterBits / 8;
+    }
+
+    /**
+     * @return the number of bytes of the spilled runs
+     */
+    public long getSpilledBytes() {
+        long bytes = 0;
+        for (Run run : runs) {
+            bytes += (long) run.size * ID_BYTES;
+        }
+        return bytes;
+    }
+
+    private void spill() {
+        Stopwatch spillTime = new Stopwatch().start();
+        final int size = table.size();
+        try {
+            File file = newRunFile();
+            FileOutputStream out = new FileOutputStream(file);
+            boolean threw = true;
+            try {
+                table.drainSorted(out.getChannel());
+                threw = false;
+            } finally {
+                Closeables.close(out, threw);
+                if (threw) {
+                    file.delete();
+                }
+            }
+            runs.add(Run.map(file, size));
+        } catch (IOException e) {
+            throw Throwables.propagate(e);
+        }
+        spilledIds += size;
+        spills++;
+        if (runs.size() > MAX_RUNS) {
+            mergeRuns();
+        }
+        LOGGER.debug("Spilled {} ids in {}, {} runs", size, spillTime.stop(), runs.size());
+    }
+
+    private void mergeRuns() {
+        long total = 0;
+        for (Run run : runs) {
+            total += run.size;
+        }
+        if (total > MAX_RUN_IDS) {
+            // too big to map as a single run, keep searching them one by one
+            return;
+        }
+        PriorityQueue<RunCursor> cursors = new PriorityQueue<RunCursor>();
+        for (Run run : runs) {
+            if (run.size > 0) {
+                cursors.add(new RunCursor(run));
+            }
+        }
+        try {
+            File file = newRunFile();
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                    new FileOutputStream(file), 64 * 1024));
+            boolean threw = true;
+            int size = 0;
+            try {
+                while (!cursors.isEmpty()) {
+                    RunCursor cursor = cursors.poll();
+                    out.write(cursor.current);
+                    size++;
+                    if (cursor.advance()) {
+                        cursors.add(cursor);
+                    }
+                }
+                threw = false;
+            } finally {
+                Closeables.close(out, threw);
+                if (threw) {
+                    file.delete();
+                }
+            }
+            Run merged = Run.map(file, size);
+            deleteRuns();
+            runs.add(merged);
+        } catch (IOException e) {
+            throw Throwables.propagate(e);
+        }
+    }
+
+    private File newRunFile() throws IOException {
+        tempDir.mkdirs();
+        return File.createTempFile(RUN_PREFIX, RUN_SUFFIX, tempDir);
+    }
+
+    /**
+     * Deletes the run files in {@code tempDir} older than {@link #STALE_RUN_AGE}, the first time
+     * it's called for that directory
+     */
+    static void deleteStaleRuns(final File tempDir) {
+        if (!CLEANED_TEMP_DIRS.add(tempDir.getAbsoluteFile())) {
+            return;
+        }
+        File[] files = tempDir.listFiles();
+        if (files == null) {
+            return;
+        }
+        final long staleBefore = System.currentTimeMillis() - STALE_RUN_AGE;
+        for (File file : files) {
+            String name = file.getName();
+            if (name.startsWith(RUN_PREFIX) && name.endsWith(RUN_SUFFIX)
+                    && file.lastModified() < staleBefore && !file.delete()) {
+                LOGGER.warn("Unable to delete stale deduplicator run file {}", file);
+            }
+        }
+    }
+
+    private void deleteRuns() {
+        for (Run run : runs) {
+            run.delete();
+        }
+        runs = Lists.newArrayList();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s[ids: %,d, lookups: %,d (%,.0f/s), bloom filter misses: %,d, "
+                + "run lookups: %,d, memory: %,d bytes, spilled: %,d ids in %d spills, runs: %d]",
+                getClass().getSimpleName(), count, lookups, getLookupRate(), filterMisses,
+                runLookups, getMemoryUsage(), spilledIds, spills, runs.size());
+    }
+
+    /**
+     * A sorted, memory mapped file of raw ids
+     */
+    private static class Run {
+
+        private final File file;
+
+        private final int size;
+
+        private MappedByteBuffer buffer;
+
+        private Run(final File file, final int size, final MappedByteBuffer buffer) {
+            this.file = file;
+            this.size = size;
+            this.buffer = buffer;
+        }
+
+        static Run map(final File file, final int size) throws IOException {
+            RandomAccessFile raf = new RandomAccessFile(file, "r");
+            try {
+                FileChannel channel = raf.getChannel();
+                MappedByteBuffer buffer = channel.map(MapMode.READ_ONLY, 0, channel.size());
+                return new Run(file, size, buffer);
+            } finally {
+                // the mapping stays valid after the channel is closed
+                raf.close();
+            }
+        }
+
+        boolean contains(final byte[] raw) {
+            int low = 0;
+            int high = size - 1;
+            while (low <= high) {
+                final int mid = (low + high) >>> 1;
+                final int c = compare(buffer, mid * ID_BYTES, raw);
+                if (c < 0) {
+                    low = mid + 1;
+                } else if (c > 0) {
+                    high = mid - 1;
+                } else {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        void delete() {
+            buffer = null;
+            if (!file.delete()) {
+                // still mapped on some platforms, swept as stale by a later deduplicator
+                LOGGER.debug("Unable to delete run file {}", file);
+            }
+        }
+
+        private static int compare(final ByteBuffer buffer, final int offset, final byte[] raw) {
+            for (int i = 0; i < ID_BYTES; i++) {
+                int b1 = buffer.get(offset + i) & 0xFF;
+                int b2 = raw[i] & 0xFF;
+                if (b1 != b2) {
+                    return b1 < b2 ? -1 : 1;
+                }
+            }
+            return 0;
+        }
+    }
+
+    /**
+     * Position over a {@link Run} while merging
+     */
+    private static class RunCursor implements Comparable<RunCursor> {
+
+        private final Run run;
+
+        private final byte[] current = new byte[ID_BYTES];
+
+        private int index;
+
+        RunCursor(final Run run) {
+            this.run = run;
+            read();
+        }
+
+        boolean advance() {
+            index++;
+            if (index >= run.size) {
+                return false;
+            }
+            read();
+            return true;
+        }
+
+        private void read() {
+            ByteBuffer view = run.buffer.duplicate();
+            view.position(index * ID_BYTES);
+            view.get(current);
+        }
+
+        @Override
+        public int compareTo(final RunCursor o) {
+            return ObjectId.compare(current, o.current);
+        }
+    }
+}
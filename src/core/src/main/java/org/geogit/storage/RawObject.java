@@ -0,0 +1,113 @@
+/* Copyright (c) 2013 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+package org.geogit.storage;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import org.geogit.api.ObjectId;
+import org.geogit.api.RevObject;
+import org.geogit.storage.datastream.DataStreamSerializationFactory;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
+import com.ning.compress.lzf.LZFDecoder;
+import com.ning.compress.lzf.LZFEncoder;
+import com.ning.compress.lzf.LZFInputStream;
+import com.ning.compress.lzf.LZFOutputStream;
+
+/**
+ * An object in its stored form: its id and its {@link DataStreamSerializationFactory serialized}
+ * representation, LZF compressed.
+ * <p>
+ * This is the form {@link ObjectDatabase#getRawAll(Iterable, BulkOpListener) getRawAll} and
+ * {@link ObjectDatabase#putRawAll(java.util.Iterator, BulkOpListener) putRawAll} exchange objects
+ * in, so that they can be copied between databases without being parsed and serialized again.
+ * Databases that store objects in this very form hand them over as they are; the ones that store
+ * them uncompressed only need to {@link #compress} or {@link #decompress} them.
+ * <p>
+ * The data array is shared, not copied, so it must not be modified.
+ */
+public final class RawObject {
+
+    private static final ObjectSerializingFactory SERIALIZER = DataStreamSerializationFactory.INSTANCE;
+
+    private final ObjectId id;
+
+    private final byte[] data;
+
+    /**
+     * @param id the object id
+     * @param data the LZF compressed serialized form of the object
+     */
+    public RawObject(final ObjectId id, final byte[] data) {
+        Preconditions.checkNotNull(id);
+        Preconditions.checkNotNull(data);
+        this.id = id;
+        this.data = data;
+    }
+
+    /**
+     * Creates the raw form of an object out of its uncompressed serialized form
+     */
+    public static RawObject compress(final ObjectId id, final byte[] serialized) {
+        return new RawObject(id, LZFEncoder.encode(serialized));
+    }
+
+    /**
+     * Serializes and compresses {@code object}
+     */
+    public static RawObject of(final RevObject object) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        LZFOutputStream compressed = new LZFOutputStream(out);
+        try {
+            SERIALIZER.createObjectWriter(object.getType()).write(object, compressed);
+            compressed.close();
+        } catch (IOException e) {
+            throw Throwables.propagate(e);
+        }
+        return new RawObject(object.getId(), out.toByteArray());
+    }
+
+    public ObjectId getId() {
+        return id;
+    }
+
+    /**
+     * @return the LZF compressed serialized form of the object, not to be modified
+     */
+    public byte[] getData() {
+        return data;
+    }
+
+    /**
+     * @return the uncompressed serialized form of the object
+     */
+    public byte[] decompress() {
+        try {
+            return LZFDecoder.decode(data);
+        } catch (IOException e) {
+            throw Throwables.propagate(e);
+        }
+    }
+
+    /**
+     * Parses the object out of its raw form
+     */
+    public RevObject parse() {
+        try {
+            return SERIALIZER.createObjectReader().read(id,
+                    new LZFInputStream(new ByteArrayInputStream(data)));
+        } catch (IOException e) {
+            throw Throwables.propagate(e);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "RawObject[" + id + ", " + data.length + " bytes]";
+    }
+}
@@ -13,9 +13,45 @@ import com.google.common.collect.Lists;
 
 public class StagingDbCompositionHelper {
 
+    /**
+     * The bulk query to run against both databases
+     */
+    private static abstract class Query<T> {
+        abstract Iterator<T> run(ObjectDatabase db, Iterable<ObjectId> ids,
+                BulkOpListener listener);
+    }
+
+    private static final Query<RevObject> GET_ALL = new Query<RevObject>() {
+        @Override
+        Iterator<RevObject> run(ObjectDatabase db, Iterable<ObjectId> ids,
+                BulkOpListener listener) {
+            return db.getAll(ids, listener);
+        }
+    };
+
+    private static final Query<RawObject> GET_RAW_ALL = new Query<RawObject>() {
+        @Override
+        Iterator<RawObject> run(ObjectDatabase db, Iterable<ObjectId> ids,
+                BulkOpListener listener) {
+            return db.getRawAll(ids, listener);
+        }
+    };
+
     public static Iterator<RevObject> getAll(final ObjectDatabase objectDb,
             final ObjectDatabase stagingDb, final Iterable<ObjectId> ids,
             final BulkOpListener listener) {
+        return compose(GET_ALL, objectDb, stagingDb, ids, listener);
+    }
+
+    public static Iterator<RawObject> getRawAll(final ObjectDatabase objectDb,
+            final ObjectDatabase stagingDb, final Iterable<ObjectId> ids,
+            final BulkOpListener listener) {
+        return compose(GET_RAW_ALL, objectDb, stagingDb, ids, listener);
+    }
+
+    private static <T> Iterator<T> compose(final Query<T> query, final ObjectDatabase objectDb,
+            final ObjectDatabase stagingDb, final Iterable<ObjectId> ids,
+            final BulkOpListener listener) {
 
         final List<ObjectId> missingInStaging = Lists.newLinkedList();
 
@@ -28,14 +64,14 @@ public class StagingDbCompositionHelper {
             }
         };
 
-        final Iterator<RevObject> foundInStaging = stagingDb.getAll(ids, stagingListener);
+        final Iterator<T> foundInStaging = query.run(stagingDb, ids, stagingListener);
 
-        Iterator<RevObject> compositeIterator = new AbstractIterator<RevObject>() {
+        Iterator<T> compositeIterator = new AbstractIterator<T>() {
 
-            Iterator<RevObject> forwardedToObjectDb = Iterators.emptyIterator();
+            Iterator<T> forwardedToObjectDb = Iterators.emptyIterator();
 
             @Override
-            protected RevObject computeNext() {
+            protected T computeNext() {
                 if (forwardedToObjectDb.hasNext()) {
                     return forwardedToObjectDb.next();
                 }
@@ -43,7 +79,7 @@ public class StagingDbCompositionHelper {
                     List<ObjectId> missing = new ArrayList<ObjectId>(missingInStaging);
                     missingInStaging.clear();
 
-                    forwardedToObjectDb = objectDb.getAll(missing, listener);
+                    forwardedToObjectDb = query.run(objectDb, missing, listener);
                     return computeNext();
                 }
                 if (foundInStaging.hasNext()) {
@@ -53,7 +89,7 @@ public class StagingDbCompositionHelper {
                 } else if (!missingInStaging.isEmpty()) {
                     List<ObjectId> missing = new ArrayList<ObjectId>(missingInStaging);
                     missingInStaging.clear();
-                    forwardedToObjectDb = objectDb.getAll(missing, listener);
+                    forwardedToObjectDb = query.run(objectDb, missing, listener);
                     return computeNext();
                 }
                 return endOfData();
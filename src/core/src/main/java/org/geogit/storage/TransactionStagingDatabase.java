@@ -209,6 +209,16 @@ public class TransactionStagingDatabase implements StagingDatabase {
         return database.getAll(ids, listener);
     }
 
+    @Override
+    public Iterator<RawObject> getRawAll(Iterable<ObjectId> ids, BulkOpListener listener) {
+        return database.getRawAll(ids, listener);
+    }
+
+    @Override
+    public void putRawAll(Iterator<RawObject> objects, BulkOpListener listener) {
+        database.putRawAll(objects, listener);
+    }
+
     /**
      * Pass through to {@link StagingDatabase}, replacing the namespace with the transaction
      * namespace.
@@ -0,0 +1,416 @@
+/* Copyright (c) 2013 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+package org.geogit.storage.datastream;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import javax.annotation.Nullable;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.CoordinateFilter;
+import com.vividsolutions.jts.geom.CoordinateSequence;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryCollection;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.LineString;
+import com.vividsolutions.jts.geom.LinearRing;
+import com.vividsolutions.jts.geom.MultiLineString;
+import com.vividsolutions.jts.geom.MultiPoint;
+import com.vividsolutions.jts.geom.MultiPolygon;
+import com.vividsolutions.jts.geom.Point;
+import com.vividsolutions.jts.geom.Polygon;
+
+/**
+ * A compact binary encoding for geometries, in the spirit of TWKB: coordinates are stored as
+ * variable length deltas of integers scaled by a decimal precision.
+ * <p>
+ * The precision is chosen per geometry as the smallest number of decimal digits, up to
+ * {@link #MAX_PRECISION}, that represents all of its coordinates exactly, so encoding is lossless;
+ * geometries with coordinates that no such precision represents are not encoded and should be
+ * written as WKB. Like the default {@link com.vividsolutions.jts.io.WKBWriter}, only the x and y
+ * ordinates are kept.
+ * <p>
+ * The encoding starts with a header byte holding the format version in its high four bits and
+ * the precision in the low four. WKB starts with a byte order flag of {@code 0} or {@code 1}, so
+ * {@link #isEncoded(byte[])} tells both encodings apart and values written before this encoding
+ * existed can still be read. The header is followed by the geometry:
+ *
+ * <pre>
+ * geometry := type:byte body
+ * body := point | linestring | polygon | multi | collection
+ * point, linestring := count:varint (dx:zigzag dy:zigzag)*
+ * polygon := rings:varint linestring*
+ * multi := parts:varint body*
+ * collection := parts:varint geometry*
+ * </pre>
+ *
+ * Types use the WKB geometry type codes, and deltas are taken from the previous coordinate of the
+ * whole geometry, starting at {@code 0,0}.
+ */
+final class CompactGeometryEncoding {
+
+    /**
+     * Version of the encoding, stored in the high bits of the header byte
+     */
+    static final int VERSION = 1;
+
+    /**
+     * The largest number of decimal digits coordinates are encoded with
+     */
+    static final int MAX_PRECISION = 10;
+
+    /**
+     * Coordinates are scaled to integers no larger than this, so they fit in a double's mantissa
+     */
+    private static final double MAX_SCALED = 1L << 53;
+
+    private static final double[] SCALES = new double[MAX_PRECISION + 1];
+    static {
+        for (int i = 0; i <= MAX_PRECISION; i++) {
+            SCALES[i] = Math.pow(10, i);
+        }
+    }
+
+    private static final int POINT = 1;
+
+    private static final int LINESTRING = 2;
+
+    private static final int POLYGON = 3;
+
+    private static final int MULTIPOINT = 4;
+
+    private static final int MULTILINESTRING = 5;
+
+    private static final int MULTIPOLYGON = 6;
+
+    private static final int GEOMETRYCOLLECTION = 7;
+
+    private static final GeometryFactory GEOMETRY_FACTORY = new GeometryFactory();
+
+    private CompactGeometryEncoding() {
+        //
+    }
+
+    /**
+     * @return whether {@code bytes} hold a geometry in this encoding rather than WKB
+     */
+    static boolean isEncoded(final byte[] bytes) {
+        return bytes.length > 0 && (bytes[0] & 0xFF) >> 4 == VERSION;
+    }
+
+    /**
+     * @return the encoded geometry, or {@code null} if its coordinates can't be represented
+     *         exactly with at most {@link #MAX_PRECISION} decimal digits
+     */
+    @Nullable
+    static byte[] encode(final Geometry geometry) {
+        final int precision = precision(geometry);
+        if (precision < 0) {
+            return null;
+        }
+        Encoder encoder = new Encoder(SCALES[precision], 4 + 3 * geometry.getNumPoints());
+        encoder.writeByte(VERSION << 4 | precision);
+        encoder.write(geometry);
+        return encoder.toByteArray();
+    }
+
+    /**
+     * @param bytes a geometry for which {@link #isEncoded(byte[])} is {@code true}
+     */
+    static Geometry decode(final byte[] bytes) throws IOException {
+        final int header = bytes[0] & 0xFF;
+        final int precision = header & 0x0F;
+        if (header >> 4 != VERSION || precision > MAX_PRECISION) {
+            throw new IOException("Unknown geometry encoding header: " + header);
+        }
+        try {
+            return new Decoder(bytes, 1, SCALES[precision]).read();
+        } catch (ArrayIndexOutOfBoundsException e) {
+            throw new IOException("Truncated geometry");
+        }
+    }
+
+    /**
+     * @return the smallest number of decimal digits that represents all the coordinates of the
+     *         geometry exactly, or {@code -1} if there's none up to {@link #MAX_PRECISION}
+     */
+    static int precision(final Geometry geometry) {
+        PrecisionFilter filter = new PrecisionFilter();
+        geometry.apply(filter);
+        final int precision = filter.precision;
+        // coordinates checked before the precision was raised must still fit once scaled
+        if (precision > 0 && !(filter.maxAbs * SCALES[precision] < MAX_SCALED)) {
+            return -1;
+        }
+        return precision;
+    }
+
+    /**
+     * @return the smallest precision not lower than {@code from} that represents {@code value}
+     *         exactly, or {@code -1}
+     */
+    private static int precision(final double value, final int from) {
+        final long bits = Double.doubleToLongBits(value);
+        for (int p = from; p <= MAX_PRECISION; p++) {
+            final double scaled = value * SCALES[p];
+            if (!(Math.abs(scaled) < MAX_SCALED)) {
+                return -1;
+            }
+            if (Double.doubleToLongBits(Math.round(scaled) / SCALES[p]) == bits) {
+                return p;
+            }
+        }
+        return -1;
+    }
+
+    private static final class PrecisionFilter implements CoordinateFilter {
+
+        private int precision = 0;
+
+        private double maxAbs = 0;
+
+        @Override
+        public void filter(final Coordinate coord) {
+            maxAbs = Math.max(maxAbs, Math.max(Math.abs(coord.x), Math.abs(coord.y)));
+            if (precision >= 0) {
+                precision = precision(coord.x, precision);
+            }
+            if (precision >= 0) {
+                precision = precision(coord.y, precision);
+            }
+        }
+    }
+
+    /**
+     * Writes straight to a growing byte array, as going through a {@link java.io.DataOutput} for
+     * each byte of a varint costs more than the encoding itself
+     */
+    private static final class Encoder {
+
+        private final double scale;
+
+        private byte[] buffer;
+
+        private int size;
+
+        private long prevX;
+
+        private long prevY;
+
+        Encoder(final double scale, final int expectedSize) {
+            this.scale = scale;
+            this.buffer = new byte[expectedSize];
+        }
+
+        byte[] toByteArray() {
+            return Arrays.copyOf(buffer, size);
+        }
+
+        void write(final Geometry geometry) {
+            writeByte(typeOf(geometry));
+            writeBody(geometry);
+        }
+
+        void writeByte(final int b) {
+            if (size == buffer.length) {
+                buffer = Arrays.copyOf(buffer, 2 * buffer.length);
+            }
+            buffer[size++] = (byte) b;
+        }
+
+        private void writeBody(final Geometry geometry) {
+            if (geometry instanceof Point) {
+                writeCoordinates(((Point) geometry).getCoordinateSequence());
+            } else if (geometry instanceof LineString) {
+                writeCoordinates(((LineString) geometry).getCoordinateSequence());
+            } else if (geometry instanceof Polygon) {
+                Polygon polygon = (Polygon) geometry;
+                if (polygon.isEmpty()) {
+                    writeVarint(0);
+                    return;
+                }
+                final int holes = polygon.getNumInteriorRing();
+                writeVarint(holes + 1);
+                writeCoordinates(polygon.getExteriorRing().getCoordinateSequence());
+                for (int i = 0; i < holes; i++) {
+                    writeCoordinates(polygon.getInteriorRingN(i).getCoordinateSequence());
+                }
+            } else {
+                final boolean typedParts = typeOf(geometry) == GEOMETRYCOLLECTION;
+                final int parts = geometry.getNumGeometries();
+                writeVarint(parts);
+                for (int i = 0; i < parts; i++) {
+                    if (typedParts) {
+                        write(geometry.getGeometryN(i));
+                    } else {
+                        writeBody(geometry.getGeometryN(i));
+                    }
+                }
+            }
+        }
+
+        private void writeCoordinates(final CoordinateSequence coords) {
+            final int size = coords.size();
+            writeVarint(size);
+            for (int i = 0; i < size; i++) {
+                final long x = Math.round(coords.getX(i) * scale);
+                final long y = Math.round(coords.getY(i) * scale);
+                writeVarint(zigzag(x - prevX));
+                writeVarint(zigzag(y - prevY));
+                prevX = x;
+                prevY = y;
+            }
+        }
+
+        private void writeVarint(long value) {
+            while ((value & ~0x7FL) != 0) {
+                writeByte((int) (value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            writeByte((int) value);
+        }
+
+        private static long zigzag(final long value) {
+            return (value << 1) ^ (value >> 63);
+        }
+
+        private static int typeOf(final Geometry geometry) {
+            if (geometry instanceof Point) {
+                return POINT;
+            } else if (geometry instanceof LineString) {
+                return LINESTRING;
+            } else if (geometry instanceof Polygon) {
+                return POLYGON;
+            } else if (geometry instanceof MultiPoint) {
+                return MULTIPOINT;
+            } else if (geometry instanceof MultiLineString) {
+                return MULTILINESTRING;
+            } else if (geometry instanceof MultiPolygon) {
+                return MULTIPOLYGON;
+            } else if (geometry instanceof GeometryCollection) {
+                return GEOMETRYCOLLECTION;
+            }
+            throw new IllegalArgumentException("Unsupported geometry type: "
+                    + geometry.getGeometryType());
+        }
+    }
+
+    private static final class Decoder {
+
+        private final byte[] bytes;
+
+        private int position;
+
+        private final double scale;
+
+        private long prevX;
+
+        private long prevY;
+
+        Decoder(final byte[] bytes, final int offset, final double scale) {
+            this.bytes = bytes;
+            this.position = offset;
+            this.scale = scale;
+        }
+
+        Geometry read() throws IOException {
+            return readBody(bytes[position++] & 0xFF);
+        }
+
+        private Geometry readBody(final int type) throws IOException {
+            switch (type) {
+            case POINT:
+                return readPoint();
+            case LINESTRING:
+                return GEOMETRY_FACTORY.createLineString(readCoordinates());
+            case POLYGON:
+                return readPolygon();
+            case MULTIPOINT: {
+                Point[] points = new Point[readCount()];
+                for (int i = 0; i < points.length; i++) {
+                    points[i] = readPoint();
+                }
+                return GEOMETRY_FACTORY.createMultiPoint(points);
+            }
+            case MULTILINESTRING: {
+                LineString[] lines = new LineString[readCount()];
+                for (int i = 0; i < lines.length; i++) {
+                    lines[i] = GEOMETRY_FACTORY.createLineString(readCoordinates());
+                }
+                return GEOMETRY_FACTORY.createMultiLineString(lines);
+            }
+            case MULTIPOLYGON: {
+                Polygon[] polygons = new Polygon[readCount()];
+                for (int i = 0; i < polygons.length; i++) {
+                    polygons[i] = readPolygon();
+                }
+                return GEOMETRY_FACTORY.createMultiPolygon(polygons);
+            }
+            case GEOMETRYCOLLECTION: {
+                Geometry[] geometries = new Geometry[readCount()];
+                for (int i = 0; i < geometries.length; i++) {
+                    geometries[i] = read();
+                }
+                return GEOMETRY_FACTORY.createGeometryCollection(geometries);
+            }
+            default:
+                throw new IOException("Unknown geometry type: " + type);
+            }
+        }
+
+        private Point readPoint() throws IOException {
+            Coordinate[] coords = readCoordinates();
+            return GEOMETRY_FACTORY.createPoint(coords.length == 0 ? null : coords[0]);
+        }
+
+        private Polygon readPolygon() throws IOException {
+            final int rings = readCount();
+            if (rings == 0) {
+                return GEOMETRY_FACTORY.createPolygon(null, null);
+            }
+            LinearRing shell = GEOMETRY_FACTORY.createLinearRing(readCoordinates());
+            LinearRing[] holes = new LinearRing[rings - 1];
+            for (int i = 0; i < holes.length; i++) {
+                holes[i] = GEOMETRY_FACTORY.createLinearRing(readCoordinates());
+            }
+            return GEOMETRY_FACTORY.createPolygon(shell, holes);
+        }
+
+        private Coordinate[] readCoordinates() throws IOException {
+            Coordinate[] coords = new Coordinate[readCount()];
+            for (int i = 0; i < coords.length; i++) {
+                prevX += unzigzag(readVarint());
+                prevY += unzigzag(readVarint());
+                coords[i] = new Coordinate(prevX / scale, prevY / scale);
+            }
+            return coords;
+        }
+
+        private int readCount() throws IOException {
+            final long count = readVarint();
+            if (count < 0 || count > Integer.MAX_VALUE) {
+                throw new IOException("Invalid count: " + count);
+            }
+            return (int) count;
+        }
+
+        private long readVarint() throws IOException {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                final int b = bytes[position++];
+                value |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new IOException("Malformed varint");
+        }
+
+        private static long unzigzag(final long value) {
+            return (value >>> 1) ^ -(value & 1);
+        }
+    }
+}
@@ -35,6 +35,24 @@ public class DataStreamValueSerializer {
 
     }
 
+    /**
+     * WKB readers and writers hold state while parsing or encoding, so each thread gets its own
+     * instead of creating one per value
+     */
+    private static final ThreadLocal<WKBReader> WKB_READER = new ThreadLocal<WKBReader>() {
+        @Override
+        protected WKBReader initialValue() {
+            return new WKBReader();
+        }
+    };
+
+    private static final ThreadLocal<WKBWriter> WKB_WRITER = new ThreadLocal<WKBWriter>() {
+        @Override
+        protected WKBWriter initialValue() {
+            return new WKBWriter();
+        }
+    };
+
     static Map<FieldType, ValueSerializer> serializers = new HashMap<FieldType, ValueSerializer>();
     static {
         serializers.put(FieldType.NULL, new ValueSerializer() {
@@ -310,15 +328,22 @@ public class DataStreamValueSerializer {
                     data.writeUTF(s);
             }
         });
+        /*
+         * Geometries are written in the CompactGeometryEncoding when it represents them exactly,
+         * and as WKB otherwise. Both are length prefixed and told apart by their first byte, so
+         * values written as WKB by previous versions are still read.
+         */
         ValueSerializer geometry = new ValueSerializer() {
             @Override
             public Object read(DataInput in) throws IOException {
                 int len = in.readInt();
                 byte[] bytes = new byte[len]; // TODO: We should bound this to limit memory usage.
                 in.readFully(bytes);
-                WKBReader wkbReader = new WKBReader();
+                if (CompactGeometryEncoding.isEncoded(bytes)) {
+                    return CompactGeometryEncoding.decode(bytes);
+                }
                 try {
-                    return wkbReader.read(bytes);
+                    return WKB_READER.get().read(bytes);
                 } catch (ParseException e) {
                     throw new RuntimeException(e);
                 }
@@ -326,8 +351,10 @@ public class DataStreamValueSerializer {
 
             @Override
             public void write(Object field, DataOutput data) throws IOException {
-                WKBWriter wkbWriter = new WKBWriter();
-                byte[] bytes = wkbWriter.write((Geometry) field);
+                byte[] bytes = CompactGeometryEncoding.encode((Geometry) field);
+                if (bytes == null) {
+                    bytes = WKB_WRITER.get().write((Geometry) field);
+                }
                 byteArray.write(bytes, data);
             }
         };
@@ -477,4 +504,103 @@ public class DataStreamValueSerializer {
             throw new IllegalArgumentException("The specified type is not supported");
         }
     }
+
+    /**
+     * Copies the serialized form of a value of the specified type from {@code in} to {@code out}
+     * without decoding it
+     */
+    public static void copy(FieldType type, DataInput in, DataOutput out) throws IOException {
+        switch (type) {
+        case NULL:
+            break;
+        case BOOLEAN:
+        case BYTE:
+            copy(in, out, 1);
+            break;
+        case SHORT:
+            copy(in, out, 2);
+            break;
+        case INTEGER:
+        case FLOAT:
+            copy(in, out, 4);
+            break;
+        case LONG:
+        case DOUBLE:
+        case DATETIME:
+        case DATE:
+        case TIME:
+            copy(in, out, 8);
+            break;
+        case TIMESTAMP:
+            copy(in, out, 12);
+            break;
+        case UUID:
+            copy(in, out, 16);
+            break;
+        case STRING:
+            copyUTF(in, out);
+            break;
+        case BOOLEAN_ARRAY:
+            copy(in, out, (copyInt(in, out) + 7) / 8);
+            break;
+        case BYTE_ARRAY:
+        case BIG_INTEGER:
+        case POINT:
+        case LINESTRING:
+        case POLYGON:
+        case MULTIPOINT:
+        case MULTILINESTRING:
+        case MULTIPOLYGON:
+        case GEOMETRYCOLLECTION:
+        case GEOMETRY:
+            copy(in, out, copyInt(in, out));
+            break;
+        case SHORT_ARRAY:
+            copy(in, out, 2 * copyInt(in, out));
+            break;
+        case INTEGER_ARRAY:
+        case FLOAT_ARRAY:
+            copy(in, out, 4 * copyInt(in, out));
+            break;
+        case LONG_ARRAY:
+        case DOUBLE_ARRAY:
+            copy(in, out, 8 * copyInt(in, out));
+            break;
+        case STRING_ARRAY:
+            for (int i = copyInt(in, out); i > 0; i--) {
+                copyUTF(in, out);
+            }
+            break;
+        case BIG_DECIMAL:
+            copyInt(in, out);// scale
+            copy(in, out, copyInt(in, out));
+            break;
+        default:
+            throw new IllegalArgumentException("The specified type (" + type
+                    + ") is not supported");
+        }
+    }
+
+    private static int copyInt(DataInput in, DataOutput out) throws IOException {
+        final int value = in.readInt();
+        out.writeInt(value);
+        return value;
+    }
+
+    private static void copyUTF(DataInput in, DataOutput out) throws IOException {
+        final int length = in.readUnsignedShort();
+        out.writeShort(length);
+        copy(in, out, length);
+    }
+
+    private static void copy(DataInput in, DataOutput out, int length) throws IOException {
+        byte[] buff = new byte[Math.min(length, 8192)];
+        int remaining = length;
+        while (remaining > 0) {
+            final int chunk = Math.min(remaining, buff.length);
+            in.readFully(buff, 0, chunk);
+            out.write(buff, 0, chunk);
+            remaining -= chunk;
+        }
+    }
 }
@@ -4,15 +4,15 @@
  */
 package org.geogit.storage.datastream;
 
+import java.io.ByteArrayOutputStream;
 import java.io.DataInput;
 import java.io.DataOutput;
+import java.io.DataOutputStream;
 import java.io.IOException;
 import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
-import java.util.SortedMap;
-import java.util.TreeMap;
 
 import javax.annotation.Nullable;
 
@@ -27,7 +27,6 @@ import org.geogit.api.RevObject;
 import org.geogit.api.RevPerson;
 import org.geogit.api.RevTag;
 import org.geogit.api.RevTree;
-import org.geogit.api.RevTreeImpl;
 import org.geogit.api.plumbing.diff.DiffEntry;
 import org.geogit.storage.FieldType;
 import org.geotools.feature.NameImpl;
@@ -47,6 +46,8 @@ import org.opengis.referencing.crs.CoordinateReferenceSystem;
 import com.google.common.base.Optional;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableList.Builder;
+import com.google.common.io.ByteArrayDataOutput;
+import com.google.common.io.ByteStreams;
 import com.vividsolutions.jts.geom.Envelope;
 import com.vividsolutions.jts.geom.Geometry;
 
@@ -182,47 +183,51 @@ public class FormatCommon {
         data.writeInt(person.getTimeZoneOffset());
     }
 
+    /**
+     * Reads a tree as a {@link LazyRevTree}, copying its serialized form out of {@code in} without
+     * decoding its nodes.
+     */
     public static RevTree readTree(ObjectId id, DataInput in) throws IOException {
-        final long size = in.readLong();
-        final int treeCount = in.readInt();
-        final ImmutableList.Builder<Node> featuresBuilder = new ImmutableList.Builder<Node>();
-        final ImmutableList.Builder<Node> treesBuilder = new ImmutableList.Builder<Node>();
-        final SortedMap<Integer, Bucket> buckets = new TreeMap<Integer, Bucket>();
-
-        final int nFeatures = in.readInt();
-        for (int i = 0; i < nFeatures; i++) {
-            Node n = readNode(in);
-            if (n.getType() != RevObject.TYPE.FEATURE) {
-                throw new IllegalStateException("Non-feature node in tree's feature list.");
-            }
-            featuresBuilder.add(n);
-        }
-
-        final int nTrees = in.readInt();
-        for (int i = 0; i < nTrees; i++) {
-            Node n = readNode(in);
-            if (n.getType() != RevObject.TYPE.TREE) {
-                throw new IllegalStateException("Non-tree node in tree's subtree list.");
+        ByteArrayDataOutput out = ByteStreams.newDataOutput(1024);
+        byte[] buff = new byte[256];
+        out.writeLong(in.readLong());
+        out.writeInt(in.readInt());
+        // features and subtrees
+        for (int list = 0; list < 2; list++) {
+            final int nNodes = in.readInt();
+            out.writeInt(nNodes);
+            for (int i = 0; i < nNodes; i++) {
+                final int nameLength = in.readUnsignedShort();
+                out.writeShort(nameLength);
+                copy(in, out, buff, nameLength + 2 * ObjectId.NUM_BYTES + 1);
+                copyBBox(in, out, buff);
             }
-            treesBuilder.add(n);
         }
-
         final int nBuckets = in.readInt();
+        out.writeInt(nBuckets);
         for (int i = 0; i < nBuckets; i++) {
-            int key = in.readInt();
-            Bucket bucket = readBucket(in);
-            buckets.put(key, bucket);
+            copy(in, out, buff, 4 + ObjectId.NUM_BYTES);
+            copyBBox(in, out, buff);
         }
+        return new LazyRevTree(id, out.toByteArray());
+    }
 
-        ImmutableList<Node> trees = treesBuilder.build();
-        ImmutableList<Node> features = featuresBuilder.build();
-        if (trees.isEmpty() && features.isEmpty()) {
-            return RevTreeImpl.createNodeTree(id, size, treeCount, buckets);
-        } else if (buckets.isEmpty()) {
-            return RevTreeImpl.createLeafTree(id, size, features, trees);
-        } else {
-            throw new IllegalArgumentException(
-                    "Tree has mixed buckets and nodes; this is not supported.");
+    private static void copy(DataInput in, DataOutput out, byte[] buff, int length)
+            throws IOException {
+        int remaining = length;
+        while (remaining > 0) {
+            final int chunk = Math.min(remaining, buff.length);
+            in.readFully(buff, 0, chunk);
+            out.write(buff, 0, chunk);
+            remaining -= chunk;
+        }
+    }
+
+    private static void copyBBox(DataInput in, DataOutput out, byte[] buff) throws IOException {
+        final double minx = in.readDouble();
+        out.writeDouble(minx);
+        if (!Double.isNaN(minx)) {
+            copy(in, out, buff, 3 * 8);
         }
     }
 
@@ -283,18 +288,24 @@ public class FormatCommon {
         return new Envelope(minx, maxx, miny, maxy);
     }
 
+    /**
+     * Reads a feature as a {@link LazyRevFeature}, copying its values out of {@code in} without
+     * decoding them.
+     */
     public static RevFeature readFeature(ObjectId id, DataInput in) throws IOException {
         final int count = in.readInt();
-        final ImmutableList.Builder<Optional<Object>> builder = ImmutableList.builder();
+        final int[] offsets = new int[count];
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream(32 * count + 16);
+        final DataOutputStream out = new DataOutputStream(bytes);
 
         for (int i = 0; i < count; i++) {
+            offsets[i] = out.size();
             final byte fieldTag = in.readByte();
-            final FieldType fieldType = FieldType.valueOf(fieldTag);
-            Object value = DataStreamValueSerializer.read(fieldType, in);
-            builder.add(Optional.fromNullable(value));
+            out.writeByte(fieldTag);
+            DataStreamValueSerializer.copy(FieldType.valueOf(fieldTag), in, out);
         }
 
-        return new RevFeature(id, builder.build());
+        return new LazyRevFeature(id, bytes.toByteArray(), offsets);
     }
 
     public static RevFeatureType readFeatureType(ObjectId id, DataInput in) throws IOException {
@@ -0,0 +1,89 @@
+/* Copyright (c) 2013 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+package org.geogit.storage.datastream;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.geogit.api.ObjectId;
+import org.geogit.api.RevFeature;
+import org.geogit.storage.FieldType;
+
+import com.google.common.base.Optional;
+import com.google.common.base.Throwables;
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.ByteArrayDataInput;
+import com.google.common.io.ByteStreams;
+
+/**
+ * A {@link RevFeature} that keeps its values serialized and decodes each one the first time it's
+ * asked for.
+ * <p>
+ * The values are kept as written by {@link FeatureWriter}, a type tag followed by the value, with
+ * a table of the offset where each one starts. Reading only some attributes, for example the
+ * geometry to render it, parses only those, and decoded values are kept so each one is parsed
+ * once.
+ */
+public final class LazyRevFeature extends RevFeature {
+
+    private final byte[] data;
+
+    private final int[] offsets;
+
+    private final AtomicReferenceArray<Optional<Object>> decoded;
+
+    private volatile ImmutableList<Optional<Object>> values;
+
+    /**
+     * @param id the feature id
+     * @param data the serialized values; not copied, so it must not be modified afterwards
+     * @param offsets where each value starts in {@code data}
+     */
+    LazyRevFeature(final ObjectId id, final byte[] data, final int[] offsets) {
+        super(id);
+        this.data = data;
+        this.offsets = offsets;
+        this.decoded = new AtomicReferenceArray<Optional<Object>>(offsets.length);
+    }
+
+    @Override
+    public int size() {
+        return offsets.length;
+    }
+
+    @Override
+    public Optional<Object> get(final int index) {
+        Optional<Object> value = decoded.get(index);
+        if (value == null) {
+            value = decode(offsets[index]);
+            decoded.set(index, value);
+        }
+        return value;
+    }
+
+    @Override
+    public ImmutableList<Optional<Object>> getValues() {
+        ImmutableList<Optional<Object>> values = this.values;
+        if (values == null) {
+            ImmutableList.Builder<Optional<Object>> builder = ImmutableList.builder();
+            for (int i = 0; i < offsets.length; i++) {
+                builder.add(get(i));
+            }
+            values = builder.build();
+            this.values = values;
+        }
+        return values;
+    }
+
+    private Optional<Object> decode(final int offset) {
+        ByteArrayDataInput in = ByteStreams.newDataInput(data, offset);
+        try {
+            FieldType type = FieldType.valueOf(in.readByte());
+            return Optional.fromNullable(DataStreamValueSerializer.read(type, in));
+        } catch (IOException e) {
+            throw Throwables.propagate(e);
+        }
+    }
+}
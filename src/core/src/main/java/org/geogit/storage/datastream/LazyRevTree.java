@@ -0,0 +1,384 @@
+/* Copyright (c) 2013 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+package org.geogit.storage.datastream;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import javax.annotation.Nullable;
+
+import org.geogit.api.AbstractRevObject;
+import org.geogit.api.Bucket;
+import org.geogit.api.Node;
+import org.geogit.api.ObjectId;
+import org.geogit.api.RevTree;
+import org.geogit.api.RevTreeBuilder;
+import org.geogit.storage.NodePathStorageOrder;
+import org.geogit.storage.ObjectDatabase;
+
+import com.google.common.base.Optional;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSortedMap;
+import com.google.common.collect.UnmodifiableIterator;
+import com.google.common.io.ByteArrayDataInput;
+import com.google.common.io.ByteStreams;
+
+/**
+ * A {@link RevTree} that reads its nodes straight out of its serialized form, as written by
+ * {@link TreeWriter}, instead of decoding them all up front.
+ * <p>
+ * Creating the tree makes a single pass over the bytes to record where each node starts and the
+ * {@link NodePathStorageOrder#hash(CharSequence) storage order hash} of its name, without creating
+ * any object. Nodes are then decoded only when asked for: {@link #child(String)} binary searches
+ * the name hashes and decodes just the matching node, {@link #children()} decodes one node at a
+ * time, and {@link #features()}, {@link #trees()} and {@link #buckets()} decode their whole
+ * collection the first time they're called.
+ */
+public final class LazyRevTree extends AbstractRevObject implements RevTree {
+
+    /**
+     * Bytes of a node after its name: object id, metadata id and type
+     */
+    private static final int NODE_IDS_BYTES = 2 * ObjectId.NUM_BYTES + 1;
+
+    private static final int[] NO_OFFSETS = new int[0];
+
+    private static final long[] NO_HASHES = new long[0];
+
+    private final byte[] data;
+
+    private final long size;
+
+    private final int treeCount;
+
+    private final int[] featureOffsets;
+
+    private final long[] featureHashes;
+
+    private final boolean featuresSorted;
+
+    private final int[] treeOffsets;
+
+    private final long[] treeHashes;
+
+    private final boolean treesSorted;
+
+    private final int bucketsOffset;
+
+    private final int bucketCount;
+
+    private volatile Optional<ImmutableList<Node>> features;
+
+    private volatile Optional<ImmutableList<Node>> trees;
+
+    private volatile Optional<ImmutableSortedMap<Integer, Bucket>> buckets;
+
+    /**
+     * @param id the tree id
+     * @param data the serialized tree, following its {@code tree} header; not copied, so it must
+     *        not be modified afterwards
+     */
+    public LazyRevTree(final ObjectId id, final byte[] data) {
+        super(id);
+        this.data = data;
+        final ByteBuffer buffer = ByteBuffer.wrap(data);
+        final CharBuffer nameBuffer = CharBuffer.allocate(64);
+
+        this.size = buffer.getLong();
+        this.treeCount = buffer.getInt();
+
+        final int nFeatures = buffer.getInt();
+        this.featureOffsets = nFeatures == 0 ? NO_OFFSETS : new int[nFeatures];
+        this.featureHashes = nFeatures == 0 ? NO_HASHES : new long[nFeatures];
+        this.featuresSorted = index(buffer, featureOffsets, featureHashes, nameBuffer);
+
+        final int nTrees = buffer.getInt();
+        this.treeOffsets = nTrees == 0 ? NO_OFFSETS : new int[nTrees];
+        this.treeHashes = nTrees == 0 ? NO_HASHES : new long[nTrees];
+        this.treesSorted = index(buffer, treeOffsets, treeHashes, nameBuffer);
+
+        this.bucketCount = buffer.getInt();
+        this.bucketsOffset = buffer.position();
+        if (bucketCount > 0 && (nFeatures > 0 || nTrees > 0)) {
+            throw new IllegalArgumentException(
+                    "Tree has mixed buckets and nodes; this is not supported.");
+        }
+    }
+
+    /**
+     * Records the offset and name hash of each of the nodes starting at the buffer's position, and
+     * leaves the buffer positioned after the last of them.
+     *
+     * @return whether the nodes are in storage order
+     */
+    private static boolean index(final ByteBuffer buffer, final int[] offsets,
+            final long[] hashes, CharBuffer nameBuffer) {
+        boolean sorted = true;
+        for (int i = 0; i < offsets.length; i++) {
+            final int offset = buffer.position();
+            final int nameLength = buffer.getShort() & 0xFFFF;
+            if (nameBuffer.capacity() < nameLength) {
+                nameBuffer = CharBuffer.allocate(nameLength);
+            }
+            decodeName(buffer.array(), offset + 2, nameLength, nameBuffer);
+            offsets[i] = offset;
+            hashes[i] = NodePathStorageOrder.hash(nameBuffer);
+            if (i > 0 && NodePathStorageOrder.compare(hashes[i - 1], hashes[i]) > 0) {
+                sorted = false;
+            }
+            buffer.position(offset + 2 + nameLength + NODE_IDS_BYTES);
+            skipBounds(buffer);
+        }
+        return sorted;
+    }
+
+    /**
+     * Decodes a modified UTF-8 string, as written by {@link java.io.DataOutput#writeUTF(String)},
+     * into {@code target}, leaving it flipped for reading
+     */
+    private static void decodeName(final byte[] bytes, final int offset, final int length,
+            final CharBuffer target) {
+        target.clear();
+        final int end = offset + length;
+        int i = offset;
+        while (i < end) {
+            final int b = bytes[i] & 0xFF;
+            if (b < 0x80) {
+                target.put((char) b);
+                i++;
+            } else if ((b & 0xE0) == 0xC0) {
+                target.put((char) (((b & 0x1F) << 6) | (bytes[i + 1] & 0x3F)));
+                i += 2;
+            } else {
+                target.put((char) (((b & 0x0F) << 12) | ((bytes[i + 1] & 0x3F) << 6)
+                        | (bytes[i + 2] & 0x3F)));
+                i += 3;
+            }
+        }
+        target.flip();
+    }
+
+    private static void skipBounds(final ByteBuffer buffer) {
+        final double minx = buffer.getDouble();
+        if (!Double.isNaN(minx)) {
+            buffer.position(buffer.position() + 3 * 8);
+        }
+    }
+
+    @Override
+    public TYPE getType() {
+        return TYPE.TREE;
+    }
+
+    @Override
+    public long size() {
+        return size;
+    }
+
+    @Override
+    public int numTrees() {
+        return isLeaf() ? treeOffsets.length : treeCount;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return featureOffsets.length == 0 && treeOffsets.length == 0 && bucketCount == 0;
+    }
+
+    private boolean isLeaf() {
+        return featureOffsets.length > 0 || treeOffsets.length > 0;
+    }
+
+    @Override
+    public Optional<ImmutableList<Node>> features() {
+        Optional<ImmutableList<Node>> features = this.features;
+        if (features == null) {
+            features = decodeNodes(featureOffsets, TYPE.FEATURE);
+            this.features = features;
+        }
+        return features;
+    }
+
+    @Override
+    public Optional<ImmutableList<Node>> trees() {
+        Optional<ImmutableList<Node>> trees = this.trees;
+        if (trees == null) {
+            trees = decodeNodes(treeOffsets, TYPE.TREE);
+            this.trees = trees;
+        }
+        return trees;
+    }
+
+    private Optional<ImmutableList<Node>> decodeNodes(final int[] offsets, final TYPE type) {
+        if (offsets.length == 0) {
+            return Optional.absent();
+        }
+        ImmutableList.Builder<Node> builder = ImmutableList.builder();
+        for (int offset : offsets) {
+            builder.add(node(offset, type));
+        }
+        return Optional.of(builder.build());
+    }
+
+    @Override
+    public Optional<ImmutableSortedMap<Integer, Bucket>> buckets() {
+        Optional<ImmutableSortedMap<Integer, Bucket>> buckets = this.buckets;
+        if (buckets == null) {
+            if (bucketCount == 0) {
+                buckets = Optional.absent();
+            } else {
+                ImmutableSortedMap.Builder<Integer, Bucket> builder = ImmutableSortedMap
+                        .naturalOrder();
+                ByteArrayDataInput in = ByteStreams.newDataInput(data, bucketsOffset);
+                try {
+                    for (int i = 0; i < bucketCount; i++) {
+                        int key = in.readInt();
+                        builder.put(Integer.valueOf(key), FormatCommon.readBucket(in));
+                    }
+                } catch (IOException e) {
+                    throw Throwables.propagate(e);
+                }
+                buckets = Optional.of(builder.build());
+            }
+            this.buckets = buckets;
+        }
+        return buckets;
+    }
+
+    /**
+     * Finds a direct child by binary searching the name hashes, decoding only the nodes whose name
+     * hash matches.
+     */
+    @Override
+    public Optional<Node> child(final String name) {
+        Preconditions.checkState(bucketCount == 0, "tree has buckets");
+        final long hash = NodePathStorageOrder.hash(name);
+        Node node = find(name, hash, treeOffsets, treeHashes, treesSorted, TYPE.TREE);
+        if (node == null) {
+            node = find(name, hash, featureOffsets, featureHashes, featuresSorted, TYPE.FEATURE);
+        }
+        return Optional.fromNullable(node);
+    }
+
+    @Nullable
+    private Node find(final String name, final long hash, final int[] offsets,
+            final long[] hashes, final boolean sorted, final TYPE type) {
+        if (!sorted) {
+            for (int i = 0; i < hashes.length; i++) {
+                if (hashes[i] == hash) {
+                    Node node = node(offsets[i], type);
+                    if (name.equals(node.getName())) {
+                        return node;
+                    }
+                }
+            }
+            return null;
+        }
+        int low = 0;
+        int high = hashes.length - 1;
+        while (low <= high) {
+            final int mid = (low + high) >>> 1;
+            final int c = NodePathStorageOrder.compare(hashes[mid], hash);
+            if (c < 0) {
+                low = mid + 1;
+            } else if (c > 0) {
+                high = mid - 1;
+            } else {
+                // names with colliding hashes are next to each other, in no particular order
+                int first = mid;
+                while (first > 0 && hashes[first - 1] == hash) {
+                    first--;
+                }
+                for (int i = first; i < hashes.length && hashes[i] == hash; i++) {
+                    Node node = node(offsets[i], type);
+                    if (name.equals(node.getName())) {
+                        return node;
+                    }
+                }
+                return null;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Iterates over the trees and features merged in storage order, decoding each node as it's
+     * reached
+     */
+    @Override
+    public Iterator<Node> children() {
+        Preconditions.checkState(bucketCount == 0, "tree has buckets");
+        return new UnmodifiableIterator<Node>() {
+
+            private int nextTree;
+
+            private int nextFeature;
+
+            @Override
+            public boolean hasNext() {
+                return nextTree < treeOffsets.length || nextFeature < featureOffsets.length;
+            }
+
+            @Override
+            public Node next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                final boolean tree;
+                if (nextTree == treeOffsets.length) {
+                    tree = false;
+                } else if (nextFeature == featureOffsets.length) {
+                    tree = true;
+                } else {
+                    tree = NodePathStorageOrder.compare(treeHashes[nextTree],
+                            featureHashes[nextFeature]) <= 0;
+                }
+                return tree ? node(treeOffsets[nextTree++], TYPE.TREE) : node(
+                        featureOffsets[nextFeature++], TYPE.FEATURE);
+            }
+        };
+    }
+
+    private Node node(final int offset, final TYPE expectedType) {
+        final Node node;
+        try {
+            node = FormatCommon.readNode(ByteStreams.newDataInput(data, offset));
+        } catch (IOException e) {
+            throw Throwables.propagate(e);
+        }
+        if (node.getType() != expectedType) {
+            throw new IllegalStateException("Expected a " + expectedType + " node, got "
+                    + node.getType() + " in tree " + getId());
+        }
+        return node;
+    }
+
+    @Override
+    public RevTreeBuilder builder(ObjectDatabase target) {
+        return new RevTreeBuilder(target, this);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        builder.append("Tree[");
+        builder.append(getId().toString());
+        builder.append("; size=");
+        builder.append(size);
+        builder.append("; subtrees=");
+        builder.append(treeOffsets.length);
+        builder.append(", buckets=");
+        builder.append(bucketCount);
+        builder.append(", features=");
+        builder.append(featureOffsets.length);
+        builder.append(']');
+        return builder.toString();
+    }
+}
@@ -8,16 +8,30 @@ import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
 import static com.google.common.base.Preconditions.checkState;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
+import java.io.FilenameFilter;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URISyntaxException;
 import java.net.URL;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import javax.annotation.Nullable;
 
 import org.geogit.api.ObjectId;
 import org.geogit.api.Platform;
@@ -27,22 +41,86 @@ import org.geogit.repository.RepositoryConnectionException;
 import org.geogit.storage.AbstractObjectDatabase;
 import org.geogit.storage.BulkOpListener;
 import org.geogit.storage.ConfigDatabase;
+import org.geogit.storage.EnumerableObjectDatabase;
 import org.geogit.storage.ObjectDatabase;
+import org.geogit.storage.ObjectReader;
+import org.geogit.storage.RawObject;
 import org.geogit.storage.datastream.DataStreamSerializationFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+import com.google.common.base.Function;
 import com.google.common.base.Optional;
 import com.google.common.base.Throwables;
+import com.google.common.collect.AbstractIterator;
 import com.google.common.collect.ImmutableList;
-import com.google.common.collect.ImmutableList.Builder;
+import com.google.common.collect.Iterators;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.common.io.Files;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.inject.Inject;
+import com.ning.compress.lzf.LZFInputStream;
 
 /**
  * Provides an implementation of a GeoGit object database that utilizes the file system for the
  * storage of objects.
+ * <p>
+ * Objects are stored either as "loose" objects, one file per object under
+ * {@code <objects>/xx/yy/<id>}, or inside {@link PackFile packs} under {@code <objects>/pack}.
+ * Single object inserts create loose objects, while {@link #putAll(Iterator, BulkOpListener) bulk
+ * inserts} write straight to new packs. Once the number of loose objects written exceeds the
+ * {@code file.repack.threshold} config setting, a background task {@link #repack() repacks} them.
+ * Repacking also consolidates small packs and packs with many deleted objects, so the number of
+ * packs each lookup goes through stays bounded.
  * 
  * @see AbstractObjectDatabase
  */
-public class FileObjectDatabase extends AbstractObjectDatabase implements ObjectDatabase {
+public class FileObjectDatabase extends AbstractObjectDatabase implements ObjectDatabase,
+        EnumerableObjectDatabase {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(FileObjectDatabase.class);
+
+    private static final String PACK_DIR = "pack";
+
+    private static final String REPACK_THRESHOLD_CONFIG_KEY = "file.repack.threshold";
+
+    private static final String MAX_PACK_SIZE_CONFIG_KEY = "file.pack.maxsize";
+
+    /**
+     * Default number of loose objects written before a background repack is triggered
+     */
+    private static final int DEFAULT_REPACK_THRESHOLD = 10 * 1000;
+
+    /**
+     * Default maximum size in bytes of a single pack data file
+     */
+    private static final int DEFAULT_MAX_PACK_SIZE = 256 * 1024 * 1024;
+
+    /**
+     * Upper limit for the {@code file.pack.maxsize} config setting. Packs are memory mapped as a
+     * whole, so their data file must stay under 2GB, and a pack only exceeds the configured size
+     * when it holds a single object bigger than it.
+     */
+    private static final int MAX_PACK_SIZE_LIMIT = 1024 * 1024 * 1024;
+
+    /**
+     * Number of packs smaller than half the maximum pack size above which a repack is triggered to
+     * consolidate them
+     */
+    private static final int SMALL_PACKS_THRESHOLD = 8;
+
+    /**
+     * Suffix of the temporary files loose objects are written to before being renamed into place
+     */
+    private static final String LOOSE_TMP_SUFFIX = ".tmp";
+
+    /**
+     * Bulk inserts of less objects than this are stored as loose objects instead of creating a new
+     * pack
+     */
+    private static final int MIN_PACK_OBJECTS = 128;
 
     private final Platform platform;
 
@@ -54,6 +132,32 @@ public class FileObjectDatabase extends AbstractObjectDatabase implements Object
 
     private String dataRootPath;
 
+    private File packDir;
+
+    private final List<PackFile> packs = new CopyOnWriteArrayList<PackFile>();
+
+    private ExecutorService repackService;
+
+    private final AtomicInteger looseObjectsWritten = new AtomicInteger();
+
+    private final AtomicBoolean repackScheduled = new AtomicBoolean();
+
+    private int repackThreshold;
+
+    private int maxPackSize;
+
+    /**
+     * Guards the modifications to the set of packs and loose objects done by {@link #repack()} and
+     * deletes, so that objects deleted while being repacked are not resurrected
+     */
+    private final Object packsLock = new Object();
+
+    /**
+     * Shared by loose object writes and held exclusively while {@link #repack()} deletes repacked
+     * loose objects and their emptied directories, so a directory is never removed under a write
+     */
+    private final ReadWriteLock looseLock = new ReentrantReadWriteLock();
+
     /**
      * Constructs a new {@code FileObjectDatabase} using the given platform.
      * 
@@ -98,6 +202,12 @@ public class FileObjectDatabase extends AbstractObjectDatabase implements Object
         if (isOpen()) {
             return;
         }
+        repackThreshold = getConfig(REPACK_THRESHOLD_CONFIG_KEY, DEFAULT_REPACK_THRESHOLD);
+        maxPackSize = getConfig(MAX_PACK_SIZE_CONFIG_KEY, DEFAULT_MAX_PACK_SIZE);
+        checkArgument(maxPackSize > 0 && maxPackSize <= MAX_PACK_SIZE_LIMIT,
+                "%s must be between 1 and %s: %s", MAX_PACK_SIZE_CONFIG_KEY, MAX_PACK_SIZE_LIMIT,
+                maxPackSize);
+
         final Optional<URL> repoUrl = new ResolveGeogitDir(platform).call();
         checkState(repoUrl.isPresent(), "Can't find geogit repository home");
 
@@ -120,6 +230,34 @@ public class FileObjectDatabase extends AbstractObjectDatabase implements Object
                     + dataRoot.getAbsolutePath());
         }
         dataRootPath = dataRoot.getAbsolutePath();
+
+        packDir = new File(dataRoot, PACK_DIR);
+        if (!packDir.exists() && !packDir.mkdir()) {
+            throw new IllegalStateException("Can't create pack directory: "
+                    + packDir.getAbsolutePath());
+        }
+        loadPacks();
+        repackService = Executors.newSingleThreadExecutor(new ThreadFactoryBuilder()
+                .setNameFormat("FileObjectDatabase-repack-%d").setDaemon(true).build());
+    }
+
+    private void loadPacks() {
+        String[] indexFiles = packDir.list(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                return name.endsWith(PackFile.INDEX_EXTENSION);
+            }
+        });
+        for (String indexFile : indexFiles) {
+            String name = indexFile.substring(0, indexFile.length()
+                    - PackFile.INDEX_EXTENSION.length());
+            try {
+                packs.add(PackFile.open(packDir, name));
+            } catch (IOException e) {
+                LOGGER.warn("Ignoring unreadable pack " + name, e);
+            }
+        }
+        LOGGER.debug("Loaded {} packs from {}", packs.size(), packDir);
     }
 
     /**
@@ -127,6 +265,22 @@ public class FileObjectDatabase extends AbstractObjectDatabase implements Object
      */
     @Override
     public void close() {
+        if (repackService != null) {
+            repackService.shutdown();
+            try {
+                while (!repackService.isTerminated()) {
+                    repackService.awaitTermination(100, TimeUnit.MILLISECONDS);
+                }
+            } catch (InterruptedException e) {
+                LOGGER.warn("Error waiting for repack to finish", e);
+            }
+            repackService = null;
+        }
+        for (PackFile pack : packs) {
+            pack.close();
+        }
+        packs.clear();
+        packDir = null;
         dataRoot = null;
         dataRootPath = null;
     }
@@ -139,16 +293,38 @@ public class FileObjectDatabase extends AbstractObjectDatabase implements Object
      */
     @Override
     public boolean exists(final ObjectId id) {
+        if (findPack(id) != null) {
+            return true;
+        }
         File f = filePath(id);
         return f.exists();
     }
 
+    @Nullable
+    private PackFile findPack(final ObjectId id) {
+        for (PackFile pack : packs) {
+            if (pack.contains(id)) {
+                return pack;
+            }
+        }
+        return null;
+    }
+
     @Override
     protected InputStream getRawInternal(ObjectId id, boolean failIfNotFound) {
+        byte[] packed = getPacked(id);
+        if (packed != null) {
+            return new ByteArrayInputStream(packed);
+        }
         File f = filePath(id);
         try {
             return new FileInputStream(f);
         } catch (FileNotFoundException e) {
+            // may have been repacked in the meantime
+            packed = getPacked(id);
+            if (packed != null) {
+                return new ByteArrayInputStream(packed);
+            }
             if (failIfNotFound) {
                 throw Throwables.propagate(e);
             }
@@ -156,38 +332,67 @@ public class FileObjectDatabase extends AbstractObjectDatabase implements Object
         }
     }
 
+    @Nullable
+    private byte[] getPacked(final ObjectId id) {
+        for (PackFile pack : packs) {
+            byte[] raw = pack.getRaw(id);
+            if (raw != null) {
+                return raw;
+            }
+        }
+        return null;
+    }
+
     /**
      * @see org.geogit.storage.AbstractObjectDatabase#putInternal(org.geogit.api.ObjectId, byte[])
      */
     @Override
     protected boolean putInternal(final ObjectId id, final byte[] rawData) {
+        if (findPack(id) != null) {
+            return false;
+        }
+        final boolean inserted = putLoose(id, rawData);
+        if (inserted && looseObjectsWritten.incrementAndGet() >= repackThreshold) {
+            scheduleRepack();
+        }
+        return inserted;
+    }
+
+    /**
+     * Writes the object to a temporary file next to its final location and renames it into place,
+     * so a loose object is either missing or complete when {@link #repack()} reads it.
+     */
+    private boolean putLoose(final ObjectId id, final byte[] rawData) {
         final File f = filePath(id);
         if (f.exists()) {
             return false;
         }
 
-        FileOutputStream fileOutputStream;
+        looseLock.readLock().lock();
         try {
-            fileOutputStream = new FileOutputStream(f);
-        } catch (FileNotFoundException dirDoesNotExist) {
             final File parent = f.getParentFile();
-            if (!parent.exists() && !parent.mkdirs()) {
+            if (!parent.exists() && !parent.mkdirs() && !parent.exists()) {
                 throw new RuntimeException("Can't create " + parent.getAbsolutePath());
             }
+            final File tmp = File.createTempFile(f.getName(), LOOSE_TMP_SUFFIX, parent);
             try {
-                fileOutputStream = new FileOutputStream(f);
-            } catch (FileNotFoundException e) {
-                throw Throwables.propagate(e);
+                Files.write(rawData, tmp);
+                if (tmp.renameTo(f)) {
+                    return true;
+                }
+                if (f.exists()) {
+                    // stored concurrently
+                    return false;
+                }
+                throw new IOException("Unable to rename " + tmp + " to " + f);
+            } finally {
+                tmp.delete();
             }
-        }
-        try {
-            fileOutputStream.write(rawData);
-            fileOutputStream.flush();
-            fileOutputStream.close();
         } catch (IOException e) {
             throw Throwables.propagate(e);
+        } finally {
+            looseLock.readLock().unlock();
         }
-        return true;
     }
 
     /**
@@ -198,9 +403,7 @@ public class FileObjectDatabase extends AbstractObjectDatabase implements Object
      */
     @Override
     public boolean delete(ObjectId objectId) {
-        File filePath = filePath(objectId);
-        boolean delete = filePath.delete();
-        return delete;
+        return deleteAll(Iterators.singletonIterator(objectId)) > 0;
     }
 
     private File filePath(final ObjectId id) {
@@ -234,16 +437,18 @@ public class FileObjectDatabase extends AbstractObjectDatabase implements Object
     public List<ObjectId> lookUp(final String partialId) {
         File parent = filePath(partialId).getParentFile();
         String[] list = parent.list();
-        if (null == list) {
-            return ImmutableList.of();
-        }
-        Builder<ObjectId> builder = ImmutableList.builder();
-        for (String oid : list) {
-            if (oid.startsWith(partialId)) {
-                builder.add(ObjectId.valueOf(oid));
+        Set<ObjectId> matches = Sets.newHashSet();
+        if (null != list) {
+            for (String oid : list) {
+                if (oid.startsWith(partialId)) {
+                    matches.add(ObjectId.valueOf(oid));
+                }
             }
         }
-        return builder.build();
+        for (PackFile pack : packs) {
+            pack.lookUp(partialId, matches);
+        }
+        return ImmutableList.copyOf(matches);
     }
 
     @Override
@@ -253,13 +458,435 @@ public class FileObjectDatabase extends AbstractObjectDatabase implements Object
     }
 
     @Override
-    public Iterator<RevObject> getAll(Iterable<ObjectId> ids, BulkOpListener listener) {
-        throw new UnsupportedOperationException("This method is not yet implemented");
+    public Iterator<RevObject> getAll(final Iterable<ObjectId> ids, final BulkOpListener listener) {
+
+        return new AbstractIterator<RevObject>() {
+            final Iterator<ObjectId> iterator = ids.iterator();
+
+            final ObjectReader<RevObject> reader = serializationFactory.createObjectReader();
+
+            @Override
+            protected RevObject computeNext() {
+                RevObject found = null;
+                while (iterator.hasNext() && found == null) {
+                    ObjectId id = iterator.next();
+                    byte[] raw = getRaw(id);
+                    if (raw != null) {
+                        try {
+                            found = reader.read(id, new LZFInputStream(new ByteArrayInputStream(
+                                    raw)));
+                        } catch (IOException e) {
+                            throw Throwables.propagate(e);
+                        }
+                        listener.found(found.getId(), raw.length);
+                    } else {
+                        listener.notFound(id);
+                    }
+                }
+                return found == null ? endOfData() : found;
+            }
+        };
+    }
+
+    @Nullable
+    private byte[] getRaw(final ObjectId id) {
+        byte[] raw = getPacked(id);
+        if (raw == null) {
+            File f = filePath(id);
+            if (f.exists()) {
+                try {
+                    raw = Files.toByteArray(f);
+                } catch (FileNotFoundException repacked) {
+                    raw = getPacked(id);
+                } catch (IOException e) {
+                    throw Throwables.propagate(e);
+                }
+            }
+        }
+        return raw;
     }
 
+    @Override
+    public Iterator<RawObject> getRawAll(final Iterable<ObjectId> ids,
+            final BulkOpListener listener) {
+
+        return new AbstractIterator<RawObject>() {
+            final Iterator<ObjectId> iterator = ids.iterator();
+
+            @Override
+            protected RawObject computeNext() {
+                while (iterator.hasNext()) {
+                    ObjectId id = iterator.next();
+                    byte[] raw = getRaw(id);
+                    if (raw != null) {
+                        listener.found(id, raw.length);
+                        return new RawObject(id, raw);
+                    }
+                    listener.notFound(id);
+                }
+                return endOfData();
+            }
+        };
+    }
+
+    /**
+     * Writes the objects straight to new packs, rolling over to a new pack before the
+     * {@code file.pack.maxsize} config setting is exceeded. Objects are written as loose objects
+     * until there are enough of them to be worth a pack.
+     */
+    @Override
+    public void putAll(final Iterator<? extends RevObject> objects, final BulkOpListener listener) {
+        final ByteArrayOutputStream rawOut = new ByteArrayOutputStream();
+        store(objects, new Function<RevObject, ObjectId>() {
+            @Override
+            public ObjectId apply(RevObject object) {
+                return object.getId();
+            }
+        }, new Function<RevObject, byte[]>() {
+            @Override
+            public byte[] apply(RevObject object) {
+                rawOut.reset();
+                writeObject(object, rawOut);
+                return rawOut.toByteArray();
+            }
+        }, listener);
+    }
+
+    /**
+     * Same as {@link #putAll(Iterator, BulkOpListener)}, but the objects are already in the form
+     * they're stored in
+     */
+    @Override
+    public void putRawAll(final Iterator<RawObject> objects, final BulkOpListener listener) {
+        store(objects, new Function<RawObject, ObjectId>() {
+            @Override
+            public ObjectId apply(RawObject object) {
+                return object.getId();
+            }
+        }, new Function<RawObject, byte[]>() {
+            @Override
+            public byte[] apply(RawObject object) {
+                return object.getData();
+            }
+        }, listener);
+    }
+
+    /**
+     * Stores the objects not already in the database; {@code encoder} is only called for those
+     */
+    private <T> void store(final Iterator<? extends T> objects,
+            final Function<? super T, ObjectId> ids, final Function<? super T, byte[]> encoder,
+            final BulkOpListener listener) {
+        int looseCount = 0;
+        final PackSequenceWriter writer = new PackSequenceWriter();
+        try {
+            while (objects.hasNext()) {
+                final T object = objects.next();
+                final ObjectId id = ids.apply(object);
+                if (exists(id)) {
+                    listener.found(id, null);
+                    continue;
+                }
+                final byte[] rawData = encoder.apply(object);
+
+                boolean added;
+                if (looseCount < MIN_PACK_OBJECTS) {
+                    added = putLoose(id, rawData);
+                    looseCount++;
+                } else {
+                    added = writer.add(id, rawData);
+                }
+                if (added) {
+                    listener.inserted(id, rawData.length);
+                } else {
+                    listener.found(id, null);
+                }
+            }
+            writer.finish();
+        } catch (IOException e) {
+            throw Throwables.propagate(e);
+        } finally {
+            writer.abort();
+        }
+        if ((looseCount > 0 && looseObjectsWritten.addAndGet(looseCount) >= repackThreshold)
+                || smallPacks().size() > SMALL_PACKS_THRESHOLD) {
+            scheduleRepack();
+        }
+    }
+
+    /**
+     * Deletes loose objects directly, and marks packed objects as deleted in their packs. Packs
+     * left with no objects are removed right away, and packs with at least as many deleted as live
+     * objects are rewritten by the next {@link #repack()}.
+     */
     @Override
     public long deleteAll(Iterator<ObjectId> ids, final BulkOpListener listener) {
-        throw new UnsupportedOperationException("This method is not yet implemented");
+        long count = 0;
+        synchronized (packsLock) {
+            Map<PackFile, Set<ObjectId>> packedDeletes = Maps.newHashMap();
+            while (ids.hasNext()) {
+                final ObjectId id = ids.next();
+                boolean deleted = filePath(id).delete();
+                for (PackFile pack : packs) {
+                    if (pack.contains(id)) {
+                        Set<ObjectId> packIds = packedDeletes.get(pack);
+                        if (packIds == null) {
+                            packIds = Sets.newHashSet();
+                            packedDeletes.put(pack, packIds);
+                        }
+                        // a repeated id was deleted already
+                        deleted |= packIds.add(id);
+                    }
+                }
+                if (deleted) {
+                    count++;
+                    listener.deleted(id);
+                } else {
+                    listener.notFound(id);
+                }
+            }
+            boolean repack = false;
+            for (Map.Entry<PackFile, Set<ObjectId>> e : packedDeletes.entrySet()) {
+                final PackFile pack = e.getKey();
+                if (pack.size() == e.getValue().size()) {
+                    packs.remove(pack);
+                    pack.delete();
+                } else {
+                    try {
+                        pack.markDeleted(e.getValue());
+                    } catch (IOException ex) {
+                        throw Throwables.propagate(ex);
+                    }
+                    repack |= needsRewrite(pack);
+                }
+            }
+            if (repack) {
+                scheduleRepack();
+            }
+        }
+        return count;
+    }
+
+    private static boolean needsRewrite(final PackFile pack) {
+        return pack.deletedCount() >= pack.size();
+    }
+
+    private List<PackFile> smallPacks() {
+        List<PackFile> small = Lists.newArrayList();
+        for (PackFile pack : packs) {
+            if (pack.dataSize() < maxPackSize / 2) {
+                small.add(pack);
+            }
+        }
+        return small;
+    }
+
+    private void scheduleRepack() {
+        final ExecutorService service = this.repackService;
+        if (service != null && repackScheduled.compareAndSet(false, true)) {
+            service.submit(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        repack(SMALL_PACKS_THRESHOLD);
+                    } catch (RuntimeException e) {
+                        LOGGER.warn("Error repacking loose objects", e);
+                    } finally {
+                        repackScheduled.set(false);
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * Moves all loose objects to new packs and deletes them from their loose location.
+     * <p>
+     * Packs with at least as many deleted as live objects are rewritten without them, and packs
+     * smaller than half the maximum pack size are merged together with the loose objects, so
+     * lookups don't slow down as packs accumulate.
+     * <p>
+     * This is called automatically in the background, where small packs are only merged once
+     * there are more than a few of them, but can be called explicitly too.
+     * 
+     * @return the number of objects written to new packs
+     */
+    public int repack() {
+        return repack(1);
+    }
+
+    private int repack(final int smallPacksThreshold) {
+        synchronized (packsLock) {
+            final File root = this.dataRoot;
+            if (root == null) {
+                return 0;
+            }
+            looseObjectsWritten.set(0);
+
+            final Set<PackFile> consolidated = Sets.newLinkedHashSet();
+            final List<PackFile> smallPacks = smallPacks();
+            if (smallPacks.size() > smallPacksThreshold) {
+                consolidated.addAll(smallPacks);
+            }
+            for (PackFile pack : packs) {
+                if (needsRewrite(pack)) {
+                    consolidated.add(pack);
+                }
+            }
+
+            final List<File> looseFiles = looseObjects(root);
+            int count = 0;
+            final PackSequenceWriter writer = new PackSequenceWriter();
+            try {
+                for (PackFile pack : consolidated) {
+                    for (Iterator<ObjectId> it = pack.ids(); it.hasNext();) {
+                        ObjectId id = it.next();
+                        if (writer.add(id, pack.getRaw(id))) {
+                            count++;
+                        }
+                    }
+                }
+                for (File looseFile : looseFiles) {
+                    final ObjectId id = ObjectId.valueOf(looseFile.getName());
+                    // loose objects are renamed into place once complete, so this never reads a
+                    // partially written one
+                    if (findPack(id) == null && writer.add(id, Files.toByteArray(looseFile))) {
+                        count++;
+                    }
+                }
+                writer.finish();
+            } catch (IOException e) {
+                throw Throwables.propagate(e);
+            } finally {
+                writer.abort();
+            }
+            // the new packs are in place, the old copies can go
+            for (PackFile pack : consolidated) {
+                packs.remove(pack);
+                pack.delete();
+            }
+            deleteLoose(looseFiles);
+            LOGGER.debug("Repacked {} objects from {} loose objects and {} packs at {}", count,
+                    looseFiles.size(), consolidated.size(), root);
+            return count;
+        }
+    }
+
+    private void deleteLoose(List<File> files) {
+        looseLock.writeLock().lock();
+        try {
+            for (File f : files) {
+                f.delete();
+                File parent = f.getParentFile();
+                // remove the xx/yy directories once empty
+                if (parent.delete()) {
+                    parent.getParentFile().delete();
+                }
+            }
+        } finally {
+            looseLock.writeLock().unlock();
+        }
+        files.clear();
+    }
+
+    private List<File> looseObjects(final File root) {
+        List<File> files = Lists.newArrayList();
+        File[] dirs1 = root.listFiles();
+        if (dirs1 == null) {
+            return files;
+        }
+        for (File dir1 : dirs1) {
+            if (!dir1.isDirectory() || dir1.getName().length() != 2) {
+                continue;
+            }
+            File[] dirs2 = dir1.listFiles();
+            for (File dir2 : dirs2 == null ? new File[0] : dirs2) {
+                File[] objects = dir2.listFiles();
+                for (File f : objects == null ? new File[0] : objects) {
+                    if (f.getName().length() == 2 * ObjectId.NUM_BYTES) {
+                        files.add(f);
+                    }
+                }
+            }
+        }
+        return files;
+    }
+
+    /**
+     * Lists the ids of packed objects followed by the ids of loose objects. An object that is both
+     * loose and packed may be listed twice.
+     */
+    @Override
+    public Iterator<ObjectId> listIds() {
+        List<Iterator<ObjectId>> iterators = Lists.newArrayList();
+        for (PackFile pack : packs) {
+            iterators.add(pack.ids());
+        }
+        iterators.add(Iterators.transform(looseObjects(dataRoot).iterator(),
+                new Function<File, ObjectId>() {
+                    @Override
+                    public ObjectId apply(File looseFile) {
+                        return ObjectId.valueOf(looseFile.getName());
+                    }
+                }));
+        return Iterators.concat(iterators.iterator());
+    }
+
+    /**
+     * @return the number of packs currently in use
+     */
+    public int getPackCount() {
+        return packs.size();
+    }
+
+    private int getConfig(final String key, final int defaultValue) {
+        if (configDB == null) {
+            return defaultValue;
+        }
+        Optional<Integer> configured = configDB.get(key, int.class);
+        return configured.or(Integer.valueOf(defaultValue)).intValue();
+    }
+
+    /**
+     * Writes objects to as many new packs as needed to keep each one under the maximum pack size,
+     * adding each pack to the database as soon as it's complete.
+     */
+    private class PackSequenceWriter {
+
+        private PackWriter writer;
+
+        /**
+         * @return {@code true} if the object was added, {@code false} if it was already in the
+         *         current pack
+         */
+        public boolean add(final ObjectId id, final byte[] rawData) throws IOException {
+            if (writer != null && writer.count() > 0
+                    && writer.size() + PackFile.RECORD_HEADER_SIZE + rawData.length > maxPackSize) {
+                finish();
+            }
+            if (writer == null) {
+                writer = new PackWriter(packDir);
+            }
+            return writer.add(id, rawData);
+        }
+
+        public void finish() throws IOException {
+            if (writer != null) {
+                PackFile pack = writer.finish();
+                writer = null;
+                packs.add(pack);
+            }
+        }
+
+        /**
+         * Discards the pack being written, if any
+         */
+        public void abort() {
+            if (writer != null) {
+                writer.abort();
+                writer = null;
+            }
+        }
     }
 
     @Override
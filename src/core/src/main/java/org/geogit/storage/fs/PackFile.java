@@ -0,0 +1,389 @@
+/* Copyright (c) 2013 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+package org.geogit.storage.fs;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.annotation.Nullable;
+
+import org.geogit.api.ObjectId;
+
+import com.google.common.collect.AbstractIterator;
+import com.google.common.io.Closeables;
+import com.google.common.io.Files;
+
+/**
+ * A read only view of an immutable pack of objects, made of a data file holding the concatenated
+ * serialized objects and an index file that maps each {@link ObjectId} to its offset on the data
+ * file.
+ * <p>
+ * Both files are memory mapped. The index has the following layout:
+ *
+ * <pre>
+ * <code>
+ * int       magic ("GGPI")
+ * int       version
+ * int       object count
+ * int[256]  fanout table: number of objects whose first id byte is less than or equal to the index
+ * byte[20]* sorted object ids
+ * long*     data file offset of each object, in id order
+ * int*      size of each object, in id order
+ * </code>
+ * </pre>
+ *
+ * And the data file is a header ({@code "GGPK"}, version) followed by a sequence of
+ * {@code byte[20] id, int size, byte[size] data} records, so the index can be rebuilt out of the
+ * data file if needed. The data file must be smaller than 2GB, so that it can be mapped as a whole
+ * and offsets into it fit in an {@code int}.
+ * <p>
+ * Deleting objects from a pack doesn't rewrite it. Instead, the ids of the deleted objects are
+ * appended to an optional {@code <name>.del} file and hidden from then on, and the pack is
+ * rewritten without them by the next repack that consolidates it.
+ *
+ * @see PackWriter
+ */
+final class PackFile {
+
+    static final int INDEX_MAGIC = 0x47475049;// GGPI
+
+    static final int DATA_MAGIC = 0x4747504B;// GGPK
+
+    static final int VERSION = 1;
+
+    static final String DATA_EXTENSION = ".pack";
+
+    static final String INDEX_EXTENSION = ".idx";
+
+    static final String DELETED_EXTENSION = ".del";
+
+    /**
+     * magic, version, and object count
+     */
+    static final int INDEX_HEADER_SIZE = 3 * 4;
+
+    static final int FANOUT_SIZE = 256 * 4;
+
+    /**
+     * magic and version
+     */
+    static final int DATA_HEADER_SIZE = 2 * 4;
+
+    /**
+     * size of the id and size prefix of each record in the data file
+     */
+    static final int RECORD_HEADER_SIZE = ObjectId.NUM_BYTES + 4;
+
+    private final String name;
+
+    private final File dataFile;
+
+    private final File indexFile;
+
+    private final File deletedFile;
+
+    private final int count;
+
+    private final long dataSize;
+
+    private final int idsOffset;
+
+    private final int offsetsOffset;
+
+    private final int sizesOffset;
+
+    private MappedByteBuffer index;
+
+    private MappedByteBuffer data;
+
+    /**
+     * Ids of the objects deleted from this pack, read concurrently with {@link #markDeleted}
+     */
+    private final Set<ObjectId> deleted = Collections
+            .newSetFromMap(new ConcurrentHashMap<ObjectId, Boolean>());
+
+    private PackFile(final String name, final File dataFile, final File indexFile,
+            final File deletedFile, final MappedByteBuffer index, final MappedByteBuffer data) {
+        this.name = name;
+        this.dataFile = dataFile;
+        this.indexFile = indexFile;
+        this.deletedFile = deletedFile;
+        this.index = index;
+        this.data = data;
+        this.count = index.getInt(8);
+        this.dataSize = data.capacity();
+        this.idsOffset = INDEX_HEADER_SIZE + FANOUT_SIZE;
+        this.offsetsOffset = idsOffset + count * ObjectId.NUM_BYTES;
+        this.sizesOffset = offsetsOffset + count * 8;
+    }
+
+    /**
+     * Opens the pack named {@code name} at {@code packDir}, that is, the
+     * {@code <name>.idx, <name>.pack} pair of files.
+     */
+    static PackFile open(final File packDir, final String name) throws IOException {
+        final File indexFile = new File(packDir, name + INDEX_EXTENSION);
+        final File dataFile = new File(packDir, name + DATA_EXTENSION);
+        final File deletedFile = new File(packDir, name + DELETED_EXTENSION);
+        if (dataFile.length() > Integer.MAX_VALUE) {
+            throw new IOException("Pack data files of 2GB or more are not supported: "
+                    + dataFile.getAbsolutePath());
+        }
+
+        MappedByteBuffer index = map(indexFile);
+        if (index.getInt(0) != INDEX_MAGIC || index.getInt(4) != VERSION) {
+            throw new IOException("Not a pack index file or unsupported version: "
+                    + indexFile.getAbsolutePath());
+        }
+        MappedByteBuffer data = map(dataFile);
+        if (data.getInt(0) != DATA_MAGIC || data.getInt(4) != VERSION) {
+            throw new IOException("Not a pack data file or unsupported version: "
+                    + dataFile.getAbsolutePath());
+        }
+        PackFile pack = new PackFile(name, dataFile, indexFile, deletedFile, index, data);
+        if (deletedFile.exists()) {
+            pack.loadDeleted();
+        }
+        return pack;
+    }
+
+    /**
+     * Reads the ids of the deleted objects, ignoring a trailing partial id left by an interrupted
+     * {@link #markDeleted}
+     */
+    private void loadDeleted() throws IOException {
+        final byte[] raw = Files.toByteArray(deletedFile);
+        final int ids = raw.length / ObjectId.NUM_BYTES;
+        for (int i = 0; i < ids; i++) {
+            byte[] id = new byte[ObjectId.NUM_BYTES];
+            System.arraycopy(raw, i * ObjectId.NUM_BYTES, id, 0, ObjectId.NUM_BYTES);
+            deleted.add(ObjectId.createNoClone(id));
+        }
+    }
+
+    private static MappedByteBuffer map(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            return channel.map(MapMode.READ_ONLY, 0, channel.size());
+        } finally {
+            Closeables.closeQuietly(raf);
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return the number of objects in this pack, not counting the deleted ones
+     */
+    public int size() {
+        return count - deleted.size();
+    }
+
+    /**
+     * @return the number of objects {@link #markDeleted marked as deleted} in this pack
+     */
+    public int deletedCount() {
+        return deleted.size();
+    }
+
+    /**
+     * @return the size in bytes of the pack's data file
+     */
+    public long dataSize() {
+        return dataSize;
+    }
+
+    public boolean contains(final ObjectId id) {
+        return find(id) > -1;
+    }
+
+    /**
+     * Hides the given objects, that must be in this pack, and records them as deleted so they stay
+     * hidden once the pack is reopened.
+     */
+    public void markDeleted(final Collection<ObjectId> ids) throws IOException {
+        FileOutputStream out = new FileOutputStream(deletedFile, true);
+        boolean threw = true;
+        try {
+            byte[] raw = new byte[ObjectId.NUM_BYTES];
+            for (ObjectId id : ids) {
+                id.getRawValue(raw);
+                out.write(raw);
+            }
+            threw = false;
+        } finally {
+            Closeables.close(out, threw);
+        }
+        deleted.addAll(ids);
+    }
+
+    /**
+     * @return the raw (compressed) data of the object, or {@code null} if it's not in this pack
+     */
+    @Nullable
+    public byte[] getRaw(final ObjectId id) {
+        final int position = find(id);
+        if (position < 0) {
+            return null;
+        }
+        // open() guarantees the data file, and hence any offset into it, fits in an int
+        final int offset = (int) index().getLong(offsetsOffset + 8 * position);
+        final int size = index().getInt(sizesOffset + 4 * position);
+
+        ByteBuffer buff = data().duplicate();
+        buff.position(offset);
+        byte[] raw = new byte[size];
+        buff.get(raw);
+        return raw;
+    }
+
+    /**
+     * Adds to {@code target} the ids of the objects in this pack whose string representation starts
+     * with {@code partialId}
+     */
+    public void lookUp(final String partialId, final Collection<ObjectId> target) {
+        final byte[] raw = ObjectId.toRaw(partialId.substring(0, 2));
+        final int firstByte = raw[0] & 0xFF;
+        final ByteBuffer index = index();
+        final int from = firstByte == 0 ? 0 : index.getInt(INDEX_HEADER_SIZE + 4 * (firstByte - 1));
+        final int to = index.getInt(INDEX_HEADER_SIZE + 4 * firstByte);
+        for (int i = from; i < to; i++) {
+            ObjectId id = idAt(i);
+            if (id.toString().startsWith(partialId) && !deleted.contains(id)) {
+                target.add(id);
+            }
+        }
+    }
+
+    /**
+     * @return all the ids of the objects in this pack that are not deleted, in
+     *         {@link ObjectId#NATURAL_ORDER natural order}
+     */
+    public Iterator<ObjectId> ids() {
+        return new AbstractIterator<ObjectId>() {
+            private int next = 0;
+
+            @Override
+            protected ObjectId computeNext() {
+                while (next < count) {
+                    ObjectId id = idAt(next++);
+                    if (!deleted.contains(id)) {
+                        return id;
+                    }
+                }
+                return endOfData();
+            }
+        };
+    }
+
+    private ObjectId idAt(final int position) {
+        ByteBuffer buff = index().duplicate();
+        buff.position(idsOffset + position * ObjectId.NUM_BYTES);
+        byte[] raw = new byte[ObjectId.NUM_BYTES];
+        buff.get(raw);
+        return ObjectId.createNoClone(raw);
+    }
+
+    /**
+     * Binary search of {@code id} constrained to the range of ids sharing its first byte, as
+     * given by the fanout table.
+     *
+     * @return the position of the id in the index, or {@code -1} if not found or deleted
+     */
+    private int find(final ObjectId id) {
+        checkNotNull(id);
+        if (!deleted.isEmpty() && deleted.contains(id)) {
+            return -1;
+        }
+        final ByteBuffer index = index();
+        final int firstByte = id.byteN(0);
+        int low = firstByte == 0 ? 0 : index.getInt(INDEX_HEADER_SIZE + 4 * (firstByte - 1));
+        int high = index.getInt(INDEX_HEADER_SIZE + 4 * firstByte) - 1;
+
+        while (low <= high) {
+            final int mid = (low + high) >>> 1;
+            final int cmp = compare(index, idsOffset + mid * ObjectId.NUM_BYTES, id);
+            if (cmp < 0) {
+                low = mid + 1;
+            } else if (cmp > 0) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    private static int compare(final ByteBuffer index, final int offset, final ObjectId id) {
+        for (int i = 0; i < ObjectId.NUM_BYTES; i++) {
+            int b1 = index.get(offset + i) & 0xFF;
+            int b2 = id.byteN(i);
+            if (b1 != b2) {
+                return b1 - b2;
+            }
+        }
+        return 0;
+    }
+
+    private MappedByteBuffer index() {
+        MappedByteBuffer index = this.index;
+        if (index == null) {
+            throw new IllegalStateException("Pack " + name + " is closed");
+        }
+        return index;
+    }
+
+    private MappedByteBuffer data() {
+        MappedByteBuffer data = this.data;
+        if (data == null) {
+            throw new IllegalStateException("Pack " + name + " is closed");
+        }
+        return data;
+    }
+
+    /**
+     * Releases the references to the mapped buffers, the OS resources are released once they're
+     * garbage collected.
+     */
+    public void close() {
+        index = null;
+        data = null;
+    }
+
+    /**
+     * Deletes the pack files. The index is deleted first so that a partially deleted pack is never
+     * picked up again.
+     * <p>
+     * The mapped buffers are not released, so concurrent readers holding a reference to this pack
+     * can still finish reading from it.
+     */
+    public void delete() {
+        indexFile.delete();
+        dataFile.delete();
+        deletedFile.delete();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s[%s, objects: %d, deleted: %d]", getClass().getSimpleName(), name,
+                count, deleted.size());
+    }
+}
@@ -0,0 +1,178 @@
+/* Copyright (c) 2013 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+package org.geogit.storage.fs;
+
+import static com.google.common.base.Preconditions.checkState;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.TreeMap;
+import java.util.UUID;
+
+import org.geogit.api.ObjectId;
+
+import com.google.common.collect.Maps;
+import com.google.common.io.Closeables;
+
+/**
+ * Appends objects to a new {@link PackFile pack}.
+ * <p>
+ * The data file is written sequentially as objects are {@link #add added}, while the index is kept
+ * in memory and written sorted by object id at {@link #finish()}. Both files are written with a
+ * temporary name and renamed once complete, the index last, so an interrupted write never leaves a
+ * readable but incomplete pack behind.
+ */
+final class PackWriter {
+
+    private static final String TMP_EXTENSION = ".tmp";
+
+    private final File packDir;
+
+    private final String name;
+
+    private final File tmpDataFile;
+
+    private DataOutputStream out;
+
+    /**
+     * The offset and size of each object in the data file
+     */
+    private TreeMap<ObjectId, long[]> entries;
+
+    private long position;
+
+    public PackWriter(final File packDir) throws IOException {
+        this.packDir = packDir;
+        this.name = "pack-" + UUID.randomUUID().toString().replace("-", "");
+        this.tmpDataFile = new File(packDir, name + PackFile.DATA_EXTENSION + TMP_EXTENSION);
+        this.entries = Maps.newTreeMap(ObjectId.NATURAL_ORDER);
+        this.out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(
+                tmpDataFile), 64 * 1024));
+        out.writeInt(PackFile.DATA_MAGIC);
+        out.writeInt(PackFile.VERSION);
+        this.position = PackFile.DATA_HEADER_SIZE;
+    }
+
+    /**
+     * Appends the raw (compressed) data of an object to the pack, unless an object with the same id
+     * has already been added to it.
+     *
+     * @return {@code true} if the object was added, {@code false} if it was already in this pack
+     */
+    public boolean add(final ObjectId id, final byte[] rawData) throws IOException {
+        checkState(out != null, "pack writer is already finished");
+        if (entries.containsKey(id)) {
+            return false;
+        }
+        out.write(id.getRawValue());
+        out.writeInt(rawData.length);
+        out.write(rawData);
+        position += PackFile.RECORD_HEADER_SIZE;
+        entries.put(id, new long[] { position, rawData.length });
+        position += rawData.length;
+        return true;
+    }
+
+    /**
+     * @return the number of objects added so far
+     */
+    public int count() {
+        return entries.size();
+    }
+
+    /**
+     * @return the current size in bytes of the data file
+     */
+    public long size() {
+        return position;
+    }
+
+    /**
+     * Writes down the pack index and makes the pack available.
+     *
+     * @return the pack, ready to be read
+     */
+    public PackFile finish() throws IOException {
+        checkState(out != null, "pack writer is already finished");
+        out.close();
+        out = null;
+
+        final File dataFile = new File(packDir, name + PackFile.DATA_EXTENSION);
+        final File tmpIndexFile = new File(packDir, name + PackFile.INDEX_EXTENSION
+                + TMP_EXTENSION);
+        final File indexFile = new File(packDir, name + PackFile.INDEX_EXTENSION);
+        try {
+            writeIndex(tmpIndexFile);
+        } catch (IOException e) {
+            tmpIndexFile.delete();
+            abort();
+            throw e;
+        }
+        entries = null;
+
+        if (!tmpDataFile.renameTo(dataFile)) {
+            abort();
+            throw new IOException("Unable to rename " + tmpDataFile + " to " + dataFile);
+        }
+        if (!tmpIndexFile.renameTo(indexFile)) {
+            tmpIndexFile.delete();
+            dataFile.delete();
+            throw new IOException("Unable to rename " + tmpIndexFile + " to " + indexFile);
+        }
+        return PackFile.open(packDir, name);
+    }
+
+    private void writeIndex(final File file) throws IOException {
+        final int count = entries.size();
+        final int[] fanout = new int[256];
+        for (ObjectId id : entries.keySet()) {
+            fanout[id.byteN(0)]++;
+        }
+        for (int i = 1; i < fanout.length; i++) {
+            fanout[i] += fanout[i - 1];
+        }
+
+        DataOutputStream index = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(file), 64 * 1024));
+        boolean threw = true;
+        try {
+            index.writeInt(PackFile.INDEX_MAGIC);
+            index.writeInt(PackFile.VERSION);
+            index.writeInt(count);
+            for (int i = 0; i < fanout.length; i++) {
+                index.writeInt(fanout[i]);
+            }
+            byte[] raw = new byte[ObjectId.NUM_BYTES];
+            for (ObjectId id : entries.keySet()) {
+                id.getRawValue(raw);
+                index.write(raw);
+            }
+            for (long[] entry : entries.values()) {
+                index.writeLong(entry[0]);
+            }
+            for (long[] entry : entries.values()) {
+                index.writeInt((int) entry[1]);
+            }
+            threw = false;
+        } finally {
+            Closeables.close(index, threw);
+        }
+    }
+
+    /**
+     * Discards the pack being written
+     */
+    public void abort() {
+        if (out != null) {
+            Closeables.closeQuietly(out);
+            out = null;
+        }
+        entries = null;
+        tmpDataFile.delete();
+    }
+}
@@ -4,15 +4,14 @@
  */
 package org.geogit.storage.memory;
 
-import java.util.HashSet;
 import java.util.List;
-import java.util.Set;
 
 import org.geogit.api.ObjectId;
+import org.geogit.api.ObjectIdSet;
 import org.geogit.storage.Deduplicator;
 
 public class HeapDeduplicator implements Deduplicator {
-    private Set<ObjectId> seen = new HashSet<ObjectId>();
+    private ObjectIdSet seen = new ObjectIdSet();
     
     @Override
     public boolean visit(ObjectId id) {
@@ -17,7 +17,9 @@ import org.geogit.api.ObjectId;
 import org.geogit.api.RevObject;
 import org.geogit.storage.AbstractObjectDatabase;
 import org.geogit.storage.BulkOpListener;
+import org.geogit.storage.EnumerableObjectDatabase;
 import org.geogit.storage.ObjectDatabase;
+import org.geogit.storage.RawObject;
 import org.geogit.storage.datastream.DataStreamSerializationFactory;
 
 import com.google.common.base.Preconditions;
@@ -33,7 +35,8 @@ import com.ning.compress.lzf.LZFInputStream;
  * 
  * @see AbstractObjectDatabase
  */
-public class HeapObjectDatabse extends AbstractObjectDatabase implements ObjectDatabase {
+public class HeapObjectDatabse extends AbstractObjectDatabase implements ObjectDatabase,
+        EnumerableObjectDatabase {
 
     private ConcurrentMap<ObjectId, byte[]> objects;
 
@@ -186,6 +189,37 @@ public class HeapObjectDatabse extends AbstractObjectDatabase implements ObjectD
         };
     }
 
+    /**
+     * Hands over the stored byte arrays as they are, no copies are made
+     */
+    @Override
+    public Iterator<RawObject> getRawAll(final Iterable<ObjectId> ids,
+            final BulkOpListener listener) {
+
+        return new AbstractIterator<RawObject>() {
+            final Iterator<ObjectId> iterator = ids.iterator();
+
+            @Override
+            protected RawObject computeNext() {
+                while (iterator.hasNext()) {
+                    ObjectId id = iterator.next();
+                    byte[] raw = objects.get(id);
+                    if (raw != null) {
+                        listener.found(id, raw.length);
+                        return new RawObject(id, raw);
+                    }
+                    listener.notFound(id);
+                }
+                return endOfData();
+            }
+        };
+    }
+
+    @Override
+    public Iterator<ObjectId> listIds() {
+        return objects.keySet().iterator();
+    }
+
     @Override
     public void configure() {
         // No-op
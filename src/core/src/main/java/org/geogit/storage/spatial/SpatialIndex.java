@@ -0,0 +1,200 @@
+/* Copyright (c) 2013 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+package org.geogit.storage.spatial;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.geogit.api.Node;
+import org.geogit.api.NodeRef;
+import org.geogit.api.ObjectId;
+import org.geogit.api.RevObject.TYPE;
+import org.geogit.api.plumbing.diff.DiffEntry;
+import org.geogit.storage.NodeStorageOrder;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.index.strtree.STRtree;
+
+/**
+ * An immutable, STR packed R-tree over the bounds of the features directly under a feature type
+ * tree.
+ * <p>
+ * Feature type trees are organized by the hash of the feature names, so their bucket bounds are
+ * of little use to prune bounding box queries over large trees; this index answers them by
+ * location instead. Features with no bounds are not indexed, since they can't match a bounding box
+ * query anyway.
+ * <p>
+ * An index is tied to a single version of a tree. The index for a new version is derived from the
+ * one of an older version by {@link #update applying} the differences between both trees, and an
+ * index is first built by updating the {@link #EMPTY empty} index with the differences from the
+ * {@link ObjectId#NULL empty tree}.
+ */
+public final class SpatialIndex {
+
+    /**
+     * The index of the empty tree
+     */
+    public static final SpatialIndex EMPTY = new SpatialIndex(ObjectId.NULL,
+            Collections.<Node> emptyList());
+
+    private static final int MAGIC = 0x47534958; // GSIX
+
+    private static final int VERSION = 1;
+
+    private static final int NODE_CAPACITY = 10;
+
+    private static final NodeStorageOrder STORAGE_ORDER = new NodeStorageOrder();
+
+    private final ObjectId treeId;
+
+    private final ImmutableList<Node> nodes;
+
+    private final STRtree tree;
+
+    private final Envelope bounds;
+
+    private SpatialIndex(ObjectId treeId, Collection<Node> nodes) {
+        this.treeId = treeId;
+        this.nodes = ImmutableList.copyOf(nodes);
+        this.tree = new STRtree(NODE_CAPACITY);
+        this.bounds = new Envelope();
+        for (Node node : this.nodes) {
+            Envelope env = new Envelope();
+            node.expand(env);
+            tree.insert(env, node);
+            bounds.expandToInclude(env);
+        }
+        // build eagerly, queries must not race to build it
+        tree.build();
+    }
+
+    /**
+     * @return the id of the tree this is the index of
+     */
+    public ObjectId getTreeId() {
+        return treeId;
+    }
+
+    /**
+     * @return the number of features indexed
+     */
+    public int size() {
+        return nodes.size();
+    }
+
+    /**
+     * @return the bounds of all the features indexed
+     */
+    public Envelope getBounds() {
+        return new Envelope(bounds);
+    }
+
+    /**
+     * @return the feature nodes whose bounds intersect {@code env}, in the same order they're
+     *         stored in the tree
+     */
+    public List<Node> query(final Envelope env) {
+        @SuppressWarnings("unchecked")
+        List<Node> matches = tree.query(env);
+        Collections.sort(matches, STORAGE_ORDER);
+        return matches;
+    }
+
+    /**
+     * Creates the index of {@code newTreeId} out of this one, given the differences between this
+     * index' tree and the new tree
+     *
+     * @param changes the output of {@link org.geogit.api.plumbing.DiffTree DiffTree} between
+     *        {@link #getTreeId()} and {@code newTreeId}
+     */
+    public SpatialIndex update(final ObjectId newTreeId, final Iterator<DiffEntry> changes) {
+        Map<String, Node> byName = Maps.newHashMap();
+        for (Node node : nodes) {
+            byName.put(node.getName(), node);
+        }
+        while (changes.hasNext()) {
+            DiffEntry change = changes.next();
+            NodeRef oldObject = change.getOldObject();
+            NodeRef newObject = change.getNewObject();
+            if (isDirectFeature(oldObject)) {
+                byName.remove(oldObject.name());
+            }
+            if (isDirectFeature(newObject) && isBounded(newObject.getNode())) {
+                byName.put(newObject.name(), newObject.getNode());
+            }
+        }
+        return new SpatialIndex(newTreeId, byName.values());
+    }
+
+    private static boolean isDirectFeature(NodeRef ref) {
+        return ref != null && TYPE.FEATURE.equals(ref.getType())
+                && ref.getParentPath().isEmpty();
+    }
+
+    private static boolean isBounded(Node node) {
+        Envelope env = new Envelope();
+        node.expand(env);
+        return !env.isNull();
+    }
+
+    public void write(final OutputStream out) throws IOException {
+        DataOutputStream data = new DataOutputStream(out);
+        data.writeInt(MAGIC);
+        data.writeInt(VERSION);
+        data.write(treeId.getRawValue());
+        data.writeInt(nodes.size());
+        for (Node node : nodes) {
+            Envelope env = new Envelope();
+            node.expand(env);
+            data.writeUTF(node.getName());
+            data.write(node.getObjectId().getRawValue());
+            data.write(node.getMetadataId().or(ObjectId.NULL).getRawValue());
+            data.writeDouble(env.getMinX());
+            data.writeDouble(env.getMaxX());
+            data.writeDouble(env.getMinY());
+            data.writeDouble(env.getMaxY());
+        }
+        data.flush();
+    }
+
+    public static SpatialIndex read(final InputStream in) throws IOException {
+        DataInputStream data = new DataInputStream(in);
+        if (data.readInt() != MAGIC || data.readInt() != VERSION) {
+            throw new IOException("Unrecognized spatial index format");
+        }
+        final ObjectId treeId = readObjectId(data);
+        final int size = data.readInt();
+        List<Node> nodes = Lists.newArrayListWithCapacity(size);
+        for (int i = 0; i < size; i++) {
+            String name = data.readUTF();
+            ObjectId objectId = readObjectId(data);
+            ObjectId metadataId = readObjectId(data);
+            double minx = data.readDouble();
+            double maxx = data.readDouble();
+            double miny = data.readDouble();
+            double maxy = data.readDouble();
+            Envelope env = new Envelope(minx, maxx, miny, maxy);
+            nodes.add(Node.create(name, objectId, metadataId, TYPE.FEATURE, env));
+        }
+        return new SpatialIndex(treeId, nodes);
+    }
+
+    private static ObjectId readObjectId(DataInputStream data) throws IOException {
+        byte[] raw = new byte[20];
+        data.readFully(raw);
+        return new ObjectId(raw);
+    }
+}
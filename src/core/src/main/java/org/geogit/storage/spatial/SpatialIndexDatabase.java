@@ -0,0 +1,248 @@
+/* Copyright (c) 2013 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+package org.geogit.storage.spatial;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+
+import javax.annotation.Nullable;
+
+import org.geogit.api.CommandLocator;
+import org.geogit.api.ObjectId;
+import org.geogit.api.plumbing.DiffTree;
+import org.geogit.api.plumbing.diff.DiffEntry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Joiner;
+import com.google.common.base.Splitter;
+import com.google.common.base.Stopwatch;
+import com.google.common.base.Throwables;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.io.Closeables;
+import com.google.common.io.Files;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+
+/**
+ * Keeps the {@link SpatialIndex spatial indexes} of feature type trees in a directory next to the
+ * object database, one file per tree id.
+ * <p>
+ * Indexes are built lazily, the first time the index of a given tree version is requested. For
+ * each tree path the ids of the last {@link #MAX_VERSIONS_PER_PATH} indexed versions are kept, so
+ * that the index of a new version is derived from the most recent one by applying the output of
+ * {@link DiffTree} between both versions, instead of walking the whole new tree, and so that
+ * readers of the same tree on different branches don't rebuild each other's index. Older versions
+ * are deleted from disk.
+ * <p>
+ * Only requests for the same tree id wait on each other while its index is built; requests for
+ * other trees, indexed or not, go ahead.
+ */
+public class SpatialIndexDatabase {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(SpatialIndexDatabase.class);
+
+    private static final String INDEX_SUFFIX = ".sidx";
+
+    private static final String HEAD_SUFFIX = ".head";
+
+    /**
+     * How many indexed versions of a tree path are kept on disk
+     */
+    static final int MAX_VERSIONS_PER_PATH = 8;
+
+    private final File directory;
+
+    private final Cache<ObjectId, SpatialIndex> cache;
+
+    /**
+     * Monitors for the head file of each tree path, held only while it's read and rewritten
+     */
+    private final ConcurrentMap<String, Object> headMonitors = Maps.newConcurrentMap();
+
+    /**
+     * @param directory where to keep the index files, created if it doesn't exist
+     */
+    public SpatialIndexDatabase(final File directory) {
+        this.directory = directory;
+        this.cache = CacheBuilder.newBuilder().maximumSize(16).softValues().build();
+    }
+
+    /**
+     * Returns the index of the feature type tree {@code treeId}, building it if needed.
+     *
+     * @param locator used to compute the differences with the last indexed version of the tree
+     * @param treePath the path of the feature type tree, used to find a previous version of its
+     *        index to update
+     * @param treeId the id of the tree to index
+     */
+    public SpatialIndex get(final CommandLocator locator, final String treePath,
+            final ObjectId treeId) {
+        try {
+            return cache.get(treeId, new Callable<SpatialIndex>() {
+                @Override
+                public SpatialIndex call() {
+                    SpatialIndex index = load(indexFile(treeId));
+                    if (index == null) {
+                        index = build(locator, treePath, treeId);
+                    }
+                    return index;
+                }
+            });
+        } catch (ExecutionException e) {
+            throw Throwables.propagate(e.getCause());
+        } catch (UncheckedExecutionException e) {
+            throw Throwables.propagate(e.getCause());
+        }
+    }
+
+    private SpatialIndex build(final CommandLocator locator, final String treePath,
+            final ObjectId treeId) {
+        final Stopwatch sw = new Stopwatch().start();
+        final File headFile = headFile(treePath);
+        final List<ObjectId> previousIds;
+        synchronized (monitorOf(headFile)) {
+            previousIds = readHead(headFile);
+        }
+
+        SpatialIndex base = null;
+        for (Iterator<ObjectId> it = previousIds.iterator(); base == null && it.hasNext();) {
+            ObjectId previousId = it.next();
+            base = cache.getIfPresent(previousId);
+            if (base == null) {
+                base = load(indexFile(previousId));
+            }
+        }
+        if (base == null) {
+            base = SpatialIndex.EMPTY;
+        }
+
+        Iterator<DiffEntry> changes = locator.command(DiffTree.class)
+                .setOldTree(base.getTreeId()).setNewTree(treeId).call();
+        SpatialIndex index = base.update(treeId, changes);
+        LOGGER.debug("Spatial index of {} ({}) {} from {} in {}", treePath, treeId,
+                base == SpatialIndex.EMPTY ? "built" : "updated", base.getTreeId(), sw.stop());
+
+        if (save(index)) {
+            synchronized (monitorOf(headFile)) {
+                List<ObjectId> ids = readHead(headFile);
+                ids.remove(treeId);
+                ids.add(0, treeId);
+                while (ids.size() > MAX_VERSIONS_PER_PATH) {
+                    indexFile(ids.remove(ids.size() - 1)).delete();
+                }
+                writeHead(headFile, ids);
+            }
+        }
+        return index;
+    }
+
+    private Object monitorOf(final File headFile) {
+        final String key = headFile.getName();
+        Object monitor = headMonitors.get(key);
+        if (monitor == null) {
+            Object newMonitor = new Object();
+            monitor = headMonitors.putIfAbsent(key, newMonitor);
+            if (monitor == null) {
+                monitor = newMonitor;
+            }
+        }
+        return monitor;
+    }
+
+    @Nullable
+    private SpatialIndex load(final File file) {
+        if (!file.exists()) {
+            return null;
+        }
+        InputStream in = null;
+        try {
+            in = new BufferedInputStream(new FileInputStream(file));
+            return SpatialIndex.read(in);
+        } catch (IOException e) {
+            LOGGER.warn("Unable to read spatial index " + file + ", rebuilding it", e);
+            file.delete();
+            return null;
+        } finally {
+            Closeables.closeQuietly(in);
+        }
+    }
+
+    private boolean save(final SpatialIndex index) {
+        if (!directory.exists() && !directory.mkdirs()) {
+            LOGGER.warn("Unable to create spatial index directory {}", directory);
+            return false;
+        }
+        final File file = indexFile(index.getTreeId());
+        final File tmp = new File(directory, file.getName() + ".tmp");
+        try {
+            OutputStream out = new BufferedOutputStream(new FileOutputStream(tmp));
+            boolean threw = true;
+            try {
+                index.write(out);
+                threw = false;
+            } finally {
+                Closeables.close(out, threw);
+            }
+            if (!tmp.renameTo(file)) {
+                throw new IOException("Unable to rename " + tmp + " to " + file);
+            }
+            return true;
+        } catch (IOException e) {
+            tmp.delete();
+            LOGGER.warn("Unable to save spatial index " + file, e);
+            return false;
+        }
+    }
+
+    /**
+     * @return the indexed versions of a tree path, most recent first
+     */
+    private List<ObjectId> readHead(final File headFile) {
+        List<ObjectId> ids = Lists.newArrayList();
+        if (!headFile.exists()) {
+            return ids;
+        }
+        try {
+            for (String id : Splitter.on('\n').trimResults().omitEmptyStrings()
+                    .split(Files.toString(headFile, Charsets.UTF_8))) {
+                ids.add(ObjectId.valueOf(id));
+            }
+        } catch (Exception e) {
+            LOGGER.debug("Ignoring unreadable spatial index head " + headFile, e);
+        }
+        return ids;
+    }
+
+    private void writeHead(final File headFile, final List<ObjectId> ids) {
+        try {
+            Files.write(Joiner.on('\n').join(ids), headFile, Charsets.UTF_8);
+        } catch (IOException e) {
+            LOGGER.warn("Unable to save spatial index head " + headFile, e);
+        }
+    }
+
+    private File indexFile(final ObjectId treeId) {
+        return new File(directory, treeId.toString() + INDEX_SUFFIX);
+    }
+
+    private File headFile(final String treePath) {
+        return new File(directory, ObjectId.forString(treePath).toString() + HEAD_SUFFIX);
+    }
+}
@@ -0,0 +1,59 @@
+/* Copyright (c) 2013 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+package org.geogit.api;
+
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.common.collect.Maps;
+
+public class ObjectIdMapTest extends Assert {
+
+    @Test
+    public void testPutGetRemove() {
+        testPutGetRemove(new ObjectIdMap<String>());
+        testPutGetRemove(ObjectIdMap.<String> offHeap(10));
+    }
+
+    private void testPutGetRemove(ObjectIdMap<String> map) {
+        Map<ObjectId, String> expected = Maps.newHashMap();
+        for (int i = 0; i < 10000; i++) {
+            ObjectId id = ObjectId.forString("id" + i);
+            assertNull(map.put(id, "value" + i));
+            expected.put(id, "value" + i);
+        }
+        assertNull(map.put(ObjectId.NULL, "null"));
+        expected.put(ObjectId.NULL, "null");
+        assertEquals(expected.size(), map.size());
+        assertEquals(expected, Maps.newHashMap(map));
+
+        ObjectId id0 = ObjectId.forString("id0");
+        assertEquals("value0", map.put(id0, "replaced"));
+        assertEquals("replaced", map.get(id0));
+        assertEquals("replaced", map.remove(id0));
+        assertFalse(map.containsKey(id0));
+        assertNull(map.get(id0));
+        assertNull(map.remove(id0));
+        assertEquals("null", map.remove(ObjectId.NULL));
+        assertEquals(expected.size() - 2, map.size());
+        for (int i = 1; i < 10000; i++) {
+            assertEquals("value" + i, map.get(ObjectId.forString("id" + i)));
+        }
+    }
+
+    @Test
+    public void testSetValue() {
+        ObjectIdMap<Integer> map = new ObjectIdMap<Integer>();
+        map.put(ObjectId.forString("a"), Integer.valueOf(1));
+        map.put(ObjectId.forString("b"), Integer.valueOf(2));
+        for (Map.Entry<ObjectId, Integer> e : map.entrySet()) {
+            e.setValue(Integer.valueOf(e.getValue().intValue() * 10));
+        }
+        assertEquals(Integer.valueOf(10), map.get(ObjectId.forString("a")));
+        assertEquals(Integer.valueOf(20), map.get(ObjectId.forString("b")));
+    }
+}
@@ -0,0 +1,194 @@
+/* Copyright (c) 2013 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+package org.geogit.api;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.channels.Channels;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+
+public class ObjectIdSetTest extends Assert {
+
+    private static List<ObjectId> ids(int count) {
+        List<ObjectId> ids = Lists.newArrayList();
+        for (int i = 0; i < count; i++) {
+            ids.add(ObjectId.forString("id" + i));
+        }
+        return ids;
+    }
+
+    @Test
+    public void testAddContainsRemove() {
+        testAddContainsRemove(new ObjectIdSet());
+        testAddContainsRemove(ObjectIdSet.offHeap(10));
+    }
+
+    private void testAddContainsRemove(ObjectIdSet set) {
+        List<ObjectId> ids = ids(10000);
+        for (ObjectId id : ids) {
+            assertTrue(set.add(id));
+        }
+        assertFalse(set.add(ids.get(0)));
+        assertEquals(ids.size(), set.size());
+        for (ObjectId id : ids) {
+            assertTrue(set.contains(id));
+        }
+        assertFalse(set.contains(ObjectId.forString("other")));
+        assertFalse(set.contains("not an id"));
+
+        for (int i = 0; i < ids.size(); i += 2) {
+            assertTrue(set.remove(ids.get(i)));
+        }
+        assertFalse(set.remove(ids.get(0)));
+        assertEquals(ids.size() / 2, set.size());
+        for (int i = 0; i < ids.size(); i++) {
+            assertEquals(i % 2 == 1, set.contains(ids.get(i)));
+        }
+        assertEquals(Sets.newHashSet(oddOnes(ids)), Sets.newHashSet(set));
+    }
+
+    private static List<ObjectId> oddOnes(List<ObjectId> ids) {
+        List<ObjectId> odd = Lists.newArrayList();
+        for (int i = 1; i < ids.size(); i += 2) {
+            odd.add(ids.get(i));
+        }
+        return odd;
+    }
+
+    @Test
+    public void testNullId() {
+        ObjectIdSet set = new ObjectIdSet();
+        assertFalse(set.contains(ObjectId.NULL));
+        assertTrue(set.add(ObjectId.NULL));
+        assertTrue(set.add(ObjectId.forString("a")));
+        assertTrue(set.contains(new ObjectId()));
+        assertEquals(2, set.size());
+        assertEquals(Sets.newHashSet(ObjectId.NULL, ObjectId.forString("a")),
+                Sets.newHashSet(set));
+        assertTrue(set.remove(ObjectId.NULL));
+        assertFalse(set.contains(ObjectId.NULL));
+        assertEquals(1, set.size());
+    }
+
+    @Test
+    public void testCollidingIds() {
+        // ids differing only in their last bytes
+        ObjectIdSet set = new ObjectIdSet();
+        Set<ObjectId> expected = Sets.newHashSet();
+        for (int i = 1; i <= 1000; i++) {
+            byte[] raw = new byte[ObjectId.NUM_BYTES];
+            raw[18] = (byte) (i >> 8);
+            raw[19] = (byte) i;
+            ObjectId id = new ObjectId(raw);
+            set.add(id);
+            expected.add(id);
+        }
+        assertEquals(expected, Sets.newHashSet(set));
+        for (ObjectId id : expected) {
+            assertTrue(set.remove(id));
+        }
+        assertTrue(set.isEmpty());
+    }
+
+    @Test
+    public void testRemoveAllAndClear() {
+        List<ObjectId> ids = ids(100);
+        ObjectIdSet set = new ObjectIdSet(ids);
+        assertTrue(set.removeAll(ids.subList(0, 50)));
+        assertEquals(Sets.newHashSet(ids.subList(50, 100)), Sets.newHashSet(set));
+
+        List<ObjectId> list = Lists.newArrayList(ids);
+        list.removeAll(set);
+        assertEquals(ids.subList(0, 50), list);
+
+        set.clear();
+        assertTrue(set.isEmpty());
+        assertFalse(set.iterator().hasNext());
+        set.add(ids.get(0));
+        assertTrue(set.contains(ids.get(0)));
+    }
+
+    @Test
+    public void testClearReleasesGrownTable() {
+        ObjectIdSet set = new ObjectIdSet();
+        final long initialBytes = set.sizeInBytes();
+        set.addAll(ids(1000));
+        assertTrue(set.sizeInBytes() > initialBytes);
+        set.clear();
+        assertEquals(initialBytes, set.sizeInBytes());
+        assertTrue(set.isEmpty());
+
+        // a table sized upfront keeps its capacity
+        set = new ObjectIdSet(1000);
+        final long presizedBytes = set.sizeInBytes();
+        set.addAll(ids(1000));
+        set.clear();
+        assertEquals(presizedBytes, set.sizeInBytes());
+    }
+
+    @Test
+    public void testFullTable() {
+        ObjectIdTable table = new ObjectIdTable(0, false, false, 64);
+        List<ObjectId> ids = ids(33);
+        for (ObjectId id : ids.subList(0, 32)) {
+            assertTrue(table.put(id, null));
+        }
+        assertTrue(table.put(ObjectId.NULL, null));
+        assertFalse(table.put(ids.get(0), null));
+        assertEquals(64 * ObjectId.NUM_BYTES, table.sizeInBytes());
+        try {
+            table.put(ids.get(32), null);
+            fail("expected IllegalStateException");
+        } catch (IllegalStateException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("32"));
+        }
+        assertFalse(table.contains(ids.get(32)));
+        assertTrue(table.remove(ids.get(0)));
+        assertTrue(table.put(ids.get(32), null));
+        assertEquals(33, table.size());
+    }
+
+    @Test
+    public void testDrainSorted() throws Exception {
+        testDrainSorted(new ObjectIdSet());
+        testDrainSorted(ObjectIdSet.offHeap(10));
+    }
+
+    private void testDrainSorted(ObjectIdSet set) throws Exception {
+        List<ObjectId> ids = ids(1000);
+        // ids with the high bits set must sort as unsigned bytes
+        ids.add(ObjectId.valueOf("ff00000000000000000000000000000000000000"));
+        ids.add(ObjectId.valueOf("00000000000000000000000000000000000000ff"));
+        ids.add(ObjectId.valueOf("0000000000000000800000000000000000000000"));
+        ids.add(ObjectId.NULL);
+        set.addAll(ids);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        set.drainSorted(Channels.newChannel(out));
+        assertTrue(set.isEmpty());
+        assertFalse(set.contains(ids.get(0)));
+
+        byte[] raw = out.toByteArray();
+        assertEquals(ids.size() * ObjectId.NUM_BYTES, raw.length);
+        List<ObjectId> drained = Lists.newArrayList();
+        for (int i = 0; i < raw.length; i += ObjectId.NUM_BYTES) {
+            drained.add(new ObjectId(Arrays.copyOfRange(raw, i, i + ObjectId.NUM_BYTES)));
+        }
+        Collections.sort(ids);
+        assertEquals(ids, drained);
+
+        set.add(ids.get(1));
+        assertEquals(1, set.size());
+        assertTrue(set.contains(ids.get(1)));
+    }
+}
@@ -113,4 +113,49 @@ public class ObjectIdTest extends TestCase {
         assertTrue(Arrays.equals(bytes, bytes2));
     }
 
+    @Test
+    public void testRawValueAndHexRoundTrip() {
+        for (int i = 0; i < 1000; i++) {
+            ObjectId id = ObjectId.forString("content " + i);
+            byte[] raw = id.getRawValue();
+            assertEquals(id, new ObjectId(raw));
+            assertEquals(id, ObjectId.valueOf(id.toString()));
+            assertEquals(id.toString(), ObjectId.valueOf(id.toString().toUpperCase()).toString());
+            for (int b = 0; b < ObjectId.NUM_BYTES; b++) {
+                assertEquals(raw[b] & 0xFF, id.byteN(b));
+                assertEquals(raw[b] & 0xFF,
+                        Integer.parseInt(id.toString().substring(2 * b, 2 * b + 2), 16));
+            }
+            assertEquals(((raw[0] & 0xFF) | ((raw[1] & 0xFF) << 8) | ((raw[2] & 0xFF) << 16)
+                    | ((raw[3] & 0xFF) << 24)), id.hashCode());
+        }
+    }
+
+    @Test
+    public void testCompareToMatchesRawBytes() {
+        ObjectId previous = ObjectId.forString("content");
+        for (int i = 0; i < 1000; i++) {
+            ObjectId id = ObjectId.forString("content " + i);
+            int expected = ObjectId.compare(previous.getRawValue(), id.getRawValue());
+            assertEquals(Integer.signum(expected), Integer.signum(previous.compareTo(id)));
+            previous = id;
+        }
+        byte[] raw = new byte[ObjectId.NUM_BYTES];
+        raw[19] = (byte) 0xff;
+        ObjectId last = new ObjectId(raw);
+        raw[19] = 0x01;
+        assertTrue(last.compareTo(new ObjectId(raw)) > 0);
+    }
+
+    @Test
+    public void testInvalidHexCharacter() {
+        String valid = ObjectId.forString("content").toString();
+        try {
+            ObjectId.valueOf("g" + valid.substring(1));
+            fail("expected IAE");
+        } catch (IllegalArgumentException e) {
+            assertTrue(true);
+        }
+    }
+
 }
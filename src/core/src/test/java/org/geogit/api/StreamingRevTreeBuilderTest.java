@@ -0,0 +1,161 @@
+/* Copyright (c) 2013 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+package org.geogit.api;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+import org.geogit.api.RevObject.TYPE;
+import org.geogit.api.plumbing.diff.DepthTreeIterator;
+import org.geogit.api.plumbing.diff.DepthTreeIterator.Strategy;
+import org.geogit.storage.NodeBucketOrder;
+import org.geogit.storage.ObjectDatabase;
+import org.geogit.storage.memory.HeapObjectDatabse;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+import com.vividsolutions.jts.geom.Envelope;
+
+public class StreamingRevTreeBuilderTest extends Assert {
+
+    private ObjectDatabase db;
+
+    @Before
+    public void setUp() {
+        db = new HeapObjectDatabse();
+        db.open();
+    }
+
+    private static Node feature(int i) {
+        return Node.create("Points." + i, ObjectId.forString("p" + i), ObjectId.NULL,
+                TYPE.FEATURE, i % 3 == 0 ? null : new Envelope(i, i + 1, -i, 1 - i));
+    }
+
+    private static List<Node> features(int count) {
+        List<Node> nodes = Lists.newArrayListWithCapacity(count);
+        for (int i = 0; i < count; i++) {
+            nodes.add(feature(i));
+        }
+        return nodes;
+    }
+
+    private static List<Node> sorted(List<Node> nodes) {
+        List<Node> sorted = Lists.newArrayList(nodes);
+        Collections.sort(sorted, new NodeBucketOrder());
+        return sorted;
+    }
+
+    private RevTree build(List<Node> nodes) {
+        RevTreeBuilder builder = new RevTreeBuilder(db);
+        for (Node node : nodes) {
+            builder.put(node);
+        }
+        return builder.build();
+    }
+
+    private RevTree buildStreaming(List<Node> nodes) {
+        StreamingRevTreeBuilder builder = new StreamingRevTreeBuilder(db);
+        for (Node node : sorted(nodes)) {
+            builder.put(node);
+        }
+        return builder.build();
+    }
+
+    private void assertSameTree(List<Node> nodes) {
+        RevTree expected = build(nodes);
+        RevTree actual = buildStreaming(nodes);
+        assertEquals(expected.getId(), actual.getId());
+        assertEquals(expected.size(), actual.size());
+        assertEquals(expected.numTrees(), actual.numTrees());
+        assertEquals(expected.buckets(), actual.buckets());
+    }
+
+    @Test
+    public void testSameTreeAsRevTreeBuilder() {
+        for (int count : new int[] { 0, 1, 10, RevTree.NORMALIZED_SIZE_LIMIT,
+                RevTree.NORMALIZED_SIZE_LIMIT + 1, 2000, 20000 }) {
+            assertSameTree(features(count));
+        }
+    }
+
+    @Test
+    public void testBucketTreesSaved() {
+        final int count = 20000;
+        RevTree tree = buildStreaming(features(count));
+        assertTrue(tree.buckets().isPresent());
+        assertFalse(db.exists(tree.getId()));
+        db.put(tree);
+
+        Iterator<NodeRef> it = new DepthTreeIterator("", ObjectId.NULL, tree, db,
+                Strategy.RECURSIVE_FEATURES_ONLY);
+        int found = 0;
+        while (it.hasNext()) {
+            it.next();
+            found++;
+        }
+        assertEquals(count, found);
+    }
+
+    @Test
+    public void testTreeNodes() {
+        List<Node> nodes = features(600);
+        for (int i = 0; i < 40; i++) {
+            RevTree subtree = build(features(i * 30));
+            db.put(subtree);
+            nodes.add(Node.create("tree" + i, subtree.getId(), ObjectId.NULL, TYPE.TREE, null));
+        }
+        assertSameTree(nodes);
+    }
+
+    @Test
+    public void testTreeNodesSmallerThanTheirCount() {
+        // more nodes than fit in a leaf tree, but their trees add up to less than that
+        RevTree empty = build(features(0));
+        db.put(empty);
+        List<Node> nodes = Lists.newArrayList();
+        for (int i = 0; i < RevTree.NORMALIZED_SIZE_LIMIT + 100; i++) {
+            nodes.add(Node.create("tree" + i, empty.getId(), ObjectId.NULL, TYPE.TREE, null));
+        }
+        assertSameTree(nodes);
+        assertTrue(buildStreaming(nodes).trees().isPresent());
+    }
+
+    @Test
+    public void testReplaceAndRemove() {
+        List<Node> nodes = features(1000);
+        StreamingRevTreeBuilder builder = new StreamingRevTreeBuilder(db);
+        for (Node node : sorted(nodes)) {
+            builder.put(Node.create(node.getName(), ObjectId.forString("old"), ObjectId.NULL,
+                    TYPE.FEATURE, null));
+            builder.put(node);
+            if (node.getName().endsWith("7")) {
+                builder.remove(node.getName());
+            }
+        }
+        List<Node> expected = Lists.newArrayList();
+        for (Node node : nodes) {
+            if (!node.getName().endsWith("7")) {
+                expected.add(node);
+            }
+        }
+        assertEquals(build(expected).getId(), builder.build().getId());
+    }
+
+    @Test
+    public void testOutOfOrder() {
+        List<Node> nodes = sorted(features(10));
+        StreamingRevTreeBuilder builder = new StreamingRevTreeBuilder(db);
+        builder.put(nodes.get(5));
+        try {
+            builder.put(nodes.get(4));
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage().contains("out of bucket order"));
+        }
+    }
+}
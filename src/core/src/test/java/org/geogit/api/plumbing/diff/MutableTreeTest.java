@@ -8,6 +8,9 @@ import static org.geogit.api.NodeRef.ROOT;
 import static org.geogit.api.ObjectId.NULL;
 
 import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import javax.annotation.Nullable;
 
@@ -16,6 +19,7 @@ import org.geogit.api.NodeRef;
 import org.geogit.api.ObjectId;
 import org.geogit.api.RevObject.TYPE;
 import org.geogit.api.RevTree;
+import org.geogit.api.RevTreeBuilder;
 import org.geogit.api.plumbing.diff.DepthTreeIterator.Strategy;
 import org.geogit.storage.ObjectDatabase;
 import org.geogit.storage.memory.HeapObjectDatabse;
@@ -26,6 +30,8 @@ import org.junit.Test;
 
 import com.google.common.base.Strings;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.vividsolutions.jts.geom.Envelope;
 
 public class MutableTreeTest extends Assert {
 
@@ -79,6 +85,48 @@ public class MutableTreeTest extends Assert {
         // TODO finish
     }
 
+    @Test
+    public void testParallelBuild() {
+        ObjectDatabase origin = new HeapObjectDatabse();
+        origin.open();
+        List<NodeRef> refs = Lists.newArrayList();
+        for (int i = 0; i < 8; i++) {
+            refs.add(tree("layers" + i, NULL, NULL));
+            for (int j = 0; j < 5; j++) {
+                RevTreeBuilder builder = new RevTreeBuilder(origin);
+                for (int k = 0; k <= j; k++) {
+                    builder.put(Node.create("f" + k, id("f" + i + j + k), NULL, TYPE.FEATURE,
+                            new Envelope(i, i + k, j, j + k)));
+                }
+                RevTree leaf = builder.build();
+                origin.put(leaf);
+                refs.add(tree("layers" + i + "/layer" + j, leaf.getId(), id("d" + j)));
+            }
+        }
+
+        ObjectDatabase sequentialTarget = new HeapObjectDatabse();
+        sequentialTarget.open();
+        RevTree sequential = MutableTree.createFromRefs(NULL, refs.iterator()).build(origin,
+                sequentialTarget);
+
+        ObjectDatabase parallelTarget = new HeapObjectDatabse();
+        parallelTarget.open();
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            MutableTree tree = MutableTree.createFromRefs(NULL, refs.iterator());
+            RevTree parallel = tree.build(origin, parallelTarget, executor);
+            assertEquals(sequential.getId(), parallel.getId());
+            assertEquals(parallel.getId(), tree.getNode().getObjectId());
+            for (int i = 0; i < 8; i++) {
+                ObjectId childId = tree.getChild("layers" + i).getNode().getObjectId();
+                assertTrue(parallelTarget.exists(childId));
+                assertTrue(sequentialTarget.exists(childId));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
     @Test
     public void testGetChild() {
         assertNode(root.getChild("roads"), id("a1"), null, "roads");
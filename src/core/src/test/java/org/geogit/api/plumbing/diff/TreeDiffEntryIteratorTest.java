@@ -9,6 +9,7 @@ import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 
+import java.util.List;
 import java.util.Map;
 import java.util.TreeSet;
 
@@ -20,9 +21,11 @@ import org.geogit.api.NodeRef;
 import org.geogit.api.ObjectId;
 import org.geogit.api.RevObject.TYPE;
 import org.geogit.api.RevTree;
+import org.geogit.api.RevTreeBuilder;
 import org.geogit.api.RevTreeImpl;
 import org.geogit.storage.NodeStorageOrder;
 import org.geogit.storage.ObjectDatabase;
+import org.geogit.storage.memory.HeapObjectDatabse;
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
@@ -32,6 +35,7 @@ import com.google.common.base.Strings;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
 
 /**
@@ -239,6 +243,123 @@ public class TreeDiffEntryIteratorTest extends Assert {
         assertEquals(expected, diffset);
     }
 
+    @Test
+    public void testBucketBucket() {
+        ObjectDatabase db = new HeapObjectDatabse();
+        db.open();
+        RevTreeBuilder leftBuilder = new RevTreeBuilder(db);
+        RevTreeBuilder rightBuilder = new RevTreeBuilder(db);
+        for (int i = 0; i < 5000; i++) {
+            leftBuilder.put(featureNode(i, "v1"));
+            if (i % 100 == 0) {
+                rightBuilder.put(featureNode(i, "v2"));// changed
+            } else if (i % 100 != 1) {// removed
+                rightBuilder.put(featureNode(i, "v1"));
+            }
+        }
+        for (int i = 5000; i < 5050; i++) {
+            rightBuilder.put(featureNode(i, "v1"));// added
+        }
+        RevTree leftTree = leftBuilder.build();
+        RevTree rightTree = rightBuilder.build();
+        assertTrue(leftTree.buckets().isPresent());
+        assertTrue(rightTree.buckets().isPresent());
+
+        List<DiffEntry> diffs = diffList(db, leftTree, rightTree, true);
+        assertEquals(50 + 50 + 50, diffs.size());
+        assertStorageOrder(diffs);
+        assertEquals(diffs, diffList(db, leftTree, rightTree, false));
+    }
+
+    @Test
+    public void testChildrenBucketPartitioned() {
+        ObjectDatabase db = new HeapObjectDatabse();
+        db.open();
+        RevTreeBuilder leftBuilder = new RevTreeBuilder(db);
+        RevTreeBuilder rightBuilder = new RevTreeBuilder(db);
+        for (int i = 0; i < 100; i++) {
+            leftBuilder.put(featureNode(i, "v1"));
+            rightBuilder.put(featureNode(i, i % 10 == 0 ? "v2" : "v1"));
+        }
+        for (int i = 100; i < 3000; i++) {
+            rightBuilder.put(featureNode(i, "v1"));
+        }
+        RevTree leftTree = leftBuilder.build();
+        RevTree rightTree = rightBuilder.build();
+        assertFalse(leftTree.buckets().isPresent());
+        assertTrue(rightTree.buckets().isPresent());
+
+        List<DiffEntry> diffs = diffList(db, leftTree, rightTree, true);
+        assertEquals(10 + 2900, diffs.size());
+        assertStorageOrder(diffs);
+        assertEquals(diffs, diffList(db, leftTree, rightTree, false));
+
+        // and the other way around
+        diffs = diffList(db, rightTree, leftTree, true);
+        assertEquals(10 + 2900, diffs.size());
+        assertStorageOrder(diffs);
+        assertEquals(diffs, diffList(db, rightTree, leftTree, false));
+    }
+
+    @Test
+    public void testBucketsWithChangedSubtree() {
+        ObjectDatabase db = new HeapObjectDatabse();
+        db.open();
+        RevTreeBuilder subtreeV1 = new RevTreeBuilder(db);
+        RevTreeBuilder subtreeV2 = new RevTreeBuilder(db);
+        for (int i = 0; i < 10; i++) {
+            subtreeV1.put(featureNode(i, "v1"));
+            subtreeV2.put(featureNode(i, i == 5 ? "v2" : "v1"));
+        }
+        RevTree childV1 = subtreeV1.build();
+        RevTree childV2 = subtreeV2.build();
+        db.put(childV1);
+        db.put(childV2);
+
+        RevTreeBuilder leftBuilder = new RevTreeBuilder(db);
+        RevTreeBuilder rightBuilder = new RevTreeBuilder(db);
+        for (int i = 0; i < 1000; i++) {
+            leftBuilder.put(featureNode(i, "v1"));
+            rightBuilder.put(featureNode(i, "v1"));
+        }
+        leftBuilder.put(Node.create("tree1", childV1.getId(), ObjectId.NULL, TYPE.TREE, null));
+        rightBuilder.put(Node.create("tree1", childV2.getId(), ObjectId.NULL, TYPE.TREE, null));
+
+        List<DiffEntry> diffs = diffList(db, leftBuilder.build(), rightBuilder.build(), true);
+        assertEquals(1, diffs.size());
+        assertEquals("tree1/feature.5", diffs.get(0).newPath());
+    }
+
+    private Node featureNode(int index, String version) {
+        String name = "feature." + index;
+        return Node.create(name, ObjectId.forString(name + version), ObjectId.NULL,
+                TYPE.FEATURE, null);
+    }
+
+    private List<DiffEntry> diffList(ObjectDatabase db, RevTree leftTree, RevTree rightTree,
+            boolean parallel) {
+        NodeRef leftNodeRef = new NodeRef(Node.create("", leftTree.getId(), ObjectId.NULL,
+                TYPE.TREE, null), "", ObjectId.NULL);
+        NodeRef rightNodeRef = new NodeRef(Node.create("", rightTree.getId(), ObjectId.NULL,
+                TYPE.TREE, null), "", ObjectId.NULL);
+        return Lists.newArrayList(new TreeDiffEntryIterator(leftNodeRef, rightNodeRef, leftTree,
+                rightTree, false, true, db, parallel));
+    }
+
+    private void assertStorageOrder(List<DiffEntry> diffs) {
+        NodeStorageOrder order = new NodeStorageOrder();
+        for (int i = 1; i < diffs.size(); i++) {
+            Node prev = node(diffs.get(i - 1));
+            Node next = node(diffs.get(i));
+            assertTrue(prev + " >= " + next, order.compare(prev, next) < 0);
+        }
+    }
+
+    private Node node(DiffEntry entry) {
+        return entry.getNewObject() == null ? entry.getOldObject().getNode() : entry
+                .getNewObject().getNode();
+    }
+
     private RevTree bucketTree() {
 
         ObjectId id = ObjectId.forString("null");
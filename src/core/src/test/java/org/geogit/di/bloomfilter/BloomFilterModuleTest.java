@@ -0,0 +1,264 @@
+/* Copyright (c) 2013 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+package org.geogit.di.bloomfilter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.util.List;
+
+import org.geogit.api.CommitBuilder;
+import org.geogit.api.ObjectId;
+import org.geogit.api.Platform;
+import org.geogit.api.RevCommit;
+import org.geogit.api.RevObject;
+import org.geogit.api.TestPlatform;
+import org.geogit.storage.ConfigDatabase;
+import org.geogit.storage.ObjectDatabase;
+import org.geogit.storage.ObjectSerializingFactory;
+import org.geogit.storage.datastream.DataStreamSerializationFactory;
+import org.geogit.storage.fs.FileObjectDatabase;
+import org.geogit.storage.fs.IniFileConfigDatabase;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.google.common.collect.Lists;
+import com.google.inject.AbstractModule;
+import com.google.inject.Guice;
+import com.google.inject.Injector;
+import com.google.inject.Module;
+import com.google.inject.Scopes;
+import com.google.inject.util.Modules;
+
+public class BloomFilterModuleTest {
+
+    @Rule
+    public TemporaryFolder tmpFolder = new TemporaryFolder();
+
+    private Injector injector;
+
+    private ObjectDatabase odb;
+
+    private ObjectDatabaseBloomFilter filter;
+
+    private File geogitDir;
+
+    private Platform platform;
+
+    @Before
+    public void setUp() throws Exception {
+        File workingDirectory = tmpFolder.getRoot();
+        geogitDir = tmpFolder.newFolder(".geogit");
+        platform = new TestPlatform(workingDirectory);
+
+        Module module = new AbstractModule() {
+
+            @Override
+            protected void configure() {
+                bind(Platform.class).toInstance(platform);
+                bind(ObjectSerializingFactory.class).toInstance(
+                        DataStreamSerializationFactory.INSTANCE);
+                bind(ObjectDatabase.class).to(FileObjectDatabase.class).in(Scopes.SINGLETON);
+                ConfigDatabase config = new IniFileConfigDatabase(platform);
+                bind(ConfigDatabase.class).toInstance(config);
+            }
+        };
+
+        injector = Guice.createInjector(Modules.override(new BloomFilterModule()).with(module));
+        odb = injector.getInstance(ObjectDatabase.class);
+        filter = injector.getInstance(ObjectDatabaseBloomFilter.class);
+        odb.open();
+    }
+
+    @After
+    public void tearDown() {
+        odb.close();
+    }
+
+    private static RevCommit obj(String name) {
+        RevCommit c = new CommitBuilder().setTreeId(ObjectId.NULL).setMessage(name).build();
+        return c;
+    }
+
+    @Test
+    public void testFilterEnabledOnOpen() {
+        assertTrue(filter.isEnabled());
+        assertEquals(0, filter.getInsertions());
+        assertTrue(filter.getFalsePositiveProbability() < 0.01);
+    }
+
+    @Test
+    public void testDefiniteMiss() {
+        RevObject o1 = obj("o1");
+        assertFalse(odb.exists(o1.getId()));
+        assertEquals(1, filter.getQueryCount());
+        assertEquals(1, filter.getDefiniteMissCount());
+
+        odb.put(o1);
+        assertTrue(odb.exists(o1.getId()));
+        assertEquals(2, filter.getQueryCount());
+        assertEquals(1, filter.getDefiniteMissCount());
+    }
+
+    @Test
+    public void testPutAll() {
+        List<RevObject> objects = Lists.newArrayList();
+        for (int i = 0; i < 200; i++) {
+            objects.add(obj("o" + i));
+        }
+        odb.putAll(objects.iterator());
+        for (RevObject o : objects) {
+            assertTrue(odb.exists(o.getId()));
+        }
+        assertEquals(0, filter.getDefiniteMissCount());
+    }
+
+    @Test
+    public void testSavedOnCloseAndLoadedOnOpen() {
+        RevObject o1 = obj("o1");
+        odb.put(o1);
+        odb.close();
+        assertFalse(filter.isEnabled());
+        File bloomFile = new File(geogitDir, "objects.bloom");
+        assertTrue(bloomFile.exists());
+
+        odb.open();
+        assertTrue(filter.isEnabled());
+        assertEquals(1, sessionFiles().length);
+        assertTrue(odb.exists(o1.getId()));
+        assertFalse(odb.exists(obj("o2").getId()));
+
+        odb.close();
+        assertEquals(0, sessionFiles().length);
+    }
+
+    private File[] sessionFiles() {
+        return geogitDir.listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                return name.startsWith("objects.bloom.session-");
+            }
+        });
+    }
+
+    private ObjectDatabaseBloomFilter newFilter() {
+        return new ObjectDatabaseBloomFilter("objects", "objectdb.bloomfilter",
+                injector.getProvider(Platform.class), injector.getProvider(ConfigDatabase.class));
+    }
+
+    @Test
+    public void testConcurrentSessionsMergedOnSave() {
+        odb.close();
+        ObjectDatabase db = new FileObjectDatabase(platform,
+                injector.getInstance(ConfigDatabase.class));
+        db.open();
+        try {
+            ObjectDatabaseBloomFilter first = newFilter();
+            ObjectDatabaseBloomFilter second = newFilter();
+            first.load(db);
+            second.load(db);
+
+            // recorded on the filters only, so they can't be rebuilt out of the database
+            ObjectId o1 = obj("o1").getId();
+            ObjectId o2 = obj("o2").getId();
+            first.put(o1);
+            second.put(o2);
+            first.save();
+            second.save();
+
+            ObjectDatabaseBloomFilter third = newFilter();
+            third.load(db);
+            assertTrue(third.mightContain(o1));
+            assertTrue(third.mightContain(o2));
+            third.save();
+        } finally {
+            db.close();
+            odb.open();
+        }
+    }
+
+    @Test
+    public void testMissesNotTrustedWithOtherSessions() {
+        odb.close();
+        ObjectDatabase db = new FileObjectDatabase(platform,
+                injector.getInstance(ConfigDatabase.class));
+        db.open();
+        try {
+            ObjectDatabaseBloomFilter first = newFilter();
+            first.load(db);
+            ObjectId o1 = obj("o1").getId();
+            assertFalse(first.mightContain(o1));
+
+            // another process opens the repository, adds an object and closes it
+            ObjectDatabaseBloomFilter second = newFilter();
+            second.load(db);
+            assertTrue(second.mightContain(obj("o2").getId()));
+            second.put(o1);
+            second.save();
+
+            assertTrue(first.mightContain(o1));
+            assertTrue(first.mightContain(obj("o2").getId()));
+            first.save();
+
+            // alone again
+            ObjectDatabaseBloomFilter third = newFilter();
+            third.load(db);
+            assertTrue(third.mightContain(o1));
+            assertFalse(third.mightContain(obj("o2").getId()));
+            third.save();
+        } finally {
+            db.close();
+            odb.open();
+        }
+    }
+
+    @Test
+    public void testRebuiltAfterAbandonedSession() throws Exception {
+        odb.close();
+        // a process that added an object and died before saving its filter
+        File abandoned = new File(geogitDir, "objects.bloom.session-abandoned");
+        assertTrue(abandoned.createNewFile());
+        RevObject o1 = obj("o1");
+        ObjectDatabase db = new FileObjectDatabase(platform,
+                injector.getInstance(ConfigDatabase.class));
+        db.open();
+        db.put(o1);
+        db.close();
+
+        odb.open();
+        assertFalse(abandoned.exists());
+        assertEquals(1, filter.getInsertions());
+        assertTrue(odb.exists(o1.getId()));
+    }
+
+    @Test
+    public void testRebuiltWhenMissing() {
+        RevObject o1 = obj("o1");
+        odb.put(o1);
+        odb.close();
+        new File(geogitDir, "objects.bloom").delete();
+
+        odb.open();
+        assertTrue(filter.isEnabled());
+        assertEquals(1, filter.getInsertions());
+        assertTrue(odb.exists(o1.getId()));
+    }
+
+    @Test
+    public void testDisabledByConfig() {
+        odb.close();
+        injector.getInstance(ConfigDatabase.class).put("objectdb.bloomfilter.enabled", false);
+        odb.open();
+        assertFalse(filter.isEnabled());
+        assertFalse(odb.exists(obj("o1").getId()));
+        assertEquals(0, filter.getQueryCount());
+    }
+}
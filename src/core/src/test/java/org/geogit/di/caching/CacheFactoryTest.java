@@ -0,0 +1,214 @@
+/* Copyright (c) 2013 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+package org.geogit.di.caching;
+
+import java.io.File;
+import java.util.List;
+import java.util.Map;
+
+import org.geogit.api.Node;
+import org.geogit.api.ObjectId;
+import org.geogit.api.RevFeature;
+import org.geogit.api.RevObject;
+import org.geogit.api.RevObject.TYPE;
+import org.geogit.api.RevTree;
+import org.geogit.api.RevTreeImpl;
+import org.geogit.api.TestPlatform;
+import org.geogit.storage.ConfigDatabase;
+import org.geogit.storage.fs.IniFileConfigDatabase;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.google.common.base.Optional;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheStats;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.inject.Provider;
+import com.google.inject.util.Providers;
+
+public class CacheFactoryTest extends Assert {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private ConfigDatabase configDB;
+
+    private CacheFactory factory;
+
+    @Before
+    public void setUp() {
+        File root = folder.getRoot();
+        folder.newFolder(".geogit");
+        File home = folder.newFolder("home");
+        TestPlatform platform = new TestPlatform(root);
+        platform.setUserHome(home);
+        configDB = new IniFileConfigDatabase(platform);
+        Provider<ConfigDatabase> provider = Providers.of(configDB);
+        factory = new ObjectDatabaseCacheFactory(provider);
+    }
+
+    private static RevFeature feature(int i) {
+        ImmutableList<Optional<Object>> values = ImmutableList.of(
+                Optional.<Object> of("value " + i), Optional.<Object> of(Integer.valueOf(i)));
+        return RevFeature.build(values);
+    }
+
+    private static RevTree leafTree(int i, int size) {
+        List<Node> features = Lists.newArrayListWithCapacity(size);
+        for (int n = 0; n < size; n++) {
+            features.add(Node.create("feature-" + n, ObjectId.forString("f" + i + "." + n),
+                    ObjectId.NULL, TYPE.FEATURE, null));
+        }
+        return RevTreeImpl.createLeafTree(ObjectId.forString("tree" + i), size, features,
+                ImmutableList.<Node> of());
+    }
+
+    @Test
+    public void testWeigher() {
+        int featureWeight = RevObjectWeigher.INSTANCE.weigh(null, feature(1));
+        int smallTreeWeight = RevObjectWeigher.INSTANCE.weigh(null, leafTree(1, 10));
+        int leafTreeWeight = RevObjectWeigher.INSTANCE.weigh(null, leafTree(1, 512));
+        assertTrue(featureWeight < smallTreeWeight);
+        assertTrue(smallTreeWeight < leafTreeWeight);
+        assertTrue(leafTreeWeight > 50 * featureWeight);
+    }
+
+    @Test
+    public void testBoundedByWeight() {
+        configDB.put("objectdb.cache.maxSizeMB", 1);
+        configDB.put("objectdb.cache.concurrencyLevel", 1);
+        Cache<ObjectId, RevObject> cache = factory.get();
+
+        for (int i = 0; i < 100; i++) {
+            RevTree tree = leafTree(i, 512);
+            cache.put(tree.getId(), tree);
+        }
+        // way less than 100 leaf trees fit in a megabyte
+        assertTrue(cache.size() < 50);
+
+        cache.invalidateAll();
+        for (int i = 0; i < 1000; i++) {
+            RevFeature f = feature(i);
+            cache.put(f.getId(), f);
+        }
+        // but a thousand small features do
+        assertEquals(1000, cache.size());
+    }
+
+    @Test
+    public void testDeprecatedMaxSize() {
+        // a thousand objects convert to an estimated megabyte
+        configDB.put("objectdb.cache.maxSize", 1000);
+        configDB.put("objectdb.cache.concurrencyLevel", 1);
+        Cache<ObjectId, RevObject> cache = factory.get();
+
+        for (int i = 0; i < 100; i++) {
+            RevTree tree = leafTree(i, 512);
+            cache.put(tree.getId(), tree);
+        }
+        assertTrue(cache.size() < 50);
+    }
+
+    @Test
+    public void testDeprecatedMaxSizeIgnoredWithMaxSizeMB() {
+        configDB.put("objectdb.cache.maxSize", 1000);
+        configDB.put("objectdb.cache.maxSizeMB", 64);
+        configDB.put("objectdb.cache.concurrencyLevel", 1);
+        Cache<ObjectId, RevObject> cache = factory.get();
+
+        for (int i = 0; i < 100; i++) {
+            RevTree tree = leafTree(i, 512);
+            cache.put(tree.getId(), tree);
+        }
+        assertEquals(100, cache.size());
+    }
+
+    @Test
+    public void testStats() {
+        Cache<ObjectId, RevObject> cache = factory.get();
+        RevFeature f1 = feature(1);
+        RevFeature f2 = feature(2);
+        cache.put(f1.getId(), f1);
+
+        assertSame(f1, cache.getIfPresent(f1.getId()));
+        assertNull(cache.getIfPresent(f2.getId()));
+
+        Map<ObjectId, RevObject> present = cache.getAllPresent(ImmutableList.of(f1.getId(),
+                f2.getId()));
+        assertEquals(1, present.size());
+        assertSame(f1, present.get(f1.getId()));
+
+        CacheStats stats = cache.stats();
+        assertEquals(2, stats.hitCount());
+        assertEquals(2, stats.missCount());
+    }
+
+    @Test
+    public void testOffHeapTier() {
+        configDB.put("objectdb.cache.maxSizeMB", 1);
+        configDB.put("objectdb.cache.offHeapSizeMB", 4);
+        configDB.put("objectdb.cache.concurrencyLevel", 1);
+        Cache<ObjectId, RevObject> cache = factory.get();
+        assertTrue(cache instanceof TieredCache);
+        OffHeapObjectStore offHeap = ((TieredCache) cache).offHeap();
+
+        List<RevTree> trees = Lists.newArrayList();
+        for (int i = 0; i < 100; i++) {
+            RevTree tree = leafTree(i, 512);
+            trees.add(tree);
+            cache.put(tree.getId(), tree);
+        }
+        assertTrue(offHeap.size() > 0);
+
+        // the first ones were evicted from the heap and are served by the off-heap tier
+        RevTree first = trees.get(0);
+        RevObject cached = cache.getIfPresent(first.getId());
+        assertNotNull(cached);
+        assertNotSame(first, cached);
+        assertEquals(first, cached);
+        assertEquals(1, offHeap.hitCount());
+        assertEquals(1, cache.stats().hitCount());
+
+        // and promoted back to the heap
+        assertSame(cached, cache.getIfPresent(first.getId()));
+        assertEquals(1, offHeap.hitCount());
+
+        cache.invalidateAll();
+        assertEquals(0, cache.size());
+        assertNull(cache.getIfPresent(trees.get(1).getId()));
+    }
+
+    @Test
+    public void testOffHeapStoreEviction() {
+        OffHeapObjectStore store = new OffHeapObjectStore(64 * 1024);
+        List<RevTree> trees = Lists.newArrayList();
+        for (int i = 0; i < 50; i++) {
+            RevTree tree = leafTree(i, 100);
+            trees.add(tree);
+            store.put(tree);
+        }
+        assertTrue(store.evictionCount() > 0);
+        assertTrue(store.usedBytes() <= store.capacity());
+        assertNull(store.get(trees.get(0).getId()));
+        RevTree last = trees.get(trees.size() - 1);
+        assertEquals(last, store.get(last.getId()));
+
+        assertTrue(store.remove(last.getId()));
+        assertNull(store.get(last.getId()));
+    }
+
+    @Test
+    public void testDisabled() {
+        configDB.put("objectdb.cache.enabled", false);
+        Cache<ObjectId, RevObject> cache = factory.get();
+        RevFeature f1 = feature(1);
+        cache.put(f1.getId(), f1);
+        assertNull(cache.getIfPresent(f1.getId()));
+    }
+}
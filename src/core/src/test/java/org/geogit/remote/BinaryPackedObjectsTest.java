@@ -0,0 +1,256 @@
+/* Copyright (c) 2013 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+package org.geogit.remote;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PushbackInputStream;
+import java.util.Iterator;
+import java.util.List;
+
+import org.geogit.api.CommitBuilder;
+import org.geogit.api.Node;
+import org.geogit.api.ObjectId;
+import org.geogit.api.RevCommit;
+import org.geogit.api.RevFeature;
+import org.geogit.api.RevObject;
+import org.geogit.api.RevObject.TYPE;
+import org.geogit.api.RevTree;
+import org.geogit.api.RevTreeBuilder;
+import org.geogit.storage.BulkOpListener;
+import org.geogit.storage.ObjectDatabase;
+import org.geogit.storage.memory.HeapDeduplicator;
+import org.geogit.storage.memory.HeapObjectDatabse;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+
+public class BinaryPackedObjectsTest extends Assert {
+
+    private ObjectDatabase source;
+
+    private ObjectDatabase target;
+
+    private List<RevCommit> commits;
+
+    @Before
+    public void setUp() {
+        source = new HeapObjectDatabse();
+        source.open();
+        target = new HeapObjectDatabse();
+        target.open();
+
+        commits = Lists.newArrayList();
+        RevTreeBuilder treeBuilder = new RevTreeBuilder(source);
+        ObjectId parent = null;
+        for (int c = 0; c < 5; c++) {
+            for (int f = 0; f < 10; f++) {
+                int i = c * 10 + f;
+                RevFeature feature = RevFeature.build(ImmutableList.of(
+                        Optional.<Object> of("feature " + i), Optional.<Object> of(i)));
+                source.put(feature);
+                treeBuilder.put(Node.create("feature." + i, feature.getId(), ObjectId.NULL,
+                        TYPE.FEATURE, null));
+            }
+            RevTree tree = treeBuilder.build();
+            source.put(tree);
+            treeBuilder = new RevTreeBuilder(source, tree);
+
+            CommitBuilder builder = new CommitBuilder();
+            builder.setAuthor("groldan");
+            builder.setCommitter("groldan");
+            builder.setMessage("commit " + c);
+            builder.setCommitterTimestamp(1000 * c);
+            builder.setTreeId(tree.getId());
+            builder.setParentIds(parent == null ? ImmutableList.<ObjectId> of() : ImmutableList
+                    .of(parent));
+            RevCommit commit = builder.build();
+            source.put(commit);
+            commits.add(commit);
+            parent = commit.getId();
+        }
+    }
+
+    private byte[] writeStream(List<ObjectId> want, List<ObjectId> have) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new BinaryPackedObjects(source).writeStream(out, want, have,
+                BinaryPackedObjects.noOpCallback(), false, new HeapDeduplicator());
+        return out.toByteArray();
+    }
+
+    private List<ObjectId> ids(List<RevCommit> commits) {
+        List<ObjectId> ids = Lists.newArrayList();
+        for (RevCommit c : commits) {
+            ids.add(c.getId());
+        }
+        return ids;
+    }
+
+    private byte[] write(List<ObjectId> want) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new BinaryPackedObjects(source).write(out, want, ImmutableList.<ObjectId> of(), false,
+                new HeapDeduplicator());
+        return out.toByteArray();
+    }
+
+    private static class Collector implements BinaryPackedObjects.Callback<Void> {
+
+        final List<RevObject> objects = Lists.newArrayList();
+
+        @Override
+        public Void callback(RevObject object, Void state) {
+            objects.add(object);
+            return null;
+        }
+    }
+
+    @Test
+    public void testStreamRoundTrip() throws Exception {
+        byte[] stream = writeStream(ids(commits), ImmutableList.<ObjectId> of());
+
+        PushbackInputStream in = BinaryPackedObjects.pushbackStream(new ByteArrayInputStream(
+                stream));
+        assertTrue(BinaryPackedObjects.isStreamHeader(in));
+
+        Collector stored = new Collector();
+        Collector checkpoints = new Collector();
+        new BinaryPackedObjects(target).ingestStream(in, stored, checkpoints);
+
+        // 50 features, 5 trees and 5 commits
+        assertEquals(60, stored.objects.size());
+        for (RevObject object : stored.objects) {
+            assertEquals(object, target.get(object.getId()));
+        }
+        assertEquals(commits, checkpoints.objects);
+    }
+
+    @Test
+    public void testStreamHave() throws Exception {
+        List<ObjectId> have = ImmutableList.of(commits.get(2).getId());
+        byte[] stream = writeStream(ids(commits.subList(3, 5)), have);
+
+        PushbackInputStream in = BinaryPackedObjects.pushbackStream(new ByteArrayInputStream(
+                stream));
+        assertTrue(BinaryPackedObjects.isStreamHeader(in));
+        Collector checkpoints = new Collector();
+        new BinaryPackedObjects(target).ingestStream(in, BinaryPackedObjects.noOpCallback(),
+                checkpoints);
+        assertEquals(commits.subList(3, 5), checkpoints.objects);
+        assertFalse(target.exists(commits.get(2).getId()));
+        assertFalse(target.exists(commits.get(2).getTreeId()));
+    }
+
+    @Test
+    public void testTruncatedStream() throws Exception {
+        byte[] stream = writeStream(ids(commits), ImmutableList.<ObjectId> of());
+        byte[] truncated = new byte[stream.length - 1];
+        System.arraycopy(stream, 0, truncated, 0, truncated.length);
+
+        PushbackInputStream in = BinaryPackedObjects.pushbackStream(new ByteArrayInputStream(
+                truncated));
+        assertTrue(BinaryPackedObjects.isStreamHeader(in));
+        Collector checkpoints = new Collector();
+        try {
+            new BinaryPackedObjects(target).ingestStream(in, BinaryPackedObjects.noOpCallback(),
+                    checkpoints);
+            fail("Expected IOException");
+        } catch (IOException e) {
+            assertTrue(true);
+        }
+        // every checkpointed commit is complete
+        for (RevObject object : checkpoints.objects) {
+            RevCommit commit = (RevCommit) object;
+            assertTrue(target.exists(commit.getId()));
+            assertTrue(target.exists(commit.getTreeId()));
+        }
+    }
+
+    @Test
+    public void testOriginalFormatFallback() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new BinaryPackedObjects(source).write(out, ids(commits), ImmutableList.<ObjectId> of(),
+                false, new HeapDeduplicator());
+
+        PushbackInputStream in = BinaryPackedObjects.pushbackStream(new ByteArrayInputStream(out
+                .toByteArray()));
+        assertFalse(BinaryPackedObjects.isStreamHeader(in));
+        new BinaryPackedObjects(target).ingest(in);
+        for (RevCommit commit : commits) {
+            assertTrue(target.exists(commit.getId()));
+            assertTrue(target.exists(commit.getTreeId()));
+        }
+
+        // and an empty stream, as sent by push negotiation probes
+        in = BinaryPackedObjects.pushbackStream(new ByteArrayInputStream(new byte[0]));
+        assertFalse(BinaryPackedObjects.isStreamHeader(in));
+        assertEquals(-1, in.read());
+    }
+
+    @Test
+    public void testIngestBatches() throws Exception {
+        byte[] stream = write(ids(commits));
+
+        Collector stored = new Collector();
+        new BinaryPackedObjects(target, 7).ingest(new ByteArrayInputStream(stream), stored);
+        assertEquals(60, stored.objects.size());
+        for (RevObject object : stored.objects) {
+            assertEquals(object, target.get(object.getId()));
+        }
+        // stream order is kept, so each commit comes after its tree
+        assertEquals(commits.get(4), stored.objects.get(stored.objects.size() - 1));
+
+        // nothing new the second time
+        Collector again = new Collector();
+        new BinaryPackedObjects(target, 7).ingest(new ByteArrayInputStream(stream), again);
+        assertTrue(again.objects.isEmpty());
+    }
+
+    @Test
+    public void testStreamCheckpointsAcrossBatches() throws Exception {
+        byte[] stream = writeStream(ids(commits), ImmutableList.<ObjectId> of());
+
+        PushbackInputStream in = BinaryPackedObjects.pushbackStream(new ByteArrayInputStream(
+                stream));
+        assertTrue(BinaryPackedObjects.isStreamHeader(in));
+        final List<RevObject> checkpoints = Lists.newArrayList();
+        new BinaryPackedObjects(target, 7).ingestStream(in, BinaryPackedObjects.noOpCallback(),
+                new BinaryPackedObjects.Callback<Void>() {
+                    @Override
+                    public Void callback(RevObject object, Void state) {
+                        RevCommit commit = (RevCommit) object;
+                        // checkpoints are only signaled once the objects are stored
+                        assertTrue(target.exists(commit.getId()));
+                        assertTrue(target.exists(commit.getTreeId()));
+                        checkpoints.add(commit);
+                        return null;
+                    }
+                });
+        assertEquals(commits, checkpoints);
+    }
+
+    @Test
+    public void testIngestStorageFailure() throws Exception {
+        byte[] stream = write(ids(commits));
+
+        ObjectDatabase failing = new HeapObjectDatabse() {
+            @Override
+            public void putAll(Iterator<? extends RevObject> objects, BulkOpListener listener) {
+                throw new IllegalStateException("disk full");
+            }
+        };
+        failing.open();
+        try {
+            new BinaryPackedObjects(failing, 7).ingest(new ByteArrayInputStream(stream));
+            fail("Expected IllegalStateException");
+        } catch (IllegalStateException e) {
+            assertEquals("disk full", e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,167 @@
+/* Copyright (c) 2013 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+package org.geogit.repository;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.geogit.api.Node;
+import org.geogit.api.ObjectId;
+import org.geogit.api.RevObject.TYPE;
+import org.geogit.storage.NodeBucketOrder;
+import org.geogit.storage.NodeStorageOrder;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Ordering;
+import com.vividsolutions.jts.geom.Envelope;
+
+public class NodeIndexTest extends Assert {
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private ExecutorService executorService;
+
+    private File spillDir;
+
+    @Before
+    public void setUp() {
+        executorService = Executors.newFixedThreadPool(2);
+        spillDir = new File(tempFolder.getRoot(), "spill");
+    }
+
+    @After
+    public void tearDown() {
+        executorService.shutdownNow();
+    }
+
+    private static Node node(int i) {
+        return Node.create("Points." + i, ObjectId.forString("p" + i), ObjectId.NULL,
+                TYPE.FEATURE, i % 2 == 0 ? null : new Envelope(i, i + 1, -i, 1 - i));
+    }
+
+    private static List<Node> nodes(int count) {
+        List<Node> nodes = Lists.newArrayListWithCapacity(count);
+        for (int i = 0; i < count; i++) {
+            nodes.add(node(i));
+        }
+        return nodes;
+    }
+
+    private static Envelope bounds(Node node) {
+        Envelope bounds = new Envelope();
+        node.expand(bounds);
+        return bounds;
+    }
+
+    private NodeIndex index(NodeIndex.Order order, long memoryBudget) {
+        return new NodeIndex(executorService, order, new NodeIndex.Settings(spillDir,
+                memoryBudget));
+    }
+
+    private void assertSorted(NodeIndex.Order order, Ordering<Node> ordering, int count,
+            long memoryBudget) {
+        List<Node> nodes = nodes(count);
+        NodeIndex index = index(order, memoryBudget);
+        try {
+            for (Node node : nodes) {
+                index.add(node);
+            }
+            List<Node> actual = Lists.newArrayList(index.nodes());
+            Collections.sort(nodes, ordering);
+            assertEquals(nodes.size(), actual.size());
+            for (int i = 0; i < nodes.size(); i++) {
+                Node expected = nodes.get(i);
+                assertEquals(expected, actual.get(i));
+                assertEquals(bounds(expected), bounds(actual.get(i)));
+            }
+        } finally {
+            index.close();
+        }
+    }
+
+    @Test
+    public void testInMemory() {
+        assertSorted(NodeIndex.Order.STORAGE, new NodeStorageOrder(), 10000,
+                NodeIndex.DEFAULT_MEMORY_BUDGET);
+        assertFalse(spillDir.exists() && spillDir.list().length > 0);
+    }
+
+    @Test
+    public void testSpilled() {
+        // a few hundred nodes per run, in more runs than are merged at once
+        assertSorted(NodeIndex.Order.STORAGE, new NodeStorageOrder(), 50000, 64 * 1024);
+        assertSorted(NodeIndex.Order.BUCKET, new NodeBucketOrder(), 50000, 64 * 1024);
+    }
+
+    @Test
+    public void testLastAddedComesLast() {
+        NodeIndex index = index(NodeIndex.Order.STORAGE, 16 * 1024);
+        try {
+            for (int round = 0; round < 3; round++) {
+                for (int i = 0; i < 1000; i++) {
+                    index.add(Node.create("Points." + i, ObjectId.forString(round + "/" + i),
+                            ObjectId.NULL, TYPE.FEATURE, null));
+                }
+            }
+            Iterator<Node> nodes = index.nodes();
+            for (int i = 0; i < 1000; i++) {
+                Node first = nodes.next();
+                for (int round = 0; round < 3; round++) {
+                    Node node = round == 0 ? first : nodes.next();
+                    assertEquals(first.getName(), node.getName());
+                    assertEquals(ObjectId.forString(round + "/"
+                            + first.getName().substring("Points.".length())), node.getObjectId());
+                }
+            }
+            assertFalse(nodes.hasNext());
+        } finally {
+            index.close();
+        }
+    }
+
+    @Test
+    public void testCloseDeletesRunFiles() {
+        NodeIndex index = index(NodeIndex.Order.STORAGE, 16 * 1024);
+        for (Node node : nodes(20000)) {
+            index.add(node);
+        }
+        Iterator<Node> nodes = index.nodes();
+        assertTrue(nodes.hasNext());
+        assertTrue(spillDir.list().length > 0);
+        index.close();
+        assertEquals(0, spillDir.list().length);
+    }
+
+    @Test
+    public void testStaleRunFilesDeletedOnCreation() throws Exception {
+        assertTrue(spillDir.mkdirs());
+        File stale = new File(spillDir, "geogitNodes1.run");
+        File recent = new File(spillDir, "geogitNodes2.run");
+        File other = new File(spillDir, "other.run");
+        for (File file : new File[] { stale, recent, other }) {
+            assertTrue(file.createNewFile());
+        }
+        final long twoDaysAgo = System.currentTimeMillis() - 2L * 24 * 60 * 60 * 1000;
+        assertTrue(stale.setLastModified(twoDaysAgo));
+        assertTrue(other.setLastModified(twoDaysAgo));
+
+        index(NodeIndex.Order.STORAGE, 16 * 1024).close();
+
+        assertFalse(stale.exists());
+        assertTrue(recent.exists());
+        assertTrue(other.exists());
+    }
+}
@@ -0,0 +1,80 @@
+/* Copyright (c) 2013 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+package org.geogit.storage;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+
+public class ChangedPathsFilterTest extends Assert {
+
+    @Test
+    public void testContainsPathsAndParents() {
+        ChangedPathsFilter filter = ChangedPathsFilter.create(ImmutableList.of("roads/highways/1",
+                "buildings/2"));
+        assertFalse(filter.isSaturated());
+        assertTrue(filter.mightContain("roads/highways/1"));
+        assertTrue(filter.mightContain("roads/highways"));
+        assertTrue(filter.mightContain("roads"));
+        assertTrue(filter.mightContain("buildings/2"));
+        assertTrue(filter.mightContain("buildings"));
+    }
+
+    @Test
+    public void testFalsePositiveRate() {
+        List<String> paths = Lists.newArrayList();
+        for (int i = 0; i < 1000; i++) {
+            paths.add("layer/" + i);
+        }
+        ChangedPathsFilter filter = ChangedPathsFilter.create(paths);
+        int falsePositives = 0;
+        for (int i = 0; i < 10000; i++) {
+            if (filter.mightContain("other/" + i)) {
+                falsePositives++;
+            }
+        }
+        assertTrue("too many false positives: " + falsePositives, falsePositives < 300);
+    }
+
+    @Test
+    public void testSaturated() {
+        List<String> paths = Lists.newArrayList();
+        for (int i = 0; i <= ChangedPathsFilter.MAX_PATHS; i++) {
+            paths.add("layer/" + i);
+        }
+        ChangedPathsFilter filter = ChangedPathsFilter.create(paths);
+        assertTrue(filter.isSaturated());
+        assertTrue(filter.mightContain("anything"));
+    }
+
+    @Test
+    public void testReadWrite() throws Exception {
+        ChangedPathsFilter filter = ChangedPathsFilter.create(ImmutableList.of("roads/1"));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        filter.write(new DataOutputStream(out));
+        ChangedPathsFilter.SATURATED.write(new DataOutputStream(out));
+
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(out.toByteArray()));
+        ChangedPathsFilter read = ChangedPathsFilter.read(in);
+        assertTrue(read.mightContain("roads/1"));
+        assertTrue(read.mightContain("roads"));
+        int falsePositives = 0;
+        for (int i = 0; i < 100; i++) {
+            if (read.mightContain("roads/" + (i + 2))) {
+                falsePositives++;
+            }
+        }
+        assertTrue(falsePositives < 10);
+        assertTrue(ChangedPathsFilter.read(in).isSaturated());
+    }
+}
@@ -0,0 +1,120 @@
+/* Copyright (c) 2013 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+package org.geogit.storage;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.geogit.api.Node;
+import org.geogit.api.ObjectId;
+import org.geogit.api.RevObject.TYPE;
+import org.geogit.api.RevTree;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+import com.google.common.primitives.UnsignedLong;
+
+public class NodePathStorageOrderTest extends Assert {
+
+    private final NodePathStorageOrder order = new NodePathStorageOrder();
+
+    /**
+     * The {@link UnsignedLong} based FNV-1a implementation the storage order used to be computed
+     * with, which existing trees were built upon
+     */
+    private static UnsignedLong referenceHash(final String name) {
+        final UnsignedLong prime = UnsignedLong.valueOf("1099511628211");
+        UnsignedLong hash = UnsignedLong.valueOf("14695981039346656037");
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            hash = UnsignedLong.fromLongBits(hash.longValue() ^ (byte) (c >> 8)).times(prime);
+            hash = UnsignedLong.fromLongBits(hash.longValue() ^ (byte) c).times(prime);
+        }
+        return hash;
+    }
+
+    private static int referenceBucket(final String name, final int depth) {
+        long bits = referenceHash(name).longValue();
+        int byteN = ((byte) (bits >> (8 * (7 - depth)))) & 0xFF;
+        return (byteN * RevTree.MAX_BUCKETS) / 256;
+    }
+
+    private static List<String> names(final int count) {
+        Random random = new Random(1);
+        List<String> names = Lists.newArrayListWithCapacity(count);
+        names.add("");
+        names.add("a");
+        names.add("Ñandú");
+        names.add("ÿĀ￿");
+        names.add("路径/名称");
+        for (int i = names.size(); i < count; i++) {
+            if (i % 3 == 0) {
+                names.add("Points." + i);
+            } else {
+                char[] chars = new char[1 + random.nextInt(20)];
+                for (int c = 0; c < chars.length; c++) {
+                    chars[c] = (char) random.nextInt(Character.MAX_VALUE + 1);
+                }
+                names.add(new String(chars));
+            }
+        }
+        return names;
+    }
+
+    @Test
+    public void testHashMatchesReference() {
+        for (String name : names(10000)) {
+            assertEquals(name, referenceHash(name).longValue(), NodePathStorageOrder.hash(name));
+        }
+    }
+
+    @Test
+    public void testBucketMatchesReference() {
+        for (String name : names(10000)) {
+            for (int depth = 0; depth < 8; depth++) {
+                int expected = referenceBucket(name, depth);
+                assertEquals(expected, order.bucket(name, depth).intValue());
+                assertEquals(expected, order.bucket(NodePathStorageOrder.hash(name), depth)
+                        .intValue());
+            }
+        }
+    }
+
+    @Test
+    public void testCompareMatchesReference() {
+        List<String> names = names(10000);
+        for (int i = 1; i < names.size(); i++) {
+            String n1 = names.get(i - 1);
+            String n2 = names.get(i);
+            int expected = Integer.signum(referenceHash(n1).compareTo(referenceHash(n2)));
+            assertEquals(expected, Integer.signum(order.compare(n1, n2)));
+            assertEquals(expected, Integer.signum(NodePathStorageOrder.compare(
+                    NodePathStorageOrder.hash(n1), NodePathStorageOrder.hash(n2))));
+        }
+    }
+
+    @Test
+    public void testNodeStorageOrderConsistency() {
+        List<String> names = names(5000);
+        List<Node> nodes = Lists.newArrayListWithCapacity(names.size());
+        for (String name : names) {
+            nodes.add(Node.create(name, ObjectId.forString(name), ObjectId.NULL, TYPE.FEATURE,
+                    null));
+        }
+        NodeStorageOrder nodeOrder = new NodeStorageOrder();
+        Collections.sort(nodes, nodeOrder);
+        Collections.sort(names, order);
+        for (int i = 0; i < names.size(); i++) {
+            Node node = nodes.get(i);
+            assertEquals(0, order.compare(names.get(i), node.getName()));
+            assertEquals(NodePathStorageOrder.hash(node.getName()), node.getNameHash());
+            for (int depth = 0; depth < 3; depth++) {
+                assertEquals(order.bucket(node.getName(), depth), nodeOrder.bucket(node, depth));
+            }
+        }
+    }
+}
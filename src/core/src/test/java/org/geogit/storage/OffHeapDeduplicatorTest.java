@@ -0,0 +1,158 @@
+/* Copyright (c) 2013 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+package org.geogit.storage;
+
+import java.io.File;
+import java.util.List;
+
+import org.geogit.api.ObjectId;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.google.common.collect.Lists;
+import com.google.common.hash.Hashing;
+
+public class OffHeapDeduplicatorTest extends Assert {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private File tempDir;
+
+    private OffHeapDeduplicator dedup;
+
+    @Before
+    public void setUp() throws Exception {
+        tempDir = tmp.newFolder("dedup");
+        // a budget of 1KB holds 16 ids before spilling
+        dedup = new OffHeapDeduplicator(tempDir, 1024, 1000, 0.01);
+    }
+
+    @After
+    public void tearDown() {
+        dedup.release();
+    }
+
+    private static ObjectId id(int i) {
+        return new ObjectId(Hashing.sha1().hashInt(i).asBytes());
+    }
+
+    @Test
+    public void testVisit() {
+        assertFalse(dedup.isDuplicate(id(1)));
+        assertFalse(dedup.visit(id(1)));
+        assertTrue(dedup.isDuplicate(id(1)));
+        assertTrue(dedup.visit(id(1)));
+        assertFalse(dedup.isDuplicate(id(2)));
+        assertFalse(dedup.visit(ObjectId.NULL));
+        assertTrue(dedup.visit(ObjectId.NULL));
+        assertEquals(2, dedup.getCount());
+        assertEquals(0, dedup.getSpilledBytes());
+    }
+
+    @Test
+    public void testSpillAndMergeRuns() {
+        final int count = 1000;
+        for (int i = 0; i < count; i++) {
+            assertFalse(dedup.visit(id(i)));
+        }
+        assertEquals(count, dedup.getCount());
+        assertTrue(dedup.getSpilledBytes() > 0);
+        // runs get merged as they pile up
+        assertTrue(tempDir.list().length <= 9);
+
+        for (int i = 0; i < count; i++) {
+            assertTrue(String.valueOf(i), dedup.isDuplicate(id(i)));
+            assertTrue(String.valueOf(i), dedup.visit(id(i)));
+        }
+        for (int i = count; i < 2 * count; i++) {
+            assertFalse(String.valueOf(i), dedup.isDuplicate(id(i)));
+        }
+        assertEquals(count, dedup.getCount());
+        assertTrue(dedup.getRunLookupCount() > 0);
+        assertTrue(dedup.getFilterMissCount() > 0);
+    }
+
+    @Test
+    public void testRemoveDuplicates() {
+        for (int i = 0; i < 100; i += 2) {
+            dedup.visit(id(i));
+        }
+        List<ObjectId> ids = Lists.newArrayList();
+        for (int i = 0; i < 100; i++) {
+            ids.add(id(i));
+        }
+        dedup.removeDuplicates(ids);
+        assertEquals(50, ids.size());
+        for (int i = 0; i < 50; i++) {
+            assertEquals(id(2 * i + 1), ids.get(i));
+        }
+    }
+
+    @Test
+    public void testReset() {
+        for (int i = 0; i < 100; i++) {
+            dedup.visit(id(i));
+        }
+        dedup.reset();
+        assertEquals(0, dedup.getCount());
+        assertEquals(0, dedup.getSpilledBytes());
+        assertEquals(0, tempDir.list().length);
+        for (int i = 0; i < 100; i++) {
+            assertFalse(dedup.isDuplicate(id(i)));
+        }
+    }
+
+    @Test
+    public void testRelease() {
+        for (int i = 0; i < 100; i++) {
+            dedup.visit(id(i));
+        }
+        dedup.release();
+        assertEquals(0, tempDir.list().length);
+        assertEquals(0, dedup.getMemoryUsage());
+        try {
+            dedup.visit(id(1));
+            fail("Expected IllegalStateException");
+        } catch (IllegalStateException e) {
+            assertTrue(true);
+        }
+    }
+
+    @Test
+    public void testStats() {
+        assertTrue(dedup.getMemoryUsage() > 0);
+        for (int i = 0; i < 100; i++) {
+            dedup.visit(id(i));
+            dedup.isDuplicate(id(i));
+        }
+        assertEquals(200, dedup.getLookupCount());
+        assertTrue(dedup.toString().contains("lookups: 200"));
+    }
+
+    @Test
+    public void testStaleRunFilesDeletedOnCreation() throws Exception {
+        File dir = tmp.newFolder("stale");
+        File stale = new File(dir, "geogitDedup1.run");
+        File recent = new File(dir, "geogitDedup2.run");
+        File other = new File(dir, "other.run");
+        for (File file : new File[] { stale, recent, other }) {
+            assertTrue(file.createNewFile());
+        }
+        final long twoDaysAgo = System.currentTimeMillis() - 2L * 24 * 60 * 60 * 1000;
+        assertTrue(stale.setLastModified(twoDaysAgo));
+        assertTrue(other.setLastModified(twoDaysAgo));
+
+        new OffHeapDeduplicator(dir, 1024, 1000, 0.01).release();
+
+        assertFalse(stale.exists());
+        assertTrue(recent.exists());
+        assertTrue(other.exists());
+    }
+}
@@ -0,0 +1,118 @@
+/* Copyright (c) 2013 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+package org.geogit.storage.datastream;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import org.geogit.storage.FieldType;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.common.base.Optional;
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.io.WKBWriter;
+import com.vividsolutions.jts.io.WKTReader;
+
+public class CompactGeometryEncodingTest extends Assert {
+
+    private static Geometry geom(String wkt) throws Exception {
+        return new WKTReader().read(wkt);
+    }
+
+    private static Geometry roundTrip(Geometry geometry) throws IOException {
+        byte[] bytes = CompactGeometryEncoding.encode(geometry);
+        assertNotNull(geometry.toText(), bytes);
+        assertTrue(CompactGeometryEncoding.isEncoded(bytes));
+        Geometry decoded = CompactGeometryEncoding.decode(bytes);
+        assertEquals(geometry.getGeometryType(), decoded.getGeometryType());
+        assertTrue(geometry.toText(), geometry.equalsExact(decoded));
+        return decoded;
+    }
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        roundTrip(geom("POINT(1 2)"));
+        roundTrip(geom("POINT(-180 -90)"));
+        roundTrip(geom("LINESTRING(0.5 0.25, -1.125 3, 100000.001 -0.000001)"));
+        roundTrip(geom("POLYGON((0 0, 10 0, 10 10, 0 10, 0 0), (1 1, 2 1, 2 2, 1 1))"));
+        roundTrip(geom("MULTIPOINT((1 1), (-2.5 3))"));
+        roundTrip(geom("MULTILINESTRING((0 0, 1 1), (2 2, 3 3.75))"));
+        roundTrip(geom("MULTIPOLYGON(((0 0, 1 0, 1 1, 0 0)), ((5 5, 6 5, 6 6, 5 5)))"));
+        roundTrip(geom("GEOMETRYCOLLECTION(POINT(1 1), LINESTRING(0 0, 1.5 1.5), "
+                + "POLYGON((0 0, 1 0, 1 1, 0 0)))"));
+    }
+
+    @Test
+    public void testEmptyGeometries() throws Exception {
+        GeometryFactory factory = new GeometryFactory();
+        assertTrue(roundTrip(factory.createPoint((Coordinate) null)).isEmpty());
+        assertTrue(roundTrip(geom("LINESTRING EMPTY")).isEmpty());
+        assertTrue(roundTrip(geom("POLYGON EMPTY")).isEmpty());
+        assertTrue(roundTrip(geom("MULTIPOLYGON EMPTY")).isEmpty());
+        assertTrue(roundTrip(geom("GEOMETRYCOLLECTION EMPTY")).isEmpty());
+    }
+
+    @Test
+    public void testPrecision() throws Exception {
+        assertEquals(0, CompactGeometryEncoding.precision(geom("POINT(1 -2)")));
+        assertEquals(3, CompactGeometryEncoding.precision(geom("LINESTRING(1.5 2, 0.125 1)")));
+        assertEquals(7, CompactGeometryEncoding.precision(geom("POINT(-3.1234567 40.1)")));
+        assertEquals(-1, CompactGeometryEncoding.precision(geom("POINT(" + Math.PI + " 0)")));
+        // representable with 7 digits one by one, but too large to scale together
+        assertEquals(-1, CompactGeometryEncoding.precision(geom("LINESTRING(1e9 0, 0 1e-7)")));
+    }
+
+    @Test
+    public void testNotRepresentable() throws Exception {
+        assertNull(CompactGeometryEncoding.encode(geom("POINT(" + Math.PI + " 1)")));
+        assertNull(CompactGeometryEncoding.encode(geom("POINT(1e300 1)")));
+        GeometryFactory factory = new GeometryFactory();
+        assertNull(CompactGeometryEncoding.encode(factory.createPoint(new Coordinate(-0.0, 1))));
+    }
+
+    @Test
+    public void testSmallerThanWKB() throws Exception {
+        Geometry line = geom("LINESTRING(-58.381 -34.603, -58.382 -34.604, -58.3835 -34.6021, "
+                + "-58.3851 -34.6003, -58.3866 -34.5992)");
+        byte[] compact = CompactGeometryEncoding.encode(line);
+        byte[] wkb = new WKBWriter().write(line);
+        assertTrue(compact.length + " vs " + wkb.length, compact.length < wkb.length / 3);
+    }
+
+    @Test
+    public void testValueSerializer() throws Exception {
+        Geometry exact = geom("POLYGON((0 0, 10 0, 10 10.5, 0 0))");
+        Geometry inexact = geom("POINT(" + Math.PI + " " + Math.E + ")");
+        assertEquals(exact, writeRead(exact));
+        assertEquals(inexact, writeRead(inexact));
+    }
+
+    @Test
+    public void testReadsWKB() throws Exception {
+        // a value written as WKB, as all geometries were before the compact encoding
+        Geometry geometry = geom("LINESTRING(0 0, 1.5 1.5)");
+        byte[] wkb = new WKBWriter().write(geometry);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        DataOutputStream data = new DataOutputStream(out);
+        data.writeInt(wkb.length);
+        data.write(wkb);
+        Object read = DataStreamValueSerializer.read(FieldType.LINESTRING, new DataInputStream(
+                new ByteArrayInputStream(out.toByteArray())));
+        assertEquals(geometry, read);
+    }
+
+    private static Object writeRead(Geometry geometry) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        DataStreamValueSerializer.write(Optional.<Object> of(geometry), new DataOutputStream(out));
+        return DataStreamValueSerializer.read(FieldType.forValue(Optional.<Object> of(geometry)),
+                new DataInputStream(new ByteArrayInputStream(out.toByteArray())));
+    }
+}
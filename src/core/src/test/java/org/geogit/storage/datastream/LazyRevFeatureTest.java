@@ -0,0 +1,99 @@
+/* Copyright (c) 2013 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+package org.geogit.storage.datastream;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.UUID;
+
+import org.geogit.api.ObjectId;
+import org.geogit.api.RevFeature;
+import org.geogit.api.RevObject;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.io.WKTReader;
+
+public class LazyRevFeatureTest extends Assert {
+
+    private static RevFeature feature(String id, Object... values) {
+        ImmutableList.Builder<Optional<Object>> builder = ImmutableList.builder();
+        for (Object value : values) {
+            builder.add(Optional.fromNullable(value));
+        }
+        return new RevFeature(ObjectId.forString(id), builder.build());
+    }
+
+    private static Geometry geom(String wkt) throws Exception {
+        return new WKTReader().read(wkt);
+    }
+
+    private static byte[] write(RevFeature... features) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (RevFeature feature : features) {
+            new FeatureWriter().write(feature, out);
+        }
+        return out.toByteArray();
+    }
+
+    private static RevFeature roundTrip(RevFeature feature) throws IOException {
+        RevFeature read = new FeatureReader().read(feature.getId(),
+                new ByteArrayInputStream(write(feature)));
+        assertTrue(read instanceof LazyRevFeature);
+        return read;
+    }
+
+    @Test
+    public void testGet() throws Exception {
+        RevFeature feature = feature("f1", "a string", null, Integer.valueOf(12),
+                geom("LINESTRING(0 0, 1 1, 2 0)"), Double.valueOf(1.5),
+                UUID.fromString("bd882d24-0fe9-11e1-a736-03b3c0d0d06d"), new int[] { 1, 2 });
+        RevFeature lazy = roundTrip(feature);
+        assertEquals(feature.getId(), lazy.getId());
+        assertEquals(feature.size(), lazy.size());
+        // out of order, and without decoding the values in between
+        assertEquals(feature.get(3), lazy.get(3));
+        assertEquals(feature.get(1), lazy.get(1));
+        assertEquals(feature.get(0), lazy.get(0));
+        assertSame(lazy.get(3).get(), lazy.get(3).get());
+        assertArrayEquals((int[]) feature.get(6).get(), (int[]) lazy.get(6).get());
+    }
+
+    @Test
+    public void testGetValues() throws Exception {
+        RevFeature feature = feature("f1", "a string", Boolean.TRUE, Long.valueOf(7),
+                geom("POINT(1 2)"), null);
+        RevFeature lazy = roundTrip(feature);
+        assertEquals(feature.getValues(), lazy.getValues());
+        assertSame(lazy.getValues(), lazy.getValues());
+        for (int i = 0; i < feature.size(); i++) {
+            assertEquals(feature.get(i), lazy.get(i));
+        }
+    }
+
+    @Test
+    public void testNoValues() throws Exception {
+        RevFeature lazy = roundTrip(feature("empty"));
+        assertEquals(0, lazy.size());
+        assertTrue(lazy.getValues().isEmpty());
+    }
+
+    @Test
+    public void testReadsOnlyItsOwnBytes() throws Exception {
+        RevFeature feature1 = feature("f1", "first", geom("POINT(1 1)"));
+        RevFeature feature2 = feature("f2", Integer.valueOf(2), "second");
+        InputStream in = new ByteArrayInputStream(write(feature1, feature2));
+        RevObject read1 = new ObjectReader().read(feature1.getId(), in);
+        RevObject read2 = new ObjectReader().read(feature2.getId(), in);
+        assertEquals(feature1.getValues(), ((RevFeature) read1).getValues());
+        assertEquals(feature2.getValues(), ((RevFeature) read2).getValues());
+        assertEquals(-1, in.read());
+    }
+}
@@ -0,0 +1,166 @@
+/* Copyright (c) 2013 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+package org.geogit.storage.datastream;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import java.util.Map;
+
+import org.geogit.api.Bucket;
+import org.geogit.api.Node;
+import org.geogit.api.ObjectId;
+import org.geogit.api.RevObject;
+import org.geogit.api.RevObject.TYPE;
+import org.geogit.api.RevTree;
+import org.geogit.api.RevTreeImpl;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.vividsolutions.jts.geom.Envelope;
+
+public class LazyRevTreeTest extends Assert {
+
+    private static Node node(String name, TYPE type, boolean bounded) {
+        return Node.create(name, ObjectId.forString(name), ObjectId.forString("md" + name), type,
+                bounded ? new Envelope(0, 1, 0, 1) : null);
+    }
+
+    private static RevTree leafTree(int nFeatures, int nTrees) {
+        List<Node> features = Lists.newArrayList();
+        for (int i = 0; i < nFeatures; i++) {
+            features.add(node("feature-" + i, TYPE.FEATURE, i % 2 == 0));
+        }
+        List<Node> trees = Lists.newArrayList();
+        for (int i = 0; i < nTrees; i++) {
+            trees.add(node("tree-" + i, TYPE.TREE, i % 2 == 1));
+        }
+        return RevTreeImpl.createLeafTree(ObjectId.forString("tree"), nFeatures, features, trees);
+    }
+
+    private static Envelope bounds(Node node) {
+        Envelope env = new Envelope();
+        node.expand(env);
+        return env;
+    }
+
+    private static byte[] write(RevTree... trees) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (RevTree tree : trees) {
+            new TreeWriter().write(tree, out);
+        }
+        return out.toByteArray();
+    }
+
+    private static RevTree roundTrip(RevTree tree) throws IOException {
+        RevTree read = new TreeReader().read(tree.getId(), new ByteArrayInputStream(write(tree)));
+        assertTrue(read instanceof LazyRevTree);
+        return read;
+    }
+
+    @Test
+    public void testLeafTree() throws IOException {
+        RevTree tree = leafTree(300, 50);
+        RevTree lazy = roundTrip(tree);
+        assertEquals(tree.getId(), lazy.getId());
+        assertEquals(tree.size(), lazy.size());
+        assertEquals(tree.numTrees(), lazy.numTrees());
+        assertFalse(lazy.isEmpty());
+        assertFalse(lazy.buckets().isPresent());
+        assertEquals(tree.features(), lazy.features());
+        assertEquals(tree.trees(), lazy.trees());
+        assertEquals(ImmutableList.copyOf(tree.children()), ImmutableList.copyOf(lazy.children()));
+    }
+
+    @Test
+    public void testChild() throws IOException {
+        RevTree tree = leafTree(300, 50);
+        RevTree lazy = roundTrip(tree);
+        for (Node node : ImmutableList.copyOf(tree.children())) {
+            Node child = lazy.child(node.getName()).get();
+            assertEquals(node, child);
+            assertEquals(node.getMetadataId(), child.getMetadataId());
+            assertEquals(node.getType(), child.getType());
+            assertEquals(bounds(node), bounds(child));
+        }
+        assertFalse(lazy.child("feature-300").isPresent());
+        assertFalse(lazy.child("tree-50").isPresent());
+        assertFalse(lazy.child("").isPresent());
+    }
+
+    @Test
+    public void testChildOutOfStorageOrder() throws IOException {
+        ImmutableList<Node> features = ImmutableList.of(node("c", TYPE.FEATURE, false),
+                node("b", TYPE.FEATURE, false), node("a", TYPE.FEATURE, false));
+        RevTree tree = RevTreeImpl.createLeafTree(ObjectId.forString("unsorted"), 3, features,
+                ImmutableList.<Node> of());
+        RevTree lazy = roundTrip(tree);
+        assertEquals(features, lazy.features().get());
+        for (Node node : features) {
+            assertEquals(node, lazy.child(node.getName()).get());
+        }
+        assertFalse(lazy.child("d").isPresent());
+    }
+
+    @Test
+    public void testNonAsciiNames() throws IOException {
+        List<Node> features = Lists.newArrayList(node("\u00e1rbol", TYPE.FEATURE, true),
+                node("\u6811", TYPE.FEATURE, false), node("nul\u0000char", TYPE.FEATURE, true));
+        RevTree tree = RevTreeImpl.createLeafTree(ObjectId.forString("unicode"), 3, features,
+                ImmutableList.<Node> of());
+        RevTree lazy = roundTrip(tree);
+        assertEquals(tree.features(), lazy.features());
+        assertEquals(ImmutableList.copyOf(tree.children()), ImmutableList.copyOf(lazy.children()));
+        for (Node node : features) {
+            assertEquals(node, lazy.child(node.getName()).get());
+        }
+    }
+
+    @Test
+    public void testBucketTree() throws IOException {
+        Map<Integer, Bucket> buckets = Maps.newTreeMap();
+        buckets.put(3, Bucket.create(ObjectId.forString("b3"), new Envelope(0, 1, 0, 1)));
+        buckets.put(17, Bucket.create(ObjectId.forString("b17"), null));
+        RevTree tree = RevTreeImpl.createNodeTree(ObjectId.forString("buckets"), 1000, 12,
+                buckets);
+        RevTree lazy = roundTrip(tree);
+        assertEquals(1000, lazy.size());
+        assertEquals(12, lazy.numTrees());
+        assertFalse(lazy.isEmpty());
+        assertFalse(lazy.features().isPresent());
+        assertFalse(lazy.trees().isPresent());
+        assertEquals(tree.buckets(), lazy.buckets());
+    }
+
+    @Test
+    public void testEmptyTree() throws IOException {
+        RevTree tree = RevTreeImpl.createLeafTree(ObjectId.forString("empty"), 0,
+                ImmutableList.<Node> of(), ImmutableList.<Node> of());
+        RevTree lazy = roundTrip(tree);
+        assertTrue(lazy.isEmpty());
+        assertFalse(lazy.features().isPresent());
+        assertFalse(lazy.trees().isPresent());
+        assertFalse(lazy.buckets().isPresent());
+        assertFalse(lazy.children().hasNext());
+        assertFalse(lazy.child("any").isPresent());
+    }
+
+    @Test
+    public void testReadsOnlyItsOwnBytes() throws IOException {
+        RevTree tree1 = leafTree(10, 2);
+        RevTree tree2 = leafTree(3, 0);
+        InputStream in = new ByteArrayInputStream(write(tree1, tree2));
+        RevObject read1 = new ObjectReader().read(tree1.getId(), in);
+        RevObject read2 = new ObjectReader().read(tree2.getId(), in);
+        assertEquals(tree1.features(), ((RevTree) read1).features());
+        assertEquals(tree2.features(), ((RevTree) read2).features());
+        assertEquals(-1, in.read());
+    }
+}
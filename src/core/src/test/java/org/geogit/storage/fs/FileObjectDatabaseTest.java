@@ -0,0 +1,344 @@
+/* Copyright (c) 2013 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+package org.geogit.storage.fs;
+
+import java.io.File;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.geogit.api.ObjectId;
+import org.geogit.api.RevFeature;
+import org.geogit.api.RevObject;
+import org.geogit.api.TestPlatform;
+import org.geogit.storage.BulkOpListener;
+import org.geogit.storage.BulkOpListener.CountingListener;
+import org.geogit.storage.ConfigDatabase;
+import org.geogit.storage.RawObject;
+import org.geogit.storage.memory.HeapObjectDatabse;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Iterators;
+import com.google.common.collect.Lists;
+
+public class FileObjectDatabaseTest extends Assert {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private ConfigDatabase configDB;
+
+    private FileObjectDatabase db;
+
+    @Before
+    public void setUp() {
+        File root = folder.getRoot();
+        folder.newFolder(".geogit");
+        File home = folder.newFolder("home");
+        TestPlatform platform = new TestPlatform(root);
+        platform.setUserHome(home);
+        configDB = new IniFileConfigDatabase(platform);
+        db = new FileObjectDatabase(platform, configDB);
+        db.open();
+    }
+
+    @After
+    public void tearDown() {
+        if (db != null) {
+            db.close();
+        }
+    }
+
+    private List<RevObject> createObjects(int count) {
+        List<RevObject> objects = Lists.newArrayListWithCapacity(count);
+        for (int i = 0; i < count; i++) {
+            ImmutableList<Optional<Object>> values = ImmutableList.of(Optional
+                    .<Object> of("value " + i));
+            objects.add(RevFeature.build(values));
+        }
+        return objects;
+    }
+
+    private List<ObjectId> ids(List<RevObject> objects) {
+        List<ObjectId> ids = Lists.newArrayListWithCapacity(objects.size());
+        for (RevObject o : objects) {
+            ids.add(o.getId());
+        }
+        return ids;
+    }
+
+    @Test
+    public void testPutAllCreatesPack() {
+        List<RevObject> objects = createObjects(1000);
+        CountingListener listener = BulkOpListener.newCountingListener();
+        db.putAll(objects.iterator(), listener);
+        assertEquals(1000, listener.inserted());
+        assertEquals(1, db.getPackCount());
+
+        for (RevObject o : objects) {
+            assertTrue(db.exists(o.getId()));
+            assertEquals(o, db.get(o.getId()));
+        }
+
+        listener = BulkOpListener.newCountingListener();
+        db.putAll(objects.iterator(), listener);
+        assertEquals(0, listener.inserted());
+        assertEquals(1000, listener.found());
+        assertEquals(1, db.getPackCount());
+    }
+
+    @Test
+    public void testPacksSurviveReopen() {
+        List<RevObject> objects = createObjects(500);
+        db.putAll(objects.iterator());
+        db.close();
+        db.open();
+        assertEquals(1, db.getPackCount());
+        for (RevObject o : objects) {
+            assertEquals(o, db.get(o.getId()));
+        }
+    }
+
+    @Test
+    public void testMaxPackSize() {
+        configDB.put("file.pack.maxsize", 4 * 1024);
+        db.close();
+        db.open();
+        db.putAll(createObjects(1000).iterator());
+        assertTrue(db.getPackCount() > 1);
+        File packDir = new File(new File(folder.getRoot(), ".geogit/objects"), "pack");
+        for (File pack : packDir.listFiles()) {
+            if (pack.getName().endsWith(PackFile.DATA_EXTENSION)) {
+                assertTrue(pack.length() <= 4 * 1024);
+            }
+        }
+    }
+
+    @Test
+    public void testMaxPackSizeLimit() {
+        db.close();
+        configDB.put("file.pack.maxsize", Integer.MAX_VALUE);
+        try {
+            db.open();
+            fail("expected IAE");
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage().contains("file.pack.maxsize"));
+        }
+    }
+
+    @Test
+    public void testGetAll() {
+        List<RevObject> objects = createObjects(300);
+        db.putAll(objects.subList(0, 200).iterator());
+        for (RevObject o : objects.subList(200, 300)) {
+            assertTrue(db.put(o));
+        }
+        ObjectId missing = ObjectId.forString("missing");
+        List<ObjectId> ids = Lists.newArrayList(ids(objects));
+        ids.add(missing);
+
+        CountingListener listener = BulkOpListener.newCountingListener();
+        Iterator<RevObject> all = db.getAll(ids, listener);
+        Set<RevObject> found = ImmutableSet.copyOf(all);
+        assertEquals(ImmutableSet.copyOf(objects), found);
+        assertEquals(300, listener.found());
+        assertEquals(1, listener.notFound());
+    }
+
+    @Test
+    public void testRawCopy() {
+        List<RevObject> objects = createObjects(300);
+        HeapObjectDatabse source = new HeapObjectDatabse();
+        source.open();
+        source.putAll(objects.iterator());
+
+        CountingListener listener = BulkOpListener.newCountingListener();
+        db.putRawAll(source.getRawAll(ids(objects), BulkOpListener.NOOP_LISTENER), listener);
+        assertEquals(300, listener.inserted());
+        assertEquals(1, db.getPackCount());
+        for (RevObject o : objects) {
+            assertEquals(o, db.get(o.getId()));
+        }
+
+        // and back, from both loose and packed objects
+        HeapObjectDatabse target = new HeapObjectDatabse();
+        target.open();
+        ObjectId missing = ObjectId.forString("missing");
+        List<ObjectId> ids = Lists.newArrayList(ids(objects));
+        ids.add(missing);
+        CountingListener readListener = BulkOpListener.newCountingListener();
+        target.putRawAll(db.getRawAll(ids, readListener), BulkOpListener.NOOP_LISTENER);
+        assertEquals(300, readListener.found());
+        assertEquals(1, readListener.notFound());
+        assertEquals(ImmutableSet.copyOf(objects), ImmutableSet.copyOf(target.getAll(ids)));
+
+        listener = BulkOpListener.newCountingListener();
+        db.putRawAll(source.getRawAll(ids(objects), BulkOpListener.NOOP_LISTENER), listener);
+        assertEquals(0, listener.inserted());
+        assertEquals(300, listener.found());
+    }
+
+    @Test
+    public void testRawObject() {
+        RevObject object = createObjects(1).get(0);
+        RawObject raw = RawObject.of(object);
+        assertEquals(object.getId(), raw.getId());
+        assertEquals(object, raw.parse());
+
+        RawObject recompressed = RawObject.compress(raw.getId(), raw.decompress());
+        assertEquals(object, recompressed.parse());
+    }
+
+    @Test
+    public void testRepack() {
+        List<RevObject> objects = createObjects(100);
+        for (RevObject o : objects) {
+            assertTrue(db.put(o));
+        }
+        assertEquals(0, db.getPackCount());
+        assertEquals(100, db.repack());
+        assertEquals(1, db.getPackCount());
+        assertEquals(0, db.repack());
+        for (RevObject o : objects) {
+            assertEquals(o, db.get(o.getId()));
+        }
+        ObjectId id = objects.get(0).getId();
+        List<ObjectId> matches = db.lookUp(id.toString().substring(0, 8));
+        assertTrue(matches.contains(id));
+    }
+
+    @Test
+    public void testRepackConsolidatesSmallPacks() {
+        List<RevObject> objects = createObjects(10 * 150);
+        for (List<RevObject> batch : Lists.partition(objects, 150)) {
+            db.putAll(batch.iterator());
+        }
+        // the background repack may have started consolidating already
+        db.repack();
+        assertEquals(1, db.getPackCount());
+        assertEquals(0, db.repack());
+        for (RevObject o : objects) {
+            assertEquals(o, db.get(o.getId()));
+        }
+    }
+
+    @Test
+    public void testPutWhileRepacking() throws Exception {
+        final List<RevObject> objects = createObjects(1000);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<?>> puts = Lists.newArrayList();
+            for (final List<RevObject> partition : Lists.partition(objects, 250)) {
+                puts.add(executor.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        for (RevObject o : partition) {
+                            db.put(o);
+                        }
+                    }
+                }));
+            }
+            for (Future<?> put : puts) {
+                while (!put.isDone()) {
+                    db.repack();
+                }
+                put.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+        db.repack();
+        for (RevObject o : objects) {
+            assertEquals(o, db.get(o.getId()));
+        }
+    }
+
+    @Test
+    public void testDeleteDoesNotRewritePack() {
+        List<RevObject> objects = createObjects(500);
+        db.putAll(objects.iterator());
+        assertEquals(1, db.getPackCount());
+        File packDir = new File(new File(folder.getRoot(), ".geogit/objects"), "pack");
+        Set<String> packFiles = ImmutableSet.copyOf(packDir.list());
+
+        ObjectId deleted = objects.get(400).getId();
+        assertTrue(db.delete(deleted));
+        assertFalse(db.exists(deleted));
+        assertNull(db.getIfPresent(deleted));
+        assertTrue(db.exists(objects.get(401).getId()));
+        assertTrue(ImmutableSet.copyOf(packDir.list()).containsAll(packFiles));
+
+        db.close();
+        db.open();
+        assertEquals(1, db.getPackCount());
+        assertFalse(db.exists(deleted));
+        assertFalse(Iterators.contains(db.listIds(), deleted));
+        assertTrue(db.exists(objects.get(401).getId()));
+
+        // deleted objects can be stored again
+        assertTrue(db.put(objects.get(400)));
+        assertEquals(objects.get(400), db.get(deleted));
+    }
+
+    @Test
+    public void testDeleteAllRepeatedIds() {
+        List<RevObject> objects = createObjects(200);
+        db.putAll(objects.iterator());
+        assertEquals(1, db.getPackCount());
+
+        // as many ids as objects in the pack, but not all of them
+        List<ObjectId> toDelete = Lists.newArrayList(ids(objects).subList(0, 199));
+        toDelete.add(objects.get(0).getId());
+
+        CountingListener listener = BulkOpListener.newCountingListener();
+        assertEquals(199, db.deleteAll(toDelete.iterator(), listener));
+        assertEquals(199, listener.deleted());
+        assertEquals(1, listener.notFound());
+
+        ObjectId kept = objects.get(199).getId();
+        assertEquals(objects.get(199), db.get(kept));
+        assertFalse(db.exists(objects.get(0).getId()));
+        db.close();
+        db.open();
+        assertEquals(objects.get(199), db.get(kept));
+    }
+
+    @Test
+    public void testDeleteAll() {
+        List<RevObject> objects = createObjects(400);
+        db.putAll(objects.subList(0, 300).iterator());
+        for (RevObject o : objects.subList(300, 400)) {
+            assertTrue(db.put(o));
+        }
+
+        List<ObjectId> toDelete = Lists.newArrayList(ids(objects).subList(250, 350));
+        toDelete.add(ObjectId.forString("missing"));
+
+        CountingListener listener = BulkOpListener.newCountingListener();
+        long deleted = db.deleteAll(toDelete.iterator(), listener);
+        assertEquals(100, deleted);
+        assertEquals(100, listener.deleted());
+        assertEquals(1, listener.notFound());
+
+        for (int i = 0; i < objects.size(); i++) {
+            ObjectId id = objects.get(i).getId();
+            assertEquals(i < 250 || i >= 350, db.exists(id));
+        }
+        assertFalse(db.delete(objects.get(260).getId()));
+        assertTrue(db.delete(objects.get(0).getId()));
+        assertFalse(db.exists(objects.get(0).getId()));
+    }
+}
@@ -0,0 +1,160 @@
+/* Copyright (c) 2013 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+package org.geogit.storage.spatial;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.geogit.api.Node;
+import org.geogit.api.ObjectId;
+import org.geogit.api.Ref;
+import org.geogit.api.RevTree;
+import org.geogit.api.plumbing.RevObjectParse;
+import org.geogit.test.integration.RepositoryTestCase;
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.vividsolutions.jts.geom.Envelope;
+
+public class SpatialIndexDatabaseTest extends RepositoryTestCase {
+
+    private File directory;
+
+    private SpatialIndexDatabase database;
+
+    @Override
+    protected void setUpInternal() throws Exception {
+        directory = new File(envHome, "spatial");
+        database = new SpatialIndexDatabase(directory);
+        insertAndAdd(points1, points2, points3);
+    }
+
+    private ObjectId pointsTreeId() {
+        return geogit.command(RevObjectParse.class)
+                .setRefSpec(Ref.STAGE_HEAD + ":" + pointsName).call(RevTree.class).get().getId();
+    }
+
+    private List<String> names(List<Node> nodes) {
+        List<String> names = Lists.newArrayList();
+        for (Node node : nodes) {
+            names.add(node.getName());
+        }
+        return names;
+    }
+
+    @Test
+    public void testBuildAndQuery() throws Exception {
+        ObjectId treeId = pointsTreeId();
+        SpatialIndex index = database.get(repo, pointsName, treeId);
+
+        assertEquals(treeId, index.getTreeId());
+        assertEquals(3, index.size());
+        assertEquals(new Envelope(1, 3, 1, 3), index.getBounds());
+        // in tree order, not name order
+        assertEquals(ImmutableSet.of(idP1, idP2),
+                ImmutableSet.copyOf(names(index.query(new Envelope(0.5, 2.5, 0.5, 2.5)))));
+        assertTrue(index.query(new Envelope(10, 20, 10, 20)).isEmpty());
+        assertTrue(new File(directory, treeId + ".sidx").exists());
+
+        // same instance while cached
+        assertSame(index, database.get(repo, pointsName, treeId));
+    }
+
+    @Test
+    public void testIncrementalUpdate() throws Exception {
+        final ObjectId oldTreeId = pointsTreeId();
+        database.get(repo, pointsName, oldTreeId);
+
+        // points1 moves to 1,2 and points2 goes away
+        insertAndAdd(points1_modified);
+        deleteAndAdd(points2);
+        final ObjectId newTreeId = pointsTreeId();
+
+        SpatialIndex index = database.get(repo, pointsName, newTreeId);
+        assertEquals(2, index.size());
+        assertEquals(ImmutableList.of(idP1), names(index.query(new Envelope(1, 1, 2, 2))));
+        assertTrue(index.query(new Envelope(2, 2, 2, 2)).isEmpty());
+        assertEquals(new Envelope(1, 3, 2, 3), index.getBounds());
+
+        // both versions are kept, and can be read back
+        assertTrue(new File(directory, oldTreeId + ".sidx").exists());
+        assertTrue(new File(directory, newTreeId + ".sidx").exists());
+        SpatialIndex reloaded = new SpatialIndexDatabase(directory).get(repo, pointsName,
+                newTreeId);
+        assertEquals(names(index.query(index.getBounds())),
+                names(reloaded.query(reloaded.getBounds())));
+    }
+
+    @Test
+    public void testOldVersionsPruned() throws Exception {
+        List<ObjectId> treeIds = Lists.newArrayList();
+        for (int i = 0; i <= SpatialIndexDatabase.MAX_VERSIONS_PER_PATH; i++) {
+            insertAndAdd(feature(pointsType, idP1, "StringProp1_1", new Integer(i), "POINT(" + i
+                    + " 1)"));
+            treeIds.add(pointsTreeId());
+            database.get(repo, pointsName, treeIds.get(i));
+        }
+        assertFalse(new File(directory, treeIds.get(0) + ".sidx").exists());
+        for (ObjectId treeId : treeIds.subList(1, treeIds.size())) {
+            assertTrue(new File(directory, treeId + ".sidx").exists());
+        }
+        // the pruned version is rebuilt on demand
+        SpatialIndex index = new SpatialIndexDatabase(directory).get(repo, pointsName,
+                treeIds.get(0));
+        assertEquals(ImmutableList.of(idP1), names(index.query(new Envelope(0, 0, 1, 1))));
+    }
+
+    @Test
+    public void testConcurrentGet() throws Exception {
+        final ObjectId treeId = pointsTreeId();
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<SpatialIndex>> results = Lists.newArrayList();
+            for (int i = 0; i < 8; i++) {
+                results.add(executor.submit(new Callable<SpatialIndex>() {
+                    @Override
+                    public SpatialIndex call() {
+                        return database.get(repo, pointsName, treeId);
+                    }
+                }));
+            }
+            // built once, and shared by all the callers
+            SpatialIndex index = results.get(0).get();
+            for (Future<SpatialIndex> result : results) {
+                assertSame(index, result.get());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testQueryOrderMatchesTreeOrder() throws Exception {
+        SpatialIndex index = database.get(repo, pointsName, pointsTreeId());
+        RevTree tree = geogit.command(RevObjectParse.class).setObjectId(pointsTreeId())
+                .call(RevTree.class).get();
+        assertEquals(names(tree.features().get()), names(index.query(index.getBounds())));
+    }
+
+    @Test
+    public void testReadWrite() throws Exception {
+        SpatialIndex index = database.get(repo, pointsName, pointsTreeId());
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        index.write(out);
+        SpatialIndex read = SpatialIndex.read(new ByteArrayInputStream(out.toByteArray()));
+        assertEquals(index.getTreeId(), read.getTreeId());
+        assertEquals(index.size(), read.size());
+        assertEquals(index.getBounds(), read.getBounds());
+        assertEquals(names(index.query(index.getBounds())), names(read.query(read.getBounds())));
+    }
+}
@@ -14,7 +14,9 @@ import org.geogit.api.porcelain.BlameException.StatusCode;
 import org.geogit.api.porcelain.BlameOp;
 import org.geogit.api.porcelain.BlameReport;
 import org.geogit.api.porcelain.CommitOp;
+import org.geogit.api.porcelain.LayerBlameOp;
 import org.geogit.api.porcelain.ValueAndCommit;
+import org.geogit.repository.CachingDepthSearch;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.ExpectedException;
@@ -122,6 +124,69 @@ public class BlameOpTest extends RepositoryTestCase {
         }
     }
 
+    @Test
+    public void testBlameSharingSearch() throws Exception {
+        insertAndAdd(points1, points2);
+        RevCommit firstCommit = geogit.command(CommitOp.class).call();
+        insertAndAdd(points1_modified);
+        RevCommit secondCommit = geogit.command(CommitOp.class).call();
+        CachingDepthSearch search = new CachingDepthSearch(repo.getObjectDatabase());
+
+        BlameReport report = geogit.command(BlameOp.class)
+                .setPath(NodeRef.appendChild(pointsName, idP1)).setSearch(search).call();
+        for (ValueAndCommit valueAndCommit : report.getChanges().values()) {
+            assertEquals(secondCommit, valueAndCommit.commit);
+        }
+        report = geogit.command(BlameOp.class).setPath(NodeRef.appendChild(pointsName, idP2))
+                .setSearch(search).call();
+        for (ValueAndCommit valueAndCommit : report.getChanges().values()) {
+            assertEquals(firstCommit, valueAndCommit.commit);
+        }
+    }
+
+    @Test
+    public void testLayerBlame() throws Exception {
+        insertAndAdd(points1, points2);
+        RevCommit firstCommit = geogit.command(CommitOp.class).call();
+        Feature pointsModified = feature(pointsType, idP1, "StringProp1_3", new Integer(1000),
+                "POINT(1 1)");
+        insertAndAdd(pointsModified);
+        RevCommit secondCommit = geogit.command(CommitOp.class).call();
+        insertAndAdd(points3);
+        RevCommit thirdCommit = geogit.command(CommitOp.class).call();
+
+        Map<String, BlameReport> reports = geogit.command(LayerBlameOp.class)
+                .setPath(pointsName).call();
+        assertEquals(3, reports.size());
+
+        Map<String, ValueAndCommit> changes = reports.get(
+                NodeRef.appendChild(pointsName, idP1)).getChanges();
+        assertEquals(secondCommit, changes.get("sp").commit);
+        assertEquals(firstCommit, changes.get("ip").commit);
+        assertEquals(firstCommit, changes.get("pp").commit);
+        assertEquals(pointsModified.getProperty("sp").getValue(), changes.get("sp").value.get());
+
+        for (ValueAndCommit valueAndCommit : reports
+                .get(NodeRef.appendChild(pointsName, idP2)).getChanges().values()) {
+            assertEquals(firstCommit, valueAndCommit.commit);
+        }
+        for (ValueAndCommit valueAndCommit : reports
+                .get(NodeRef.appendChild(pointsName, idP3)).getChanges().values()) {
+            assertEquals(thirdCommit, valueAndCommit.commit);
+        }
+
+        // same as blaming each feature on its own
+        for (Map.Entry<String, BlameReport> e : reports.entrySet()) {
+            Map<String, ValueAndCommit> expected = geogit.command(BlameOp.class)
+                    .setPath(e.getKey()).call().getChanges();
+            Map<String, ValueAndCommit> actual = e.getValue().getChanges();
+            assertEquals(expected.keySet(), actual.keySet());
+            for (String attribute : expected.keySet()) {
+                assertEquals(expected.get(attribute).commit, actual.get(attribute).commit);
+            }
+        }
+    }
+
     @Test
     public void testBlameWithWrongFeaturePath() throws Exception {
         insertAndAdd(points1);
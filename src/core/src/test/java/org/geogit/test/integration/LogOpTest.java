@@ -23,12 +23,15 @@ import org.geogit.api.porcelain.CommitOp;
 import org.geogit.api.porcelain.LogOp;
 import org.geogit.api.porcelain.MergeOp;
 import org.geogit.api.porcelain.MergeOp.MergeReport;
+import org.geogit.storage.ChangedPathsDatabase;
+import org.geogit.storage.ChangedPathsFilter;
 import org.geotools.util.Range;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.ExpectedException;
 import org.opengis.feature.Feature;
 
+import com.google.common.base.Optional;
 import com.google.common.base.Suppliers;
 import com.google.common.collect.Iterators;
 import com.google.common.collect.Lists;
@@ -193,6 +196,59 @@ public class LogOpTest extends RepositoryTestCase {
         assertEquals(typeName1Commits, logCommits);
     }
 
+    @Test
+    public void testPathFilterWithAndWithoutChangedPaths() throws Exception {
+        insertAndAdd(points1);
+        geogit.command(CommitOp.class).call();
+        geogit.command(BranchCreateOp.class).setAutoCheckout(true).setName("branch1").call();
+        insertAndAdd(points2);
+        final RevCommit points2Commit = geogit.command(CommitOp.class).call();
+        insertAndAdd(points1_modified);
+        geogit.command(CommitOp.class).call();
+        geogit.command(CheckoutOp.class).setSource("master").call();
+        insertAndAdd(lines1, points3);
+        geogit.command(CommitOp.class).call();
+        deleteAndAdd(points3);
+        geogit.command(CommitOp.class).call();
+        Ref branch1 = geogit.command(RefParse.class).setName("branch1").call().get();
+        final RevCommit mergeCommit = geogit.command(MergeOp.class)
+                .addCommit(Suppliers.ofInstance(branch1.getObjectId())).call().getMergeCommit();
+        insertAndAdd(lines2);
+        geogit.command(CommitOp.class).call();
+
+        // every commit got its filter saved
+        ChangedPathsDatabase saved = new ChangedPathsDatabase(getRepository().getPlatform());
+        List<RevCommit> all = toList(geogit.command(LogOp.class).call());
+        assertEquals(7, all.size());
+        for (RevCommit commit : all) {
+            assertTrue(commit.toString(), saved.exists(commit.getId()));
+        }
+
+        ChangedPathsDatabase noFilters = new ChangedPathsDatabase(null) {
+            @Override
+            public synchronized Optional<ChangedPathsFilter> get(ObjectId commitId) {
+                return Optional.absent();
+            }
+        };
+        List<String> paths = Arrays.asList(pointsName, linesName,
+                NodeRef.appendChild(pointsName, idP1), NodeRef.appendChild(pointsName, idP2),
+                NodeRef.appendChild(pointsName, idP3), NodeRef.appendChild(linesName, idL1),
+                NodeRef.appendChild(linesName, idL3), "Polygon");
+        for (String path : paths) {
+            List<RevCommit> withFilters = toList(geogit.command(LogOp.class).addPath(path).call());
+            LogOp withoutFiltersOp = new LogOp(getRepository(), getRepository()
+                    .getGraphDatabase(), noFilters);
+            withoutFiltersOp.setCommandLocator(geogit.getCommandLocator());
+            List<RevCommit> withoutFilters = toList(withoutFiltersOp.addPath(path).call());
+            assertEquals(path, withoutFilters, withFilters);
+        }
+        // commits are compared to their first parent, even when walking the merged branch
+        assertEquals(Arrays.asList(mergeCommit, points2Commit), toList(geogit.command(LogOp.class)
+                .addPath(NodeRef.appendChild(pointsName, idP2)).call()));
+        assertEquals(2, toList(geogit.command(LogOp.class)
+                .addPath(NodeRef.appendChild(pointsName, idP3)).call()).size());
+    }
+
     @Test
     public void testLimit() throws Exception {
 
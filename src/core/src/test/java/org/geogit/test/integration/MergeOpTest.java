@@ -9,6 +9,7 @@ import static org.geogit.api.NodeRef.appendChild;
 import java.util.Iterator;
 import java.util.List;
 
+import org.geogit.api.DefaultProgressListener;
 import org.geogit.api.NodeRef;
 import org.geogit.api.ObjectId;
 import org.geogit.api.Ref;
@@ -23,6 +24,7 @@ import org.geogit.api.plumbing.UpdateRef;
 import org.geogit.api.plumbing.UpdateSymRef;
 import org.geogit.api.plumbing.merge.Conflict;
 import org.geogit.api.plumbing.merge.ConflictsReadOp;
+import org.geogit.api.plumbing.merge.MergeScenarioReport;
 import org.geogit.api.plumbing.merge.ReadMergeCommitMessageOp;
 import org.geogit.api.porcelain.AddOp;
 import org.geogit.api.porcelain.BranchCreateOp;
@@ -46,6 +48,7 @@ import org.opengis.feature.simple.SimpleFeatureType;
 import com.google.common.base.Optional;
 import com.google.common.base.Strings;
 import com.google.common.base.Suppliers;
+import com.google.common.collect.Lists;
 
 public class MergeOpTest extends RepositoryTestCase {
     @Rule
@@ -1175,4 +1178,137 @@ public class MergeOpTest extends RepositoryTestCase {
         assertEquals(new RevFeatureBuilder().build(points1_modified), revFeature.get());
     }
 
+    @Test
+    public void testMergeMoreChangesThanStageBatch() throws Exception {
+        // the branch adds more features than MergeOp stages at once, and modifies a feature also
+        // modified in master so that the merge goes through the merge scenario report
+        insertAndAdd(points1);
+        geogit.command(CommitOp.class).call();
+        geogit.command(BranchCreateOp.class).setName("TestBranch").call();
+        Feature points1Modified = feature(pointsType, idP1, "StringProp1_2", new Integer(1000),
+                "POINT(1 1)");
+        insertAndAdd(points1Modified);
+        geogit.command(CommitOp.class).call();
+        geogit.command(CheckoutOp.class).setSource("TestBranch").call();
+        Feature points1ModifiedB = feature(pointsType, idP1, "StringProp1_1", new Integer(2000),
+                "POINT(1 1)");
+        insert(points1ModifiedB);
+        final int count = 10001;
+        List<Feature> features = Lists.newArrayListWithCapacity(count);
+        for (int i = 0; i < count; i++) {
+            features.add(feature(pointsType, "Points.batch." + i, "StringProp", new Integer(i),
+                    "POINT(" + i + " 1)"));
+        }
+        repo.getWorkingTree().insert(pointsName, features.iterator(),
+                new DefaultProgressListener(), null, count);
+        geogit.command(AddOp.class).call();
+        geogit.command(CommitOp.class).call();
+
+        geogit.command(CheckoutOp.class).setSource("master").call();
+        Ref branch = geogit.command(RefParse.class).setName("TestBranch").call().get();
+        MergeReport mergeReport = geogit.command(MergeOp.class).setReportMergeScenario(true)
+                .addCommit(Suppliers.ofInstance(branch.getObjectId())).call();
+
+        assertTrue(mergeReport.getReport().isPresent());
+        MergeScenarioReport report = mergeReport.getReport().get();
+        assertEquals(count, report.getUnconflicted().size());
+        assertEquals(1, report.getMerged().size());
+        assertTrue(report.getConflicts().isEmpty());
+
+        RevTree mergedTree = repo.getTree(mergeReport.getMergeCommit().getTreeId());
+        Optional<NodeRef> pointsTree = repo.command(FindTreeChild.class).setParent(mergedTree)
+                .setChildPath(pointsName).call();
+        assertTrue(pointsTree.isPresent());
+        assertEquals(count + 1, repo.getTree(pointsTree.get().objectId()).size());
+        for (int i = 0; i < count; i += 1000) {
+            String path = appendChild(pointsName, "Points.batch." + i);
+            assertTrue(repo.command(FindTreeChild.class).setParent(mergedTree).setChildPath(path)
+                    .call().isPresent());
+        }
+
+        Optional<RevFeature> feature = repo.command(RevObjectParse.class)
+                .setRefSpec(Ref.HEAD + ":" + appendChild(pointsName, idP1)).call(RevFeature.class);
+        assertTrue(feature.isPresent());
+        Feature mergedFeature = feature(pointsType, idP1, "StringProp1_2", new Integer(2000),
+                "POINT(1 1)");
+        assertEquals(new RevFeatureBuilder().build(mergedFeature), feature.get());
+    }
+
+    @Test
+    public void testMergeRemovedTree() throws Exception {
+        insertAndAdd(points1, lines1, lines2, lines3);
+        geogit.command(CommitOp.class).call();
+        geogit.command(BranchCreateOp.class).setName("TestBranch").call();
+        Feature points1Modified = feature(pointsType, idP1, "StringProp1_2", new Integer(1000),
+                "POINT(1 1)");
+        insertAndAdd(points1Modified);
+        geogit.command(CommitOp.class).call();
+        geogit.command(CheckoutOp.class).setSource("TestBranch").call();
+        Feature points1ModifiedB = feature(pointsType, idP1, "StringProp1_1", new Integer(2000),
+                "POINT(1 1)");
+        insert(points1ModifiedB);
+        repo.getWorkingTree().delete(linesName);
+        geogit.command(AddOp.class).call();
+        geogit.command(CommitOp.class).call();
+
+        geogit.command(CheckoutOp.class).setSource("master").call();
+        Ref branch = geogit.command(RefParse.class).setName("TestBranch").call().get();
+        MergeReport mergeReport = geogit.command(MergeOp.class)
+                .addCommit(Suppliers.ofInstance(branch.getObjectId())).call();
+
+        RevTree mergedTree = repo.getTree(mergeReport.getMergeCommit().getTreeId());
+        assertFalse(repo.command(FindTreeChild.class).setParent(mergedTree)
+                .setChildPath(linesName).call().isPresent());
+        assertFalse(repo.command(FindTreeChild.class).setParent(repo.getWorkingTree().getTree())
+                .setChildPath(linesName).call().isPresent());
+
+        Optional<RevFeature> feature = repo.command(RevObjectParse.class)
+                .setRefSpec(Ref.HEAD + ":" + appendChild(pointsName, idP1)).call(RevFeature.class);
+        assertTrue(feature.isPresent());
+        Feature mergedFeature = feature(pointsType, idP1, "StringProp1_2", new Integer(2000),
+                "POINT(1 1)");
+        assertEquals(new RevFeatureBuilder().build(mergedFeature), feature.get());
+    }
+
+    @Test
+    public void testMergeWithFeatureMergeAndParentTreeChanges() throws Exception {
+        // the merged feature's tree also gets a feature added and another one removed by the
+        // branch, which must not be reverted when the merged feature is staged
+        insertAndAdd(points1, points2);
+        geogit.command(CommitOp.class).call();
+        geogit.command(BranchCreateOp.class).setName("TestBranch").call();
+        Feature points1Modified = feature(pointsType, idP1, "StringProp1_2", new Integer(1000),
+                "POINT(1 1)");
+        insertAndAdd(points1Modified);
+        geogit.command(CommitOp.class).call();
+        geogit.command(CheckoutOp.class).setSource("TestBranch").call();
+        Feature points1ModifiedB = feature(pointsType, idP1, "StringProp1_1", new Integer(2000),
+                "POINT(1 1)");
+        insertAndAdd(points1ModifiedB, points3);
+        deleteAndAdd(points2);
+        geogit.command(CommitOp.class).call();
+
+        geogit.command(CheckoutOp.class).setSource("master").call();
+        Ref branch = geogit.command(RefParse.class).setName("TestBranch").call().get();
+        MergeReport mergeReport = geogit.command(MergeOp.class)
+                .addCommit(Suppliers.ofInstance(branch.getObjectId())).call();
+        assertFalse(mergeReport.getReport().isPresent());
+
+        RevTree mergedTree = repo.getTree(mergeReport.getMergeCommit().getTreeId());
+        String path = appendChild(pointsName, idP2);
+        assertFalse(repo.command(FindTreeChild.class).setParent(mergedTree).setChildPath(path)
+                .call().isPresent());
+        path = appendChild(pointsName, idP3);
+        assertTrue(repo.command(FindTreeChild.class).setParent(mergedTree).setChildPath(path)
+                .call().isPresent());
+        assertEquals(mergedTree.getId(), repo.getWorkingTree().getTree().getId());
+
+        Optional<RevFeature> feature = repo.command(RevObjectParse.class)
+                .setRefSpec(Ref.HEAD + ":" + appendChild(pointsName, idP1)).call(RevFeature.class);
+        assertTrue(feature.isPresent());
+        Feature mergedFeature = feature(pointsType, idP1, "StringProp1_2", new Integer(2000),
+                "POINT(1 1)");
+        assertEquals(new RevFeatureBuilder().build(mergedFeature), feature.get());
+    }
+
 }
@@ -4,8 +4,14 @@
  */
 package org.geogit.test.integration;
 
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
 import org.geogit.api.RevCommit;
+import org.geogit.api.plumbing.diff.DiffEntry;
 import org.geogit.api.plumbing.merge.CheckMergeScenarioOp;
+import org.geogit.api.plumbing.merge.Conflict;
+import org.geogit.api.plumbing.merge.MergeScenarioConsumer;
 import org.geogit.api.plumbing.merge.MergeScenarioReport;
 import org.geogit.api.plumbing.merge.ReportMergeScenarioOp;
 import org.geogit.api.porcelain.AddOp;
@@ -317,4 +323,63 @@ public class ReportMergeConflictsOpTest extends RepositoryTestCase {
         assertFalse(hasConflicts.booleanValue());
     }
 
+    @Test
+    public void testManyChangesWithConsumer() throws Exception {
+        final int count = 600;
+        List<Feature> features = Lists.newArrayList();
+        for (int i = 0; i < count; i++) {
+            features.add(feature(pointsType, "Points." + i, "StringProp1_" + i, new Integer(i),
+                    "POINT(1 1)"));
+        }
+        insert(features.toArray(new Feature[count]));
+        geogit.command(AddOp.class).call();
+        geogit.command(CommitOp.class).call();
+        geogit.command(BranchCreateOp.class).setName("TestBranch").call();
+        for (int i = 0; i < count; i += 3) {
+            delete(features.get(i));
+        }
+        geogit.command(AddOp.class).call();
+        RevCommit masterCommit = geogit.command(CommitOp.class).call();
+        geogit.command(CheckoutOp.class).setSource("TestBranch").call();
+        for (int i = 0; i < count; i += 2) {
+            insert(feature(pointsType, "Points." + i, "StringProp1_" + i + "_modified",
+                    new Integer(i), "POINT(1 1)"));
+        }
+        geogit.command(AddOp.class).call();
+        RevCommit branchCommit = geogit.command(CommitOp.class).call();
+
+        final List<Conflict> conflicts = Lists.newArrayList();
+        final List<DiffEntry> unconflicted = Lists.newArrayList();
+        final AtomicBoolean finished = new AtomicBoolean();
+        MergeScenarioReport report = geogit.command(ReportMergeScenarioOp.class)
+                .setMergeIntoCommit(masterCommit).setToMergeCommit(branchCommit)
+                .setConsumer(new MergeScenarioConsumer() {
+                    @Override
+                    public void conflicted(Conflict conflict) {
+                        conflicts.add(conflict);
+                    }
+
+                    @Override
+                    public void unconflicted(DiffEntry diff) {
+                        unconflicted.add(diff);
+                    }
+
+                    @Override
+                    public void finished() {
+                        finished.set(true);
+                    }
+                }).call();
+        assertTrue(finished.get());
+        // modified in the branch and removed in master
+        assertEquals(count / 6, conflicts.size());
+        assertEquals(count / 6, report.getConflicts().size());
+        for (Conflict conflict : conflicts) {
+            int i = Integer.parseInt(conflict.getPath().substring(pointsName.length() + 8));
+            assertEquals(0, i % 6);
+        }
+        assertEquals(count / 2 - count / 6, unconflicted.size());
+        assertEquals(0, report.getUnconflicted().size());
+        assertEquals(0, report.getMerged().size());
+    }
+
 }
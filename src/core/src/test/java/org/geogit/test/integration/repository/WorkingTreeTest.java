@@ -281,6 +281,39 @@ public class WorkingTreeTest extends RepositoryTestCase {
         assertTrue(workTree.findUnstaged(appendChild(pointsName, idP3)).isPresent());
     }
 
+    @Test
+    public void testInsertCollectionKeepsOrder() throws Exception {
+        // enough features to go through the insert pipeline in many chunks and batches
+        final int count = 5000;
+        List<Feature> featureList = new LinkedList<Feature>();
+        for (int i = 0; i < count; i++) {
+            featureList.add(feature(pointsType, "Points." + (i % 1000), "StringProp1_" + i,
+                    new Integer(i), "POINT(" + i + " " + i + ")"));
+            if (i % 1000 == 999) {
+                featureList.add(new FeatureToDelete(pointsType, "Points.0"));
+            }
+        }
+
+        List<Node> targetList = new LinkedList<Node>();
+        workTree.insert(pointsName, featureList.iterator(), LISTENER, targetList, null);
+
+        assertEquals(count, targetList.size());
+        Iterator<Node> nodes = targetList.iterator();
+        for (Feature feature : featureList) {
+            if (!(feature instanceof FeatureToDelete)) {
+                assertEquals(feature.getIdentifier().getID(), nodes.next().getName());
+            }
+        }
+        // the last ones inserted win, and the last delete removed Points.0
+        for (int i = 1; i < 1000; i++) {
+            Node last = targetList.get(count - 1000 + i);
+            assertEquals(last.getObjectId(),
+                    workTree.findUnstaged(appendChild(pointsName, "Points." + i)).get()
+                            .getObjectId());
+        }
+        assertFalse(workTree.findUnstaged(appendChild(pointsName, "Points.0")).isPresent());
+    }
+
     @Test
     public void testInsertDuplicateFeatures() throws Exception {
         List<Feature> featureList = new LinkedList<Feature>();
@@ -5,11 +5,16 @@
 
 package org.geogit.geotools.data;
 
+import java.io.File;
 import java.io.IOException;
+import java.net.URISyntaxException;
+import java.net.URL;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
 import java.util.NoSuchElementException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import javax.annotation.Nullable;
 
@@ -24,12 +29,15 @@ import org.geogit.api.SymRef;
 import org.geogit.api.data.FindFeatureTypeTrees;
 import org.geogit.api.plumbing.ForEachRef;
 import org.geogit.api.plumbing.RefParse;
+import org.geogit.api.plumbing.ResolveGeogitDir;
 import org.geogit.api.plumbing.RevParse;
 import org.geogit.api.plumbing.TransactionBegin;
 import org.geogit.api.porcelain.AddOp;
 import org.geogit.api.porcelain.CheckoutOp;
 import org.geogit.api.porcelain.CommitOp;
 import org.geogit.repository.WorkingTree;
+import org.geogit.storage.spatial.SpatialIndex;
+import org.geogit.storage.spatial.SpatialIndexDatabase;
 import org.geotools.data.DataStore;
 import org.geotools.data.Transaction;
 import org.geotools.data.store.ContentDataStore;
@@ -50,6 +58,7 @@ import com.google.common.collect.Collections2;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
 /**
  * A GeoTools {@link DataStore} that serves and edits {@link SimpleFeature}s in a geogit repository.
@@ -87,6 +96,18 @@ public class GeoGitDataStore extends ContentDataStore implements DataStore {
     /** When the configured head is not a branch, we disallow transactions */
     private boolean allowTransactions = true;
 
+    /** @see #setPrefetchWindow(int) */
+    private int prefetchWindow = GeogitFeatureReader.DEFAULT_PREFETCH_WINDOW;
+
+    /** Fetches and builds features ahead of readers, created on demand */
+    private ExecutorService readerExecutor;
+
+    /** @see #setSpatialIndexEnabled(boolean) */
+    private boolean spatialIndexEnabled;
+
+    /** Created on demand if {@link #spatialIndexEnabled} */
+    private SpatialIndexDatabase spatialIndexes;
+
     public GeoGitDataStore(GeoGIT geogit) {
         super();
         Preconditions.checkNotNull(geogit);
@@ -99,6 +120,12 @@ public class GeoGitDataStore extends ContentDataStore implements DataStore {
     @Override
     public void dispose() {
         super.dispose();
+        synchronized (this) {
+            if (readerExecutor != null) {
+                readerExecutor.shutdownNow();
+                readerExecutor = null;
+            }
+        }
         geogit.close();
     }
 
@@ -182,6 +209,71 @@ public class GeoGitDataStore extends ContentDataStore implements DataStore {
         return this.refspec;
     }
 
+    /**
+     * Sets how many features readers fetch from the object database at once, defaults to
+     * {@link GeogitFeatureReader#DEFAULT_PREFETCH_WINDOW}
+     */
+    public void setPrefetchWindow(final int prefetchWindow) {
+        Preconditions.checkArgument(prefetchWindow > 0, "prefetch window must be > 0");
+        this.prefetchWindow = prefetchWindow;
+    }
+
+    public int getPrefetchWindow() {
+        return prefetchWindow;
+    }
+
+    /**
+     * @return the thread pool readers use to fetch features ahead of their callers
+     */
+    synchronized ExecutorService getReaderExecutor() {
+        if (readerExecutor == null) {
+            int nThreads = Math.max(2, Math.min(4, Runtime.getRuntime().availableProcessors()));
+            readerExecutor = Executors.newFixedThreadPool(nThreads, new ThreadFactoryBuilder()
+                    .setNameFormat("GeoGitDataStore-reader-%d").setDaemon(true).build());
+        }
+        return readerExecutor;
+    }
+
+    /**
+     * Enables or disables the use of {@link SpatialIndex spatial indexes} to resolve bounding box
+     * queries, disabled by default.
+     * <p>
+     * Indexes are built the first time a feature type is queried by bounding box, and updated as
+     * the feature type tree changes, in the {@code spatial} directory of the repository.
+     */
+    public void setSpatialIndexEnabled(final boolean enabled) {
+        this.spatialIndexEnabled = enabled;
+    }
+
+    public boolean isSpatialIndexEnabled() {
+        return spatialIndexEnabled;
+    }
+
+    /**
+     * @return the spatial indexes for this repository, or {@code null} if they are not
+     *         {@link #setSpatialIndexEnabled(boolean) enabled} or the repository has no directory
+     *         to store them
+     */
+    @Nullable
+    synchronized SpatialIndexDatabase getSpatialIndexDatabase() {
+        if (!spatialIndexEnabled) {
+            return null;
+        }
+        if (spatialIndexes == null) {
+            Optional<URL> geogitDir = geogit.command(ResolveGeogitDir.class).call();
+            if (!geogitDir.isPresent()) {
+                return null;
+            }
+            try {
+                File directory = new File(new File(geogitDir.get().toURI()), "spatial");
+                spatialIndexes = new SpatialIndexDatabase(directory);
+            } catch (URISyntaxException e) {
+                return null;
+            }
+        }
+        return spatialIndexes;
+    }
+
     /**
      * @return whether or not we can support transactions against the configured head
      */
@@ -68,6 +68,14 @@ public class GeoGitDataStoreFactory implements DataStoreFactorySpi {
     public static final Param CREATE = new Param("create", Boolean.class,
             "Optional flag to enable creation of a new repository if it does not exist", false);
 
+    public static final Param PREFETCH_WINDOW = new Param("prefetch_window", Integer.class,
+            "Optional number of features fetched at once when reading, defaults to "
+                    + GeogitFeatureReader.DEFAULT_PREFETCH_WINDOW, false);
+
+    public static final Param SPATIAL_INDEX = new Param("spatial_index", Boolean.class,
+            "Optional flag to resolve bounding box queries with a spatial index, built on demand",
+            false);
+
     @Override
     public String getDisplayName() {
         return DISPLAY_NAME;
@@ -80,7 +88,8 @@ public class GeoGitDataStoreFactory implements DataStoreFactorySpi {
 
     @Override
     public Param[] getParametersInfo() {
-        return new Param[] { REPOSITORY, BRANCH, HEAD, DEFAULT_NAMESPACE, CREATE };
+        return new Param[] { REPOSITORY, BRANCH, HEAD, DEFAULT_NAMESPACE, CREATE,
+                PREFETCH_WINDOW, SPATIAL_INDEX };
     }
 
     @Override
@@ -131,6 +140,12 @@ public class GeoGitDataStoreFactory implements DataStoreFactorySpi {
         @Nullable
         final Boolean create = (Boolean) CREATE.lookUp(params);
 
+        @Nullable
+        final Integer prefetchWindow = (Integer) PREFETCH_WINDOW.lookUp(params);
+
+        @Nullable
+        final Boolean spatialIndex = (Boolean) SPATIAL_INDEX.lookUp(params);
+
         if (create != null && create.booleanValue()) {
             if (!repositoryRoot.exists()) {
                 return createNewDataStore(params);
@@ -160,6 +175,12 @@ public class GeoGitDataStoreFactory implements DataStoreFactorySpi {
         if (effectiveHead != null) {
             store.setHead(effectiveHead);
         }
+        if (prefetchWindow != null) {
+            store.setPrefetchWindow(prefetchWindow.intValue());
+        }
+        if (spatialIndex != null) {
+            store.setSpatialIndexEnabled(spatialIndex.booleanValue());
+        }
         return store;
     }
 
@@ -14,8 +14,16 @@ import static com.google.common.collect.Iterators.transform;
 import java.io.IOException;
 import java.util.Comparator;
 import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 import java.util.logging.Logger;
 
 import javax.annotation.Nullable;
@@ -26,6 +34,7 @@ import org.geogit.api.CommandLocator;
 import org.geogit.api.FeatureBuilder;
 import org.geogit.api.Node;
 import org.geogit.api.NodeRef;
+import org.geogit.api.ObjectId;
 import org.geogit.api.Ref;
 import org.geogit.api.RevFeature;
 import org.geogit.api.RevObject;
@@ -35,14 +44,20 @@ import org.geogit.api.plumbing.LsTreeOp;
 import org.geogit.api.plumbing.LsTreeOp.Strategy;
 import org.geogit.api.plumbing.RevObjectParse;
 import org.geogit.storage.NodePathStorageOrder;
+import org.geogit.storage.ObjectDatabase;
+import org.geogit.storage.spatial.SpatialIndex;
+import org.geogit.storage.spatial.SpatialIndexDatabase;
 import org.geotools.data.FeatureReader;
 import org.geotools.factory.CommonFactoryFinder;
+import org.geotools.feature.simple.SimpleFeatureBuilder;
+import org.geotools.feature.simple.SimpleFeatureTypeBuilder;
 import org.geotools.filter.spatial.ReprojectingFilterVisitor;
 import org.geotools.filter.visitor.SpatialFilterVisitor;
 import org.geotools.util.logging.Logging;
 import org.opengis.feature.Feature;
 import org.opengis.feature.simple.SimpleFeature;
 import org.opengis.feature.simple.SimpleFeatureType;
+import org.opengis.feature.type.AttributeDescriptor;
 import org.opengis.feature.type.FeatureType;
 import org.opengis.filter.Filter;
 import org.opengis.filter.FilterFactory2;
@@ -56,8 +71,12 @@ import com.google.common.base.Function;
 import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Predicate;
+import com.google.common.base.Throwables;
+import com.google.common.collect.AbstractIterator;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Iterators;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
 import com.vividsolutions.jts.geom.Envelope;
 
@@ -69,12 +88,24 @@ class GeogitFeatureReader<T extends FeatureType, F extends Feature> implements F
 
     private static final Logger LOGGER = Logging.getLogger(GeogitFeatureReader.class);
 
+    /**
+     * Default number of features fetched at once from the object database
+     */
+    public static final int DEFAULT_PREFETCH_WINDOW = 1000;
+
     private SimpleFeatureType schema;
 
+    /**
+     * The type of the returned features, {@link #schema} or a subset of its attributes
+     */
+    private SimpleFeatureType resultSchema;
+
     private Stats stats;
 
     private Iterator<SimpleFeature> features;
 
+    private PrefetchingFeatureIterator prefetching;
+
     @Nullable
     private Integer offset;
 
@@ -140,17 +171,26 @@ class GeogitFeatureReader<T extends FeatureType, F extends Feature> implements F
     /**
      * @param commandLocator
      * @param schema
+     * @param propertyNames the names of the attributes to return, {@code null} meaning all of them;
+     *        features are built lazily, so only these and the ones the filter needs are decoded
      * @param maxFeatures
      * @param offset
      * @param typeTree
      * @param filter
      * @param queryBounds
+     * @param prefetchWindow how many features to fetch from the object database at once
+     * @param executor where to fetch and build the features ahead of the caller
+     * @param spatialIndexes if given, where to get the spatial index of the feature type tree
+     *        from to resolve bounding box queries
      */
     public GeogitFeatureReader(final CommandLocator commandLocator, final SimpleFeatureType schema,
-            final Filter origFilter, final String typeTreePath, @Nullable final String headRef,
-            @Nullable Integer offset, @Nullable Integer maxFeatures) {
+            final Filter origFilter, @Nullable final String[] propertyNames,
+            final String typeTreePath, @Nullable final String headRef,
+            @Nullable Integer offset, @Nullable Integer maxFeatures, final int prefetchWindow,
+            final ExecutorService executor, @Nullable final SpatialIndexDatabase spatialIndexes) {
 
         this.schema = schema;
+        this.resultSchema = schema;
         this.offset = offset;
         this.maxFeatures = maxFeatures;
 
@@ -188,6 +228,11 @@ class GeogitFeatureReader<T extends FeatureType, F extends Feature> implements F
             idToRef = new FindFeatureRefFunction(commandLocator, parentTree.get());
             Iterator<FeatureId> featureIds = getSortedFidsInNaturalOrder((Id) filter);
             featureRefs = filter(transform(featureIds, idToRef), notNull());
+        } else if (spatialIndexes != null && !queryBounds.isNull()) {
+            SpatialIndex index = spatialIndexes.get(commandLocator, typeTreePath, parentTree
+                    .get().getId());
+            featureRefs = transform(index.query(queryBounds).iterator(), new NodeToRef(
+                    typeTreePath));
         } else {
             featureRefs = commandLocator.command(LsTreeOp.class)
                     .setStrategy(Strategy.FEATURES_ONLY).setReference(typeTreeRefSpec)
@@ -201,25 +246,50 @@ class GeogitFeatureReader<T extends FeatureType, F extends Feature> implements F
             featureRefs = applyRefsOffsetLimit(featureRefs);
         }
 
-        NodeRefToFeature refToFeature = new NodeRefToFeature(commandLocator, schema);
-        final Iterator<SimpleFeature> featuresUnfiltered = transform(featureRefs, refToFeature);
+        final ObjectDatabase database = commandLocator.getIndex().getDatabase();
+        this.prefetching = new PrefetchingFeatureIterator(featureRefs, database, schema,
+                prefetchWindow, executor);
+        final Iterator<SimpleFeature> featuresUnfiltered = prefetching;
 
         FilterPredicate filterPredicate = new FilterPredicate(filter);
         Iterator<SimpleFeature> featuresFiltered = filter(featuresUnfiltered, filterPredicate);
         if (!filterSupportedByRefs) {
             featuresFiltered = applyFeaturesOffsetLimit(featuresFiltered);
         }
+        if (isProjection(schema, propertyNames)) {
+            // retype after filtering, the filter may use attributes that are not returned
+            this.resultSchema = SimpleFeatureTypeBuilder.retype(schema, propertyNames);
+            featuresFiltered = transform(featuresFiltered, new RetypeFunction(resultSchema));
+        }
         this.features = featuresFiltered;
     }
 
+    private static boolean isProjection(SimpleFeatureType schema,
+            @Nullable String[] propertyNames) {
+        if (propertyNames == null) {
+            return false;
+        }
+        List<AttributeDescriptor> descriptors = schema.getAttributeDescriptors();
+        if (propertyNames.length != descriptors.size()) {
+            return true;
+        }
+        for (int i = 0; i < propertyNames.length; i++) {
+            if (!descriptors.get(i).getLocalName().equals(propertyNames[i])) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     @SuppressWarnings("unchecked")
     @Override
     public T getFeatureType() {
-        return (T) schema;
+        return (T) resultSchema;
     }
 
     @Override
     public void close() throws IOException {
+        prefetching.close();
         if (stats != null) {
             LOGGER.info("geogit reader stats: " + stats.toString());
         }
@@ -303,29 +373,146 @@ class GeogitFeatureReader<T extends FeatureType, F extends Feature> implements F
         }
     };
 
-    private static class NodeRefToFeature implements Function<NodeRef, SimpleFeature> {
+    private static class NodeToRef implements Function<Node, NodeRef> {
+
+        private final String parentPath;
+
+        public NodeToRef(String parentPath) {
+            this.parentPath = parentPath;
+        }
+
+        @Override
+        public NodeRef apply(Node node) {
+            return new NodeRef(node, parentPath, node.getMetadataId().or(ObjectId.NULL));
+        }
+    };
+
+    /**
+     * Builds the features for a sequence of {@link NodeRef}s, fetching them in windows of
+     * {@code windowSize} refs with a single {@link ObjectDatabase#getAll(Iterable) getAll} call
+     * each, so that backends can serve them with sorted scans instead of a point lookup per
+     * feature.
+     * <p>
+     * Windows are fetched and built on {@code executor}, up to {@link #WINDOWS_AHEAD} windows
+     * ahead of the one being consumed, and features are returned in the same order as the refs.
+     */
+    private static class PrefetchingFeatureIterator extends AbstractIterator<SimpleFeature> {
+
+        private static final int WINDOWS_AHEAD = 3;
+
+        private final Iterator<NodeRef> refs;
+
+        private final ObjectDatabase database;
+
+        private final FeatureBuilder featureBuilder;
 
-        private RevObjectParse parseRevFeatureCommand;
+        private final int windowSize;
 
-        private FeatureBuilder featureBuilder;
+        private final ExecutorService executor;
 
-        public NodeRefToFeature(CommandLocator commandLocator, SimpleFeatureType schema) {
+        private final Queue<Future<List<SimpleFeature>>> pending;
+
+        private Iterator<SimpleFeature> current = Iterators.emptyIterator();
+
+        public PrefetchingFeatureIterator(Iterator<NodeRef> refs, ObjectDatabase database,
+                SimpleFeatureType schema, int windowSize, ExecutorService executor) {
+            Preconditions.checkArgument(windowSize > 0, "window size must be > 0");
+            this.refs = refs;
+            this.database = database;
             this.featureBuilder = new FeatureBuilder(schema);
-            this.parseRevFeatureCommand = commandLocator.command(RevObjectParse.class);
+            this.windowSize = windowSize;
+            this.executor = executor;
+            this.pending = new LinkedList<Future<List<SimpleFeature>>>();
         }
 
         @Override
-        public SimpleFeature apply(final NodeRef featureRef) {
-            Optional<RevFeature> revFeature = parseRevFeatureCommand.setObjectId(
-                    featureRef.objectId()).call(RevFeature.class);
-            Preconditions.checkState(revFeature.isPresent());
-
-            String id = featureRef.name();
-            Feature feature = featureBuilder.build(id, revFeature.get());
-            return (SimpleFeature) feature;
+        protected SimpleFeature computeNext() {
+            while (!current.hasNext()) {
+                prefetch();
+                Future<List<SimpleFeature>> window = pending.poll();
+                if (window == null) {
+                    return endOfData();
+                }
+                try {
+                    current = window.get().iterator();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    close();
+                    throw Throwables.propagate(e);
+                } catch (ExecutionException e) {
+                    close();
+                    throw Throwables.propagate(e.getCause());
+                }
+            }
+            return current.next();
+        }
+
+        private void prefetch() {
+            while (pending.size() < WINDOWS_AHEAD && refs.hasNext()) {
+                final List<NodeRef> window = Lists.newArrayListWithCapacity(windowSize);
+                while (window.size() < windowSize && refs.hasNext()) {
+                    window.add(refs.next());
+                }
+                pending.add(executor.submit(new Callable<List<SimpleFeature>>() {
+                    @Override
+                    public List<SimpleFeature> call() {
+                        return fetch(window);
+                    }
+                }));
+            }
+        }
+
+        private List<SimpleFeature> fetch(final List<NodeRef> window) {
+            Set<ObjectId> ids = Sets.newHashSet();
+            for (NodeRef ref : window) {
+                ids.add(ref.objectId());
+            }
+            Map<ObjectId, RevFeature> byId = Maps.newHashMap();
+            Iterator<RevObject> objects = database.getAll(ids);
+            while (objects.hasNext()) {
+                RevObject object = objects.next();
+                byId.put(object.getId(), (RevFeature) object);
+            }
+
+            List<SimpleFeature> features = Lists.newArrayListWithCapacity(window.size());
+            for (NodeRef ref : window) {
+                RevFeature revFeature = byId.get(ref.objectId());
+                Preconditions.checkState(revFeature != null, "Feature %s not found: %s",
+                        ref.path(), ref.objectId());
+                features.add((SimpleFeature) featureBuilder.build(ref.name(), revFeature));
+            }
+            return features;
+        }
+
+        /**
+         * Cancels the windows fetched ahead that won't be consumed
+         */
+        public void close() {
+            Future<List<SimpleFeature>> window;
+            while ((window = pending.poll()) != null) {
+                window.cancel(true);
+            }
         }
     };
 
+    /**
+     * Copies the attributes of a feature that the target type has, which are the only ones a
+     * lazily built feature decodes
+     */
+    private static final class RetypeFunction implements Function<SimpleFeature, SimpleFeature> {
+
+        private final SimpleFeatureType type;
+
+        public RetypeFunction(SimpleFeatureType type) {
+            this.type = type;
+        }
+
+        @Override
+        public SimpleFeature apply(SimpleFeature feature) {
+            return SimpleFeatureBuilder.retype(feature, type);
+        }
+    }
+
     private static final class FilterPredicate implements Predicate<SimpleFeature> {
         private Filter filter;
 
@@ -23,6 +23,7 @@ import org.geotools.data.FeatureSource;
 import org.geotools.data.MaxFeatureReader;
 import org.geotools.data.Query;
 import org.geotools.data.QueryCapabilities;
+import org.geotools.data.ReTypeFeatureReader;
 import org.geotools.data.Transaction;
 import org.geotools.data.sort.SortedFeatureReader;
 import org.geotools.data.store.ContentEntry;
@@ -89,9 +90,12 @@ class GeogitFeatureSource extends ContentFeatureSource {
         return true;
     }
 
+    /**
+     * @return {@code true}, the reader decodes only the requested attributes
+     */
     @Override
     protected boolean canRetype() {
-        return false;
+        return true;
     }
 
     @Override
@@ -189,7 +193,7 @@ class GeogitFeatureSource extends ContentFeatureSource {
             Integer offset = query.getStartIndex();
             Integer maxFeatures = query.getMaxFeatures() == Integer.MAX_VALUE ? null : query
                     .getMaxFeatures();
-            features = getNativeReader(filter, offset, maxFeatures);
+            features = getNativeReader(filter, null, offset, maxFeatures);
         } else {
             features = getReader(query);
         }
@@ -231,7 +235,7 @@ class GeogitFeatureSource extends ContentFeatureSource {
 
         FeatureReader<SimpleFeatureType, SimpleFeature> features;
         if (isNaturalOrder(query.getSortBy())) {
-            features = getNativeReader(filter, offset, maxFeatures);
+            features = getNativeReader(filter, null, offset, maxFeatures);
         } else {
             features = getReader(query);
         }
@@ -261,11 +265,17 @@ class GeogitFeatureSource extends ContentFeatureSource {
         final Filter filter = query.getFilter();
 
         if (naturalOrder) {
-            reader = getNativeReader(filter, startIndex, maxFeatures);
+            reader = getNativeReader(filter, query.getPropertyNames(), startIndex, maxFeatures);
         } else {
-            reader = getNativeReader(filter, null, null);
+            reader = getNativeReader(filter, null, null, null);
             // sorting
             reader = new SortedFeatureReader(DataUtilities.simple(reader), query);
+            if (!query.retrieveAllProperties()) {
+                // the sort may use attributes that are not returned
+                SimpleFeatureType resultType = SimpleFeatureTypeBuilder.retype(getSchema(),
+                        query.getPropertyNames());
+                reader = new ReTypeFeatureReader(reader, resultType);
+            }
             if (startIndex > 0) {
                 // skip the first n records
                 for (int i = 0; i < startIndex && reader.hasNext(); i++) {
@@ -289,7 +299,8 @@ class GeogitFeatureSource extends ContentFeatureSource {
     }
 
     private GeogitFeatureReader<SimpleFeatureType, SimpleFeature> getNativeReader(Filter filter,
-            @Nullable Integer offset, @Nullable Integer maxFeatures) {
+            @Nullable String[] propertyNames, @Nullable Integer offset,
+            @Nullable Integer maxFeatures) {
 
         filter = (Filter) filter.accept(new SimplifyingFilterVisitor(), null);
 
@@ -302,8 +313,12 @@ class GeogitFeatureSource extends ContentFeatureSource {
 
         final CommandLocator commandLocator = getCommandLocator();
 
+        final GeoGitDataStore dataStore = getDataStore();
+
         nativeReader = new GeogitFeatureReader<SimpleFeatureType, SimpleFeature>(commandLocator,
-                schema, filter, featureTypeTreePath, rootRef, offset, maxFeatures);
+                schema, filter, propertyNames, featureTypeTreePath, rootRef, offset, maxFeatures,
+                dataStore.getPrefetchWindow(), dataStore.getReaderExecutor(),
+                dataStore.getSpatialIndexDatabase());
 
         return nativeReader;
     }
@@ -331,12 +331,12 @@ public class ExportOp extends AbstractGeoGitOp<SimpleFeatureStore> {
                         .sortedDescriptors();
                 ImmutableList<PropertyDescriptor> newAttributes = targetType.sortedDescriptors();
 
-                ImmutableList<Optional<Object>> oldValues = oldFeature.getValues();
+                // only the attributes the target type keeps are decoded
                 List<Optional<Object>> newValues = Lists.newArrayList();
                 for (int i = 0; i < newAttributes.size(); i++) {
                     int idx = oldAttributes.indexOf(newAttributes.get(i));
                     if (idx != -1) {
-                        Optional<Object> oldValue = oldValues.get(idx);
+                        Optional<Object> oldValue = oldFeature.get(idx);
                         newValues.add(oldValue);
                     } else {
                         newValues.add(Optional.absent());
@@ -0,0 +1,159 @@
+/* Copyright (c) 2013 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+package org.geogit.geotools.data;
+
+import java.io.File;
+import java.io.Serializable;
+import java.util.Map;
+import java.util.Set;
+
+import org.geogit.api.ObjectId;
+import org.geogit.api.RevTree;
+import org.geogit.api.plumbing.ResolveGeogitDir;
+import org.geogit.api.plumbing.RevObjectParse;
+import org.geogit.api.porcelain.BranchCreateOp;
+import org.geogit.api.porcelain.CommitOp;
+import org.geogit.test.integration.RepositoryTestCase;
+import org.geotools.data.Query;
+import org.geotools.data.simple.SimpleFeatureIterator;
+import org.geotools.data.simple.SimpleFeatureSource;
+import org.geotools.factory.CommonFactoryFinder;
+import org.geotools.geometry.jts.ReferencedEnvelope;
+import org.junit.Test;
+import org.opengis.filter.Filter;
+import org.opengis.filter.FilterFactory2;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Sets;
+
+/**
+ * Bounding box queries against a {@link GeoGitDataStore} created with the
+ * {@link GeoGitDataStoreFactory#SPATIAL_INDEX spatial_index} option.
+ */
+public class GeoGitFeatureSourceSpatialIndexTest extends RepositoryTestCase {
+
+    private static final FilterFactory2 ff = CommonFactoryFinder.getFilterFactory2(null);
+
+    private GeoGitDataStoreFactory factory;
+
+    private GeoGitDataStore dataStore;
+
+    private GeoGitDataStore masterStore;
+
+    private GeoGitDataStore branchStore;
+
+    @Override
+    protected void setUpInternal() throws Exception {
+        factory = new GeoGitDataStoreFactory();
+
+        dataStore = new GeoGitDataStore(geogit);
+        dataStore.createSchema(super.pointsType);
+        insertAndAdd(points1, points2, points3);
+        commit("initial import");
+        geogit.command(BranchCreateOp.class).setName("branch1").call();
+
+        // on master points1 moves to 1,2 and points2 goes away, branch1 keeps the original ones
+        insertAndAdd(points1_modified);
+        deleteAndAdd(points2);
+        commit("move points1, delete points2");
+
+        masterStore = createDataStore(null);
+        branchStore = createDataStore("branch1");
+    }
+
+    @Override
+    protected void tearDownInternal() throws Exception {
+        masterStore.dispose();
+        branchStore.dispose();
+        dataStore.dispose();
+        dataStore = null;
+        masterStore = null;
+        branchStore = null;
+    }
+
+    private void commit(String message) {
+        geogit.command(CommitOp.class).setAuthor("yo", "yo@test.com")
+                .setCommitter("me", "me@test.com").setMessage(message).call();
+    }
+
+    private GeoGitDataStore createDataStore(String head) throws Exception {
+        ImmutableMap.Builder<String, Serializable> params = ImmutableMap.builder();
+        params.put(GeoGitDataStoreFactory.REPOSITORY.key, geogit.getPlatform().pwd());
+        params.put(GeoGitDataStoreFactory.SPATIAL_INDEX.key, Boolean.TRUE);
+        if (head != null) {
+            params.put(GeoGitDataStoreFactory.HEAD.key, head);
+        }
+        GeoGitDataStore store = factory.createDataStore(params.build());
+        assertTrue(store.isSpatialIndexEnabled());
+        return store;
+    }
+
+    private Set<String> bboxQuery(GeoGitDataStore store, ReferencedEnvelope bounds)
+            throws Exception {
+        Filter filter = ff.bbox(
+                ff.property(pointsType.getGeometryDescriptor().getLocalName()), bounds);
+        SimpleFeatureSource source = store.getFeatureSource(pointsTypeName);
+        Set<String> ids = Sets.newHashSet();
+        SimpleFeatureIterator features = source.getFeatures(new Query(pointsName, filter))
+                .features();
+        try {
+            while (features.hasNext()) {
+                ids.add(features.next().getID());
+            }
+        } finally {
+            features.close();
+        }
+        return ids;
+    }
+
+    private File indexFile(String refSpec) throws Exception {
+        ObjectId treeId = geogit.command(RevObjectParse.class)
+                .setRefSpec(refSpec + ":" + pointsName).call(RevTree.class).get().getId();
+        File geogitDir = new File(geogit.command(ResolveGeogitDir.class).call().get().toURI());
+        return new File(new File(geogitDir, "spatial"), treeId + ".sidx");
+    }
+
+    @Test
+    public void testBoundsQuery() throws Exception {
+        ReferencedEnvelope bounds = boundsOf(points1, points2);
+        assertEquals(ImmutableSet.of(idP1), bboxQuery(masterStore, bounds));
+        assertEquals(ImmutableSet.of(idP1, idP2), bboxQuery(branchStore, bounds));
+
+        assertEquals(ImmutableSet.of(idP1, idP3), bboxQuery(masterStore, boundsOf(points3,
+                points1_modified)));
+        assertEquals(ImmutableSet.of(idP3), bboxQuery(branchStore, boundsOf(points3)));
+    }
+
+    @Test
+    public void testBranchesKeepTheirIndexes() throws Exception {
+        ReferencedEnvelope bounds = boundsOf(points1, points2, points3);
+        bboxQuery(masterStore, bounds);
+        bboxQuery(branchStore, bounds);
+
+        final File masterIndex = indexFile("master");
+        final File branchIndex = indexFile("branch1");
+        assertTrue(masterIndex.exists());
+        assertTrue(branchIndex.exists());
+
+        // fresh stores read both indexes back instead of rebuilding them on each other's turn
+        assertTrue(masterIndex.setLastModified(0));
+        assertTrue(branchIndex.setLastModified(0));
+        Map<String, Set<String>> expected = ImmutableMap.of("master",
+                bboxQuery(masterStore, bounds), "branch1", bboxQuery(branchStore, bounds));
+        for (int i = 0; i < 2; i++) {
+            for (String head : expected.keySet()) {
+                GeoGitDataStore store = createDataStore(head);
+                try {
+                    assertEquals(expected.get(head), bboxQuery(store, bounds));
+                } finally {
+                    store.dispose();
+                }
+            }
+        }
+        assertEquals(0, masterIndex.lastModified());
+        assertEquals(0, branchIndex.lastModified());
+    }
+}
@@ -359,6 +359,26 @@ public class GeoGitFeatureSourceTest extends RepositoryTestCase {
         }
     }
 
+    @Test
+    public void testGetFeaturesPrefetchWindow() throws IOException {
+        List<NodeRef> refs = toList(repo.command(LsTreeOp.class).setReference(pointsName)
+                .setStrategy(Strategy.FEATURES_ONLY).call());
+        List<String> expected = Lists.newArrayList();
+        for (NodeRef ref : refs) {
+            expected.add(ref.name());
+        }
+
+        // features come back in tree order whatever the number of fetch windows
+        for (int window : new int[] { 1, 2, 3, 1000 }) {
+            dataStore.setPrefetchWindow(window);
+            List<String> actual = Lists.newArrayList();
+            for (SimpleFeature f : toList(pointsSource.getFeatures(Query.ALL))) {
+                actual.add(f.getID());
+            }
+            assertEquals("window " + window, expected, actual);
+        }
+    }
+
     private List<SimpleFeature> toList(SimpleFeatureCollection collection) {
         List<SimpleFeature> features = Lists.newArrayList();
         SimpleFeatureIterator iterator = collection.features();
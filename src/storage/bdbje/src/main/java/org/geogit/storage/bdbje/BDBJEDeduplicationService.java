@@ -8,7 +8,10 @@ import java.util.HashSet;
 import java.util.Set;
 import java.util.concurrent.atomic.AtomicInteger;
 
+import org.geogit.api.Platform;
+import org.geogit.storage.ConfigDatabase;
 import org.geogit.storage.DeduplicationService;
+import org.geogit.storage.DefaultDeduplicationService;
 import org.geogit.storage.Deduplicator;
 
 import com.google.inject.Inject;
@@ -19,7 +22,8 @@ import com.sleepycat.je.Environment;
 /**
  * A {@link DeduplicationService} that creates {@link DatabaseConfig#setTemporary(boolean)
  * temporary} BDB JE databases in the {@code .geogit/seen} environment upon every
- * {@link #createDatabase()} call.
+ * {@link #createDatabase()} call, unless another kind of deduplicator is set through the
+ * {@code deduplicator.type} config property, as described in {@link DefaultDeduplicationService}.
  * <p>
  * The created temporary databases share the heap cache with the other JE databases, namely the
  * {@link JEObjectDatabase object} and {@link JEStagingDatabase staging} databases, and will page to
@@ -28,7 +32,7 @@ import com.sleepycat.je.Environment;
  * 
  * @see BDBJEDeduplicator
  */
-public class BDBJEDeduplicationService implements DeduplicationService {
+public class BDBJEDeduplicationService extends DefaultDeduplicationService {
     private EnvironmentBuilder environmentBuilder;
 
     private Set<BDBJEDeduplicator> openDeduplicators = new HashSet<BDBJEDeduplicator>();
@@ -38,7 +42,9 @@ public class BDBJEDeduplicationService implements DeduplicationService {
     private volatile AtomicInteger tick = new AtomicInteger();
 
     @Inject
-    public BDBJEDeduplicationService(EnvironmentBuilder environmentBuilder) {
+    public BDBJEDeduplicationService(Platform platform, ConfigDatabase configDb,
+            EnvironmentBuilder environmentBuilder) {
+        super(platform, configDb);
         this.environmentBuilder = environmentBuilder;
     }
 
@@ -60,7 +66,7 @@ public class BDBJEDeduplicationService implements DeduplicationService {
     }
 
     @Override
-    public Deduplicator createDeduplicator() {
+    protected Deduplicator createDefaultDeduplicator() {
         Database database = createDatabase();
         BDBJEDeduplicator deduplicator = new BDBJEDeduplicator(database, this);
         this.openDeduplicators.add(deduplicator);
@@ -38,12 +38,14 @@ import org.geogit.repository.RepositoryConnectionException;
 import org.geogit.storage.AbstractObjectDatabase;
 import org.geogit.storage.BulkOpListener;
 import org.geogit.storage.ConfigDatabase;
+import org.geogit.storage.EnumerableObjectDatabase;
 import org.geogit.storage.ObjectDatabase;
-import org.geogit.storage.ObjectReader;
+import org.geogit.storage.RawObject;
 import org.geogit.storage.datastream.DataStreamSerializationFactory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.google.common.base.Function;
 import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Stopwatch;
@@ -55,7 +57,6 @@ import com.google.common.collect.Maps;
 import com.google.common.collect.UnmodifiableIterator;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.inject.Inject;
-import com.ning.compress.lzf.LZFInputStream;
 import com.sleepycat.je.CacheMode;
 import com.sleepycat.je.Cursor;
 import com.sleepycat.je.CursorConfig;
@@ -73,7 +74,8 @@ import com.sleepycat.je.TransactionConfig;
 /**
  * 
  */
-public class JEObjectDatabase extends AbstractObjectDatabase implements ObjectDatabase {
+public class JEObjectDatabase extends AbstractObjectDatabase implements ObjectDatabase,
+        EnumerableObjectDatabase {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(JEObjectDatabase.class);
 
@@ -95,6 +97,8 @@ public class JEObjectDatabase extends AbstractObjectDatabase implements ObjectDa
 
     private static final String BULK_PARTITIONING_CONFIG_KEY = "bdbje.bulkpartition";
 
+    private static final int BULK_INSERT_BUFFER_SIZE = 256 * 1024;
+
     private EnvironmentBuilder envProvider;
 
     /**
@@ -356,31 +360,69 @@ public class JEObjectDatabase extends AbstractObjectDatabase implements ObjectDa
             return;
         }
 
-        final int buffSize = 256 * 1024;
-        BulkInsert task = new BulkInsert(objects, listener, buffSize);
+        bulkInsert(new BulkInsert<RevObject>(objects, listener, BULK_INSERT_BUFFER_SIZE) {
+            @Override
+            protected ObjectId serialize(RevObject object, InternalByteArrayOutputStream out) {
+                writeObject(object, out);
+                return object.getId();
+            }
+        });
+    }
+
+    /**
+     * Inserts the raw objects through the same sorted bulk insert than
+     * {@link #putAll(Iterator, BulkOpListener) putAll}, copying their bytes as they are.
+     */
+    @Override
+    public void putRawAll(final Iterator<RawObject> objects, final BulkOpListener listener) {
+        checkNotNull(objects);
+        checkNotNull(listener);
+        checkWritable();
+
+        if (!objects.hasNext()) {
+            return;
+        }
+
+        bulkInsert(new BulkInsert<RawObject>(objects, listener, BULK_INSERT_BUFFER_SIZE) {
+            @Override
+            protected ObjectId serialize(RawObject object, InternalByteArrayOutputStream out) {
+                byte[] data = object.getData();
+                out.write(data, 0, data.length);
+                return object.getId();
+            }
+        });
+    }
 
+    private void bulkInsert(BulkInsert<?> task) {
         try {
-            Integer insertedCount = task.run();
+            task.run();
         } catch (Exception e) {
             throw Throwables.propagate(e);
         }
     }
 
-    private class BulkInsert {
+    private abstract class BulkInsert<T> {
 
         private BulkOpListener listener;
 
         private int buffSize;
 
-        private Iterator<? extends RevObject> objects;
+        private Iterator<? extends T> objects;
 
-        public BulkInsert(final Iterator<? extends RevObject> objects,
-                final BulkOpListener listener, final int buffSize) {
+        public BulkInsert(final Iterator<? extends T> objects, final BulkOpListener listener,
+                final int buffSize) {
             this.objects = objects;
             this.listener = listener;
             this.buffSize = buffSize;
         }
 
+        /**
+         * Appends the stored form of {@code object} to {@code out}
+         * 
+         * @return the object's id
+         */
+        protected abstract ObjectId serialize(T object, InternalByteArrayOutputStream out);
+
         public Integer run() throws Exception {
             int count = 0;
             List<Future<Void>> pendingWrites = new ArrayList<Future<Void>>();
@@ -456,11 +498,11 @@ public class JEObjectDatabase extends AbstractObjectDatabase implements ObjectDa
             if (!objects.hasNext()) {
                 return false;
             }
-            RevObject o = objects.next();
+            T o = objects.next();
             int offset = out.size();
-            writeObject(o, out);
+            ObjectId id = serialize(o, out);
             int size = out.size() - offset;
-            offsets.put(o.getId(), new int[] { offset, size });
+            offsets.put(id, new int[] { offset, size });
             return true;
         }
 
@@ -721,12 +763,24 @@ public class JEObjectDatabase extends AbstractObjectDatabase implements ObjectDa
     public Iterator<RevObject> getAll(final Iterable<ObjectId> ids, final BulkOpListener listener) {
         Preconditions.checkNotNull(ids, "ids");
 
-        return new CursorRevObjectIterator(ids.iterator(), listener);
+        return Iterators.transform(new CursorRawObjectIterator(ids.iterator(), listener),
+                new Function<RawObject, RevObject>() {
+                    @Override
+                    public RevObject apply(RawObject raw) {
+                        return raw.parse();
+                    }
+                });
     }
 
-    private class CursorRevObjectIterator extends AbstractIterator<RevObject> implements Closeable {
+    @Override
+    public Iterator<RawObject> getRawAll(final Iterable<ObjectId> ids,
+            final BulkOpListener listener) {
+        Preconditions.checkNotNull(ids, "ids");
+
+        return new CursorRawObjectIterator(ids.iterator(), listener);
+    }
 
-        private final ObjectReader<RevObject> reader = serializationFactory.createObjectReader();
+    private class CursorRawObjectIterator extends AbstractIterator<RawObject> implements Closeable {
 
         @Nullable
         private Transaction transaction;
@@ -743,7 +797,7 @@ public class JEObjectDatabase extends AbstractObjectDatabase implements ObjectDa
          * Uses a transaction to open a read only cursor for it to work when called from a different
          * threads than the one it was created at. The transaction is aborted at {@link #close()}
          */
-        public CursorRevObjectIterator(final Iterator<ObjectId> objectIds,
+        public CursorRawObjectIterator(final Iterator<ObjectId> objectIds,
                 final BulkOpListener listener) {
 
             this.unsortedIds = Iterators.partition(objectIds, getBulkPartitionSize());
@@ -768,7 +822,7 @@ public class JEObjectDatabase extends AbstractObjectDatabase implements ObjectDa
         }
 
         @Override
-        protected RevObject computeNext() {
+        protected RawObject computeNext() {
             if (!sortedIds.hasNext()) {
                 if (unsortedIds.hasNext()) {
                     List<ObjectId> unsorted = unsortedIds.next();
@@ -784,7 +838,7 @@ public class JEObjectDatabase extends AbstractObjectDatabase implements ObjectDa
                 byte[] keyBuff = new byte[ObjectId.NUM_BYTES];
                 DatabaseEntry key = new DatabaseEntry(keyBuff);
 
-                RevObject found = null;
+                RawObject found = null;
                 while (sortedIds.hasNext() && found == null) {
                     ObjectId id = sortedIds.next();
                     id.getRawValue(keyBuff);
@@ -795,10 +849,8 @@ public class JEObjectDatabase extends AbstractObjectDatabase implements ObjectDa
                     OperationStatus status;
                     status = cursor.getSearchKey(key, data, LockMode.READ_UNCOMMITTED);
                     if (SUCCESS.equals(status)) {
-                        InputStream rawData;
-                        rawData = new LZFInputStream(new ByteArrayInputStream(data.getData()));
-                        found = reader.read(id, rawData);
-                        listener.found(found.getId(), data.getSize());
+                        found = new RawObject(id, data.getData());
+                        listener.found(id, data.getSize());
                     } else {
                         listener.notFound(id);
                     }
@@ -831,6 +883,58 @@ public class JEObjectDatabase extends AbstractObjectDatabase implements ObjectDa
         }
     }
 
+    @Override
+    public Iterator<ObjectId> listIds() {
+        return new CursorObjectIdIterator();
+    }
+
+    /**
+     * Traverses all the keys in the database without retrieving their data. The cursor is closed
+     * once the iterator is exhausted.
+     */
+    private class CursorObjectIdIterator extends AbstractIterator<ObjectId> implements Closeable {
+
+        private Cursor cursor;
+
+        private final DatabaseEntry key = new DatabaseEntry();
+
+        private final DatabaseEntry data = new DatabaseEntry();
+
+        public CursorObjectIdIterator() {
+            CursorConfig cursorConfig = new CursorConfig();
+            cursorConfig.setReadUncommitted(true);
+            this.cursor = objectDb.openCursor(null, cursorConfig);
+            data.setPartial(0, 0, true);// do not retrieve data
+        }
+
+        @Override
+        protected ObjectId computeNext() {
+            if (cursor == null) {
+                return endOfData();
+            }
+            try {
+                OperationStatus status = cursor.getNext(key, data, LockMode.READ_UNCOMMITTED);
+                if (SUCCESS.equals(status)) {
+                    return new ObjectId(key.getData());
+                }
+            } catch (RuntimeException e) {
+                close();
+                throw e;
+            }
+            close();
+            return endOfData();
+        }
+
+        @Override
+        public void close() {
+            Cursor cursor = this.cursor;
+            this.cursor = null;
+            if (cursor != null) {
+                cursor.close();
+            }
+        }
+    }
+
     private int getBulkPartitionSize() {
         Optional<Integer> configuredSize = configDB
                 .get(BULK_PARTITIONING_CONFIG_KEY, Integer.class);
@@ -8,9 +8,12 @@ import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.NoSuchElementException;
+import java.util.Set;
 
 import org.geogit.api.ObjectId;
 import org.geogit.api.RevCommit;
@@ -22,16 +25,20 @@ import org.geogit.api.RevTree;
 import org.geogit.repository.RepositoryConnectionException;
 import org.geogit.storage.BulkOpListener;
 import org.geogit.storage.ConfigDatabase;
+import org.geogit.storage.EnumerableObjectDatabase;
 import org.geogit.storage.ObjectDatabase;
 import org.geogit.storage.ObjectInserter;
 import org.geogit.storage.ObjectSerializingFactory;
 import org.geogit.storage.ObjectWriter;
+import org.geogit.storage.RawObject;
 import org.geogit.storage.datastream.DataStreamSerializationFactory;
 
-import com.google.common.base.Functions;
+import com.google.common.base.Preconditions;
 import com.google.common.collect.AbstractIterator;
 import com.google.common.collect.Iterators;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
 import com.google.inject.Inject;
 import com.mongodb.BasicDBObject;
 import com.mongodb.BasicDBObjectBuilder;
@@ -40,14 +47,23 @@ import com.mongodb.DBCollection;
 import com.mongodb.DBCursor;
 import com.mongodb.DBObject;
 import com.mongodb.MongoClient;
+import com.mongodb.MongoException;
 import com.mongodb.WriteResult;
 
 /**
  * An Object database that uses a MongoDB server for persistence.
+ * <p>
+ * The bulk operations write and read objects in batches of {@code mongodb.batchSize} objects,
+ * 1000 by default.
  * 
  * @see http://mongodb.com/
  */
-public class MongoObjectDatabase implements ObjectDatabase {
+public class MongoObjectDatabase implements ObjectDatabase, EnumerableObjectDatabase {
+
+    static final String BATCH_SIZE = "mongodb.batchSize";
+
+    static final int DEFAULT_BATCH_SIZE = 1000;
+
     private final MongoConnectionManager manager;
 
     protected final ConfigDatabase config;
@@ -62,6 +78,8 @@ public class MongoObjectDatabase implements ObjectDatabase {
 
     private String collectionName;
 
+    private int batchSize = DEFAULT_BATCH_SIZE;
+
     @Inject
     public MongoObjectDatabase(ConfigDatabase config, MongoConnectionManager manager) {
         this(config, manager, "objects");
@@ -104,7 +122,34 @@ public class MongoObjectDatabase implements ObjectDatabase {
         client = manager.acquire(new MongoAddress(uri));
         db = client.getDB(database);
         collection = db.getCollection(getCollectionName());
-        collection.ensureIndex("oid");
+        try {
+            collection.ensureIndex(new BasicDBObject("oid", 1), new BasicDBObject("unique", true));
+        } catch (MongoException e) {
+            // collections created before the index was unique keep the one they have
+            collection.ensureIndex("oid");
+        }
+        batchSize = Integer.parseInt(config.get(BATCH_SIZE)
+                .or(String.valueOf(DEFAULT_BATCH_SIZE)));
+        Preconditions.checkArgument(batchSize > 0, "%s must be positive: %s", BATCH_SIZE,
+                batchSize);
+    }
+
+    /**
+     * @return the fields to ask for to get a query covered by the index on the object ids
+     */
+    private static DBObject oidOnly() {
+        DBObject fields = new BasicDBObject();
+        fields.put("oid", 1);
+        fields.put("_id", 0);
+        return fields;
+    }
+
+    private static DBObject oidIn(Collection<ObjectId> ids) {
+        List<String> idStrings = Lists.newArrayListWithCapacity(ids.size());
+        for (ObjectId id : ids) {
+            idStrings.add(id.toString());
+        }
+        return BasicDBObjectBuilder.start().push("oid").add("$in", idStrings).pop().get();
     }
 
     @Override
@@ -142,7 +187,7 @@ public class MongoObjectDatabase implements ObjectDatabase {
     public boolean exists(ObjectId id) {
         DBObject query = new BasicDBObject();
         query.put("oid", id.toString());
-        return collection.find(query).hasNext();
+        return collection.findOne(query, oidOnly()) != null;
     }
 
     @Override
@@ -166,6 +211,21 @@ public class MongoObjectDatabase implements ObjectDatabase {
         }
     }
 
+    @Override
+    public Iterator<ObjectId> listIds() {
+        final DBCursor cursor = collection.find(new BasicDBObject(), oidOnly());
+        return new AbstractIterator<ObjectId>() {
+            @Override
+            protected ObjectId computeNext() {
+                if (!cursor.hasNext()) {
+                    cursor.close();
+                    return endOfData();
+                }
+                return ObjectId.valueOf((String) cursor.next().get("oid"));
+            }
+        };
+    }
+
     @Override
     public RevObject get(ObjectId id) {
         RevObject result = getIfPresent(id);
@@ -225,9 +285,7 @@ public class MongoObjectDatabase implements ObjectDatabase {
     }
 
     private long deleteChunk(List<ObjectId> ids) {
-        List<String> idStrings = Lists.transform(ids, Functions.toStringFunction());
-        DBObject query = BasicDBObjectBuilder.start().push("oid").add("$in", idStrings).pop().get();
-        WriteResult result = collection.remove(query);
+        WriteResult result = collection.remove(oidIn(ids));
         return result.getN();
     }
 
@@ -255,11 +313,15 @@ public class MongoObjectDatabase implements ObjectDatabase {
 
     @Override
     public boolean put(final RevObject object) {
+        return put(object.getId(), toBytes(object));
+    }
+
+    private boolean put(final ObjectId id, final byte[] serialized) {
         DBObject query = new BasicDBObject();
-        query.put("oid", object.getId().toString());
+        query.put("oid", id.toString());
         DBObject record = new BasicDBObject();
-        record.put("oid", object.getId().toString());
-        record.put("serialized_object", toBytes(object));
+        record.put("oid", id.toString());
+        record.put("serialized_object", serialized);
         return collection.update(query, record, true, false).getLastError().ok();
     }
 
@@ -270,15 +332,125 @@ public class MongoObjectDatabase implements ObjectDatabase {
 
     @Override
     public void putAll(Iterator<? extends RevObject> objects, BulkOpListener listener) {
-        while (objects.hasNext()) {
-            RevObject object = objects.next();
-            boolean put = put(object);
-            if (put) {
-                listener.inserted(object.getId(), null);
-            } else {
-                listener.found(object.getId(), null);
+        new BatchWriter<RevObject>(listener) {
+            @Override
+            protected ObjectId id(RevObject object) {
+                return object.getId();
+            }
+
+            @Override
+            protected byte[] serialize(RevObject object) {
+                return toBytes(object);
+            }
+        }.putAll(objects);
+    }
+
+    /**
+     * Inserts objects a batch at a time, each batch with a single insert of the objects that
+     * aren't in the collection yet.
+     * <p>
+     * The ids of a batch that are already present are looked up first, so objects that are found
+     * aren't even serialized. The insert continues on errors, so that objects inserted by someone
+     * else in the meantime only fail their own inserts. The driver doesn't tell which ones failed
+     * though, so after a duplicate key error the ids are queried again, and only those whose
+     * record has the {@code _id} given to it by the insert are reported as inserted.
+     */
+    private abstract class BatchWriter<T> {
+
+        private final BulkOpListener listener;
+
+        BatchWriter(BulkOpListener listener) {
+            this.listener = listener;
+        }
+
+        protected abstract ObjectId id(T object);
+
+        protected abstract byte[] serialize(T object);
+
+        public void putAll(Iterator<? extends T> objects) {
+            Iterator<? extends List<? extends T>> batches = Iterators.partition(objects, batchSize);
+            while (batches.hasNext()) {
+                putBatch(batches.next());
             }
         }
+
+        private void putBatch(List<? extends T> batch) {
+            Map<ObjectId, T> objects = Maps.newLinkedHashMap();
+            for (T object : batch) {
+                ObjectId id = id(object);
+                if (objects.containsKey(id)) {
+                    listener.found(id, null);
+                } else {
+                    objects.put(id, object);
+                }
+            }
+            DBCursor cursor = collection.find(oidIn(objects.keySet()), oidOnly());
+            try {
+                while (cursor.hasNext()) {
+                    ObjectId id = ObjectId.valueOf((String) cursor.next().get("oid"));
+                    if (objects.remove(id) != null) {
+                        listener.found(id, null);
+                    }
+                }
+            } finally {
+                cursor.close();
+            }
+            if (objects.isEmpty()) {
+                return;
+            }
+
+            Map<ObjectId, org.bson.types.ObjectId> recordIds = Maps.newHashMap();
+            List<DBObject> records = Lists.newArrayListWithCapacity(objects.size());
+            for (Map.Entry<ObjectId, T> entry : objects.entrySet()) {
+                org.bson.types.ObjectId recordId = new org.bson.types.ObjectId();
+                recordIds.put(entry.getKey(), recordId);
+                DBObject record = new BasicDBObject();
+                record.put("_id", recordId);
+                record.put("oid", entry.getKey().toString());
+                record.put("serialized_object", serialize(entry.getValue()));
+                records.add(record);
+            }
+            Set<ObjectId> inserted;
+            try {
+                collection.insert(records,
+                        collection.getWriteConcern().continueOnErrorForInsert(true));
+                inserted = objects.keySet();
+            } catch (MongoException.DuplicateKey e) {
+                // some were inserted by someone else since they were looked up
+                inserted = insertedRecords(recordIds);
+            }
+            for (ObjectId id : objects.keySet()) {
+                if (inserted.contains(id)) {
+                    listener.inserted(id, null);
+                } else {
+                    listener.found(id, null);
+                }
+            }
+        }
+
+        /**
+         * @return the ids whose stored record is the one with the given {@code _id}, as opposed to
+         *         one inserted by someone else
+         */
+        private Set<ObjectId> insertedRecords(Map<ObjectId, org.bson.types.ObjectId> recordIds) {
+            DBObject fields = new BasicDBObject();
+            fields.put("oid", 1);
+            fields.put("_id", 1);
+            Set<ObjectId> inserted = Sets.newHashSet();
+            DBCursor cursor = collection.find(oidIn(recordIds.keySet()), fields);
+            try {
+                while (cursor.hasNext()) {
+                    DBObject record = cursor.next();
+                    ObjectId id = ObjectId.valueOf((String) record.get("oid"));
+                    if (record.get("_id").equals(recordIds.get(id))) {
+                        inserted.add(id);
+                    }
+                }
+            } finally {
+                cursor.close();
+            }
+            return inserted;
+        }
     }
 
     @Override
@@ -291,30 +463,98 @@ public class MongoObjectDatabase implements ObjectDatabase {
         return getAll(ids, BulkOpListener.NOOP_LISTENER);
     }
 
+    /**
+     * Queries the objects a batch of ids at a time, returning them in no particular order.
+     */
     @Override
     public Iterator<RevObject> getAll(final Iterable<ObjectId> ids, final BulkOpListener listener) {
+        return new BatchIterator<RevObject>(ids.iterator(), listener) {
+            @Override
+            protected RevObject found(ObjectId id, byte[] serialized) {
+                listener.found(id, null);
+                return fromBytes(id, serialized);
+            }
+        };
+    }
 
-        return new AbstractIterator<RevObject>() {
-            final Iterator<ObjectId> queryIds = ids.iterator();
-
+    /**
+     * Objects are stored uncompressed, so they're compressed on the way out, but not parsed.
+     */
+    @Override
+    public Iterator<RawObject> getRawAll(final Iterable<ObjectId> ids,
+            final BulkOpListener listener) {
+        return new BatchIterator<RawObject>(ids.iterator(), listener) {
             @Override
-            protected RevObject computeNext() {
-                RevObject obj = null;
-                while (obj == null) {
-                    if (!queryIds.hasNext()) {
-                        return endOfData();
+            protected RawObject found(ObjectId id, byte[] serialized) {
+                listener.found(id, serialized.length);
+                return RawObject.compress(id, serialized);
+            }
+        };
+    }
+
+    /**
+     * Iterates over the objects of a list of ids as they come from a {@code $in} query per batch of
+     * ids. The ids a query didn't return are reported to the listener once it's done.
+     */
+    private abstract class BatchIterator<T> extends AbstractIterator<T> {
+
+        private final Iterator<List<ObjectId>> batches;
+
+        private final BulkOpListener listener;
+
+        private DBCursor cursor;
+
+        private Set<ObjectId> missing;
+
+        BatchIterator(Iterator<ObjectId> ids, BulkOpListener listener) {
+            this.batches = Iterators.partition(ids, batchSize);
+            this.listener = listener;
+        }
+
+        @Override
+        protected T computeNext() {
+            while (true) {
+                if (cursor != null) {
+                    while (cursor.hasNext()) {
+                        DBObject record = cursor.next();
+                        ObjectId id = ObjectId.valueOf((String) record.get("oid"));
+                        if (missing.remove(id)) {
+                            return found(id, (byte[]) record.get("serialized_object"));
+                        }
                     }
-                    ObjectId id = queryIds.next();
-                    obj = getIfPresent(id);
-                    if (obj == null) {
+                    cursor.close();
+                    cursor = null;
+                    for (ObjectId id : missing) {
                         listener.notFound(id);
-                    } else {
-                        listener.found(obj.getId(), null);
                     }
                 }
-                return obj == null ? endOfData() : obj;
+                if (!batches.hasNext()) {
+                    return endOfData();
+                }
+                missing = Sets.newLinkedHashSet(batches.next());
+                cursor = collection.find(oidIn(missing));
             }
-        };
+        }
+
+        /**
+         * Creates the result for an object that was found, notifying the listener.
+         */
+        protected abstract T found(ObjectId id, byte[] serialized);
+    }
+
+    @Override
+    public void putRawAll(Iterator<RawObject> objects, BulkOpListener listener) {
+        new BatchWriter<RawObject>(listener) {
+            @Override
+            protected ObjectId id(RawObject object) {
+                return object.getId();
+            }
+
+            @Override
+            protected byte[] serialize(RawObject object) {
+                return object.decompress();
+            }
+        }.putAll(objects);
     }
 
     public DBCollection getCollection(String name) {
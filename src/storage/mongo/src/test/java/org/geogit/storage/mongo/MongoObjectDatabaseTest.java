@@ -0,0 +1,177 @@
+/* Copyright (c) 2013 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+package org.geogit.storage.mongo;
+
+import java.io.File;
+import java.util.List;
+
+import org.geogit.api.ObjectId;
+import org.geogit.api.RevFeature;
+import org.geogit.api.RevObject;
+import org.geogit.api.TestPlatform;
+import org.geogit.storage.BulkOpListener;
+import org.geogit.storage.BulkOpListener.CountingListener;
+import org.geogit.storage.ConfigDatabase;
+import org.geogit.storage.RawObject;
+import org.geogit.storage.fs.IniFileConfigDatabase;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+
+/**
+ * Runs against a {@link MongoStandIn}, so no MongoDB server is needed.
+ */
+public class MongoObjectDatabaseTest extends Assert {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private MongoStandIn server;
+
+    private ConfigDatabase configDB;
+
+    private MongoConnectionManager manager;
+
+    private MongoObjectDatabase db;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new MongoStandIn();
+        File root = folder.getRoot();
+        folder.newFolder(".geogit");
+        File home = folder.newFolder("home");
+        TestPlatform platform = new TestPlatform(root);
+        platform.setUserHome(home);
+        configDB = new IniFileConfigDatabase(platform);
+        configDB.put("mongodb.uri", server.getUri());
+        configDB.put("mongodb.database", "geogit");
+        // small batches, so the tests go through several of them
+        configDB.put(MongoObjectDatabase.BATCH_SIZE, 100);
+        manager = new MongoConnectionManager();
+        db = new MongoObjectDatabase(configDB, manager);
+        db.open();
+    }
+
+    @After
+    public void tearDown() {
+        if (db != null) {
+            db.close();
+        }
+        server.close();
+    }
+
+    private List<RevObject> createObjects(int count) {
+        List<RevObject> objects = Lists.newArrayListWithCapacity(count);
+        for (int i = 0; i < count; i++) {
+            ImmutableList<Optional<Object>> values = ImmutableList.of(Optional
+                    .<Object> of("value " + i));
+            objects.add(RevFeature.build(values));
+        }
+        return objects;
+    }
+
+    private List<ObjectId> ids(List<RevObject> objects) {
+        List<ObjectId> ids = Lists.newArrayListWithCapacity(objects.size());
+        for (RevObject o : objects) {
+            ids.add(o.getId());
+        }
+        return ids;
+    }
+
+    @Test
+    public void testPutAll() {
+        List<RevObject> objects = createObjects(550);
+        CountingListener listener = BulkOpListener.newCountingListener();
+        db.putAll(objects.subList(0, 300).iterator(), listener);
+        assertEquals(300, listener.inserted());
+        assertEquals(0, listener.found());
+
+        // half already there, and some twice within a batch
+        List<RevObject> again = Lists.newArrayList(objects.subList(150, 550));
+        again.add(10, objects.get(400));
+        listener = BulkOpListener.newCountingListener();
+        db.putAll(again.iterator(), listener);
+        assertEquals(250, listener.inserted());
+        assertEquals(151, listener.found());
+
+        for (RevObject o : objects) {
+            assertTrue(db.exists(o.getId()));
+            assertEquals(o, db.get(o.getId()));
+        }
+        assertFalse(db.exists(ObjectId.forString("missing")));
+        assertEquals(550, ImmutableSet.copyOf(db.listIds()).size());
+    }
+
+    @Test
+    public void testDuplicateKeyIsFound() {
+        final List<RevObject> objects = createObjects(20);
+        db.putAll(objects.subList(0, 10).iterator());
+
+        // some of the rest are inserted by someone else once it's been looked up which ones are
+        // there, only those are found
+        CountingListener listener = new CountingListener() {
+            boolean raced;
+
+            @Override
+            public void found(ObjectId object, Integer storageSizeBytes) {
+                if (!raced) {
+                    raced = true;
+                    db.putAll(objects.subList(10, 15).iterator());
+                }
+                super.found(object, storageSizeBytes);
+            }
+        };
+        db.putAll(objects.iterator(), listener);
+        assertEquals(15, listener.found());
+        assertEquals(5, listener.inserted());
+        assertEquals(20, ImmutableSet.copyOf(db.listIds()).size());
+        for (RevObject o : objects) {
+            assertEquals(o, db.get(o.getId()));
+        }
+    }
+
+    @Test
+    public void testGetAll() {
+        List<RevObject> objects = createObjects(350);
+        db.putAll(objects.iterator());
+
+        List<ObjectId> ids = Lists.newArrayList(ids(objects));
+        ids.add(0, ObjectId.forString("missing 1"));
+        ids.add(200, ObjectId.forString("missing 2"));
+
+        CountingListener listener = BulkOpListener.newCountingListener();
+        assertEquals(ImmutableSet.copyOf(objects), ImmutableSet.copyOf(db.getAll(ids, listener)));
+        assertEquals(350, listener.found());
+        assertEquals(2, listener.notFound());
+
+        listener = BulkOpListener.newCountingListener();
+        List<RawObject> raw = Lists.newArrayList(db.getRawAll(ids, listener));
+        assertEquals(350, raw.size());
+        assertEquals(350, listener.found());
+        assertEquals(2, listener.notFound());
+
+        db.deleteAll(ids(objects).iterator());
+        listener = BulkOpListener.newCountingListener();
+        db.putRawAll(raw.iterator(), listener);
+        assertEquals(350, listener.inserted());
+        assertEquals(ImmutableSet.copyOf(objects), ImmutableSet.copyOf(db.getAll(ids)));
+    }
+
+    @Test
+    public void testLookUp() {
+        List<RevObject> objects = createObjects(50);
+        db.putAll(objects.iterator());
+        ObjectId id = objects.get(0).getId();
+        assertEquals(ImmutableList.of(id), db.lookUp(id.toString().substring(0, 10)));
+    }
+}
@@ -0,0 +1,555 @@
+/* Copyright (c) 2013 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+package org.geogit.storage.mongo;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+import org.bson.BSONObject;
+import org.bson.BasicBSONDecoder;
+import org.bson.BasicBSONEncoder;
+import org.bson.BasicBSONObject;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Predicate;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * An in-process stand-in for a MongoDB server, speaking enough of the wire protocol for the Java
+ * driver to store and query documents in memory, so tests can run without a live server.
+ * <p>
+ * Supports inserts, honoring unique indexes and continue on error, replacing updates and upserts,
+ * deletes, queries with equality, {@code $in} and {@code $regex} conditions and field selection,
+ * cursors, and the {@code getlasterror}, {@code count}, {@code drop} and {@code dropDatabase}
+ * commands. Other commands are acknowledged and ignored.
+ */
+public class MongoStandIn {
+
+    private static final int OP_REPLY = 1;
+
+    private static final int OP_UPDATE = 2001;
+
+    private static final int OP_INSERT = 2002;
+
+    private static final int OP_QUERY = 2004;
+
+    private static final int OP_GET_MORE = 2005;
+
+    private static final int OP_DELETE = 2006;
+
+    private static final int OP_KILL_CURSORS = 2007;
+
+    private static final int QUERY_FAILURE = 2;
+
+    private static final int DUPLICATE_KEY = 11000;
+
+    private final ServerSocket server;
+
+    private final ExecutorService threads;
+
+    private final Set<Socket> sockets = Sets.newSetFromMap(Maps
+            .<Socket, Boolean> newConcurrentMap());
+
+    private final AtomicInteger requestIds = new AtomicInteger();
+
+    private final AtomicLong cursorIds = new AtomicLong();
+
+    // all guarded by this
+
+    private final Map<String, List<BSONObject>> collections = Maps.newHashMap();
+
+    private final Map<String, Set<String>> uniqueKeys = Maps.newHashMap();
+
+    private final Map<Long, Iterator<BSONObject>> cursors = Maps.newHashMap();
+
+    public MongoStandIn() throws IOException {
+        server = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+        threads = Executors.newCachedThreadPool(new ThreadFactoryBuilder().setDaemon(true)
+                .setNameFormat("MongoStandIn-%d").build());
+        threads.submit(new Runnable() {
+            @Override
+            public void run() {
+                accept();
+            }
+        });
+    }
+
+    /**
+     * @return the uri to connect to this server
+     */
+    public String getUri() {
+        return "mongodb://127.0.0.1:" + server.getLocalPort() + "/";
+    }
+
+    public void close() {
+        try {
+            server.close();
+        } catch (IOException e) {
+            // nothing to do
+        }
+        for (Socket socket : sockets) {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // nothing to do
+            }
+        }
+        threads.shutdownNow();
+    }
+
+    private void accept() {
+        while (!server.isClosed()) {
+            final Socket socket;
+            try {
+                socket = server.accept();
+            } catch (IOException e) {
+                return;
+            }
+            sockets.add(socket);
+            threads.submit(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        serve(socket);
+                    } catch (EOFException e) {
+                        // client closed the connection
+                    } catch (SocketException e) {
+                        // client or server closed the connection
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                    } finally {
+                        sockets.remove(socket);
+                        try {
+                            socket.close();
+                        } catch (IOException e) {
+                            // nothing to do
+                        }
+                    }
+                }
+            });
+        }
+    }
+
+    private void serve(Socket socket) throws IOException {
+        DataInputStream in = new DataInputStream(socket.getInputStream());
+        OutputStream out = socket.getOutputStream();
+        // the outcome of the last write on this connection, for getlasterror
+        BSONObject lastError = lastError(null, 0);
+        byte[] header = new byte[16];
+        while (true) {
+            in.readFully(header);
+            ByteBuffer h = ByteBuffer.wrap(header).order(ByteOrder.LITTLE_ENDIAN);
+            final int length = h.getInt();
+            final int requestId = h.getInt();
+            h.getInt();
+            final int opCode = h.getInt();
+            byte[] body = new byte[length - header.length];
+            in.readFully(body);
+            ByteBuffer msg = ByteBuffer.wrap(body).order(ByteOrder.LITTLE_ENDIAN);
+
+            switch (opCode) {
+            case OP_QUERY: {
+                msg.getInt();
+                String ns = cstring(msg);
+                int skip = msg.getInt();
+                int numberToReturn = msg.getInt();
+                BSONObject query = document(msg);
+                BSONObject fields = msg.hasRemaining() ? document(msg) : null;
+                try {
+                    if (ns.endsWith(".$cmd")) {
+                        String db = ns.substring(0, ns.indexOf('.'));
+                        BSONObject result = command(db, query, lastError);
+                        reply(out, requestId, 0, 0, ImmutableList.of(result));
+                    } else {
+                        query(out, requestId, ns, query, fields, skip, numberToReturn);
+                    }
+                } catch (RuntimeException e) {
+                    BSONObject error = new BasicBSONObject("$err", String.valueOf(e)).append(
+                            "code", 1);
+                    reply(out, requestId, QUERY_FAILURE, 0, ImmutableList.of(error));
+                }
+                break;
+            }
+            case OP_GET_MORE: {
+                msg.getInt();
+                cstring(msg);
+                int numberToReturn = msg.getInt();
+                long cursorId = msg.getLong();
+                List<BSONObject> batch = Lists.newArrayList();
+                synchronized (this) {
+                    Iterator<BSONObject> cursor = cursors.get(cursorId);
+                    while (cursor != null && cursor.hasNext()
+                            && (numberToReturn <= 0 || batch.size() < numberToReturn)) {
+                        batch.add(cursor.next());
+                    }
+                    if (cursor == null || !cursor.hasNext()) {
+                        cursors.remove(cursorId);
+                        cursorId = 0;
+                    }
+                }
+                reply(out, requestId, 0, cursorId, batch);
+                break;
+            }
+            case OP_KILL_CURSORS: {
+                msg.getInt();
+                int count = msg.getInt();
+                synchronized (this) {
+                    for (int i = 0; i < count; i++) {
+                        cursors.remove(msg.getLong());
+                    }
+                }
+                break;
+            }
+            case OP_INSERT: {
+                boolean continueOnError = (msg.getInt() & 1) != 0;
+                String ns = cstring(msg);
+                List<BSONObject> documents = Lists.newArrayList();
+                while (msg.hasRemaining()) {
+                    documents.add(document(msg));
+                }
+                lastError = insert(ns, documents, continueOnError);
+                break;
+            }
+            case OP_UPDATE: {
+                msg.getInt();
+                String ns = cstring(msg);
+                int flags = msg.getInt();
+                BSONObject selector = document(msg);
+                BSONObject update = document(msg);
+                lastError = update(ns, selector, update, (flags & 1) != 0, (flags & 2) != 0);
+                break;
+            }
+            case OP_DELETE: {
+                msg.getInt();
+                String ns = cstring(msg);
+                int flags = msg.getInt();
+                BSONObject selector = document(msg);
+                lastError = delete(ns, selector, (flags & 1) != 0);
+                break;
+            }
+            default:
+                throw new IOException("Unsupported op code " + opCode);
+            }
+        }
+    }
+
+    private void reply(OutputStream out, int responseTo, int flags, long cursorId,
+            List<BSONObject> documents) throws IOException {
+        List<byte[]> encoded = Lists.newArrayListWithCapacity(documents.size());
+        int length = 36;
+        for (BSONObject document : documents) {
+            byte[] bytes = new BasicBSONEncoder().encode(document);
+            encoded.add(bytes);
+            length += bytes.length;
+        }
+        ByteBuffer buff = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+        buff.putInt(length).putInt(requestIds.incrementAndGet()).putInt(responseTo)
+                .putInt(OP_REPLY);
+        buff.putInt(flags).putLong(cursorId).putInt(0).putInt(documents.size());
+        for (byte[] bytes : encoded) {
+            buff.put(bytes);
+        }
+        out.write(buff.array());
+        out.flush();
+    }
+
+    private static String cstring(ByteBuffer msg) {
+        int start = msg.position();
+        while (msg.get() != 0) {
+            // look for the terminating zero
+        }
+        return new String(msg.array(), start, msg.position() - start - 1, Charsets.UTF_8);
+    }
+
+    private static BSONObject document(ByteBuffer msg) {
+        byte[] bytes = new byte[msg.getInt(msg.position())];
+        msg.get(bytes);
+        return new BasicBSONDecoder().readObject(bytes);
+    }
+
+    private static BSONObject lastError(String err, int n) {
+        BSONObject result = new BasicBSONObject("ok", 1.0).append("n", n).append("err", err);
+        if (err != null) {
+            result.put("code", DUPLICATE_KEY);
+        }
+        return result;
+    }
+
+    private synchronized BSONObject command(String db, BSONObject command, BSONObject lastError) {
+        String name = command.keySet().iterator().next();
+        BSONObject result = new BasicBSONObject("ok", 1.0);
+        if ("getlasterror".equalsIgnoreCase(name)) {
+            result = lastError;
+        } else if ("ismaster".equalsIgnoreCase(name)) {
+            result.put("ismaster", true);
+            result.put("maxBsonObjectSize", 16 * 1024 * 1024);
+            result.put("maxMessageSizeBytes", 48000000);
+        } else if ("buildinfo".equalsIgnoreCase(name)) {
+            result.put("version", "2.4.0");
+            result.put("versionArray", Arrays.asList(2, 4, 0, 0));
+        } else if ("count".equalsIgnoreCase(name)) {
+            BSONObject query = (BSONObject) command.get("query");
+            int n = 0;
+            for (BSONObject document : collection(db + "." + command.get(name))) {
+                if (query == null || matches(document, query)) {
+                    n++;
+                }
+            }
+            result.put("n", (double) n);
+        } else if ("drop".equalsIgnoreCase(name)) {
+            collections.remove(db + "." + command.get(name));
+            uniqueKeys.remove(db + "." + command.get(name));
+        } else if ("dropDatabase".equalsIgnoreCase(name)) {
+            collections.keySet().removeAll(Sets.filter(collections.keySet(), prefix(db)));
+            uniqueKeys.keySet().removeAll(Sets.filter(uniqueKeys.keySet(), prefix(db)));
+        }
+        return result;
+    }
+
+    private static Predicate<String> prefix(final String db) {
+        return new Predicate<String>() {
+            @Override
+            public boolean apply(String ns) {
+                return ns.startsWith(db + ".");
+            }
+        };
+    }
+
+    private List<BSONObject> collection(String ns) {
+        List<BSONObject> collection = collections.get(ns);
+        if (collection == null) {
+            collection = Lists.newArrayList();
+            collections.put(ns, collection);
+        }
+        return collection;
+    }
+
+    private void query(OutputStream out, int requestId, String ns, BSONObject query,
+            BSONObject fields, int skip, int numberToReturn) throws IOException {
+        if (query.containsField("$query")) {
+            query = (BSONObject) query.get("$query");
+        }
+        List<BSONObject> results = Lists.newArrayList();
+        long cursorId = 0;
+        synchronized (this) {
+            if (!ns.endsWith(".system.indexes")) {
+                for (BSONObject document : collection(ns)) {
+                    if (matches(document, query)) {
+                        results.add(project(document, fields));
+                    }
+                }
+            }
+            results = results.subList(Math.min(skip, results.size()), results.size());
+            // a negative number or one closes the cursor after the first batch
+            int limit = Math.abs(numberToReturn);
+            if (limit > 0 && limit < results.size()) {
+                if (numberToReturn > 1) {
+                    cursorId = cursorIds.incrementAndGet();
+                    List<BSONObject> rest = results.subList(limit, results.size());
+                    cursors.put(cursorId, Lists.newArrayList(rest).iterator());
+                }
+                results = results.subList(0, limit);
+            }
+        }
+        reply(out, requestId, 0, cursorId, results);
+    }
+
+    private synchronized BSONObject insert(String ns, List<BSONObject> documents,
+            boolean continueOnError) {
+        if (ns.endsWith(".system.indexes")) {
+            for (BSONObject index : documents) {
+                if (Boolean.TRUE.equals(index.get("unique"))) {
+                    String collection = (String) index.get("ns");
+                    Set<String> keys = uniqueKeys.get(collection);
+                    if (keys == null) {
+                        keys = Sets.newHashSet();
+                        uniqueKeys.put(collection, keys);
+                    }
+                    keys.addAll(((BSONObject) index.get("key")).keySet());
+                }
+            }
+            return lastError(null, 0);
+        }
+        String err = null;
+        for (BSONObject document : documents) {
+            String duplicate = duplicate(ns, document, null);
+            if (duplicate == null) {
+                collection(ns).add(document);
+            } else {
+                err = duplicate;
+                if (!continueOnError) {
+                    break;
+                }
+            }
+        }
+        return lastError(err, 0);
+    }
+
+    /**
+     * @return the error message if the document would break a unique index of the collection,
+     *         {@code null} otherwise
+     */
+    private String duplicate(String ns, BSONObject document, BSONObject replaced) {
+        Set<String> keys = uniqueKeys.get(ns);
+        if (keys == null) {
+            return null;
+        }
+        for (String key : keys) {
+            for (BSONObject other : collection(ns)) {
+                if (other != replaced && equal(other.get(key), document.get(key))) {
+                    return "E11000 duplicate key error index: " + ns + ".$" + key + "_1  dup key: "
+                            + document.get(key);
+                }
+            }
+        }
+        return null;
+    }
+
+    private synchronized BSONObject update(String ns, BSONObject selector, BSONObject update,
+            boolean upsert, boolean multi) {
+        for (String key : update.keySet()) {
+            if (key.startsWith("$")) {
+                throw new UnsupportedOperationException("Update operator " + key);
+            }
+        }
+        List<BSONObject> collection = collection(ns);
+        int n = 0;
+        for (int i = 0; i < collection.size(); i++) {
+            BSONObject document = collection.get(i);
+            if (matches(document, selector)) {
+                String duplicate = duplicate(ns, update, document);
+                if (duplicate != null) {
+                    return lastError(duplicate, n);
+                }
+                BSONObject replacement = new BasicBSONObject("_id", document.get("_id"));
+                replacement.putAll(update);
+                collection.set(i, replacement);
+                n++;
+                if (!multi) {
+                    break;
+                }
+            }
+        }
+        if (n == 0 && upsert) {
+            BSONObject replacement = new BasicBSONObject("_id", new org.bson.types.ObjectId());
+            replacement.putAll(update);
+            String duplicate = duplicate(ns, replacement, null);
+            if (duplicate != null) {
+                return lastError(duplicate, 0);
+            }
+            collection.add(replacement);
+            n = 1;
+        }
+        BSONObject result = lastError(null, n);
+        result.put("updatedExisting", n > 0 && !upsert);
+        return result;
+    }
+
+    private synchronized BSONObject delete(String ns, BSONObject selector, boolean single) {
+        int n = 0;
+        Iterator<BSONObject> it = collection(ns).iterator();
+        while (it.hasNext()) {
+            if (matches(it.next(), selector)) {
+                it.remove();
+                n++;
+                if (single) {
+                    break;
+                }
+            }
+        }
+        return lastError(null, n);
+    }
+
+    private static boolean matches(BSONObject document, BSONObject query) {
+        for (String key : query.keySet()) {
+            Object value = document.get(key);
+            Object condition = query.get(key);
+            if (condition instanceof BSONObject && !(condition instanceof List)
+                    && isOperator((BSONObject) condition)) {
+                BSONObject operators = (BSONObject) condition;
+                for (String operator : operators.keySet()) {
+                    Object arg = operators.get(operator);
+                    if ("$in".equals(operator)) {
+                        boolean in = false;
+                        for (Object candidate : (List<?>) arg) {
+                            in |= equal(value, candidate);
+                        }
+                        if (!in) {
+                            return false;
+                        }
+                    } else if ("$regex".equals(operator)) {
+                        if (!(value instanceof String)
+                                || !Pattern.compile((String) arg).matcher((String) value).find()) {
+                            return false;
+                        }
+                    } else if (!"$options".equals(operator)) {
+                        throw new UnsupportedOperationException("Query operator " + operator);
+                    }
+                }
+            } else if (!equal(value, condition)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isOperator(BSONObject condition) {
+        Set<String> keys = condition.keySet();
+        return !keys.isEmpty() && keys.iterator().next().startsWith("$");
+    }
+
+    private static boolean equal(Object value, Object other) {
+        if (value instanceof byte[] && other instanceof byte[]) {
+            return Arrays.equals((byte[]) value, (byte[]) other);
+        }
+        return value == null ? other == null : value.equals(other);
+    }
+
+    private static BSONObject project(BSONObject document, BSONObject fields) {
+        if (fields == null || fields.keySet().isEmpty()) {
+            return document;
+        }
+        Set<String> included = Sets.newLinkedHashSet();
+        Set<String> excluded = Sets.newHashSet();
+        for (String field : fields.keySet()) {
+            if (((Number) fields.get(field)).intValue() == 0) {
+                excluded.add(field);
+            } else {
+                included.add(field);
+            }
+        }
+        BSONObject result = new BasicBSONObject();
+        for (String field : document.keySet()) {
+            boolean include = included.isEmpty() || included.contains(field)
+                    || ("_id".equals(field) && !excluded.contains(field));
+            if (include && !excluded.contains(field)) {
+                result.put(field, document.get(field));
+            }
+        }
+        return result;
+    }
+}
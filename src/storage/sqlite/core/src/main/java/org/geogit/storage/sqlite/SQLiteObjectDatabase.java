@@ -4,8 +4,6 @@
  */
 package org.geogit.storage.sqlite;
 
-import static com.google.common.collect.Iterables.filter;
-import static com.google.common.collect.Iterables.transform;
 import static org.geogit.storage.sqlite.SQLiteStorage.FORMAT_NAME;
 import static org.geogit.storage.sqlite.SQLiteStorage.VERSION;
 
@@ -14,10 +12,14 @@ import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.NoSuchElementException;
 
+import javax.annotation.Nullable;
+
 import org.geogit.api.ObjectId;
 import org.geogit.api.Platform;
 import org.geogit.api.RevCommit;
@@ -29,13 +31,16 @@ import org.geogit.api.RevTree;
 import org.geogit.repository.RepositoryConnectionException;
 import org.geogit.storage.BulkOpListener;
 import org.geogit.storage.ConfigDatabase;
+import org.geogit.storage.EnumerableObjectDatabase;
 import org.geogit.storage.ObjectDatabase;
 import org.geogit.storage.ObjectInserter;
 import org.geogit.storage.ObjectSerializingFactory;
+import org.geogit.storage.RawObject;
 import org.geogit.storage.datastream.DataStreamSerializationFactory;
 
-import com.google.common.base.Function;
-import com.google.common.base.Predicates;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.AbstractIterator;
+import com.google.common.collect.Iterators;
 import com.google.common.collect.Lists;
 
 /**
@@ -45,7 +50,14 @@ import com.google.common.collect.Lists;
  * 
  * @param <C> Connection type.
  */
-public abstract class SQLiteObjectDatabase<C> implements ObjectDatabase {
+public abstract class SQLiteObjectDatabase<C> implements ObjectDatabase,
+        EnumerableObjectDatabase {
+
+    /**
+     * Maximum number of ids fetched at once by {@code getAll(List, C)}, keeps the queries under
+     * SQLite's default limit of 999 parameters per statement.
+     */
+    static final int GET_ALL_BATCH_SIZE = 500;
 
     final Platform platform;
 
@@ -94,12 +106,52 @@ public abstract class SQLiteObjectDatabase<C> implements ObjectDatabase {
 
     @Override
     public boolean exists(ObjectId id) {
-        return has(id.toString(), cx);
+        return has(id, cx);
     }
 
+    /**
+     * Looks up the ids starting with the given partial id as a range scan over the ids that start
+     * with its bytes.
+     */
     @Override
     public List<ObjectId> lookUp(String partialId) {
-        return Lists.newArrayList(transform(search(partialId, cx), StringToObjectId.INSTANCE));
+        Preconditions.checkNotNull(partialId);
+
+        final byte[] from = ObjectId.toRaw(partialId);
+        final List<ObjectId> matches = Lists.newArrayList(search(from, rangeEnd(from), cx));
+
+        // If the length of the partial string is odd, then the last character wasn't considered in
+        // the lookup, we need to filter the list further.
+        if (partialId.length() % 2 != 0) {
+            Iterator<ObjectId> it = matches.iterator();
+            while (it.hasNext()) {
+                if (!it.next().toString().startsWith(partialId)) {
+                    it.remove();
+                }
+            }
+        }
+        return matches;
+    }
+
+    /**
+     * Returns the smallest byte string greater than all the ones starting with {@code prefix}, or
+     * {@code null} if there is none because the prefix is empty or all {@code 0xFF}.
+     */
+    @Nullable
+    static byte[] rangeEnd(final byte[] prefix) {
+        for (int i = prefix.length - 1; i >= 0; i--) {
+            if (prefix[i] != (byte) 0xFF) {
+                byte[] end = Arrays.copyOf(prefix, i + 1);
+                end[i]++;
+                return end;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public Iterator<ObjectId> listIds() {
+        return list(cx).iterator();
     }
 
     @Override
@@ -124,7 +176,7 @@ public abstract class SQLiteObjectDatabase<C> implements ObjectDatabase {
 
     @Override
     public RevObject getIfPresent(ObjectId id) {
-        InputStream bytes = get(id.toString(), cx);
+        InputStream bytes = get(id, cx);
         return readObject(bytes, id);
     }
 
@@ -165,31 +217,27 @@ public abstract class SQLiteObjectDatabase<C> implements ObjectDatabase {
         return getAll(ids, BulkOpListener.NOOP_LISTENER);
     }
 
+    /**
+     * Fetches the objects {@link #GET_ALL_BATCH_SIZE} ids at a time.
+     */
     @Override
     public Iterator<RevObject> getAll(Iterable<ObjectId> ids, final BulkOpListener listener) {
-        return filter(transform(ids, new Function<ObjectId, RevObject>() {
+        return new BatchIterator<RevObject>(ids.iterator(), listener) {
             @Override
-            public RevObject apply(ObjectId id) {
-                RevObject obj = getIfPresent(id);
-                if (obj == null) {
-                    listener.notFound(id);
-                } else {
-                    listener.found(id, null);
-                }
-                return obj;
+            protected RevObject found(ObjectId id, byte[] bytes) {
+                listener.found(id, null);
+                return readObject(new ByteArrayInputStream(bytes), id);
             }
-        }), Predicates.notNull()).iterator();
+        };
     }
 
     @Override
     public boolean put(RevObject object) {
-        String id = object.getId().toString();
         try {
-            put(id, writeObject(object), cx);
+            return put(object.getId(), writeObject(object), cx);
         } catch (IOException e) {
             throw new RuntimeException("Unable to serialize object: " + object);
         }
-        return true;
     }
 
     @Override
@@ -203,13 +251,42 @@ public abstract class SQLiteObjectDatabase<C> implements ObjectDatabase {
             RevObject obj = objects.next();
             if (put(obj)) {
                 listener.inserted(obj.getId(), null);
+            } else {
+                listener.found(obj.getId(), null);
+            }
+        }
+    }
+
+    /**
+     * Objects are stored uncompressed, so they're compressed on the way out, but not parsed.
+     */
+    @Override
+    public Iterator<RawObject> getRawAll(final Iterable<ObjectId> ids,
+            final BulkOpListener listener) {
+        return new BatchIterator<RawObject>(ids.iterator(), listener) {
+            @Override
+            protected RawObject found(ObjectId id, byte[] bytes) {
+                listener.found(id, bytes.length);
+                return RawObject.compress(id, bytes);
+            }
+        };
+    }
+
+    @Override
+    public void putRawAll(Iterator<RawObject> objects, BulkOpListener listener) {
+        while (objects.hasNext()) {
+            RawObject obj = objects.next();
+            if (put(obj.getId(), new ByteArrayInputStream(obj.decompress()), cx)) {
+                listener.inserted(obj.getId(), null);
+            } else {
+                listener.found(obj.getId(), null);
             }
         }
     }
 
     @Override
     public boolean delete(ObjectId objectId) {
-        return delete(objectId.toString(), cx);
+        return delete(objectId, cx);
     }
 
     @Override
@@ -235,6 +312,52 @@ public abstract class SQLiteObjectDatabase<C> implements ObjectDatabase {
         return new ObjectInserter(this);
     }
 
+    /**
+     * Iterates over the objects of a list of ids, fetching them a batch of
+     * {@link SQLiteObjectDatabase#GET_ALL_BATCH_SIZE} ids at a time and returning them in the order
+     * of the ids. The ids of missing objects are reported to the listener and skipped.
+     */
+    private abstract class BatchIterator<T> extends AbstractIterator<T> {
+
+        private final Iterator<List<ObjectId>> batches;
+
+        private final BulkOpListener listener;
+
+        private Iterator<T> batch = Iterators.emptyIterator();
+
+        BatchIterator(Iterator<ObjectId> ids, BulkOpListener listener) {
+            this.batches = Iterators.partition(ids, GET_ALL_BATCH_SIZE);
+            this.listener = listener;
+        }
+
+        @Override
+        protected T computeNext() {
+            while (!batch.hasNext()) {
+                if (!batches.hasNext()) {
+                    return endOfData();
+                }
+                List<ObjectId> ids = batches.next();
+                Map<ObjectId, byte[]> objects = getAll(ids, cx);
+                List<T> found = Lists.newArrayListWithCapacity(objects.size());
+                for (ObjectId id : ids) {
+                    byte[] bytes = objects.get(id);
+                    if (bytes == null) {
+                        listener.notFound(id);
+                    } else {
+                        found.add(found(id, bytes));
+                    }
+                }
+                batch = found.iterator();
+            }
+            return batch.next();
+        }
+
+        /**
+         * Creates the result for an object that was found, notifying the listener.
+         */
+        protected abstract T found(ObjectId id, byte[] bytes);
+    }
+
     /**
      * Reads object from its binary representation as stored in the database.
      */
@@ -272,11 +395,16 @@ public abstract class SQLiteObjectDatabase<C> implements ObjectDatabase {
      * Creates the object table with the following schema:
      * 
      * <pre>
-     * objects(id:varchar PRIMARY KEY, object:blob)
+     * objects(id:blob PRIMARY KEY, object:blob)
      * </pre>
      * 
+     * where {@code id} holds the 20 bytes of the {@link ObjectId#getRawValue() raw object id}.
+     * Databases created with the former schema, that stored the ids as hex strings, are migrated to
+     * this one.
+     * <p>
      * Implementations of this method should be prepared to be called multiple times, so must check
      * if the table already exists.
+     * </p>
      * 
      * @param cx The connection object.
      */
@@ -285,16 +413,25 @@ public abstract class SQLiteObjectDatabase<C> implements ObjectDatabase {
     /**
      * Determines if the object with the specified id exists.
      */
-    protected abstract boolean has(String id, C cx);
+    protected abstract boolean has(ObjectId id, C cx);
 
     /**
-     * Searches for objects with ids that match the speciifed partial string.
+     * Searches for objects with ids in a range of raw ids.
      * 
-     * @param partialId The partial id.
+     * @param from The raw ids to include start from this one, inclusive.
+     * @param to The raw ids to include end before this one, or <code>null</code> for no upper
+     *        bound.
      * 
      * @return Iterable of matches.
      */
-    protected abstract Iterable<String> search(String partialId, C cx);
+    protected abstract Iterable<ObjectId> search(byte[] from, @Nullable byte[] to, C cx);
+
+    /**
+     * Lists the ids of all objects in the database.
+     * 
+     * @return Iterable of all object ids, in no particular order.
+     */
+    protected abstract Iterable<ObjectId> list(C cx);
 
     /**
      * Retrieves the object with the specified id.
@@ -302,17 +439,26 @@ public abstract class SQLiteObjectDatabase<C> implements ObjectDatabase {
      * Must return <code>null</code> if no such object exists.
      * </p>
      */
-    protected abstract InputStream get(String id, C cx);
+    protected abstract InputStream get(ObjectId id, C cx);
 
     /**
-     * Inserts or updates the object with the specified id.
+     * Retrieves the objects with the specified ids, at most {@link #GET_ALL_BATCH_SIZE} of them.
+     * 
+     * @return The serialized objects found, by id. Ids of objects that don't exist are left out.
+     */
+    protected abstract Map<ObjectId, byte[]> getAll(List<ObjectId> ids, C cx);
+
+    /**
+     * Inserts the object with the specified id, unless it already exists.
+     * 
+     * @return Flag indicating if the object was actually inserted.
      */
-    protected abstract void put(String id, InputStream obj, C cx);
+    protected abstract boolean put(ObjectId id, InputStream obj, C cx);
 
     /**
      * Deletes the object with the specified id.
      * 
      * @return Flag indicating if object was actually removed.
      */
-    protected abstract boolean delete(String id, C cx);
+    protected abstract boolean delete(ObjectId id, C cx);
 }
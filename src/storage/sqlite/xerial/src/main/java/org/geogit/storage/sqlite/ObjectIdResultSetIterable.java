@@ -0,0 +1,48 @@
+/* Copyright (c) 2013 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+package org.geogit.storage.sqlite;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.util.Iterator;
+
+import org.geogit.api.ObjectId;
+
+import com.google.common.collect.AbstractIterator;
+
+/**
+ * Wraps a ResultSet consisting of a single column of raw object ids in an iterable.
+ */
+public class ObjectIdResultSetIterable implements Iterable<ObjectId> {
+
+    ResultSet rs;
+
+    Connection cx;
+
+    ObjectIdResultSetIterable(ResultSet rs, Connection cx) {
+        this.rs = rs;
+        this.cx = cx;
+    }
+
+    @Override
+    public Iterator<ObjectId> iterator() {
+        return new AbstractIterator<ObjectId>() {
+            @Override
+            protected ObjectId computeNext() {
+                try {
+                    if (!rs.next()) {
+                        rs.close();
+                        cx.close();
+                        return endOfData();
+                    }
+
+                    return ObjectId.createNoClone(rs.getBytes(1));
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        };
+    }
+}
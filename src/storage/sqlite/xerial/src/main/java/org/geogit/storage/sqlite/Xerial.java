@@ -4,9 +4,12 @@
  */
 package org.geogit.storage.sqlite;
 
+import static org.geogit.storage.sqlite.XerialSQLiteModule.LOG;
+
 import java.io.File;
 import java.sql.Connection;
 import java.sql.SQLException;
+import java.sql.Statement;
 
 import javax.sql.DataSource;
 
@@ -17,6 +20,7 @@ import org.sqlite.SQLiteConfig;
 import org.sqlite.SQLiteConfig.SynchronousMode;
 import org.sqlite.SQLiteDataSource;
 
+import com.google.common.io.BaseEncoding;
 import com.google.inject.Guice;
 import com.google.inject.Injector;
 import com.google.inject.util.Modules;
@@ -50,7 +54,7 @@ public class Xerial {
      * 
      * @param sql Base sql to log.
      * @param log The logger object.
-     * @param args Optional arguments to the statement.
+     * @param args Optional arguments to the statement, byte arrays are logged as hex strings.
      * 
      * @return The original statement.
      */
@@ -60,7 +64,11 @@ public class Xerial {
             if (args.length > 0) {
                 sb.append(";");
                 for (int i = 0; i < args.length; i++) {
-                    sb.append(i).append("=").append(args[i]).append(", ");
+                    Object arg = args[i];
+                    if (arg instanceof byte[]) {
+                        arg = BaseEncoding.base16().lowerCase().encode((byte[]) arg);
+                    }
+                    sb.append(i).append("=").append(arg).append(", ");
                 }
                 sb.setLength(sb.length() - 2);
             }
@@ -84,6 +92,42 @@ public class Xerial {
         return dataSource;
     }
 
+    /**
+     * Creates a data source that runs the given pragmas on every connection it opens.
+     * <p>
+     * Meant for the pragmas that only apply to the connection they're run on and that the driver
+     * has no setting for, like {@code mmap_size}.
+     * </p>
+     * 
+     * @param db The database file.
+     * @param pragmas The pragmas to run, like {@code "mmap_size = 268435456"}.
+     */
+    public static SQLiteDataSource newDataSource(File db, final String... pragmas) {
+        SQLiteDataSource dataSource = new SQLiteDataSource() {
+            @Override
+            public Connection getConnection() throws SQLException {
+                Connection cx = super.getConnection();
+                try {
+                    Statement st = cx.createStatement();
+                    try {
+                        for (String pragma : pragmas) {
+                            st.execute(log("PRAGMA " + pragma, LOG));
+                        }
+                    } finally {
+                        st.close();
+                    }
+                } catch (SQLException e) {
+                    cx.close();
+                    throw e;
+                }
+                return cx;
+            }
+        };
+        dataSource.setUrl("jdbc:sqlite:" + db.getAbsolutePath());
+        dataSource.setSynchronous(DEFAULT_SYNC_MODE.getValue());
+        return dataSource;
+    }
+
     public static Connection newConnection(DataSource ds) {
         try {
             return ds.getConnection();
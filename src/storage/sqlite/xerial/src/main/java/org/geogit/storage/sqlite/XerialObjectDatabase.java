@@ -4,6 +4,7 @@
  */
 package org.geogit.storage.sqlite;
 
+import static com.google.common.base.Preconditions.checkArgument;
 import static java.lang.String.format;
 import static org.geogit.storage.sqlite.Xerial.log;
 
@@ -15,9 +16,12 @@ import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Statement;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 
+import javax.annotation.Nullable;
 import javax.sql.DataSource;
 
 import org.geogit.api.ObjectId;
@@ -25,16 +29,24 @@ import org.geogit.api.Platform;
 import org.geogit.api.RevObject;
 import org.geogit.storage.BulkOpListener;
 import org.geogit.storage.ConfigDatabase;
+import org.geogit.storage.RawObject;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.google.common.base.Preconditions;
+import com.google.common.base.Strings;
 import com.google.common.collect.Iterators;
+import com.google.common.collect.Maps;
 import com.google.common.io.ByteStreams;
 import com.google.inject.Inject;
 
 /**
  * Object database based on Xerial SQLite jdbc driver.
+ * <p>
+ * The journal mode and the size of the memory mapped I/O of the database can be set with the
+ * {@code sqlite.journalMode} and {@code sqlite.mmapSize} (in megabytes) config keys, and default
+ * to {@code WAL} and 256MB. Memory mapped I/O is only used by SQLite 3.7.17 and later.
+ * </p>
  * 
  * @author Justin Deoliveira, Boundless
  */
@@ -44,10 +56,26 @@ public class XerialObjectDatabase extends SQLiteObjectDatabase<DataSource> {
 
     static final String OBJECTS = "objects";
 
+    /**
+     * Version of the object table schema, kept as the database {@code user_version}. Databases
+     * with no version store the ids as hex strings and are migrated on {@link #init(DataSource)}.
+     */
+    static final int SCHEMA_VERSION = 1;
+
+    static final String JOURNAL_MODE = "sqlite.journalMode";
+
+    static final String MMAP_SIZE = "sqlite.mmapSize";
+
+    static final String DEFAULT_JOURNAL_MODE = "WAL";
+
+    static final long DEFAULT_MMAP_SIZE = 256;
+
     final int partitionSize = 10 * 1000; // TODO make configurable
 
     final String dbName;
 
+    String journalMode;
+
     @Inject
     public XerialObjectDatabase(ConfigDatabase configdb, Platform platform) {
         this(configdb, platform, "objects");
@@ -62,36 +90,164 @@ public class XerialObjectDatabase extends SQLiteObjectDatabase<DataSource> {
 
     @Override
     protected DataSource connect(File geogitDir) {
-        return Xerial.newDataSource(new File(geogitDir, dbName + ".db"));
+        journalMode = configdb.get(JOURNAL_MODE).or(DEFAULT_JOURNAL_MODE);
+        checkArgument(journalMode.matches("[a-zA-Z]+"), "Invalid %s: %s", JOURNAL_MODE,
+                journalMode);
+        String mmapSizeValue = configdb.get(MMAP_SIZE).or(String.valueOf(DEFAULT_MMAP_SIZE));
+        checkArgument(mmapSizeValue.matches("[0-9]{1,9}"), "Invalid %s, expected megabytes: %s",
+                MMAP_SIZE, mmapSizeValue);
+        long mmapSize = Long.parseLong(mmapSizeValue);
+
+        return Xerial.newDataSource(new File(geogitDir, dbName + ".db"), "mmap_size = "
+                + (mmapSize * 1024 * 1024));
     }
 
     @Override
     protected void close(DataSource ds) {
     }
 
+    /**
+     * Sets the journal mode and creates the object table, migrating the one of the former schema
+     * if there is one.
+     * <p>
+     * The migration runs in a single transaction, so an interrupted migration leaves the former
+     * table as it was.
+     * </p>
+     */
     @Override
     public void init(DataSource ds) {
         new DbOp<Void>() {
             @Override
             protected Void doRun(Connection cx) throws SQLException {
-                String sql = format(
-                        "CREATE TABLE IF NOT EXISTS %s (id varchar PRIMARY KEY, object blob)",
-                        OBJECTS);
-                open(cx.createStatement()).execute(log(sql, LOG));
+                // the journal mode can't be changed within a transaction
+                String sql = format("PRAGMA journal_mode = %s", journalMode);
+                open(open(cx.createStatement()).executeQuery(log(sql, LOG)));
+                return null;
+            }
+        }.run(ds);
+
+        new DbOp<Void>() {
+            @Override
+            protected boolean isAutoCommit() {
+                return false;
+            }
+
+            @Override
+            protected Void doRun(Connection cx) throws SQLException {
+                boolean committed = false;
+                try {
+                    Statement st = open(cx.createStatement());
+                    if (queryInt("PRAGMA user_version", cx) < SCHEMA_VERSION) {
+                        String sql = format("SELECT count(*) FROM sqlite_master "
+                                + "WHERE type = 'table' AND name = '%s'", OBJECTS);
+                        final boolean migrate = queryInt(sql, cx) > 0;
+                        if (migrate) {
+                            sql = format("ALTER TABLE %s RENAME TO %s_0", OBJECTS, OBJECTS);
+                            st.execute(log(sql, LOG));
+                        }
+                        sql = format("CREATE TABLE %s (id blob PRIMARY KEY, object blob)%s",
+                                OBJECTS, supportsWithoutRowid(cx) ? " WITHOUT ROWID" : "");
+                        st.execute(log(sql, LOG));
+                        if (migrate) {
+                            migrate(OBJECTS + "_0", cx);
+                            st.execute(log(format("DROP TABLE %s_0", OBJECTS), LOG));
+                        }
+                        sql = format("PRAGMA user_version = %d", SCHEMA_VERSION);
+                        st.execute(log(sql, LOG));
+                    }
+                    cx.commit();
+                    committed = true;
+                } finally {
+                    if (!committed) {
+                        rollback(cx);
+                    }
+                }
                 return null;
             }
+
+            /**
+             * Runs a query for a single number, closing the statement right away since no table
+             * can be dropped while there are statements running.
+             */
+            int queryInt(String sql, Connection cx) throws SQLException {
+                Statement st = cx.createStatement();
+                try {
+                    ResultSet rs = st.executeQuery(log(sql, LOG));
+                    return rs.next() ? rs.getInt(1) : 0;
+                } finally {
+                    st.close();
+                }
+            }
+
+            /**
+             * Copies the objects of a table of the former schema, converting their ids from hex
+             * strings to raw ids.
+             */
+            void migrate(String from, Connection cx) throws SQLException {
+                String sql = format("INSERT OR IGNORE INTO %s (id,object) VALUES (?,?)", OBJECTS);
+                PreparedStatement insert = open(cx.prepareStatement(log(sql, LOG)));
+
+                sql = format("SELECT id, object FROM %s", from);
+                Statement select = cx.createStatement();
+                try {
+                    ResultSet rs = select.executeQuery(log(sql, LOG));
+                    int pending = 0;
+                    while (rs.next()) {
+                        insert.setBytes(1, ObjectId.toRaw(rs.getString(1)));
+                        insert.setBytes(2, rs.getBytes(2));
+                        insert.addBatch();
+                        if (++pending == partitionSize) {
+                            insert.executeBatch();
+                            pending = 0;
+                        }
+                    }
+                    if (pending > 0) {
+                        insert.executeBatch();
+                    }
+                } finally {
+                    // the table can't be dropped while it's being read
+                    select.close();
+                }
+            }
+
+            void rollback(Connection cx) {
+                try {
+                    cx.rollback();
+                } catch (SQLException e) {
+                    LOG.debug("error rolling back object table migration", e);
+                }
+            }
         }.run(ds);
     }
 
+    /**
+     * Tables without a rowid, that store the rows in the primary key index instead of keeping the
+     * key twice, need SQLite 3.8.2 or later.
+     */
+    static boolean supportsWithoutRowid(Connection cx) throws SQLException {
+        Statement st = cx.createStatement();
+        try {
+            ResultSet rs = st.executeQuery("SELECT sqlite_version()");
+            rs.next();
+            String[] version = rs.getString(1).split("\\.");
+            int major = Integer.parseInt(version[0]);
+            int minor = version.length > 1 ? Integer.parseInt(version[1]) : 0;
+            int patch = version.length > 2 ? Integer.parseInt(version[2]) : 0;
+            return major > 3 || (major == 3 && (minor > 8 || (minor == 8 && patch >= 2)));
+        } finally {
+            st.close();
+        }
+    }
+
     @Override
-    public boolean has(final String id, DataSource ds) {
+    public boolean has(final ObjectId id, DataSource ds) {
         return new DbOp<Boolean>() {
             @Override
             protected Boolean doRun(Connection cx) throws SQLException {
                 String sql = format("SELECT count(*) FROM %s WHERE id = ?", OBJECTS);
 
                 PreparedStatement ps = open(cx.prepareStatement(log(sql, LOG, id)));
-                ps.setString(1, id);
+                ps.setBytes(1, id.getRawValue());
 
                 ResultSet rs = open(ps.executeQuery());
                 rs.next();
@@ -102,28 +258,49 @@ public class XerialObjectDatabase extends SQLiteObjectDatabase<DataSource> {
     }
 
     @Override
-    public Iterable<String> search(final String partialId, DataSource ds) {
+    public Iterable<ObjectId> search(final byte[] from, @Nullable final byte[] to, DataSource ds) {
         Connection cx = Xerial.newConnection(ds);
         final ResultSet rs = new DbOp<ResultSet>() {
             @Override
             protected ResultSet doRun(Connection cx) throws SQLException {
-                String sql = format("SELECT id FROM %s WHERE id LIKE '%%%s%%'", OBJECTS, partialId);
+                String sql = format("SELECT id FROM %s WHERE id >= ?%s", OBJECTS,
+                        to == null ? "" : " AND id < ?");
+
+                PreparedStatement ps = cx.prepareStatement(log(sql, LOG, from, to));
+                ps.setBytes(1, from);
+                if (to != null) {
+                    ps.setBytes(2, to);
+                }
+                return ps.executeQuery();
+            }
+        }.run(cx);
+
+        return new ObjectIdResultSetIterable(rs, cx);
+    }
+
+    @Override
+    public Iterable<ObjectId> list(DataSource ds) {
+        Connection cx = Xerial.newConnection(ds);
+        final ResultSet rs = new DbOp<ResultSet>() {
+            @Override
+            protected ResultSet doRun(Connection cx) throws SQLException {
+                String sql = format("SELECT id FROM %s", OBJECTS);
                 return cx.createStatement().executeQuery(log(sql, LOG));
             }
         }.run(cx);
 
-        return new StringResultSetIterable(rs, cx);
+        return new ObjectIdResultSetIterable(rs, cx);
     }
 
     @Override
-    public InputStream get(final String id, DataSource ds) {
+    public InputStream get(final ObjectId id, DataSource ds) {
         return new DbOp<InputStream>() {
             @Override
             protected InputStream doRun(Connection cx) throws SQLException {
                 String sql = format("SELECT object FROM %s WHERE id = ?", OBJECTS);
 
                 PreparedStatement ps = open(cx.prepareStatement(log(sql, LOG, id)));
-                ps.setString(1, id);
+                ps.setBytes(1, id.getRawValue());
 
                 ResultSet rs = open(ps.executeQuery());
                 if (!rs.next()) {
@@ -137,31 +314,53 @@ public class XerialObjectDatabase extends SQLiteObjectDatabase<DataSource> {
     }
 
     @Override
-    public void put(final String id, final InputStream obj, DataSource ds) {
-        new DbOp<Void>() {
+    public Map<ObjectId, byte[]> getAll(final List<ObjectId> ids, DataSource ds) {
+        return new DbOp<Map<ObjectId, byte[]>>() {
             @Override
-            protected Void doRun(Connection cx) throws SQLException, IOException {
+            protected Map<ObjectId, byte[]> doRun(Connection cx) throws SQLException {
+                String params = Strings.repeat(",?", ids.size()).substring(1);
+                String sql = format("SELECT id, object FROM %s WHERE id IN (%s)", OBJECTS, params);
+
+                PreparedStatement ps = open(cx.prepareStatement(log(sql, LOG, ids.toArray())));
+                for (int i = 0; i < ids.size(); i++) {
+                    ps.setBytes(i + 1, ids.get(i).getRawValue());
+                }
+
+                Map<ObjectId, byte[]> objects = Maps.newHashMapWithExpectedSize(ids.size());
+                ResultSet rs = open(ps.executeQuery());
+                while (rs.next()) {
+                    objects.put(ObjectId.createNoClone(rs.getBytes(1)), rs.getBytes(2));
+                }
+                return objects;
+            }
+        }.run(ds);
+    }
+
+    @Override
+    public boolean put(final ObjectId id, final InputStream obj, DataSource ds) {
+        return new DbOp<Boolean>() {
+            @Override
+            protected Boolean doRun(Connection cx) throws SQLException, IOException {
                 String sql = format("INSERT OR IGNORE INTO %s (id,object) VALUES (?,?)", OBJECTS);
 
                 PreparedStatement ps = open(cx.prepareStatement(log(sql, LOG, id, obj)));
-                ps.setString(1, id);
+                ps.setBytes(1, id.getRawValue());
                 ps.setBytes(2, ByteStreams.toByteArray(obj));
-                ps.executeUpdate();
 
-                return null;
+                return ps.executeUpdate() > 0;
             }
         }.run(ds);
     }
 
     @Override
-    public boolean delete(final String id, DataSource ds) {
+    public boolean delete(final ObjectId id, DataSource ds) {
         return new DbOp<Boolean>() {
             @Override
             protected Boolean doRun(Connection cx) throws SQLException {
                 String sql = format("DELETE FROM %s WHERE id = ?", OBJECTS);
 
                 PreparedStatement ps = open(cx.prepareStatement(log(sql, LOG, id)));
-                ps.setString(1, id);
+                ps.setBytes(1, id.getRawValue());
 
                 return ps.executeUpdate() > 0;
             }
@@ -194,7 +393,7 @@ public class XerialObjectDatabase extends SQLiteObjectDatabase<DataSource> {
                     List<? extends RevObject> objs = it.next();
                     for (RevObject obj : objs) {
                         stmt.setBytes(1, ByteStreams.toByteArray(writeObject(obj)));
-                        stmt.setString(2, obj.getId().toString());
+                        stmt.setBytes(2, obj.getId().getRawValue());
                         stmt.addBatch();
                     }
 
@@ -208,10 +407,55 @@ public class XerialObjectDatabase extends SQLiteObjectDatabase<DataSource> {
         }.run(cx);
     }
 
+    /**
+     * Override to optimize batch insert, objects are only decompressed.
+     */
+    @Override
+    public void putRawAll(final Iterator<RawObject> objects, final BulkOpListener listener) {
+        Preconditions.checkState(isOpen(), "No open database connection");
+        new DbOp<Void>() {
+            @Override
+            protected boolean isAutoCommit() {
+                return false;
+            }
+
+            @Override
+            protected Void doRun(Connection cx) throws SQLException, IOException {
+                String sql = format("INSERT OR IGNORE INTO %s (object,id) VALUES (?,?)", OBJECTS);
+                PreparedStatement stmt = open(cx.prepareStatement(log(sql, LOG)));
+
+                Iterator<List<RawObject>> it = Iterators.partition(objects, partitionSize);
+                while (it.hasNext()) {
+                    List<RawObject> objs = it.next();
+                    for (RawObject obj : objs) {
+                        stmt.setBytes(1, obj.decompress());
+                        stmt.setBytes(2, obj.getId().getRawValue());
+                        stmt.addBatch();
+                    }
+
+                    int[] inserted = stmt.executeBatch();
+                    for (int i = 0; i < inserted.length; i++) {
+                        if (inserted[i] > 0) {
+                            listener.inserted(objs.get(i).getId(), null);
+                        } else {
+                            listener.found(objs.get(i).getId(), null);
+                        }
+                    }
+                    stmt.clearParameters();
+                }
+                cx.commit();
+
+                return null;
+            }
+        }.run(cx);
+    }
+
     void notifyInserted(int[] inserted, List<? extends RevObject> objects, BulkOpListener listener) {
         for (int i = 0; i < inserted.length; i++) {
             if (inserted[i] > 0) {
                 listener.inserted(objects.get(i).getId(), null);
+            } else {
+                listener.found(objects.get(i).getId(), null);
             }
         }
     }
@@ -241,7 +485,7 @@ public class XerialObjectDatabase extends SQLiteObjectDatabase<DataSource> {
                 while (it.hasNext()) {
                     List<ObjectId> l = it.next();
                     for (ObjectId id : l) {
-                        stmt.setString(1, id.toString());
+                        stmt.setBytes(1, id.getRawValue());
                         stmt.addBatch();
                     }
 
@@ -0,0 +1,232 @@
+/* Copyright (c) 2013 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+package org.geogit.test.integration.sqlite;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.Statement;
+import java.util.Iterator;
+import java.util.List;
+
+import org.geogit.api.ObjectId;
+import org.geogit.api.RevFeature;
+import org.geogit.api.RevObject;
+import org.geogit.api.TestPlatform;
+import org.geogit.storage.BulkOpListener;
+import org.geogit.storage.BulkOpListener.CountingListener;
+import org.geogit.storage.ConfigDatabase;
+import org.geogit.storage.RawObject;
+import org.geogit.storage.datastream.DataStreamSerializationFactory;
+import org.geogit.storage.fs.IniFileConfigDatabase;
+import org.geogit.storage.sqlite.Xerial;
+import org.geogit.storage.sqlite.XerialObjectDatabase;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+
+public class XerialObjectDatabaseTest extends Assert {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private TestPlatform platform;
+
+    private File geogitDir;
+
+    private XerialObjectDatabase db;
+
+    @Before
+    public void setUp() {
+        File root = folder.getRoot();
+        geogitDir = folder.newFolder(".geogit");
+        File home = folder.newFolder("home");
+        platform = new TestPlatform(root);
+        platform.setUserHome(home);
+        Xerial.turnSynchronizationOff();
+    }
+
+    @After
+    public void tearDown() {
+        if (db != null) {
+            db.close();
+        }
+    }
+
+    private XerialObjectDatabase createDb() {
+        ConfigDatabase configDB = new IniFileConfigDatabase(platform);
+        XerialObjectDatabase db = new XerialObjectDatabase(configDB, platform);
+        db.open();
+        return db;
+    }
+
+    private List<RevObject> createObjects(int count) {
+        List<RevObject> objects = Lists.newArrayListWithCapacity(count);
+        for (int i = 0; i < count; i++) {
+            ImmutableList<Optional<Object>> values = ImmutableList.of(Optional
+                    .<Object> of("value " + i));
+            objects.add(RevFeature.build(values));
+        }
+        return objects;
+    }
+
+    private List<ObjectId> ids(List<RevObject> objects) {
+        List<ObjectId> ids = Lists.newArrayListWithCapacity(objects.size());
+        for (RevObject o : objects) {
+            ids.add(o.getId());
+        }
+        return ids;
+    }
+
+    private void assertLookUp(List<ObjectId> ids, String partialId) {
+        List<ObjectId> expected = Lists.newArrayList();
+        for (ObjectId id : ids) {
+            if (id.toString().startsWith(partialId)) {
+                expected.add(id);
+            }
+        }
+        assertFalse(expected.isEmpty());
+        assertEquals(ImmutableSet.copyOf(expected), ImmutableSet.copyOf(db.lookUp(partialId)));
+    }
+
+    @Test
+    public void testInvalidMmapSize() {
+        ConfigDatabase configDB = new IniFileConfigDatabase(platform);
+        configDB.put("sqlite.mmapSize", "lots");
+        XerialObjectDatabase db = new XerialObjectDatabase(configDB, platform);
+        try {
+            db.open();
+            fail("expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("sqlite.mmapSize"));
+        }
+    }
+
+    @Test
+    public void testGetAllKeepsOrder() {
+        db = createDb();
+        List<RevObject> objects = createObjects(1200);
+        CountingListener listener = BulkOpListener.newCountingListener();
+        db.putAll(objects.iterator(), listener);
+        assertEquals(1200, listener.inserted());
+
+        // more ids than fetched in a single query, with missing ones in between
+        List<ObjectId> ids = Lists.newArrayList(ids(objects));
+        ids.add(0, ObjectId.forString("missing 1"));
+        ids.add(700, ObjectId.forString("missing 2"));
+
+        listener = BulkOpListener.newCountingListener();
+        Iterator<RevObject> all = db.getAll(ids, listener);
+        assertEquals(objects, Lists.newArrayList(all));
+        assertEquals(1200, listener.found());
+        assertEquals(2, listener.notFound());
+
+        listener = BulkOpListener.newCountingListener();
+        assertEquals(1200, Lists.newArrayList(db.getRawAll(ids, listener)).size());
+        assertEquals(1200, listener.found());
+        assertEquals(2, listener.notFound());
+    }
+
+    @Test
+    public void testLookUp() {
+        db = createDb();
+        List<RevObject> objects = createObjects(500);
+        db.putAll(objects.iterator());
+
+        List<ObjectId> ids = ids(objects);
+        for (ObjectId id : ids.subList(0, 10)) {
+            String hex = id.toString();
+            assertLookUp(ids, hex.substring(0, 1));
+            assertLookUp(ids, hex.substring(0, 2));
+            assertLookUp(ids, hex.substring(0, 7));
+            assertEquals(ImmutableList.of(id), db.lookUp(hex));
+        }
+        assertTrue(db.lookUp("ffffffff").isEmpty());
+        assertEquals(500, db.lookUp("").size());
+        assertEquals(ImmutableSet.copyOf(ids), ImmutableSet.copyOf(db.listIds()));
+    }
+
+    @Test
+    public void testMigrateHexIds() throws Exception {
+        List<RevObject> objects = createObjects(100);
+        // an object table as created before ids were stored as raw bytes
+        Connection cx = Xerial.newConnection(Xerial.newDataSource(new File(geogitDir,
+                "objects.db")));
+        try {
+            Statement st = cx.createStatement();
+            st.execute("CREATE TABLE objects (id varchar PRIMARY KEY, object blob)");
+            st.close();
+            PreparedStatement ps = cx.prepareStatement("INSERT INTO objects VALUES (?,?)");
+            for (RevObject o : objects) {
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                DataStreamSerializationFactory.INSTANCE.createObjectWriter(o.getType()).write(o,
+                        out);
+                ps.setString(1, o.getId().toString());
+                ps.setBytes(2, out.toByteArray());
+                ps.executeUpdate();
+            }
+            ps.close();
+        } finally {
+            cx.close();
+        }
+
+        db = createDb();
+        for (RevObject o : objects) {
+            assertTrue(db.exists(o.getId()));
+            assertEquals(o, db.get(o.getId()));
+        }
+        ObjectId id = objects.get(0).getId();
+        assertEquals(ImmutableList.of(id), db.lookUp(id.toString().substring(0, 10)));
+
+        db.close();
+        db = createDb();
+        assertEquals(ImmutableSet.copyOf(ids(objects)), ImmutableSet.copyOf(db.listIds()));
+    }
+
+    @Test
+    public void testDeleteAll() {
+        db = createDb();
+        List<RevObject> objects = createObjects(100);
+        db.putAll(objects.iterator());
+        List<ObjectId> ids = ids(objects);
+        assertEquals(50, db.deleteAll(ids.subList(0, 50).iterator()));
+        assertFalse(db.exists(ids.get(0)));
+        assertTrue(db.exists(ids.get(50)));
+    }
+
+    @Test
+    public void testPutReportsInsertedAndFound() {
+        db = createDb();
+        List<RevObject> objects = createObjects(150);
+        assertTrue(db.put(objects.get(0)));
+        assertFalse(db.put(objects.get(0)));
+
+        CountingListener listener = BulkOpListener.newCountingListener();
+        db.putAll(objects.subList(0, 100).iterator(), listener);
+        assertEquals(99, listener.inserted());
+        assertEquals(1, listener.found());
+
+        listener = BulkOpListener.newCountingListener();
+        db.putAll(objects.iterator(), listener);
+        assertEquals(50, listener.inserted());
+        assertEquals(100, listener.found());
+
+        List<RawObject> raw = Lists.newArrayList(db.getRawAll(ids(objects),
+                BulkOpListener.NOOP_LISTENER));
+        listener = BulkOpListener.newCountingListener();
+        db.putRawAll(raw.iterator(), listener);
+        assertEquals(0, listener.inserted());
+        assertEquals(150, listener.found());
+    }
+}
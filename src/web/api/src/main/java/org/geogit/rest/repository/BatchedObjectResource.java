@@ -38,6 +38,10 @@ import com.google.gson.JsonParser;
 
 /**
  * Takes a set of commit Ids and packs up their contents into a binary stream to send to the client.
+ * <p>
+ * Clients asking for {@code "protocol": 2} or higher in the request get all the objects in a single
+ * {@link BinaryPackedObjects#writeStream version 2} stream, otherwise a batch of commits in the
+ * original format.
  */
 public class BatchedObjectResource extends Finder {
 
@@ -75,6 +79,7 @@ public class BatchedObjectResource extends Finder {
 
             final List<ObjectId> want = new ArrayList<ObjectId>();
             final List<ObjectId> have = new ArrayList<ObjectId>();
+            int protocol = 1;
 
             if (messageJson.isJsonObject()) {
                 final JsonObject message = messageJson.getAsJsonObject();
@@ -100,7 +105,11 @@ public class BatchedObjectResource extends Finder {
                         have.add(ObjectId.valueOf(e.getAsJsonPrimitive().getAsString()));
                     }
                 }
+                if (message.has("protocol") && message.get("protocol").isJsonPrimitive()) {
+                    protocol = message.get("protocol").getAsInt();
+                }
             }
+            final boolean streaming = protocol >= BinaryPackedObjects.PROTOCOL_VERSION;
 
             final GeoGIT ggit = getGeogit(getRequest()).get();
             final Repository repository = ggit.getRepository();
@@ -108,7 +117,8 @@ public class BatchedObjectResource extends Finder {
 
             BinaryPackedObjects packer = new BinaryPackedObjects(repository.getIndex()
                     .getDatabase());
-            getResponse().setEntity(new RevObjectBinaryRepresentation(packer, want, have, deduplicator));
+            getResponse().setEntity(
+                    new RevObjectBinaryRepresentation(packer, want, have, deduplicator, streaming));
         }
     }
 
@@ -121,23 +131,36 @@ public class BatchedObjectResource extends Finder {
 
 		private Deduplicator deduplicator;
 
+        /**
+         * Whether to send a single version 2 pack stream instead of a batch of commits
+         */
+        private final boolean streaming;
+
         public RevObjectBinaryRepresentation( //
                 BinaryPackedObjects packer, //
                 List<ObjectId> want, //
                 List<ObjectId> have, //
-                Deduplicator deduplicator) //
+                Deduplicator deduplicator, //
+                boolean streaming) //
         {
             super(MediaType.APPLICATION_OCTET_STREAM);
             this.packer = packer;
             this.want = want;
             this.have = have;
             this.deduplicator = deduplicator;
+            this.streaming = streaming;
         }
 
         @Override
         public void write(OutputStream out) throws IOException {
         	try {
-        		packer.write(out, want, have, false, deduplicator);
+                if (streaming) {
+                    packer.writeStream(out, want, have, BinaryPackedObjects.noOpCallback(),
+                            false, deduplicator);
+                    out.flush();
+                } else {
+                    packer.write(out, want, have, false, deduplicator);
+                }
                 } catch (IOException e) {
                     e.printStackTrace();
                     throw e;
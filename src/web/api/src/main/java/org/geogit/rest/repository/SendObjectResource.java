@@ -7,19 +7,29 @@ package org.geogit.rest.repository;
 
 import static org.geogit.rest.repository.RESTUtils.getGeogit;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.PushbackInputStream;
 
 import org.geogit.api.GeoGIT;
 import org.geogit.remote.BinaryPackedObjects;
+import org.restlet.data.MediaType;
 import org.restlet.data.Status;
 import org.restlet.resource.Representation;
 import org.restlet.resource.Resource;
+import org.restlet.resource.StringRepresentation;
 
 import com.google.common.io.Closeables;
 
 /**
- *
+ * Receives the objects pushed by a client.
+ * <p>
+ * Requests with a {@code protocol=2} or higher query parameter may send a
+ * {@link BinaryPackedObjects#ingestStream version 2} pack stream, and are answered with
+ * {@code protocol=2} so that clients can tell this server supports it; an empty request is used
+ * by clients as such a probe. Other requests are read as a batch of objects in the original
+ * format, as are requests whose {@code protocol} is not a number.
  */
 public class SendObjectResource extends Resource {
 
@@ -33,11 +43,32 @@ public class SendObjectResource extends Resource {
         InputStream input = null;
 
         try {
-            input = getRequest().getEntity().getStream();
+            final Representation body = getRequest().getEntity();
+            input = body == null ? null : body.getStream();
+            if (input == null) {
+                // negotiation probes have no body
+                input = new ByteArrayInputStream(new byte[0]);
+            }
             final GeoGIT ggit = getGeogit(getRequest()).get();
             final BinaryPackedObjects unpacker = new BinaryPackedObjects(ggit.getRepository()
                     .getObjectDatabase());
-            unpacker.ingest(input);
+            final String protocol = getRequest().getResourceRef().getQueryAsForm()
+                    .getFirstValue("protocol", "1");
+            if (protocolVersion(protocol) >= BinaryPackedObjects.PROTOCOL_VERSION) {
+                final PushbackInputStream in = BinaryPackedObjects.pushbackStream(input);
+                if (BinaryPackedObjects.isStreamHeader(in)) {
+                    unpacker.ingestStream(in, BinaryPackedObjects.noOpCallback(),
+                            BinaryPackedObjects.noOpCallback());
+                } else {
+                    unpacker.ingest(in);
+                }
+                getResponse().setEntity(
+                        new StringRepresentation("protocol="
+                                + BinaryPackedObjects.PROTOCOL_VERSION + "\n",
+                                MediaType.TEXT_PLAIN));
+            } else {
+                unpacker.ingest(input);
+            }
 
         } catch (IOException e) {
             throw new RestletException(e.getMessage(), Status.SERVER_ERROR_INTERNAL, e);
@@ -46,4 +77,15 @@ public class SendObjectResource extends Resource {
                 Closeables.closeQuietly(input);
         }
     }
+
+    /**
+     * @return the protocol version requested by the client, or {@code 1} if it's not a number
+     */
+    private static int protocolVersion(final String protocol) {
+        try {
+            return Integer.parseInt(protocol.trim());
+        } catch (NumberFormatException e) {
+            return 1;
+        }
+    }
 }
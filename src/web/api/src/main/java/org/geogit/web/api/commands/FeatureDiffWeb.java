@@ -188,9 +188,8 @@ public class FeatureDiffWeb extends AbstractWebAPICommand {
         if (removed) {
             Map<PropertyDescriptor, AttributeDiff> tempDiffs = new HashMap<PropertyDescriptor, AttributeDiff>();
             ImmutableList<PropertyDescriptor> attributes = oldFeatureType.sortedDescriptors();
-            ImmutableList<Optional<Object>> values = oldFeature.getValues();
             for (int index = 0; index < attributes.size(); index++) {
-                Optional<Object> value = values.get(index);
+                Optional<Object> value = oldFeature.get(index);
                 if (Geometry.class.isAssignableFrom(attributes.get(index).getType().getBinding())) {
                     Optional<Geometry> temp = Optional.absent();
                     if (value.isPresent() || all) {
@@ -210,9 +209,8 @@ public class FeatureDiffWeb extends AbstractWebAPICommand {
         } else if (added) {
             Map<PropertyDescriptor, AttributeDiff> tempDiffs = new HashMap<PropertyDescriptor, AttributeDiff>();
             ImmutableList<PropertyDescriptor> attributes = newFeatureType.sortedDescriptors();
-            ImmutableList<Optional<Object>> values = newFeature.getValues();
             for (int index = 0; index < attributes.size(); index++) {
-                Optional<Object> value = values.get(index);
+                Optional<Object> value = newFeature.get(index);
                 if (Geometry.class.isAssignableFrom(attributes.get(index).getType().getBinding())) {
                     Optional<Geometry> temp = Optional.absent();
                     if (value.isPresent() || all) {
@@ -100,7 +100,7 @@ public class PullWebOp extends AbstractWebAPICommand {
 
         PullOp command = geogit.command(PullOp.class)
                 .setAuthor(authorName.orNull(), authorEmail.orNull()).setRemote(remoteName)
-                .setAll(fetchAll).addRefSpec(refSpec);
+                .setAll(fetchAll).addRefSpec(refSpec).setReportMergeScenario(true);
         try {
             final PullResult result = command.call();
             final Iterator<DiffEntry> iter;
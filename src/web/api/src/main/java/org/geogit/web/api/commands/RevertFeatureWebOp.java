@@ -211,6 +211,7 @@ public class RevertFeatureWebOp extends AbstractWebAPICommand {
 
         MergeOp merge = geogit.command(MergeOp.class);
         merge.setAuthor(authorName.orNull(), authorEmail.orNull());
+        merge.setReportMergeScenario(true);
         merge.addCommit(Suppliers.ofInstance(mapped.getId()));
         merge.setMessage(mergeMessage.or("Merged revert of " + featurePath));
 